@@ -24,7 +24,7 @@ public enum Msg implements NameHolder {
     // Tool arguments
     arg_hash, arg_input("i"), arg_links("l"), arg_out("o"), arg_pbb("p"), arg_pub("p"), //
     arg_revoke("r"), arg_seed("s"), arg_storage("s"), arg_signaturepub, arg_threads("t"), //
-    arg_input_bb, arg_output_bb, arg_protinfo, arg_proofdir, arg_threaded, //
+    arg_input_bb, arg_output_bb, arg_protinfo, arg_proofdir, arg_threaded, arg_batch, //
 
     // Messages
     m_pub_loading, m_pub_loaded, m_failurecount, m_verify_start, m_verify_finish, //
@@ -16,8 +16,9 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.file.Path;
+import java.util.Arrays;
 import javax.xml.bind.DatatypeConverter;
-import org.bouncycastle.util.Arrays;
+import org.bouncycastle.math.ec.ECPoint;
 
 /**
  * ByteTree decodes the ByteTree (BT) format as defined in Verificatum user manual.
@@ -39,6 +40,16 @@ public class ByteTree {
         // Overridden
     }
 
+    /**
+     * Encode into the array at offset, which must have room for the encoding.
+     *
+     * @return The offset after the encoding.
+     */
+    int encodeTo(byte[] dst, int offset) {
+        // Overridden
+        return offset;
+    }
+
     public boolean isLeaf() {
         return false;
     }
@@ -56,6 +67,49 @@ public class ByteTree {
         return toString(0);
     }
 
+    /**
+     * Get the ByteTree representation of a group element. Elements of integers modulo a prime are
+     * leaves, elliptic curve points are nodes of the affine coordinates and product group elements
+     * are nodes of their components.
+     *
+     * @param element
+     * @return
+     */
+    public static ByteTree of(GroupElement element) {
+        if (element instanceof ProductGroupElement) {
+            return new Node((ProductGroupElement) element);
+        }
+        if (element instanceof ECGroupElement) {
+            return Node.of((ECGroupElement) element);
+        }
+        return new Leaf(element);
+    }
+
+    /**
+     * Get the ByteTree representations of the elements from {@code from} (inclusive) to {@code to}
+     * (exclusive). Elliptic curve points are normalized together.
+     *
+     * @see #of(GroupElement)
+     *
+     * @param elements
+     * @param from
+     * @param to
+     * @return
+     */
+    public static ByteTree[] of(GroupElement[] elements, int from, int to) {
+        GroupElement[] els = Arrays.copyOfRange(elements, from, to);
+        if (els.length > 0 && els[0] instanceof ECGroupElement) {
+            ECGroupElement[] points = new ECGroupElement[els.length];
+            System.arraycopy(els, 0, points, 0, els.length);
+            els = ECGroupElement.normalizeAll(points);
+        }
+        ByteTree[] res = new ByteTree[els.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = of(els[i]);
+        }
+        return res;
+    }
+
     /**
      * Node is a recursive object in a ByteTree which consists of an array of nodes and leafs.
      */
@@ -91,14 +145,7 @@ public class ByteTree {
          * @param elements Array of GroupElements
          */
         public Node(GroupElement[] elements) {
-            nodes = new ByteTree[elements.length];
-            for (int i = 0; i < nodes.length; i++) {
-                if (elements[i] instanceof ProductGroupElement) {
-                    nodes[i] = new Node((ProductGroupElement) elements[i]);
-                } else {
-                    nodes[i] = new Leaf(elements[i]);
-                }
-            }
+            nodes = ByteTree.of(elements, 0, elements.length);
         }
 
         /**
@@ -107,15 +154,28 @@ public class ByteTree {
          * @param element A ProductGroupElement element
          */
         public Node(ProductGroupElement element) {
-            nodes = new ByteTree[element.getElements().length];
-            for (int i = 0; i < nodes.length; i++) {
-                GroupElement ge = element.getElements()[i];
-                if (ge instanceof ProductGroupElement) {
-                    nodes[i] = new Node((ProductGroupElement) ge);
-                } else {
-                    nodes[i] = new Leaf(ge);
-                }
+            this(element.getElements());
+        }
+
+        /**
+         * Initialize Node from an elliptic curve point.
+         * <p>
+         * The node consists of the leaves of the affine coordinates of the point, encoded as
+         * fixed-length integers. The point at infinity is represented by the coordinates (-1, -1),
+         * as in Verificatum.
+         *
+         * @param element An ECGroupElement element
+         * @return
+         */
+        static Node of(ECGroupElement element) {
+            ECPoint p = element.getAffinePoint();
+            int len = element.getGroup().getFieldOrder().toByteArray().length;
+            if (p.isInfinity()) {
+                BigInteger minusOne = BigInteger.ONE.negate();
+                return new Node(new ByteTree[] {new Leaf(minusOne, len), new Leaf(minusOne, len)});
             }
+            return new Node(new ByteTree[] {new Leaf(p.getAffineXCoord().toBigInteger(), len),
+                    new Leaf(p.getAffineYCoord().toBigInteger(), len)});
         }
 
         /**
@@ -159,17 +219,24 @@ public class ByteTree {
         @Override
         public byte[] getEncoded() {
             byte[] ret = new byte[getEncodedLength()];
-            ret[0] = PREFIX;
-            System.arraycopy(ByteTree.parse_from_int(getLength()), 0, ret, 1, 4);
-            int pt = 5;
-            for (int i = 0; i < getLength(); i++) {
-                byte[] enc = getNodes()[i].getEncoded();
-                System.arraycopy(enc, 0, ret, pt, enc.length);
-                pt += enc.length;
-            }
+            encodeTo(ret, 0);
             return ret;
         }
 
+        /**
+         * Encode the Node and its children into the array without intermediate copies.
+         */
+        @Override
+        int encodeTo(byte[] dst, int offset) {
+            dst[offset] = PREFIX;
+            System.arraycopy(ByteTree.parse_from_int(getLength()), 0, dst, offset + 1, 4);
+            int pt = offset + 5;
+            for (ByteTree n : nodes) {
+                pt = n.encodeTo(dst, pt);
+            }
+            return pt;
+        }
+
         /**
          * Encode the Node and write it to out.
          *
@@ -178,8 +245,7 @@ public class ByteTree {
          */
         @Override
         public void writeEncoded(OutputStream out) throws IOException {
-            out.write(PREFIX);
-            out.write(ByteTree.parse_from_int(getLength()));
+            writeNodeHeader(out, getLength());
             for (int i = 0; i < getLength(); i++) {
                 getNodes()[i].writeEncoded(out);
             }
@@ -299,6 +365,21 @@ public class ByteTree {
             this.value = value.toByteArray();
         }
 
+        /**
+         * Initialize Leaf from an integer as a two's complement of fixed length.
+         *
+         * @param value
+         * @param len The length in bytes, must fit the value.
+         */
+        Leaf(BigInteger value, int len) {
+            byte[] bvalue = value.toByteArray();
+            this.value = new byte[len];
+            if (value.signum() < 0) {
+                Arrays.fill(this.value, (byte) 0xff);
+            }
+            System.arraycopy(bvalue, 0, this.value, len - bvalue.length, bvalue.length);
+        }
+
         /**
          * Initialize a leaf from a GroupElement.
          *
@@ -308,7 +389,7 @@ public class ByteTree {
             if (value instanceof ModPGroupElement) {
                 this.value = getEncoded((ModPGroupElement) value);
             } else if (value instanceof ECGroupElement) {
-                this.value = getEncoded((ECGroupElement) value);
+                throw new IllegalArgumentException("Use Node for ECGroupElement");
             } else if (value instanceof ProductGroupElement) {
                 throw new IllegalArgumentException("Use Node for ProductGroupElement");
             } else {
@@ -371,12 +452,18 @@ public class ByteTree {
         @Override
         public byte[] getEncoded() {
             byte[] ret = new byte[getEncodedLength()];
-            ret[0] = PREFIX;
-            System.arraycopy(ByteTree.parse_from_int(getLength()), 0, ret, 1, 4);
-            System.arraycopy(getValue(), 0, ret, 5, getLength());
+            encodeTo(ret, 0);
             return ret;
         }
 
+        @Override
+        int encodeTo(byte[] dst, int offset) {
+            dst[offset] = PREFIX;
+            System.arraycopy(ByteTree.parse_from_int(getLength()), 0, dst, offset + 1, 4);
+            System.arraycopy(getValue(), 0, dst, offset + 5, getLength());
+            return offset + getEncodedLength();
+        }
+
         /**
          * Encode the Leaf and write it to out.
          *
@@ -400,10 +487,6 @@ public class ByteTree {
             return ret;
         }
 
-        private byte[] getEncoded(ECGroupElement value) {
-            throw new UnsupportedOperationException("ECGroupElement not supported currently");
-        }
-
         /**
          * @return true
          */
@@ -544,6 +627,19 @@ public class ByteTree {
         return parse(dis);
     }
 
+    /**
+     * Write the header of a node with the given number of children. The encodings of the children
+     * must follow.
+     *
+     * @param out Stream to write the header to.
+     * @param length Number of children.
+     * @throws IOException When writing to out fails
+     */
+    public static void writeNodeHeader(OutputStream out, int length) throws IOException {
+        out.write(Node.PREFIX);
+        out.write(parse_from_int(length));
+    }
+
     /**
      * Parse value from the byte array into integer.
      *
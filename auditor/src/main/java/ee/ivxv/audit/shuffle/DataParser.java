@@ -2,6 +2,7 @@ package ee.ivxv.audit.shuffle;
 
 import ee.ivxv.audit.shuffle.ByteTree.Leaf;
 import ee.ivxv.audit.shuffle.ByteTree.Node;
+import ee.ivxv.audit.shuffle.MappedByteTree.View;
 import ee.ivxv.common.math.ECGroup;
 import ee.ivxv.common.math.ECGroupElement;
 import ee.ivxv.common.math.Group;
@@ -13,6 +14,7 @@ import ee.ivxv.common.math.ProductGroupElement;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
 import javax.xml.bind.DatatypeConverter;
 
 /**
@@ -74,7 +76,7 @@ public class DataParser {
      */
     public static ECGroupElement parseECGroupGenerator(ByteTree groupRoot)
             throws ShuffleException, IllegalArgumentException {
-        if (groupRoot.isLeaf()) {
+        if (!groupRoot.isLeaf()) {
             throw new ShuffleException("Invalid Elliptic Curve Group description");
         }
         Leaf ecgroupname = (Leaf) groupRoot;
@@ -251,16 +253,29 @@ public class DataParser {
     /**
      * Get the ByteTree node as an ECGroupElement
      * <p>
-     * Currently not supported.
+     * We assume that the node consists of two integer leaves, the affine coordinates of the point.
+     * The point at infinity is represented by the coordinates (-1, -1).
      * 
-     * @param group
-     * @param bt
-     * @return
-     * @throws UnsupportedOperationException Always.
+     * @param group Group where the element belongs.
+     * @param bt Node of the coordinates
+     * @return {@link ee.ivxv.common.math.ECGroupElement} instance
+     * @throws IllegalArgumentException When parsing fails or the point is not on the curve
      */
     public static ECGroupElement getAsElement(ECGroup group, ByteTree bt)
-            throws UnsupportedOperationException {
-        throw new UnsupportedOperationException("ECGroup element get not supported currently");
+            throws IllegalArgumentException {
+        if (bt.isLeaf() || bt.getLength() != 2) {
+            throw new IllegalArgumentException("Expecting node of two coordinates");
+        }
+        ByteTree[] nodes = ((Node) bt).getNodes();
+        if (!nodes[0].isLeaf() || !nodes[1].isLeaf()) {
+            throw new IllegalArgumentException("Coordinates should be leaves");
+        }
+        BigInteger x = ((Leaf) nodes[0]).getBigInteger();
+        BigInteger y = ((Leaf) nodes[1]).getBigInteger();
+        if (x.signum() < 0 && y.signum() < 0) {
+            return (ECGroupElement) group.getIdentity();
+        }
+        return new ECGroupElement(group, x, y);
     }
 
     /**
@@ -375,6 +390,102 @@ public class DataParser {
         return getAsElementArray(group, node.getNodes()[index]);
     }
 
+    /**
+     * Get the indexed child of the mapped ByteTree node as a group element.
+     * <p>
+     * Mapped version of {@link #getAsElement(Group, ByteTree, int)}.
+     * 
+     * @param group Group where the element belongs
+     * @param bt Mapped elements node
+     * @param index Element index
+     * @return Group element instance
+     * @throws IllegalArgumentException when parsing fails
+     */
+    public static GroupElement getAsElement(Group group, View bt, int index)
+            throws IllegalArgumentException {
+        return getAsElement(group, bt.getChild(index).toByteTree());
+    }
+
+    /**
+     * Get the mapped ByteTree node as an array of group elements.
+     * <p>
+     * Mapped version of {@link #getAsElementArray(Group, ByteTree)}. The elements are parsed one by
+     * one from the mapping, so the tree is never held on the heap as a whole.
+     * 
+     * @see #getAsElementArray(Group, ByteTree)
+     * 
+     * @param group Group which the elements are part of.
+     * @param bt Mapped node which is an array of elements.
+     * @return An array of {@link ee.ivxv.common.math.GroupElement} instances.
+     * @throws IllegalArgumentException When parsing fails.
+     */
+    public static GroupElement[] getAsElementArray(Group group, View bt)
+            throws IllegalArgumentException {
+        if (bt.isLeaf()) {
+            throw new IllegalArgumentException("Expecting root node");
+        }
+        if (group instanceof ProductGroup) {
+            return getAsElementArray((ProductGroup) group, bt);
+        }
+        GroupElement[] ret = new GroupElement[bt.getLength()];
+        Iterator<View> it = bt.iterator();
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = getAsElement(group, it.next().toByteTree());
+        }
+        return ret;
+    }
+
+    /**
+     * Get the mapped ByteTree node as an array of product group elements.
+     * <p>
+     * Mapped version of {@link #getAsElementArray(ProductGroup, ByteTree)}.
+     * 
+     * @param group Group which the elements are part of.
+     * @param bt Mapped node which is an array of elements.
+     * @return An array of {@link ee.ivxv.common.math.GroupElement} instances.
+     * @throws IllegalArgumentException When parsing fails.
+     */
+    public static GroupElement[] getAsElementArray(ProductGroup group, View bt)
+            throws IllegalArgumentException {
+        Group[] groups = group.getGroups();
+        if (bt.isLeaf() || bt.getLength() != groups.length) {
+            throw new IllegalArgumentException("Expecting node of component arrays");
+        }
+        GroupElement[][] sub = new GroupElement[groups.length][];
+        Iterator<View> it = bt.iterator();
+        for (int i = 0; i < groups.length; i++) {
+            sub[i] = getAsElementArray(groups[i], it.next());
+            if (sub[i].length != sub[0].length) {
+                throw new IllegalArgumentException("Component arrays of different length");
+            }
+        }
+        GroupElement[] ret = new GroupElement[sub[0].length];
+        for (int i = 0; i < ret.length; i++) {
+            GroupElement[] cons = new GroupElement[groups.length];
+            for (int j = 0; j < groups.length; j++) {
+                cons[j] = sub[j][i];
+            }
+            ret[i] = new ProductGroupElement(group, cons);
+        }
+        return ret;
+    }
+
+    /**
+     * Get the indexed mapped ByteTree node as an array of group elements.
+     * <p>
+     * Mapped version of {@link #getAsElementArray(Group, ByteTree, int)}.
+     * 
+     * @param group Group which the elements are part of.
+     * @param bt Mapped node which is an array of elements.
+     * @param index Index of the node to use.
+     * @return An array of {@link ee.ivxv.common.math.GroupElement} instances.
+     * @throws IllegalArgumentException When parsing fails.
+     */
+    public static GroupElement[] getAsElementArray(Group group, View bt, int index)
+            throws IllegalArgumentException {
+        return getAsElementArray(group, bt.getChild(index));
+    }
+
     /**
      * Get the indexed ByteTree node as an integer.
      * <p>
@@ -428,6 +539,52 @@ public class DataParser {
         return res;
     }
 
+    /**
+     * Get the indexed mapped ByteTree node as an integer.
+     * <p>
+     * Mapped version of {@link #getAsInteger(ByteTree, int)}.
+     * 
+     * @param bt Mapped node
+     * @param index Index of the element
+     * @return Integer value
+     * @throws IllegalArgumentException When parsing fails.
+     */
+    public static BigInteger getAsInteger(View bt, int index) throws IllegalArgumentException {
+        View leaf = bt.getChild(index);
+        if (!leaf.isLeaf()) {
+            throw new IllegalArgumentException("Should be leaf");
+        }
+        return leaf.getBigInteger();
+    }
+
+    /**
+     * Get the indexed mapped ByteTree node as an array of integers.
+     * <p>
+     * Mapped version of {@link #getAsIntegerArray(ByteTree, int)}.
+     * 
+     * @param bt Mapped node
+     * @param index Index of the element.
+     * @return Array of integer values.
+     * @throws IllegalArgumentException When parsing fails.
+     */
+    public static BigInteger[] getAsIntegerArray(View bt, int index)
+            throws IllegalArgumentException {
+        View intnode = bt.getChild(index);
+        if (intnode.isLeaf()) {
+            throw new IllegalArgumentException("Should be node");
+        }
+        BigInteger[] res = new BigInteger[intnode.getLength()];
+        Iterator<View> it = intnode.iterator();
+        for (int i = 0; i < res.length; i++) {
+            View v = it.next();
+            if (!v.isLeaf()) {
+                throw new IllegalArgumentException("Should be leaf");
+            }
+            res[i] = v.getBigInteger();
+        }
+        return res;
+    }
+
     /**
      * Get the hash corresponding to string representation.
      * <p>
@@ -0,0 +1,260 @@
+package ee.ivxv.audit.shuffle;
+
+import ee.ivxv.audit.shuffle.ByteTree.Leaf;
+import ee.ivxv.audit.shuffle.ByteTree.Node;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * MappedByteTree reads a file in the ByteTree format through a read-only memory mapping, without
+ * parsing it into {@link ByteTree} instances.
+ * <p>
+ * The tree is accessed through lazy {@link View}s which only hold an offset into the mapping. The
+ * children of a node are iterated in order, skipping over the encoding of every child, and leaf
+ * values are copied to the heap only when they are requested. Thus a large array of group elements
+ * can be consumed in chunks, with only the current elements on the heap.
+ * <p>
+ * Files larger than 2GB are mapped in segments. The mapping stays valid after the constructor has
+ * closed the file and is released when the instance is garbage collected.
+ */
+public class MappedByteTree {
+    static final int SEGMENT_BITS = 30; // 1GB
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int HEADER_LEN = 5;
+
+    private final ByteBuffer[] segments;
+    private final long size;
+
+    /**
+     * Map the file at path.
+     *
+     * @param path Location of file
+     * @throws IOException When mapping the file fails.
+     */
+    public MappedByteTree(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            size = channel.size();
+            segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE, size - start));
+            }
+        }
+    }
+
+    /**
+     * Get the view of the root of the tree.
+     *
+     * @return
+     * @throws IllegalArgumentException When the file is not a valid ByteTree.
+     */
+    public View getRoot() {
+        View root = view(0);
+        if (root.getEncodedLength() != size) {
+            throw new IllegalArgumentException("Trailing data after bytetree");
+        }
+        return root;
+    }
+
+    private View view(long offset) {
+        if (offset + HEADER_LEN > size) {
+            throw new IllegalArgumentException("Non-existing bytetree");
+        }
+        byte prefix = get(offset);
+        if (prefix != Node.PREFIX && prefix != Leaf.PREFIX) {
+            throw new IllegalArgumentException("Invalid bytetree value");
+        }
+        int length = getInt(offset + 1);
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative bytetree length");
+        }
+        return new View(offset, prefix == Leaf.PREFIX, length);
+    }
+
+    private byte get(long pos) {
+        return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & (SEGMENT_SIZE - 1)));
+    }
+
+    private int getInt(long pos) {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            v = (v << 8) | (get(pos + i) & 0xff);
+        }
+        return v;
+    }
+
+    private void get(long pos, byte[] dst) {
+        int done = 0;
+        while (done < dst.length) {
+            ByteBuffer segment = segments[(int) ((pos + done) >>> SEGMENT_BITS)].duplicate();
+            segment.position((int) ((pos + done) & (SEGMENT_SIZE - 1)));
+            int n = Math.min(dst.length - done, segment.remaining());
+            segment.get(dst, done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * View is a lazy handle of a node or a leaf in the mapped tree.
+     */
+    public class View {
+        private final long offset;
+        private final boolean leaf;
+        private final int length;
+        private long encodedLength = -1;
+
+        private View(long offset, boolean leaf, int length) {
+            this.offset = offset;
+            this.leaf = leaf;
+            this.length = length;
+        }
+
+        /**
+         * @return true if the view is a leaf, false if a node.
+         */
+        public boolean isLeaf() {
+            return leaf;
+        }
+
+        /**
+         * Get the number of children of a node or the number of bytes of a leaf.
+         *
+         * @return
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Get the length of the encoding of the view, including the header. For a node, the
+         * encodings of all the descendants are skipped over once.
+         *
+         * @return
+         * @throws IllegalArgumentException When the encoding exceeds the file.
+         */
+        public long getEncodedLength() {
+            if (encodedLength < 0) {
+                long end = offset + HEADER_LEN;
+                if (leaf) {
+                    end += length;
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        end += view(end).getEncodedLength();
+                    }
+                }
+                if (end > size) {
+                    throw new IllegalArgumentException("Bytetree exceeds the file");
+                }
+                encodedLength = end - offset;
+            }
+            return encodedLength;
+        }
+
+        /**
+         * Iterate over the children of a node in order.
+         *
+         * @return
+         * @throws IllegalArgumentException When the view is a leaf.
+         */
+        public Iterator<View> iterator() {
+            checkNode();
+            return new Iterator<View>() {
+                private long next = offset + HEADER_LEN;
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < length;
+                }
+
+                @Override
+                public View next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    View child = view(next);
+                    i++;
+                    if (i < length) {
+                        next += child.getEncodedLength();
+                    }
+                    return child;
+                }
+            };
+        }
+
+        /**
+         * Get the child of a node at index. The preceding children are skipped over, use
+         * {@link #iterator()} for accessing all the children.
+         *
+         * @param index
+         * @return
+         * @throws IllegalArgumentException When the view is a leaf or the index is out of range.
+         */
+        public View getChild(int index) {
+            checkNode();
+            if (index < 0 || index >= length) {
+                throw new IllegalArgumentException("Child index out of range");
+            }
+            Iterator<View> it = iterator();
+            for (int i = 0; i < index; i++) {
+                it.next();
+            }
+            return it.next();
+        }
+
+        /**
+         * Get the value of a leaf, copied from the mapping.
+         *
+         * @return
+         * @throws IllegalArgumentException When the view is a node.
+         */
+        public byte[] getValue() {
+            if (!leaf) {
+                throw new IllegalArgumentException("Expecting leaf");
+            }
+            byte[] value = new byte[length];
+            get(offset + HEADER_LEN, value);
+            return value;
+        }
+
+        /**
+         * Get the value of a leaf as a two's complement integer.
+         *
+         * @return
+         * @throws IllegalArgumentException When the view is a node.
+         */
+        public BigInteger getBigInteger() {
+            return new BigInteger(getValue());
+        }
+
+        /**
+         * Parse the subtree into a {@link ByteTree} instance. Intended for small subtrees.
+         *
+         * @return
+         */
+        public ByteTree toByteTree() {
+            if (leaf) {
+                return new Leaf(getValue());
+            }
+            ByteTree[] nodes = new ByteTree[length];
+            Iterator<View> it = iterator();
+            for (int i = 0; i < length; i++) {
+                nodes[i] = it.next().toByteTree();
+            }
+            return new Node(nodes);
+        }
+
+        private void checkNode() {
+            if (leaf) {
+                throw new IllegalArgumentException("Expecting node");
+            }
+        }
+    }
+}
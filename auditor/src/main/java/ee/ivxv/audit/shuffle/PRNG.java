@@ -21,11 +21,28 @@ public class PRNG {
      * @param seed Seed to initialize PRNG with.
      */
     PRNG(String hashname, byte[] seed) {
+        this(hashname, seed, 0);
+    }
+
+    /**
+     * Initialize PRNG using a hash function and a seed, skipping the given number of output bytes.
+     * The output blocks are computed independently from the counter, so the generator can be
+     * positioned without computing the skipped blocks.
+     * 
+     * @param hashname Defined hash function.
+     * @param seed Seed to initialize PRNG with.
+     * @param offset Number of output bytes to skip.
+     */
+    PRNG(String hashname, byte[] seed, long offset) {
         this.cleanhash = init_hash(hashname, seed);
         this.digestLen = cleanhash.getDigestLength();
         this.buf = new byte[digestLen];
-        this.it = 0;
+        this.it = (int) (offset / digestLen);
         this.bufp = digestLen;
+        if (offset % digestLen != 0) {
+            refill();
+            bufp = (int) (offset % digestLen);
+        }
     }
 
     /**
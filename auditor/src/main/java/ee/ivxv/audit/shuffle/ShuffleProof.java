@@ -1,5 +1,6 @@
 package ee.ivxv.audit.shuffle;
 
+import ee.ivxv.audit.shuffle.MappedByteTree.View;
 import ee.ivxv.audit.shuffle.ShuffleConsole.ShuffleStep;
 import ee.ivxv.common.crypto.elgamal.ElGamalCiphertext;
 import ee.ivxv.common.crypto.elgamal.ElGamalPublicKey;
@@ -9,7 +10,6 @@ import ee.ivxv.common.math.ProductGroup;
 import ee.ivxv.common.math.ProductGroupElement;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -111,7 +111,8 @@ public class ShuffleProof {
     /**
      * Initialize the proof from protocol information path and proof directory path.
      * <p>
-     * Parses the files and constructs the components.
+     * Parses the files and constructs the components. The files are memory-mapped and the arrays
+     * are parsed directly from the mappings, element by element.
      * 
      * @param protpath
      * @param proofdir
@@ -144,13 +145,12 @@ public class ShuffleProof {
 
         console.enter(ShuffleStep.READ_CIPHS);
         Path ciphspath = Paths.get(proofdir.toString(), CIPHERTEXTS_PATH);
-        ByteTree ctsbt = ByteTree.parse(ciphspath);
-        ciphs = DataParser.getAsElementArray(ciphgroup, ctsbt);
+        ciphs = DataParser.getAsElementArray(ciphgroup, new MappedByteTree(ciphspath).getRoot());
 
         console.enter(ShuffleStep.READ_SHUFFLED);
         Path shuffledpath = Paths.get(proofdir.toString(), SHUFFLED_CIPHERTEXTS_PATH);
-        ByteTree sctsbt = ByteTree.parse(shuffledpath);
-        shuffled = DataParser.getAsElementArray(ciphgroup, sctsbt);
+        shuffled =
+                DataParser.getAsElementArray(ciphgroup, new MappedByteTree(shuffledpath).getRoot());
     }
 
     public ProtocolInformation get_ProtocolInformation() {
@@ -194,12 +194,11 @@ public class ShuffleProof {
         private final GroupElement[] u;
 
         /**
-         * Parse permutation commitment from a bytetree.
+         * Parse permutation commitment from a mapped bytetree.
          * 
-         * @param bt
+         * @param root
          */
-        PermutationCommitment(ProtocolInformation prot, byte[] bt) {
-            ByteTree root = ByteTree.parse(bt);
+        PermutationCommitment(ProtocolInformation prot, View root) {
             this.u = DataParser.getAsElementArray(prot.get_parsed_pgroup(), root);
         }
 
@@ -212,7 +211,7 @@ public class ShuffleProof {
          * @throws IOException
          */
         PermutationCommitment(ProtocolInformation prot, Path path) throws IOException {
-            this(prot, Files.readAllBytes(path));
+            this(prot, new MappedByteTree(path).getRoot());
         }
 
         public GroupElement[] get_u() {
@@ -229,12 +228,11 @@ public class ShuffleProof {
         private ProductGroupElement F_prim;
 
         /**
-         * Parse proof of shuffle commitment from bytetree.
+         * Parse proof of shuffle commitment from a mapped bytetree.
          * 
-         * @param bt Byte array holding proof of shuffle commitment.
+         * @param root Mapped bytetree holding proof of shuffle commitment.
          */
-        PoSCommitment(ProtocolInformation prot, byte[] bt) {
-            ByteTree root = ByteTree.parse(bt);
+        PoSCommitment(ProtocolInformation prot, View root) {
             Group group = prot.get_parsed_pgroup();
             ProductGroup ciphgroup = get_ciphertext_group(prot, group);
             B = DataParser.getAsElementArray(group, root, 0);
@@ -253,7 +251,7 @@ public class ShuffleProof {
          * @throws IOException
          */
         PoSCommitment(ProtocolInformation prot, Path path) throws IOException {
-            this(prot, Files.readAllBytes(path));
+            this(prot, new MappedByteTree(path).getRoot());
         }
 
         public GroupElement get_A_prim() {
@@ -287,25 +285,20 @@ public class ShuffleProof {
     public static class PoSReply {
         private BigInteger kA, kC, kD;
         private BigInteger[] kB, kE;
-        // strictly taken - kF is not from the group but is an array (of array) of bigints. take
-        // into account when using in computation
-        private ProductGroupElement kF;
+        private BigInteger[] kF;
 
         /**
-         * Parse proof of shuffle reply from bytetree.
+         * Parse proof of shuffle reply from a mapped bytetree.
          * 
-         * @param bt Byte array holding proof of shuffle in bytetree format.
+         * @param root Mapped bytetree holding proof of shuffle reply.
          */
-        PoSReply(ProtocolInformation prot, byte[] bt) {
-            ByteTree root = ByteTree.parse(bt);
-            Group group = prot.get_parsed_pgroup();
-            ProductGroup prodgroup = new ProductGroup(group, prot.get_keywidth());
+        PoSReply(ProtocolInformation prot, View root) {
             kA = DataParser.getAsInteger(root, 0);
             kB = DataParser.getAsIntegerArray(root, 1);
             kC = DataParser.getAsInteger(root, 2);
             kD = DataParser.getAsInteger(root, 3);
             kE = DataParser.getAsIntegerArray(root, 4);
-            kF = (ProductGroupElement) DataParser.getAsElement(prodgroup, root, 5);
+            kF = DataParser.getAsIntegerArray(root, 5);
         }
 
         /**
@@ -316,7 +309,7 @@ public class ShuffleProof {
          * @throws IOException
          */
         PoSReply(ProtocolInformation prot, Path path) throws IOException {
-            this(prot, Files.readAllBytes(path));
+            this(prot, new MappedByteTree(path).getRoot());
         }
 
         public BigInteger get_kA() {
@@ -339,7 +332,7 @@ public class ShuffleProof {
             return kE;
         }
 
-        public ProductGroupElement get_kF() {
+        public BigInteger[] get_kF() {
             return kF;
         }
     }
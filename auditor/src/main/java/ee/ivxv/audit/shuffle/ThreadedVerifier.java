@@ -1,347 +1,241 @@
 package ee.ivxv.audit.shuffle;
 
 import ee.ivxv.audit.shuffle.ShuffleConsole.ShuffleStep;
+import ee.ivxv.common.math.ECGroupElement;
+import ee.ivxv.common.math.FixedBaseTable;
+import ee.ivxv.common.math.Group;
 import ee.ivxv.common.math.GroupElement;
 import ee.ivxv.common.math.MathException;
+import ee.ivxv.common.math.MathUtil;
+import ee.ivxv.common.math.ModPGroup;
 import ee.ivxv.common.math.ModPGroupElement;
 import ee.ivxv.common.math.ProductGroup;
 import ee.ivxv.common.math.ProductGroupElement;
 import ee.ivxv.common.service.console.Progress;
+import ee.ivxv.common.util.log.PerformanceLog;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Multi-threaded verifier of the proof of a shuffle.
+ * <p>
+ * All stages which are linear in the number of ciphertexts are split into contiguous ranges,
+ * which are computed in a work-stealing pool, and the independent stages of the verification of
+ * the permutation run concurrently. The duration of every stage is written to the performance
+ * log.
+ */
 public class ThreadedVerifier extends Verifier {
     static final Logger log = LoggerFactory.getLogger(ThreadedVerifier.class);
 
-    private int nothreads;
-    private ExecutorService executor;
+    /**
+     * The number of ranges per thread a stage is split into. More ranges balance the load better,
+     * fewer keep the multi-exponentiations larger.
+     */
+    static final int RANGES_PER_THREAD = 4;
+
+    private final int nothreads;
+    private final ForkJoinPool pool;
 
     public ThreadedVerifier(ShuffleConsole console, ShuffleProof proof, int nothreads) {
         super(console, proof);
         this.nothreads = nothreads;
-        this.executor = Executors.newFixedThreadPool(nothreads);
-    }
-
-    public GroupElement compute_A_threaded(Progress progress, BigInteger[] e)
-            throws MathException, InterruptedException, ExecutionException {
-        return compute_A(progress, get_proof().get_PermutationCommitment().get_u(), e, nothreads,
-                executor);
-    }
-
-    public GroupElement compute_F_threaded(Progress progress, BigInteger[] e)
-            throws MathException, InterruptedException, ExecutionException {
-        return compute_F(progress, get_proof().get_ciphertexts(), e, nothreads, executor);
-    }
-
-    public boolean verify_A_threaded(Progress progress, BigInteger v, GroupElement A,
-            GroupElement[] h) throws MathException, InterruptedException, ExecutionException {
-        return verify_A(progress, v, A, get_proof().get_PoSCommitment().get_A_prim(),
-                get_proof().get_ProtocolInformation().get_parsed_generator(), h,
-                get_proof().get_PoSReply().get_kA(), get_proof().get_PoSReply().get_kE(), nothreads,
-                executor);
+        this.pool = new ForkJoinPool(nothreads);
     }
 
-    public boolean verify_B_threaded(Progress progress, BigInteger v, GroupElement[] h)
-            throws MathException, InterruptedException, ExecutionException {
-        return verify_B(progress, v, get_proof().get_PoSCommitment().get_B(),
-                get_proof().get_PoSCommitment().get_B_prim(),
-                get_proof().get_ProtocolInformation().get_parsed_generator(),
-                get_proof().get_PoSReply().get_kB(), get_proof().get_PoSReply().get_kE(), h,
-                nothreads, executor);
-    }
-
-    public boolean verify_F_threaded(Progress progress, BigInteger v, GroupElement F)
-            throws MathException, InterruptedException, ExecutionException {
-        return verify_F(progress, v, F, get_proof().get_PoSCommitment().get_F_prim(),
-                get_proof().get_publickey(), get_proof().get_PoSReply().get_kE(),
-                get_proof().get_PoSReply().get_kF(), get_proof().get_shuffled_ciphertexts(),
-                nothreads, executor);
+    /**
+     * Verify the correctness of the shuffle.
+     * <p>
+     * Throws an exception specifying the reason for failed verification. The thread pool of the
+     * verifier is shut down afterwards.
+     *
+     * @return Boolean True if the proof verifies. If not, then an exception is thrown.
+     * @throws ShuffleException If the verification fails, denoting a reason.
+     * @throws MathException If computation fails.
+     */
+    @Override
+    public boolean verify_all() throws ShuffleException, MathException {
+        long start = System.currentTimeMillis();
+        try {
+            return verify_stages();
+        } finally {
+            pool.shutdownNow();
+            logTime("total", start);
+        }
     }
 
-    public boolean verify_all() throws ShuffleException, MathException {
+    private boolean verify_stages() throws ShuffleException, MathException {
         console.enter(ShuffleStep.VERIFY);
         console.enter(ShuffleStep.VERIFY_PARAMS);
-        byte[] rho = compute_rho();
-        GroupElement[] h = compute_h(rho);
+        byte[] rho = timed("compute_rho", () -> compute_rho());
+        GroupElement[] h = timed("compute_h", () -> compute_h(rho));
         console.enter(ShuffleStep.VERIFY_NI);
-        byte[] s = compute_RO_seed(rho, h);
-        BigInteger[] e = compute_e(s);
-        BigInteger v = compute_v(rho, s);
+        byte[] s = timed("compute_RO_seed", () -> compute_RO_seed(rho, h));
+        BigInteger[] e = timed("compute_e", () -> compute_e(s));
+        BigInteger v = timed("compute_v", () -> compute_v(rho, s));
 
         int N = get_proof().get_ciphertexts().length;
-        Progress progress = console.enter(ShuffleStep.VERIFY_PERM, 5 * N + 10 + 3 * nothreads);
-        GroupElement A;
-        try {
-            A = compute_A_threaded(progress, e);
-        } catch (InterruptedException | ExecutionException ex) {
-            executor.shutdown();
-            throw new ShuffleException(ex);
-        }
-        GroupElement C = compute_C(progress, h);
-        GroupElement D = compute_D(progress, h, e);
-        try {
-            if (!verify_A_threaded(progress, v, A, h)) {
-                throw new ShuffleException("A failed");
-            }
-        } catch (InterruptedException | ExecutionException ex) {
-            executor.shutdown();
-            throw new ShuffleException(ex);
+        Progress progress = console.enter(ShuffleStep.VERIFY_PERM, 5 * N + 11);
+        ForkJoinTask<GroupElement> A = stage("compute_A", () -> compute_A(progress, e));
+        ForkJoinTask<GroupElement> C = stage("compute_C", () -> compute_C(progress, h));
+        ForkJoinTask<GroupElement> D = stage("compute_D", () -> compute_D(progress, h, e));
+        ForkJoinTask<Boolean> B_ok = stage("verify_B", () -> verify_B(progress, v, h));
+        ForkJoinTask<Boolean> A_ok = stage("verify_A", () -> verify_A(progress, v, A.join(), h));
+        if (!join(A_ok)) {
+            throw new ShuffleException("A failed");
         }
-        try {
-            if (!verify_B_threaded(progress, v, h)) {
-                throw new ShuffleException("B failed");
-            }
-        } catch (InterruptedException | ExecutionException ex) {
-            executor.shutdown();
-            throw new ShuffleException(ex);
+        if (!join(B_ok)) {
+            throw new ShuffleException("B failed");
         }
-        if (!verify_C(progress, v, C)) {
+        if (!verify_C(progress, v, join(C))) {
             throw new ShuffleException("C failed");
         }
-        if (!verify_D(progress, v, D)) {
+        if (!verify_D(progress, v, join(D))) {
             throw new ShuffleException("D failed");
         }
         progress.finish();
-        progress = console.enter(ShuffleStep.VERIFY_RERAND, 2 * N
-                + get_proof().get_PoSReply().get_kF().getElements().length + 3 + 2 * nothreads);
-        GroupElement F;
-        try {
-            F = compute_F_threaded(progress, e);
-        } catch (InterruptedException | ExecutionException ex) {
-            executor.shutdown();
-            throw new ShuffleException(ex);
-        }
-        try {
-            if (!verify_F_threaded(progress, v, F)) {
-                throw new ShuffleException("F failed");
-            }
-        } catch (InterruptedException | ExecutionException ex) {
-            executor.shutdown();
-            throw new ShuffleException(ex);
+
+        Progress rerand = console.enter(ShuffleStep.VERIFY_RERAND,
+                2 * N + get_proof().get_PoSReply().get_kF().length + 3);
+        GroupElement F = timed("compute_F", () -> compute_F(rerand, e));
+        if (!timed("verify_F", () -> verify_F(rerand, v, F))) {
+            throw new ShuffleException("F failed");
         }
-        executor.shutdown();
-        progress.finish();
+        rerand.finish();
         return true;
     }
 
-    private GroupElement compute_A(Progress progress, GroupElement[] u, BigInteger[] e,
-            int nothreads, ExecutorService executor)
-            throws MathException, InterruptedException, ExecutionException {
-        // the number of computations differ in threaded and non-threaded case. In threaded case we
-        // also aggregate the per-thread results.
-        List<Future<GroupElement>> futures = new ArrayList<>();
-        for (int i = 0; i < nothreads; i++) {
-            FutureTask<GroupElement> ft =
-                    new FutureTask<>(get_compute_A_worker(progress, u, e, i, nothreads));
-            executor.submit(ft);
-            futures.add(ft);
-        }
-        log.debug("Started all compute A workers");
-        GroupElement res = u[0].getGroup().getIdentity();
-        log.debug("Collecting compute A worker results");
-        for (Future<GroupElement> ft : futures) {
-            res = res.op(ft.get());
-            progress.increase(1);
-        }
-        log.debug("Collected all compute A worker results");
-        return res;
+    @Override
+    protected void compute_h_candidates(Group G_q, byte[] seed, int n_r, String prg,
+            GroupElement[] out, long first) {
+        forEachRange(out.length,
+                (from, to) -> compute_h_candidates(G_q, seed, n_r, prg, out, first, from, to));
     }
 
-    private static Callable<GroupElement> get_compute_A_worker(Progress progress, GroupElement[] u,
-            BigInteger[] e, int threadid, int nothreads) {
-        return () -> {
-            log.debug("Compute A worker [{}/{}] started", threadid, nothreads);
-            GroupElement res = u[0].getGroup().getIdentity();
-            for (int i = 0; i < u.length; i++) {
-                if (i % nothreads != threadid)
-                    continue;
-                GroupElement exped = u[i].scale(e[i]);
-                res = res.op(exped);
-                progress.increase(1);
-            }
-            log.debug("Compute A worker [{}/{}] finished", threadid, nothreads);
-            return res;
-        };
+    @Override
+    public BigInteger[] compute_e(byte[] s, int n_e, int N, String prg) {
+        BigInteger[] e = new BigInteger[N];
+        forEachRange(N, (from, to) -> compute_e(s, n_e, prg, e, from, to));
+        return e;
     }
 
-    public GroupElement compute_F(Progress progress, GroupElement[] w, BigInteger[] e,
-            int nothreads, ExecutorService executor)
-            throws MathException, InterruptedException, ExecutionException {
-        // the number of computations differ in threaded and non-threaded case. In threaded case we
-        // also aggregate the per-thread results.
-        List<Future<GroupElement>> futures = new ArrayList<>();
-        for (int i = 0; i < nothreads; i++) {
-            FutureTask<GroupElement> ft =
-                    new FutureTask<>(get_compute_F_worker(progress, w, e, i, nothreads));
-            executor.submit(ft);
-            futures.add(ft);
-        }
-        log.debug("Started all compute F workers");
-        GroupElement res = w[0].getGroup().getIdentity();
-        log.debug("Collecting compute F worker results");
-        for (Future<GroupElement> ft : futures) {
-            res = res.op(ft.get());
-            progress.increase(1);
+    /**
+     * Encode the ranges of the elements in parallel. Only the hashing of the encoding is
+     * sequential.
+     */
+    @Override
+    protected ByteTree[] encode(GroupElement[] elements, int from, int to) {
+        ByteTree[] nodes = new ByteTree[to - from];
+        forEachRange(nodes.length, (f, t) -> System.arraycopy(
+                ByteTree.of(elements, from + f, from + t), 0, nodes, f, t - f));
+        return nodes;
+    }
+
+    @Override
+    public GroupElement compute_A(Progress progress, GroupElement[] u, BigInteger[] e)
+            throws MathException {
+        return multiScale(progress, u, e);
+    }
+
+    @Override
+    public GroupElement compute_C(Progress progress, GroupElement[] u, GroupElement[] h)
+            throws MathException, ShuffleException {
+        if (u.length != h.length) {
+            throw new ShuffleException("u and h length does not match");
         }
-        log.debug("Collected all compute F worker results");
+        GroupElement[] prods = reduce(u.length, (from, to) -> {
+            GroupElement up = u[0].getGroup().product(u, from, to);
+            GroupElement hp = h[0].getGroup().product(h, from, to);
+            progress.increase(to - from);
+            return new GroupElement[] {up, hp};
+        }, (a, b) -> new GroupElement[] {a[0].op(b[0]), a[1].op(b[1])});
+        GroupElement res = prods[0].op(prods[1].inverse());
+        progress.increase(2);
         return res;
     }
 
-    private static Callable<GroupElement> get_compute_F_worker(Progress progress, GroupElement[] w,
-            BigInteger[] e, int threadid, int nothreads) throws MathException {
-        return () -> {
-            log.debug("Compute F [{}/{}] worker started", threadid, nothreads);
-            GroupElement res = w[0].getGroup().getIdentity();
-            for (int i = 0; i < w.length; i++) {
-                if (i % nothreads != threadid)
-                    continue;
-                GroupElement exped = w[i].scale(e[i]);
-                res = res.op(exped);
+    @Override
+    public GroupElement compute_D(Progress progress, GroupElement[] B, GroupElement[] h,
+            BigInteger[] e, int N) throws ShuffleException, MathException {
+        BigInteger q;
+        if (h[0] instanceof ModPGroupElement) {
+            q = MathUtil.safePrimeOrder(((ModPGroup) h[0].getGroup()).getOrder());
+        } else if (h[0] instanceof ECGroupElement) {
+            q = h[0].getGroup().getOrder();
+        } else {
+            throw new ShuffleException("Can not find order");
+        }
+        BigInteger ep = reduce(e.length, (from, to) -> {
+            BigInteger res = BigInteger.ONE;
+            for (int i = from; i < to; i++) {
+                res = res.multiply(e[i]).mod(q);
                 progress.increase(1);
             }
-            log.debug("Compute F worker [{}/{}] finished", threadid, nothreads);
             return res;
-        };
+        }, (a, b) -> a.multiply(b).mod(q));
+        GroupElement ret = B[N - 1].op(h[0].scale(ep).inverse());
+        progress.increase(3);
+        return ret;
     }
 
-    private boolean verify_A(Progress progress, BigInteger v, GroupElement A, GroupElement A_prim,
-            GroupElement g, GroupElement[] h, BigInteger k_A, BigInteger[] k_E, int nothreads,
-            ExecutorService executor)
-            throws MathException, InterruptedException, ExecutionException {
-        // the number of computations differ in threaded and non-threaded case. In threaded case we
-        // also aggregate the per-thread results.
-        List<Future<GroupElement>> futures = new ArrayList<>();
-        for (int i = 0; i < nothreads; i++) {
-            FutureTask<GroupElement> ft =
-                    new FutureTask<>(get_verify_A_worker(progress, h, k_E, i, nothreads));
-            executor.submit(ft);
-            futures.add(ft);
-        }
-        log.debug("Started verify A workers");
+    @Override
+    public GroupElement compute_F(Progress progress, GroupElement[] w, BigInteger[] e)
+            throws MathException {
+        return multiScale(progress, w, e);
+    }
+
+    @Override
+    public boolean verify_A(Progress progress, BigInteger v, GroupElement A, GroupElement A_prim,
+            GroupElement g, GroupElement[] h, BigInteger k_A, BigInteger[] k_E)
+            throws MathException {
         GroupElement left = A.scale(v).op(A_prim);
         progress.increase(1);
-        GroupElement right = h[0].getGroup().getIdentity();
-        log.debug("Collecting verify A worker results");
-        for (Future<GroupElement> ft : futures) {
-            right = right.op(ft.get());
-            progress.increase(1);
-            log.debug("Collected verify A worker result");
-        }
-        log.debug("Collected all verify A worker results");
-        right = right.op(g.scale(k_A));
+        GroupElement right = multiScale(progress, h, k_E).op(g.scale(k_A));
         progress.increase(1);
         return left.equals(right);
     }
 
-    private static Callable<GroupElement> get_verify_A_worker(Progress progress, GroupElement[] h,
-            BigInteger[] k_E, int threadid, int nothreads) throws MathException {
-        return () -> {
-            log.debug("Verify A worker [{}/{}] started", threadid, nothreads);
-            GroupElement right = h[0].getGroup().getIdentity();
-            for (int i = 0; i < h.length; i++) {
-                if (i % nothreads != threadid)
-                    continue;
-                right = right.op(h[i].scale(k_E[i]));
-                progress.increase(1);
-            }
-            log.debug("Verify A worker [{}/{}] finished", threadid, nothreads);
-            return right;
-        };
-    }
-
-    private boolean verify_B(Progress progress, BigInteger v, GroupElement[] B,
+    /**
+     * Verify the commitments B. The ranges stop early once a range has seen an invalid value.
+     */
+    @Override
+    public boolean verify_B(Progress progress, BigInteger v, GroupElement[] B,
             GroupElement[] B_prim, GroupElement g, BigInteger[] k_B, BigInteger[] k_E,
-            GroupElement[] h, int nothreads, ExecutorService executor)
-            throws MathException, InterruptedException, ExecutionException {
-        // the number of computations is different in threaded and non-threaded case. In threaded
-        // case the thread which sees invalid proof stops and this is propagated to the controlling
-        // thread. In non-threaded case, all values are computed and then checked one-by-one.
-        GroupElement left = B[0].scale(v).op(B_prim[0]);
-        GroupElement right = h[0].scale(k_E[0]).op(g.scale(k_B[0]));
-        if (!left.equals(right)) {
-            return false;
-        }
-        log.debug("Verified first B value");
-        List<Future<Boolean>> futures = new ArrayList<>();
-        for (int i = 0; i < nothreads; i++) {
-            FutureTask<Boolean> ft = new FutureTask<>(
-                    get_verify_B_worker(progress, v, B, B_prim, g, k_B, k_E, h, i, nothreads));
-            executor.submit(ft);
-            futures.add(ft);
-        }
-        log.debug("Started verify B workers");
-        log.debug("Collecting verify B worker results");
-        for (Future<Boolean> ft : futures) {
-            if (!ft.get()) {
-                return false;
-            }
-            progress.increase(1);
-            log.debug("Collected verify B worker result");
-        }
-        log.debug("Collected all verify B worker results");
-        return true;
-    }
-
-    private static Callable<Boolean> get_verify_B_worker(Progress progress, BigInteger v,
-            GroupElement[] B, GroupElement[] B_prim, GroupElement g, BigInteger[] k_B,
-            BigInteger[] k_E, GroupElement[] h, int threadid, int nothreads) {
-        return () -> {
-            log.debug("Verify B worker [{}/{}] started", threadid, nothreads);
-            GroupElement left, right;
-            for (int i = 1; i < B.length; i++) {
-                if (i % nothreads != threadid)
-                    continue;
-                left = B[i].scale(v).op(B_prim[i]);
-                right = B[i - 1].scale(k_E[i]);
-                right = right.op(g.scale(k_B[i]));
+            GroupElement[] h) throws MathException {
+        // g is scaled once per value, precompute its powers if that pays off
+        FixedBaseTable gt = FixedBaseTable.create(g, B.length);
+        AtomicBoolean failed = new AtomicBoolean();
+        return reduce(B.length, (from, to) -> {
+            for (int i = from; i < to && !failed.get(); i++) {
+                GroupElement left = B[i].scale(v).op(B_prim[i]);
+                GroupElement right = (i == 0 ? h[0] : B[i - 1]).scale(k_E[i]);
+                right = right.op(gt.scale(k_B[i]));
                 progress.increase(1);
                 if (!left.equals(right)) {
-                    log.debug("Verify B worker [{}/{}] finished early", threadid, nothreads);
-                    return false;
+                    failed.set(true);
                 }
             }
-            log.debug("Verify B worker [{}/{}] finished", threadid, nothreads);
-            return true;
-        };
+            return !failed.get();
+        }, (a, b) -> a && b);
     }
 
-    private boolean verify_F(Progress progress, BigInteger v, GroupElement F, GroupElement F_prim,
-            GroupElement pk, BigInteger[] k_E, ProductGroupElement k_F, GroupElement[] w_prim,
-            int nothreads, ExecutorService executor)
-            throws MathException, InterruptedException, ExecutionException {
-        // the number of computations differ in threaded and non-threaded case. In threaded case we
-        // also aggregate the per-thread results.
-        List<Future<GroupElement>> futures = new ArrayList<>();
-        for (int i = 0; i < nothreads; i++) {
-            FutureTask<GroupElement> ft =
-                    new FutureTask<>(get_verify_F_worker(progress, k_E, w_prim, i, nothreads));
-            executor.submit(ft);
-            futures.add(ft);
-        }
-        log.debug("Started verify F workers");
-        BigInteger[] factors = new BigInteger[k_F.getElements().length];
-        for (int i = 0; i < factors.length; i++) {
-            factors[i] = ((ModPGroupElement) k_F.getElements()[i]).getValue().negate();
-            progress.increase(1);
-        }
+    @Override
+    public boolean verify_F(Progress progress, BigInteger v, GroupElement F, GroupElement F_prim,
+            GroupElement pk, BigInteger[] k_E, BigInteger[] k_F, GroupElement[] w_prim)
+            throws MathException {
         GroupElement left = F.scale(v).op(F_prim);
-        GroupElement right = w_prim[0].getGroup().getIdentity();
-        log.debug("Collecting verify F worker results");
-        for (Future<GroupElement> ft : futures) {
-            right = right.op(ft.get());
+        GroupElement right = multiScale(progress, w_prim, k_E);
+        BigInteger[] factors = new BigInteger[k_F.length];
+        for (int i = 0; i < factors.length; i++) {
+            factors[i] = k_F[i].negate();
             progress.increase(1);
-            log.debug("Collected verify F worker result");
         }
-        log.debug("Collected all verify F worker results");
         ProductGroupElement pkl = (ProductGroupElement) ((ProductGroupElement) pk).getElements()[0];
         ProductGroupElement pkr = (ProductGroupElement) ((ProductGroupElement) pk).getElements()[1];
         ProductGroupElement tmpl = pkl.scale(factors);
@@ -354,19 +248,142 @@ public class ThreadedVerifier extends Verifier {
         return left.equals(right);
     }
 
-    private static Callable<GroupElement> get_verify_F_worker(Progress progress, BigInteger[] k_E,
-            GroupElement[] w_prim, int threadid, int nothreads) {
-        return () -> {
-            log.debug("Verify F worker [{}/{}] started", threadid, nothreads);
-            GroupElement right = w_prim[0].getGroup().getIdentity();
-            for (int i = 0; i < w_prim.length; i++) {
-                if (i % nothreads != threadid)
-                    continue;
-                right = right.op(w_prim[i].scale(k_E[i]));
-                progress.increase(1);
+    /**
+     * Compute the product of the bases scaled by the factors, using a multi-exponentiation per
+     * range.
+     */
+    private GroupElement multiScale(Progress progress, GroupElement[] bases, BigInteger[] factors)
+            throws MathException {
+        return reduce(bases.length,
+                (from, to) -> Verifier.multiScale(progress, bases, factors, from, to),
+                GroupElement::op);
+    }
+
+    /**
+     * Apply the function to the contiguous ranges of {@code [0, n)} in the pool and combine the
+     * results in order.
+     */
+    private <T> T reduce(int n, RangeFunction<T> f, Combiner<T> combiner) throws MathException {
+        int chunk = Math.max(1, (n + RANGES_PER_THREAD * nothreads - 1)
+                / (RANGES_PER_THREAD * nothreads));
+        try {
+            return pool.invoke(new RangeTask<>(f, combiner, 0, n, chunk));
+        } catch (RuntimeException e) {
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof MathException) {
+                    throw (MathException) t;
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void forEachRange(int n, RangeAction action) {
+        try {
+            reduce(n, (from, to) -> {
+                action.apply(from, to);
+                return Boolean.TRUE;
+            }, (a, b) -> a);
+        } catch (MathException e) {
+            // not thrown by the action
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Submit the stage to the pool, logging its duration.
+     */
+    private <T> ForkJoinTask<T> stage(String name, Callable<T> task) {
+        return pool.submit(() -> timed(name, task));
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws ShuffleException, MathException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ShuffleException(e);
+        } catch (ExecutionException e) {
+            for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+                if (t instanceof MathException) {
+                    throw (MathException) t;
+                }
+                if (t instanceof ShuffleException) {
+                    throw (ShuffleException) t;
+                }
             }
-            log.debug("Verify F worker [{}/{}] finished", threadid, nothreads);
-            return right;
-        };
+            throw new ShuffleException(e.getCause());
+        }
+    }
+
+    private static <T> T timed(String name, Callable<T> task)
+            throws ShuffleException, MathException {
+        long start = System.currentTimeMillis();
+        try {
+            return task.call();
+        } catch (ShuffleException | MathException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ShuffleException(e);
+        } finally {
+            logTime(name, start);
+        }
+    }
+
+    private static void logTime(String name, long start) {
+        long t = System.currentTimeMillis() - start;
+        PerformanceLog.log.info("Shuffle verification {} TIME: {} ms", name, t);
+        log.debug("Shuffle verification {} took {} ms", name, t);
+    }
+
+    @FunctionalInterface
+    private interface RangeFunction<T> {
+        T apply(int from, int to) throws MathException;
+    }
+
+    @FunctionalInterface
+    private interface RangeAction {
+        void apply(int from, int to);
+    }
+
+    @FunctionalInterface
+    private interface Combiner<T> {
+        T combine(T a, T b) throws MathException;
+    }
+
+    /**
+     * RangeTask splits its range in halves until the range is at most the chunk size.
+     */
+    @SuppressWarnings("serial")
+    private static class RangeTask<T> extends RecursiveTask<T> {
+        private final RangeFunction<T> f;
+        private final Combiner<T> combiner;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        RangeTask(RangeFunction<T> f, Combiner<T> combiner, int from, int to, int chunk) {
+            this.f = f;
+            this.combiner = combiner;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected T compute() {
+            try {
+                if (to - from <= chunk) {
+                    return f.apply(from, to);
+                }
+                int mid = (from + to) >>> 1;
+                RangeTask<T> right = new RangeTask<>(f, combiner, mid, to, chunk);
+                right.fork();
+                T left = new RangeTask<>(f, combiner, from, mid, chunk).compute();
+                return combiner.combine(left, right.join());
+            } catch (MathException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     }
 }
@@ -3,7 +3,9 @@ package ee.ivxv.audit.shuffle;
 import ee.ivxv.audit.shuffle.ByteTree.Leaf;
 import ee.ivxv.audit.shuffle.ByteTree.Node;
 import ee.ivxv.audit.shuffle.ShuffleConsole.ShuffleStep;
+import ee.ivxv.common.math.ECGroup;
 import ee.ivxv.common.math.ECGroupElement;
+import ee.ivxv.common.math.FixedBaseTable;
 import ee.ivxv.common.math.Group;
 import ee.ivxv.common.math.GroupElement;
 import ee.ivxv.common.math.MathException;
@@ -15,8 +17,10 @@ import ee.ivxv.common.math.ProductGroupElement;
 import ee.ivxv.common.service.console.Progress;
 import ee.ivxv.common.util.Util;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.security.MessageDigest;
+import java.util.Arrays;
 
 /**
  * Verificatum proof of a shuffle verifier.
@@ -25,6 +29,11 @@ import java.security.MessageDigest;
  * variables used in the verifier.
  */
 public class Verifier {
+    /**
+     * The maximum number of bases of a single multi-exponentiation. Limits the interval of
+     * progress updates while still being large enough for the bucket method to pay off.
+     */
+    static final int MULTI_SCALE_CHUNK = 1 << 16;
 
     protected final ShuffleProof proof;
     protected final ShuffleConsole console;
@@ -177,7 +186,7 @@ public class Verifier {
         }
         progress.finish();
         progress = console.enter(ShuffleStep.VERIFY_RERAND,
-                2 * N + get_proof().get_PoSReply().get_kF().getElements().length + 3);
+                2 * N + get_proof().get_PoSReply().get_kF().length + 3);
         GroupElement F = compute_F(progress, e);
         if (!verify_F(progress, v, F)) {
             throw new ShuffleException("F failed");
@@ -224,16 +233,18 @@ public class Verifier {
         if (!(pk instanceof ProductGroupElement)) {
             throw new IllegalArgumentException("pk must be ProductGroupElement");
         }
-        ByteTree[] nodes = new ByteTree[] {new Leaf(g), new Node(h), new Node(u),
-                new Node((ProductGroupElement) pk), new Node(DataParser.toArray(w).getElements()),
-                new Node(DataParser.toArray(w_prim).getElements()),};
-        Node n = new Node(nodes);
         RO ro = new RO(rohash);
         byte[] out = new byte[DataParser.getHash(prg).getDigestLength()];
         ro.setAmount(out.length * 8);
         try {
             ro.write(rho);
-            n.writeEncoded(ro);
+            ByteTree.writeNodeHeader(ro, 6);
+            ByteTree.of(g).writeEncoded(ro);
+            writeEncoded(ro, h);
+            writeEncoded(ro, u);
+            new Node((ProductGroupElement) pk).writeEncoded(ro);
+            writeEncoded(ro, DataParser.toArray(w).getElements());
+            writeEncoded(ro, DataParser.toArray(w_prim).getElements());
         } catch (IOException e) {
             // checked
         }
@@ -241,27 +252,104 @@ public class Verifier {
         return out;
     }
 
+    /**
+     * Write the elements encoded as a ByteTree node to the random oracle input. Arrays of product
+     * group elements are written component by component and other arrays in chunks, so that the
+     * encoding of a whole array is never held in memory.
+     * 
+     * @param out
+     * @param elements
+     * @throws IOException
+     */
+    protected void writeEncoded(OutputStream out, GroupElement[] elements) throws IOException {
+        ByteTree.writeNodeHeader(out, elements.length);
+        if (elements.length > 0 && elements[0] instanceof ProductGroupElement) {
+            for (GroupElement el : elements) {
+                writeEncoded(out, ((ProductGroupElement) el).getElements());
+            }
+            return;
+        }
+        for (int from = 0; from < elements.length; from += MULTI_SCALE_CHUNK) {
+            for (ByteTree bt : encode(elements, from,
+                    Math.min(from + MULTI_SCALE_CHUNK, elements.length))) {
+                bt.writeEncoded(out);
+            }
+        }
+    }
+
+    /**
+     * Encode the elements from {@code from} (inclusive) to {@code to} (exclusive) as ByteTree nodes
+     * for the random oracle input.
+     * 
+     * @param elements
+     * @param from
+     * @param to
+     * @return
+     */
+    protected ByteTree[] encode(GroupElement[] elements, int from, int to) {
+        return ByteTree.of(elements, from, to);
+    }
+
     public BigInteger[] compute_e(byte[] s, int n_e, int N, String prg) {
-        PRNG gen = new PRNG(prg, s);
         BigInteger[] e = new BigInteger[N];
+        compute_e(s, n_e, prg, e, 0, N);
+        return e;
+    }
+
+    /**
+     * Compute the exponents {@code e[from]} to {@code e[to - 1]}, starting the PRNG at the output
+     * of the first of them.
+     */
+    protected void compute_e(byte[] s, int n_e, String prg, BigInteger[] e, int from, int to) {
+        int len = (n_e + 7) / 8;
+        PRNG gen = new PRNG(prg, s, (long) from * len);
         BigInteger mask = BigInteger.ONE.shiftLeft(n_e);
-        for (int i = 0; i < N; i++) {
-            byte[] ti = new byte[(n_e + 7) / 8];
+        for (int i = from; i < to; i++) {
+            byte[] ti = new byte[len];
             gen.read(ti);
             BigInteger ei = new BigInteger(1, ti).mod(mask);
             e[i] = ei;
         }
-        return e;
     }
 
+    /**
+     * Derive the independent generators.
+     * <p>
+     * Every generator is derived from an output of {@literal n_p + n_r} bits of the PRNG, where
+     * {@literal n_p} is the bit length of the field order. Modulo a safe prime the output is
+     * squared. On an elliptic curve the output reduced modulo the field order is the x-coordinate
+     * and the smaller square root the y-coordinate, outputs without a point on the curve are
+     * skipped.
+     */
     public GroupElement[] compute_h(Group G_q, byte[] rho, int n_r, int N, String rohash,
             String prg) {
-        if (!(G_q instanceof ModPGroup)) {
-            throw new IllegalArgumentException("Only ModPGroup supported");
+        byte[] seed = compute_h_seed(G_q, rho, rohash, prg);
+        GroupElement[] h = new GroupElement[N];
+        int found = 0;
+        long next = 0;
+        while (found < N) {
+            int missing = N - found;
+            // about half of the outputs are x-coordinates of points on the curve
+            GroupElement[] candidates =
+                    new GroupElement[G_q instanceof ECGroup ? 2 * missing + 64 : missing];
+            compute_h_candidates(G_q, seed, n_r, prg, candidates, next);
+            next += candidates.length;
+            for (int i = 0; i < candidates.length && found < N; i++) {
+                if (candidates[i] != null) {
+                    h[found++] = candidates[i];
+                }
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Compute the seed of the PRNG deriving the independent generators.
+     */
+    protected byte[] compute_h_seed(Group G_q, byte[] rho, String rohash, String prg) {
+        if (!(G_q instanceof ModPGroup) && !(G_q instanceof ECGroup)) {
+            throw new IllegalArgumentException("Only ModPGroup and ECGroup supported");
         }
-        BigInteger TWO = BigInteger.valueOf(2);
-        BigInteger p = ((ModPGroup) G_q).getOrder();
-        int n_p = p.bitLength();
         Leaf l = new Leaf("generators");
         byte[] seed = new byte[rho.length + l.getEncodedLength()];
         System.arraycopy(rho, 0, seed, 0, rho.length);
@@ -270,24 +358,49 @@ public class Verifier {
         RO ro = new RO(rohash, seed);
         byte[] out = new byte[DataParser.getHash(prg).getDigestLength()];
         ro.read(out, out.length * 8);
-        PRNG gen = new PRNG(prg, out);
-        GroupElement[] h = new GroupElement[N];
+        return out;
+    }
+
+    /**
+     * Compute the candidate generators from the PRNG outputs starting at the output
+     * {@code first}.
+     */
+    protected void compute_h_candidates(Group G_q, byte[] seed, int n_r, String prg,
+            GroupElement[] out, long first) {
+        compute_h_candidates(G_q, seed, n_r, prg, out, first, 0, out.length);
+    }
+
+    /**
+     * Compute the candidate generators {@code out[from]} to {@code out[to - 1]} from the PRNG
+     * outputs {@code first + from} to {@code first + to - 1}. A candidate is {@code null} if the
+     * output does not give a group element.
+     */
+    protected void compute_h_candidates(Group G_q, byte[] seed, int n_r, String prg,
+            GroupElement[] out, long first, int from, int to) {
+        BigInteger TWO = BigInteger.valueOf(2);
+        BigInteger p = G_q instanceof ECGroup ? ((ECGroup) G_q).getFieldOrder()
+                : ((ModPGroup) G_q).getOrder();
+        int n_p = p.bitLength();
+        int len = (n_p + n_r + 7) / 8;
+        PRNG gen = new PRNG(prg, seed, (first + from) * len);
         BigInteger mask = BigInteger.ONE.shiftLeft(n_p + n_r);
-        for (int i = 0; i < N; i++) {
-            byte[] ti = new byte[(n_p + n_r + 7) / 8];
+        for (int i = from; i < to; i++) {
+            byte[] ti = new byte[len];
             gen.read(ti);
             BigInteger tip = new BigInteger(1, ti).mod(mask);
-            BigInteger hi = tip.modPow(TWO, p);
-            h[i] = new ModPGroupElement((ModPGroup) G_q, hi);
+            if (G_q instanceof ECGroup) {
+                out[i] = ((ECGroup) G_q).getPointWithX(tip.mod(p));
+            } else {
+                out[i] = new ModPGroupElement((ModPGroup) G_q, tip.modPow(TWO, p));
+            }
         }
-        return h;
     }
 
     public BigInteger compute_v(byte[] rho, byte[] s, GroupElement A_prim, GroupElement[] B,
             GroupElement[] B_prim, GroupElement C_prim, GroupElement D_prim,
             ProductGroupElement F_prim, String rohash, int n_v) {
-        ByteTree[] nodes = new ByteTree[] {new Node(B), new Leaf(A_prim), new Node(B_prim),
-                new Leaf(C_prim), new Leaf(D_prim), new Node(F_prim)};
+        ByteTree[] nodes = new ByteTree[] {new Node(B), ByteTree.of(A_prim), new Node(B_prim),
+                ByteTree.of(C_prim), ByteTree.of(D_prim), new Node(F_prim)};
         Node n = new Node(new ByteTree[] {new Leaf(s), new Node(nodes),});
         byte[] seed = new byte[rho.length + n.getEncodedLength()];
         System.arraycopy(rho, 0, seed, 0, rho.length);
@@ -301,13 +414,7 @@ public class Verifier {
 
     public GroupElement compute_A(Progress progress, GroupElement[] u, BigInteger[] e)
             throws MathException {
-        GroupElement res = u[0].getGroup().getIdentity();
-        for (int i = 0; i < u.length; i++) {
-            GroupElement exped = u[i].scale(e[i]);
-            res = res.op(exped);
-            progress.increase(1);
-        }
-        return res;
+        return multiScale(progress, u, e, 0, u.length);
     }
 
     public GroupElement compute_C(Progress progress, GroupElement[] u, GroupElement[] h)
@@ -315,13 +422,9 @@ public class Verifier {
         if (u.length != h.length) {
             throw new ShuffleException("u and h length does not match");
         }
-        GroupElement up = u[0].getGroup().getIdentity();
-        GroupElement hp = h[0].getGroup().getIdentity();
-        for (int i = 0; i < u.length; i++) {
-            up = u[i].op(up);
-            hp = h[i].op(hp);
-            progress.increase(1);
-        }
+        GroupElement up = u[0].getGroup().product(u, 0, u.length);
+        GroupElement hp = h[0].getGroup().product(h, 0, h.length);
+        progress.increase(u.length);
         GroupElement hpi = hp.inverse();
         GroupElement res = up.op(hpi);
         progress.increase(2);
@@ -354,13 +457,7 @@ public class Verifier {
 
     public GroupElement compute_F(Progress progress, GroupElement[] w, BigInteger[] e)
             throws MathException {
-        GroupElement res = w[0].getGroup().getIdentity();
-        for (int i = 0; i < w.length; i++) {
-            GroupElement exped = w[i].scale(e[i]);
-            res = res.op(exped);
-            progress.increase(1);
-        }
-        return res;
+        return multiScale(progress, w, e, 0, w.length);
     }
 
     public boolean verify_A(Progress progress, BigInteger v, GroupElement A, GroupElement A_prim,
@@ -368,11 +465,7 @@ public class Verifier {
             throws MathException {
         GroupElement left = A.scale(v).op(A_prim);
         progress.increase(1);
-        GroupElement right = h[0].getGroup().getIdentity();
-        for (int i = 0; i < h.length; i++) {
-            right = right.op(h[i].scale(k_E[i]));
-            progress.increase(1);
-        }
+        GroupElement right = multiScale(progress, h, k_E, 0, h.length);
         right = right.op(g.scale(k_A));
         progress.increase(1);
         return left.equals(right);
@@ -385,13 +478,15 @@ public class Verifier {
         // case the thread which sees invalid proof stops and this is propagated to the controlling
         // thread. In non-threaded case, all values are computed and then checked one-by-one.
         boolean[] res = new boolean[B.length];
+        // g is scaled once per value, precompute its powers if that pays off
+        FixedBaseTable gt = FixedBaseTable.create(g, B.length);
         GroupElement left = B[0].scale(v).op(B_prim[0]);
-        GroupElement right = h[0].scale(k_E[0]).op(g.scale(k_B[0]));
+        GroupElement right = h[0].scale(k_E[0]).op(gt.scale(k_B[0]));
         res[0] = left.equals(right);
         progress.increase(1);
         for (int i = 1; i < B.length; i++) {
             left = B[i].scale(v).op(B_prim[i]);
-            right = B[i - 1].scale(k_E[i]).op(g.scale(k_B[i]));
+            right = B[i - 1].scale(k_E[i]).op(gt.scale(k_B[i]));
             res[i] = left.equals(right);
             progress.increase(1);
         }
@@ -422,19 +517,15 @@ public class Verifier {
     }
 
     public boolean verify_F(Progress progress, BigInteger v, GroupElement F, GroupElement F_prim,
-            GroupElement pk, BigInteger[] k_E, ProductGroupElement k_F, GroupElement[] w_prim)
+            GroupElement pk, BigInteger[] k_E, BigInteger[] k_F, GroupElement[] w_prim)
             throws MathException {
         // the number of computations differ in threaded and non-threaded case. In threaded case we
         // also aggregate the per-thread results.
         GroupElement left = F.scale(v).op(F_prim);
-        GroupElement right = w_prim[0].getGroup().getIdentity();
-        for (int i = 0; i < w_prim.length; i++) {
-            right = right.op(w_prim[i].scale(k_E[i]));
-            progress.increase(1);
-        }
-        BigInteger[] factors = new BigInteger[k_F.getElements().length];
+        GroupElement right = multiScale(progress, w_prim, k_E, 0, w_prim.length);
+        BigInteger[] factors = new BigInteger[k_F.length];
         for (int i = 0; i < factors.length; i++) {
-            factors[i] = ((ModPGroupElement) k_F.getElements()[i]).getValue().negate();
+            factors[i] = k_F[i].negate();
             progress.increase(1);
         }
         ProductGroupElement pkl = (ProductGroupElement) ((ProductGroupElement) pk).getElements()[0];
@@ -448,4 +539,24 @@ public class Verifier {
         progress.increase(1);
         return left.equals(right);
     }
+
+    /**
+     * Compute the product of {@code bases[i]} scaled by {@code factors[i]} for {@code i} from
+     * {@code from} (inclusive) to {@code to} (exclusive) using multi-exponentiation. The progress
+     * is increased by one per base.
+     * 
+     * @see Group#multiScale(GroupElement[], BigInteger[])
+     */
+    static GroupElement multiScale(Progress progress, GroupElement[] bases, BigInteger[] factors,
+            int from, int to) throws MathException {
+        Group group = bases[0].getGroup();
+        GroupElement res = group.getIdentity();
+        for (int i = from; i < to; i += MULTI_SCALE_CHUNK) {
+            int end = Math.min(to, i + MULTI_SCALE_CHUNK);
+            res = res.op(group.multiScale(Arrays.copyOfRange(bases, i, end),
+                    Arrays.copyOfRange(factors, i, end)));
+            progress.increase(end - i);
+        }
+        return res;
+    }
 }
@@ -18,8 +18,9 @@ import ee.ivxv.common.math.MathException;
 import ee.ivxv.common.math.ProductGroup;
 import ee.ivxv.common.math.ProductGroupElement;
 import ee.ivxv.common.model.AnonymousBallotBox;
+import ee.ivxv.common.util.BallotBoxBinary;
+import ee.ivxv.common.util.BallotBoxJson;
 import ee.ivxv.common.util.I18nConsole;
-import ee.ivxv.common.util.Json;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -70,9 +71,9 @@ public class ConvertTool implements Tool.Runner<ConvertArgs> {
         ShuffleConsole sc = new ShuffleConsole(this.console);
         ShuffleProof proof = new ShuffleProof(args.protPath.value(), args.proofPath.value(), sc);
         log.debug("Reading pre-shuffle ballot box");
-        AnonymousBallotBox bb = Json.read(args.inputBbox.value(), AnonymousBallotBox.class);
+        AnonymousBallotBox bb = readBallotBox(args.inputBbox.value());
         log.debug("Reading post-shuffle ballot box");
-        AnonymousBallotBox sbb = Json.read(args.outputBbox.value(), AnonymousBallotBox.class);
+        AnonymousBallotBox sbb = readBallotBox(args.outputBbox.value());
         log.debug("Reading public key");
         ElGamalPublicKey pk = new ElGamalPublicKey(args.pubPath.value());
         if (!verifyPublickey(pk, proof)) {
@@ -96,6 +97,14 @@ public class ConvertTool implements Tool.Runner<ConvertArgs> {
         return ret;
     }
 
+    /**
+     * Reads the anonymous ballot box either in JSON or in the binary format.
+     */
+    private static AnonymousBallotBox readBallotBox(Path path) throws Exception {
+        return BallotBoxBinary.isBinary(path) ? BallotBoxBinary.read(path)
+                : BallotBoxJson.readAnonymousBallotBox(path);
+    }
+
     public static boolean verifyPublickey(ElGamalPublicKey pk, ShuffleProof proof) {
         log.debug("Verifying public key correct converting");
         log.debug("Getting shuffle proof public key");
@@ -17,16 +17,21 @@ import ee.ivxv.common.model.Proof;
 import ee.ivxv.common.service.bbox.impl.BboxHelperImpl;
 import ee.ivxv.common.service.console.Progress;
 import ee.ivxv.common.util.I18nConsole;
+import ee.ivxv.common.util.ProofBinary;
+import ee.ivxv.common.util.ProofBinary.Chunk;
+import ee.ivxv.common.util.ProofBinary.MappedProofs;
 import ee.ivxv.common.util.ToolHelper;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -37,6 +42,9 @@ import org.slf4j.LoggerFactory;
  * Tool for verifying the correctness of decryptions.
  */
 public class DecryptTool implements Tool.Runner<DecryptArgs> {
+    /** The number of proofs verified together in the batch mode. */
+    static final int BATCH_SIZE = 4096;
+
     private final Logger log = LoggerFactory.getLogger(DecryptTool.class);
 
     private final AuditContext ctx;
@@ -56,11 +64,24 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
         ElGamalPublicKey pub = new ElGamalPublicKey(args.pubPath.value());
         console.println(Msg.m_pub_loaded);
 
-        Proof proofs = tool.readJsonProofs(args.inputPath.value());
+        InvalidDecProofs invalid;
+        if (ProofBinary.isBinary(args.inputPath.value())) {
+            MappedProofs proofs = tool.readBinaryProofs(args.inputPath.value());
+            // Every proof exponentiates the generator and the public key
+            pub.precompute(proofs.getCount());
 
-        console.println();
-        console.println(Msg.m_verify_start);
-        InvalidDecProofs invalid = verifyDecryption(proofs, pub, ctx.args.threads.value());
+            console.println();
+            console.println(Msg.m_verify_start);
+            invalid = verifyDecryption(proofs, pub, ctx.args.threads.value(), args.batch.value());
+        } else {
+            Proof proofs = tool.readJsonProofs(args.inputPath.value());
+            // Every proof exponentiates the generator and the public key
+            pub.precompute(proofs.getCount());
+
+            console.println();
+            console.println(Msg.m_verify_start);
+            invalid = verifyDecryption(proofs, pub, ctx.args.threads.value(), args.batch.value());
+        }
         console.println(Msg.m_verify_finish);
         console.println(Msg.m_failurecount, invalid.getCount());
 
@@ -74,19 +95,22 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
         return true;
     }
 
-    private InvalidDecProofs verifyDecryption(Proof input, ElGamalPublicKey pub, int threadCount)
-            throws Exception {
+    private InvalidDecProofs verifyDecryption(Proof input, ElGamalPublicKey pub, int threadCount,
+            boolean batch) throws Exception {
         InvalidDecProofs idp = new InvalidDecProofs(input.getElection());
         ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
         CompletionService<Void> CompService = new ExecutorCompletionService<>(ioExecutor);
 
         ExecutorService verifyExecutor;
         threadCount = threadCount > 0 ? threadCount : 1;
+        // When the queue is full, the work manager verifies the batch itself, which keeps it from
+        // reading further ahead than the verifiers
         verifyExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
-                new ArrayBlockingQueue<>(threadCount * 2));
+                new ArrayBlockingQueue<>(threadCount * 2),
+                new ThreadPoolExecutor.CallerRunsPolicy());
 
-        WorkManager manager =
-                new WorkManager(input, getVerifyConsumer(pub, idp), verifyExecutor, idp);
+        WorkManager manager = new WorkManager(input, getVerifyConsumer(pub, idp, batch),
+                batch ? BATCH_SIZE : 1, verifyExecutor, idp);
         CompService.submit(manager);
         CompService.submit(idp.getResultWorker());
 
@@ -101,23 +125,79 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
         return idp;
     }
 
-    private Consumer<Proof.ProofJson> getVerifyConsumer(ElGamalPublicKey pub,
-            InvalidDecProofs out) {
-        return (proofJson) -> {
-            Plaintext pt = new Plaintext(proofJson.getMessage());
-            ElGamalCiphertext ct =
-                    new ElGamalCiphertext(pub.getParameters(), proofJson.getCiphertext());
-            ElGamalDecryptionProof proof =
-                    new ElGamalDecryptionProof(ct, pt, pub, proofJson.getProof());
-            try {
-                boolean res = proof.verifyProof();
-                if (!res) {
-                    log.warn("Proof verification failed: {}", proof);
+    /**
+     * Verify the proofs in the binary format. The chunks are decoded and verified independently by
+     * the verifier threads, a chunk is verified as a single batch in the batch mode.
+     */
+    private InvalidDecProofs verifyDecryption(MappedProofs input, ElGamalPublicKey pub,
+            int threadCount, boolean batch) throws Exception {
+        InvalidDecProofs idp = new InvalidDecProofs(input.getElection());
+        Consumer<List<Proof.ProofJson>> consumer = getVerifyConsumer(pub, idp, batch);
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        Future<Void> handler = ioExecutor.submit(idp.getResultWorker());
+
+        threadCount = threadCount > 0 ? threadCount : 1;
+        ExecutorService verifyExecutor = Executors.newFixedThreadPool(threadCount);
+        CompletionService<Integer> compService = new ExecutorCompletionService<>(verifyExecutor);
+        for (Chunk chunk : input.getChunks()) {
+            compService.submit(() -> {
+                consumer.accept(chunk.read());
+                return chunk.getSize();
+            });
+        }
+
+        try {
+            Progress progress = console.startProgress(input.getCount());
+            for (int done = 0; done < input.getChunks().size(); done++) {
+                progress.increase(compService.take().get());
+            }
+            idp.setEot();
+            handler.get();
+            progress.finish();
+        } finally {
+            ioExecutor.shutdownNow();
+            verifyExecutor.shutdownNow();
+        }
+        return idp;
+    }
+
+    private Consumer<List<Proof.ProofJson>> getVerifyConsumer(ElGamalPublicKey pub,
+            InvalidDecProofs out, boolean batch) {
+        return (proofJsons) -> {
+            List<ElGamalDecryptionProof> proofs = new ArrayList<>(proofJsons.size());
+            for (Proof.ProofJson proofJson : proofJsons) {
+                try {
+                    Plaintext pt = new Plaintext(proofJson.getMessage());
+                    ElGamalCiphertext ct =
+                            new ElGamalCiphertext(pub.getParameters(), proofJson.getCiphertext());
+                    proofs.add(new ElGamalDecryptionProof(ct, pt, pub, proofJson.getProof()));
+                } catch (IllegalArgumentException e) {
+                    // A malformed proof is invalid, the rest of the batch is still verified
+                    log.warn("Malformed proof: {}, {}", proofJson.getMessage(), e);
+                    out.addInvalidProof(proofJson);
+                }
+            }
+            if (batch) {
+                boolean[] valid = ElGamalDecryptionProof.verifyProofs(proofs);
+                for (int i = 0; i < valid.length; i++) {
+                    if (!valid[i]) {
+                        log.warn("Proof verification failed: {}", proofs.get(i));
+                        out.addInvalidProof(proofs.get(i));
+                    }
+                }
+                return;
+            }
+            for (ElGamalDecryptionProof proof : proofs) {
+                try {
+                    boolean res = proof.verifyProof();
+                    if (!res) {
+                        log.warn("Proof verification failed: {}", proof);
+                        out.addInvalidProof(proof);
+                    }
+                } catch (MathException e) {
+                    log.warn("Proof verification exception: {}, {}", proof, e);
                     out.addInvalidProof(proof);
                 }
-            } catch (MathException e) {
-                log.warn("Proof verification exception: {}, {}", proof, e);
-                out.addInvalidProof(proof);
             }
         };
     }
@@ -126,25 +206,30 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
         Arg<Path> inputPath = Arg.aPath(Msg.arg_input);
         Arg<Path> pubPath = Arg.aPath(Msg.arg_pub);
         Arg<Path> outputPath = Arg.aPath(Msg.arg_out, false, true);
+        Arg<Boolean> batch = Arg.aFlag(Msg.arg_batch);
 
         public DecryptArgs() {
             super();
             args.add(inputPath);
             args.add(pubPath);
             args.add(outputPath);
+            args.add(batch);
         }
     }
 
     private class WorkManager implements Callable<Void> {
         private final Proof in;
-        private final Consumer<Proof.ProofJson> consumer;
+        private final Consumer<List<Proof.ProofJson>> consumer;
+        private final int batchSize;
         private final ExecutorService verifyExecutor;
         private final InvalidDecProofs idp;
+        private List<Proof.ProofJson> pending = new ArrayList<>();
 
-        WorkManager(Proof in, Consumer<Proof.ProofJson> consumer, ExecutorService verifyExecutor,
-                InvalidDecProofs idp) {
+        WorkManager(Proof in, Consumer<List<Proof.ProofJson>> consumer, int batchSize,
+                ExecutorService verifyExecutor, InvalidDecProofs idp) {
             this.in = in;
             this.consumer = consumer;
+            this.batchSize = batchSize;
             this.verifyExecutor = verifyExecutor;
             this.idp = idp;
         }
@@ -153,26 +238,26 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
         public Void call() throws Exception {
             Progress progress = console.startProgress(in.getCount());
             in.getProofs().forEach(proof -> {
-                boolean taskAdded = false;
-                do {
-                    try {
-                        verifyExecutor.execute(() -> consumer.accept(proof));
-                        taskAdded = true;
-                    } catch (RejectedExecutionException e) {
-                        try {
-                            Thread.sleep(20);
-                        } catch (InterruptedException e1) {
-                            log.warn("Unexpected interruption", e1);
-                        }
-                    }
-                } while (!taskAdded);
-                progress.increase(1);
+                pending.add(proof);
+                if (pending.size() == batchSize) {
+                    submit(progress);
+                }
             });
+            if (!pending.isEmpty()) {
+                submit(progress);
+            }
             verifyExecutor.shutdown();
             verifyExecutor.awaitTermination(1, TimeUnit.DAYS);
             idp.setEot();
             progress.finish();
             return null;
         }
+
+        private void submit(Progress progress) {
+            List<Proof.ProofJson> batch = pending;
+            pending = new ArrayList<>(batchSize);
+            verifyExecutor.execute(() -> consumer.accept(batch));
+            progress.increase(batch.size());
+        }
     }
 }
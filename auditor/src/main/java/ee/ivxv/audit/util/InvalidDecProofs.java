@@ -51,6 +51,15 @@ public class InvalidDecProofs {
         in.add(proof);
     }
 
+    /**
+     * Add invalid proof that could not be parsed.
+     * 
+     * @param proof
+     */
+    public void addInvalidProof(Proof.ProofJson proof) {
+        in.add(proof);
+    }
+
     /**
      * Get the total number of invalid proofs.
      * 
@@ -78,6 +87,8 @@ public class InvalidDecProofs {
             while ((obj = in.take()) != ee.ivxv.common.util.Util.EOT) {
                 if (obj instanceof ElGamalDecryptionProof) {
                     invalidProofs.addProof((ElGamalDecryptionProof) obj);
+                } else if (obj instanceof Proof.ProofJson) {
+                    invalidProofs.addProof((Proof.ProofJson) obj);
                 } else {
                     throw new IllegalArgumentException(
                             "Unexpected decryption result type: " + obj.getClass());
@@ -0,0 +1,187 @@
+package ee.ivxv.audit.shuffle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import ee.ivxv.audit.shuffle.ByteTree.Leaf;
+import ee.ivxv.audit.shuffle.ByteTree.Node;
+import ee.ivxv.audit.shuffle.MappedByteTree.View;
+import ee.ivxv.common.crypto.elgamal.TestParameters;
+import ee.ivxv.common.math.ECGroup;
+import ee.ivxv.common.math.Group;
+import ee.ivxv.common.math.GroupElement;
+import ee.ivxv.common.math.ModPGroup;
+import ee.ivxv.common.math.ModPGroupElement;
+import ee.ivxv.common.math.ProductGroup;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that reading a file through {@link MappedByteTree} gives the same result as
+ * {@link ByteTree#parse(Path)}, and that the mapped product group parsing rejects the inputs that
+ * the parsed one does not check.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class MappedByteTreeTest {
+
+    private static final int COUNT = 50;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Object[] groups() {
+        return new Object[] {"ModP 3072", "P-384"};
+    }
+
+    @Test
+    public void mappedTreeEqualsParsedTree() throws Exception {
+        Random rnd = new Random(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            Path path = write(tree(rnd, 4));
+
+            ByteTree parsed = ByteTree.parse(path);
+            View root = new MappedByteTree(path).getRoot();
+
+            assertEquals(parsed.getEncodedLength(), root.getEncodedLength());
+            assertEquals(parsed.isLeaf(), root.isLeaf());
+            assertEquals(parsed.getLength(), root.getLength());
+            assertArrayEquals(parsed.getEncoded(), root.toByteTree().getEncoded());
+        }
+    }
+
+    @Test
+    @Parameters(method = "groups")
+    public void mappedElementsEqualParsedElements(String name) throws Exception {
+        Group group = group(name);
+        ProductGroup ciphgroup = new ProductGroup(group, 2);
+        GroupElement[] as = elements(group, COUNT);
+        GroupElement[] bs = elements(group, COUNT);
+        Path single = write(new Node(as));
+        Path product = write(new Node(new ByteTree[] {new Node(as), new Node(bs)}));
+
+        assertArrayEquals(DataParser.getAsElementArray(group, ByteTree.parse(single)),
+                DataParser.getAsElementArray(group, new MappedByteTree(single).getRoot()));
+        assertArrayEquals(DataParser.getAsElementArray(ciphgroup, ByteTree.parse(product)),
+                DataParser.getAsElementArray(ciphgroup, new MappedByteTree(product).getRoot()));
+        for (int i : new int[] {0, COUNT / 2, COUNT - 1}) {
+            assertEquals(DataParser.getAsElement(group, ByteTree.parse(single), i),
+                    DataParser.getAsElement(group, new MappedByteTree(single).getRoot(), i));
+        }
+    }
+
+    @Test
+    public void mappedIntegersEqualParsedIntegers() throws Exception {
+        Random rnd = new Random(COUNT);
+        BigInteger[] ints = new BigInteger[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            ints[i] = new BigInteger(256, rnd).subtract(BigInteger.ONE.shiftLeft(255));
+        }
+        Path path = write(new Node(new ByteTree[] {new Leaf(ints[0]), new Node(ints)}));
+
+        assertEquals(DataParser.getAsInteger(ByteTree.parse(path), 0),
+                DataParser.getAsInteger(new MappedByteTree(path).getRoot(), 0));
+        assertArrayEquals(DataParser.getAsIntegerArray(ByteTree.parse(path), 1),
+                DataParser.getAsIntegerArray(new MappedByteTree(path).getRoot(), 1));
+    }
+
+    @Test
+    @Parameters(method = "groups")
+    public void productGroupWithExtraComponentIsRejected(String name) throws Exception {
+        Group group = group(name);
+        GroupElement[] as = elements(group, COUNT);
+        Path path = write(new Node(new ByteTree[] {new Node(as), new Node(as), new Node(as)}));
+
+        // The parsed tree ignores the extra component array
+        DataParser.getAsElementArray(new ProductGroup(group, 2), ByteTree.parse(path));
+        assertRejected(new ProductGroup(group, 2), path);
+    }
+
+    @Test
+    @Parameters(method = "groups")
+    public void productGroupWithComponentsOfDifferentLengthIsRejected(String name)
+            throws Exception {
+        Group group = group(name);
+        GroupElement[] as = elements(group, COUNT);
+        Path path = write(new Node(new ByteTree[] {new Node(Arrays.copyOf(as, COUNT - 1)),
+                new Node(as)}));
+
+        // The parsed tree drops the last element of the longer component array
+        assertEquals(COUNT - 1, DataParser
+                .getAsElementArray(new ProductGroup(group, 2), ByteTree.parse(path)).length);
+        assertRejected(new ProductGroup(group, 2), path);
+    }
+
+    @Test
+    public void truncatedOrTrailingDataIsRejected() throws Exception {
+        byte[] encoded = tree(new Random(COUNT), 4).getEncoded();
+
+        for (int len : new int[] {0, 4, encoded.length - 1, encoded.length + 1}) {
+            Path path = tmp.newFile().toPath();
+            Files.write(path, Arrays.copyOf(encoded, len));
+            try {
+                new MappedByteTree(path).getRoot();
+                fail("Invalid bytetree of length " + len + " was mapped");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private void assertRejected(ProductGroup group, Path path) throws Exception {
+        try {
+            DataParser.getAsElementArray(group, new MappedByteTree(path).getRoot());
+            fail("Invalid product group elements were accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private Path write(ByteTree tree) throws Exception {
+        Path path = tmp.newFile().toPath();
+        Files.write(path, tree.getEncoded());
+        return path;
+    }
+
+    private static ByteTree tree(Random rnd, int depth) {
+        if (depth == 0 || rnd.nextInt(3) == 0) {
+            byte[] value = new byte[rnd.nextInt(40)];
+            rnd.nextBytes(value);
+            return new Leaf(value);
+        }
+        ByteTree[] nodes = new ByteTree[rnd.nextInt(5)];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = tree(rnd, depth - 1);
+        }
+        return new Node(nodes);
+    }
+
+    private static Group group(String name) {
+        return name.equals("P-384") ? new ECGroup(ECGroup.P384)
+                : new ModPGroup(TestParameters.MODP_3072);
+    }
+
+    private static GroupElement[] elements(Group group, int count) {
+        Random rnd = new Random(count);
+        GroupElement[] els = new GroupElement[count];
+        for (int i = 0; i < count; i++) {
+            if (group instanceof ECGroup) {
+                els[i] = ((ECGroup) group).getBasePoint().scale(new BigInteger(384, rnd));
+            } else {
+                els[i] = new ModPGroupElement((ModPGroup) group,
+                        new BigInteger(3071, rnd).add(BigInteger.ONE));
+            }
+        }
+        return els;
+    }
+
+}
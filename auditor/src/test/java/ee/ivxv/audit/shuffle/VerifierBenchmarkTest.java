@@ -0,0 +1,122 @@
+package ee.ivxv.audit.shuffle;
+
+import static org.junit.Assert.assertEquals;
+
+import ee.ivxv.common.math.ECGroup;
+import ee.ivxv.common.math.Group;
+import ee.ivxv.common.math.GroupElement;
+import ee.ivxv.common.math.MathUtil;
+import ee.ivxv.common.math.ModPGroup;
+import ee.ivxv.common.service.console.Progress;
+import java.math.BigInteger;
+import java.util.Random;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the throughput of the steps of the shuffle verification on the P-384 curve and in the
+ * ModP groups of the same (7680-bit) and of the usual (3072-bit) size.
+ * <p>
+ * The benchmark is skipped unless run with {@code -Pbenchmark}, which sets the system property
+ * {@code ivxv.benchmark}.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class VerifierBenchmarkTest {
+
+    private static final int N = 1000;
+    private static final int ROUNDS = 2;
+    private static final int N_R = 100;
+    private static final int N_E = 256;
+    private static final String HASH = "SHA-256";
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    private static Object[] groups() {
+        return new Object[] {"P-384", "ModP 3072", "ModP 7680"};
+    }
+
+    @Test
+    @Parameters(method = "groups")
+    public void verificationSteps(String name) throws Exception {
+        Group group = group(name);
+        BigInteger q = group instanceof ModPGroup
+                ? MathUtil.safePrimeOrder(((ModPGroup) group).getOrder()) : group.getOrder();
+        Verifier verifier = new Verifier(null);
+        Random rnd = new Random(N);
+        byte[] rho = new byte[32];
+        rnd.nextBytes(rho);
+        BigInteger[] e = new BigInteger[N];
+        BigInteger[] k = new BigInteger[N];
+        for (int i = 0; i < N; i++) {
+            e[i] = new BigInteger(N_E, rnd);
+            k[i] = new BigInteger(q.bitLength(), rnd).mod(q);
+        }
+
+        // The first round warms up the JIT, the best of the others is reported
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int round = 0; round <= ROUNDS; round++) {
+            long[] t = new long[best.length + 1];
+            t[0] = System.nanoTime();
+            GroupElement[] h = verifier.compute_h(group, rho, N_R, N, HASH, HASH);
+            t[1] = System.nanoTime();
+            verifier.compute_A(new NoProgress(), h, e);
+            t[2] = System.nanoTime();
+            Verifier.multiScale(new NoProgress(), h, k, 0, N);
+            t[3] = System.nanoTime();
+            verifier.compute_C(new NoProgress(), h, h);
+            t[4] = System.nanoTime();
+            assertEquals(N, h.length);
+            for (int i = 0; round > 0 && i < best.length; i++) {
+                best[i] = Math.min(best[i], t[i + 1] - t[i]);
+            }
+        }
+
+        System.out.printf("%-9s N=%d: derive generators %s, short exponents %s, "
+                + "full exponents %s, product %s (elements/s)%n", name, N, rate(best[0]),
+                rate(best[1]), rate(best[2]), rate(best[3]));
+    }
+
+    private static String rate(long nanos) {
+        return String.format("%.0f", N * 1e9 / nanos);
+    }
+
+    private static Group group(String name) {
+        switch (name) {
+            case "P-384":
+                return new ECGroup(ECGroup.P384);
+            case "ModP 3072":
+                return modp(3072);
+            default:
+                return modp(7680);
+        }
+    }
+
+    private static ModPGroup modp(int bits) {
+        // The cost of the arithmetic does not depend on whether the prime is safe, which would be
+        // slow to find at 7680 bits
+        return new ModPGroup(BigInteger.probablePrime(bits, new Random(bits)));
+    }
+
+    private static class NoProgress implements Progress {
+
+        @Override
+        public void increase(int amount) {
+            // Not reported
+        }
+
+        @Override
+        public void finish() {
+            // Not reported
+        }
+
+    }
+
+}
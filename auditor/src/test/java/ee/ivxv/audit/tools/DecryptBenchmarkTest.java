@@ -0,0 +1,127 @@
+package ee.ivxv.audit.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import ee.ivxv.common.crypto.Plaintext;
+import ee.ivxv.common.crypto.elgamal.ElGamalCiphertext;
+import ee.ivxv.common.crypto.elgamal.ElGamalDecryptionProof;
+import ee.ivxv.common.crypto.elgamal.ElGamalParameters;
+import ee.ivxv.common.crypto.elgamal.ElGamalPrivateKey;
+import ee.ivxv.common.crypto.elgamal.ElGamalPublicKey;
+import ee.ivxv.common.crypto.elgamal.TestParameters;
+import ee.ivxv.common.crypto.rnd.NativeRnd;
+import ee.ivxv.common.model.Proof;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the rate of verifying decryption proofs one by one and in batches of
+ * {@link DecryptTool#BATCH_SIZE}, parsing the proofs from their serialized form as the decrypt
+ * tool does.
+ * <p>
+ * The proofs are verified by one thread per available processor. A pool of one batch of distinct
+ * proofs is repeated up to the number of proofs, which is 1M by default and can be set with
+ * {@code -Pbenchmark.proofs=<count>}. The benchmark is skipped unless run with
+ * {@code -Pbenchmark}, which sets the system property {@code ivxv.benchmark}.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class DecryptBenchmarkTest {
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    private static Object[] params() {
+        return new Object[] {new Object[] {"P-384", false}, new Object[] {"P-384", true},
+                new Object[] {"ModP 3072", false}, new Object[] {"ModP 3072", true}};
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void verify(String name, boolean batch) throws Exception {
+        long total = Long.getLong("ivxv.benchmark.proofs", 1_000_000L);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ElGamalParameters params =
+                name.equals("P-384") ? TestParameters.p384() : TestParameters.modp3072();
+        ElGamalPrivateKey key = new ElGamalPrivateKey(params,
+                new BigInteger(params.getGeneratorOrder().bitLength() + 64, new Random(total))
+                        .mod(params.getGeneratorOrder()));
+        ElGamalPublicKey pub = key.getPublicKey();
+        List<Proof.ProofJson> pool = proofs(key, pub);
+        pub.precompute(total);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        long invalid = 0;
+        try {
+            List<Future<Integer>> batches = new ArrayList<>();
+            for (long from = 0; from < total; from += DecryptTool.BATCH_SIZE) {
+                int size = (int) Math.min(DecryptTool.BATCH_SIZE, total - from);
+                batches.add(executor.submit(() -> verify(pub, pool.subList(0, size), batch)));
+            }
+            for (Future<Integer> f : batches) {
+                invalid += f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("%-9s %s: verified %d proofs with %d threads in %.1f s, %.0f proofs/s%n",
+                name, batch ? "batch     " : "one by one", total, threads, nanos / 1e9,
+                total * 1e9 / nanos);
+        assertEquals(0, invalid);
+    }
+
+    private static int verify(ElGamalPublicKey pub, List<Proof.ProofJson> jsons, boolean batch)
+            throws Exception {
+        List<ElGamalDecryptionProof> proofs = new ArrayList<>(jsons.size());
+        for (Proof.ProofJson json : jsons) {
+            ElGamalCiphertext ct = new ElGamalCiphertext(pub.getParameters(), json.getCiphertext());
+            proofs.add(new ElGamalDecryptionProof(ct, new Plaintext(json.getMessage()), pub,
+                    json.getProof()));
+        }
+        int invalid = 0;
+        if (batch) {
+            for (boolean valid : ElGamalDecryptionProof.verifyProofs(proofs)) {
+                invalid += valid ? 0 : 1;
+            }
+            return invalid;
+        }
+        for (ElGamalDecryptionProof proof : proofs) {
+            invalid += proof.verifyProof() ? 0 : 1;
+        }
+        return invalid;
+    }
+
+    /**
+     * @return A batch of distinct serialized proofs, so that the batches do not merge equal
+     *         messages.
+     */
+    private static List<Proof.ProofJson> proofs(ElGamalPrivateKey key, ElGamalPublicKey pub) {
+        return IntStream.range(0, DecryptTool.BATCH_SIZE).parallel().mapToObj(i -> {
+            try {
+                ElGamalCiphertext ct = pub.encrypt(new Plaintext("vote " + i), new NativeRnd());
+                return new Proof.ProofJson(key.provableDecrypt(ct));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).collect(Collectors.toList());
+    }
+
+}
@@ -5,6 +5,8 @@ import ee.ivxv.common.conf.Conf;
 import ee.ivxv.common.conf.ConfLoader;
 import ee.ivxv.common.conf.ConfVerifier;
 import ee.ivxv.common.conf.LocaleConfLoader;
+import ee.ivxv.common.math.ModPGroup;
+import ee.ivxv.common.model.VoteStore;
 import ee.ivxv.common.service.container.InvalidContainerException;
 import ee.ivxv.common.service.i18n.MessageException;
 import ee.ivxv.common.util.ContainerHelper;
@@ -211,6 +213,14 @@ public class AppRunner<T extends AppContext<?>> {
             throw new ParseException(Msg.e_common_args_invalid);
         }
 
+        // Select the storage of encrypted votes before any ballots are created
+        VoteStore store = VoteStore.create(cargs.ballotStore.value());
+        VoteStore.setDefault(store);
+        finalizers.add(store::close);
+
+        // Select the arithmetic of the modular groups before any keys are read
+        ModPGroup.setDefaultBackend(cargs.modpBackend.value());
+
         // Create application-specific application context and run the tool
         T ctx = createContext();
         console.println();
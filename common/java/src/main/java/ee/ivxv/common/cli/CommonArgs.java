@@ -1,5 +1,7 @@
 package ee.ivxv.common.cli;
 
+import ee.ivxv.common.math.ModPGroup;
+import ee.ivxv.common.model.VoteStore;
 import java.nio.file.Path;
 
 /**
@@ -19,6 +21,15 @@ public class CommonArgs extends Args {
     public final Arg<String> lang = Arg.aString(Msg.arg_lang).setOptional();
     public final Arg<Integer> ct = Arg.anInt(Msg.arg_container_threads).setDefault(0).setOptional();
     public final Arg<Integer> threads = Arg.anInt(Msg.arg_threads).setDefault(p + 1).setOptional();
+    public final Arg<Integer> zipThreads =
+            Arg.anInt(Msg.arg_zip_threads).setDefault(0).setOptional();
+    public final Arg<String> ballotStore = Arg.aChoice(Msg.arg_ballot_store, VoteStore.HEAP,
+            VoteStore.MAPPED).setDefault(VoteStore.HEAP).setOptional();
+    public final Arg<Boolean> compactJson = Arg.aFlag(Msg.arg_compact_json).setOptional();
+    public final Arg<Boolean> binaryAbb = Arg.aFlag(Msg.arg_binary_abb).setOptional();
+    public final Arg<ModPGroup.Backend> modpBackend =
+            Arg.aChoice(Msg.arg_modp_backend, ModPGroup.Backend.values())
+                    .setDefault(ModPGroup.Backend.BIG_INTEGER).setOptional();
 
     public CommonArgs() {
         args.add(help);
@@ -29,5 +40,10 @@ public class CommonArgs extends Args {
         args.add(lang);
         args.add(ct);
         args.add(threads);
+        args.add(zipThreads);
+        args.add(ballotStore);
+        args.add(compactJson);
+        args.add(binaryAbb);
+        args.add(modpBackend);
     }
 }
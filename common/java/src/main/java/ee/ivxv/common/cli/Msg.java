@@ -38,7 +38,8 @@ public enum Msg implements NameHolder {
 
     // Common arguments
     arg_help("h"), arg_conf("c"), arg_params("p"), arg_force("f"), arg_quiet("q"), arg_lang, //
-    arg_container_threads("ct"), arg_threads("t"),
+    arg_container_threads("ct"), arg_threads("t"), arg_zip_threads("zt"), //
+    arg_ballot_store("bs"), arg_compact_json, arg_binary_abb, arg_modp_backend,
 
     // Verify tool arguments
     arg_file;
@@ -14,6 +14,8 @@ import java.security.SignatureException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.Map;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.ocsp.BasicOCSPResp;
@@ -56,10 +58,17 @@ public class CryptoUtil {
 
     /**
      * PublicKeyHolder is a helper class for common operations with public key.
+     *
+     * <p>
+     * {@code Signature} objects are cached per thread and algorithm, initialized for verification
+     * with the key of the holder, since the provider lookup and key setup are expensive compared to
+     * verifying a single small signature.
      */
     public static class PublicKeyHolder {
 
         private final PublicKey key;
+        private final ThreadLocal<Map<String, Signature>> verifiers =
+                ThreadLocal.withInitial(HashMap::new);
 
         PublicKeyHolder(PublicKey key) {
             this.key = key;
@@ -74,13 +83,21 @@ public class CryptoUtil {
         }
 
         public boolean verify(byte[] data, byte[] signature, String algorithm) {
+            Map<String, Signature> cache = verifiers.get();
+            // Removing the instance while in use prevents reusing it after a failure
+            Signature dsa = cache.remove(algorithm);
             try {
-                Signature dsa = createSignature(algorithm);
-
-                dsa.initVerify(key);
+                if (dsa == null) {
+                    dsa = createSignature(algorithm);
+                    dsa.initVerify(key);
+                }
                 dsa.update(data);
 
-                return dsa.verify(signature);
+                boolean result = dsa.verify(signature);
+                // verify() resets the object to the state after initVerify(), so it can be reused
+                cache.put(algorithm, dsa);
+
+                return result;
             } catch (InvalidKeyException | NoSuchAlgorithmException | SignatureException e) {
                 throw new RuntimeException(e.getMessage(), e);
             }
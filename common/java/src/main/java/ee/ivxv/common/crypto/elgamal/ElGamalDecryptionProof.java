@@ -5,11 +5,19 @@ import ee.ivxv.common.asn1.Field;
 import ee.ivxv.common.asn1.Sequence;
 import ee.ivxv.common.crypto.Plaintext;
 import ee.ivxv.common.crypto.rnd.DPRNG;
+import ee.ivxv.common.math.Group;
 import ee.ivxv.common.math.GroupElement;
 import ee.ivxv.common.math.IntegerConstructor;
 import ee.ivxv.common.math.MathException;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * ElGamalDecryptionProof holds the decrypted message and proof of correct decryption.
@@ -26,6 +34,14 @@ import java.math.BigInteger;
  * For more detailed description of the proof protocol, see the framework documentation.
  */
 public class ElGamalDecryptionProof {
+    /**
+     * The bit length of the random exponents of batch verification. A batch containing an invalid
+     * proof passes the combined verification with probability at most 2^-{@value}.
+     */
+    public static final int BATCH_SECURITY_BITS = 64;
+    /** Batches smaller than this are verified proof by proof. */
+    private static final int MIN_BATCH = 4;
+
     private static final byte[] NI_PROOF_DOMAIN = new Field("DECRYPTION").encode();
     public final ElGamalPublicKey publickey;
     public ElGamalCiphertext ciphertext;
@@ -221,6 +237,87 @@ public class ElGamalDecryptionProof {
         return verifySecretKeyProof(k) && verifyDecryptionProof(k);
     }
 
+    /**
+     * Verify the correctness of many proofs at once.
+     * <p>
+     * The verification equations of all proofs are combined into two equations using random
+     * {@value #BATCH_SECURITY_BITS}-bit exponents (the small exponents test of Bellare, Garay and
+     * Rabin), which are evaluated using multi-exponentiation. The test is sound only if all the
+     * group elements belong to the prime order subgroup, which is screened first. A batch that
+     * fails is bisected to locate the invalid proofs, and small batches are verified proof by
+     * proof using {@link #verifyProof()}, which remains authoritative: a proof is reported invalid
+     * only if it fails on its own.
+     * <p>
+     * All the proofs must be for the same public key.
+     * 
+     * @param proofs
+     * @return Validity of the proofs, in the same order. A proof whose verification throws is
+     *         invalid.
+     */
+    public static boolean[] verifyProofs(List<ElGamalDecryptionProof> proofs) {
+        return verifyProofs(proofs, new SecureRandom());
+    }
+
+    static boolean[] verifyProofs(List<ElGamalDecryptionProof> proofs, Random rnd) {
+        ElGamalPublicKey pub = proofs.isEmpty() ? null : proofs.get(0).publickey;
+        for (ElGamalDecryptionProof p : proofs) {
+            if (p.publickey != pub && !(p.publickey.getKey().equals(pub.getKey())
+                    && p.publickey.getParameters().equals(pub.getParameters()))) {
+                throw new IllegalArgumentException("Proofs for different public keys");
+            }
+        }
+        boolean[] res = new boolean[proofs.size()];
+        List<BatchEntry> entries = new ArrayList<>(proofs.size());
+        for (int i = 0; i < res.length; i++) {
+            BatchEntry entry = BatchEntry.prepare(proofs.get(i), i);
+            if (entry != null) {
+                entries.add(entry);
+            } else {
+                res[i] = verifySingle(proofs.get(i));
+            }
+        }
+        verifyBatch(proofs, entries, res, rnd, false, false);
+        return res;
+    }
+
+    /**
+     * Verify the batch, bisecting it if it fails. If the first half of a failed batch passes, the
+     * second half is known to fail and is bisected without testing it first. The subsets of a
+     * screened batch need not be screened again.
+     */
+    private static void verifyBatch(List<ElGamalDecryptionProof> proofs, List<BatchEntry> entries,
+            boolean[] res, Random rnd, boolean screened, boolean failed) {
+        if (entries.size() < MIN_BATCH) {
+            entries.forEach(e -> res[e.index] = verifySingle(proofs.get(e.index)));
+            return;
+        }
+        if (!failed) {
+            BatchEntry.Result r = BatchEntry.verify(entries, rnd, screened);
+            if (r == BatchEntry.Result.VALID) {
+                entries.forEach(e -> res[e.index] = true);
+                return;
+            }
+            screened = r == BatchEntry.Result.INVALID;
+        }
+        int mid = entries.size() / 2;
+        List<BatchEntry> first = entries.subList(0, mid);
+        verifyBatch(proofs, first, res, rnd, screened, false);
+        boolean firstValid = true;
+        for (BatchEntry e : first) {
+            firstValid &= res[e.index];
+        }
+        verifyBatch(proofs, entries.subList(mid, entries.size()), res, rnd, screened,
+                firstValid && first.size() >= MIN_BATCH);
+    }
+
+    private static boolean verifySingle(ElGamalDecryptionProof proof) {
+        try {
+            return proof.verifyProof();
+        } catch (MathException | RuntimeException e) {
+            return false;
+        }
+    }
+
     /**
      * Verify the proof of knowledge of the secret key
      * 
@@ -247,8 +344,8 @@ public class ElGamalDecryptionProof {
      */
     public boolean verifyDecryptionProof(BigInteger challenge) throws MathException {
         // verify that g^s = b*y^k
-        GroupElement left = publickey.getParameters().getGenerator().scale(response);
-        GroupElement right = publickey.getKey().scale(challenge).op(keyCommitment);
+        GroupElement left = publickey.getParameters().scaleGenerator(response);
+        GroupElement right = publickey.scaleKey(challenge).op(keyCommitment);
         return left.equals(right);
     }
 
@@ -329,4 +426,128 @@ public class ElGamalDecryptionProof {
         return new Sequence(msgCommitment.getBytes(), keyCommitment.getBytes(),
                 new Field(response).encode()).encode();
     }
+
+    /**
+     * BatchEntry holds the values of a proof needed for the batch verification. For a valid proof
+     * {@literal c1^s = a * (c2/d)^k} and {@literal g^s = b * y^k}, where {@literal d} is the
+     * encoded message.
+     */
+    private static class BatchEntry {
+        enum Result {
+            VALID, INVALID, NOT_SCREENED
+        }
+
+        final int index;
+        final ElGamalPublicKey pub;
+        final GroupElement a;
+        final GroupElement b;
+        final GroupElement c1;
+        final GroupElement c2;
+        final GroupElement d;
+        final BigInteger k;
+        final BigInteger s;
+
+        private BatchEntry(int index, ElGamalDecryptionProof p, GroupElement d, BigInteger k) {
+            this.index = index;
+            this.pub = p.publickey;
+            this.a = p.msgCommitment;
+            this.b = p.keyCommitment;
+            this.c1 = p.ciphertext.getBlind();
+            this.c2 = p.ciphertext.getBlindedMessage();
+            this.d = d;
+            this.k = k;
+            this.s = p.response;
+        }
+
+        /**
+         * @return Returns the entry of the proof, or {@code null} if the proof can not be batched.
+         */
+        static BatchEntry prepare(ElGamalDecryptionProof p, int index) {
+            try {
+                Group group = p.publickey.getParameters().getGroup();
+                GroupElement d = group.encode(group.pad(p.decrypted));
+                return new BatchEntry(index, p, d, p.computeChallenge());
+            } catch (MathException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Check the combined equations
+         * {@literal prod c1^(r*s) * c2^(-r*k) * d^(r*k) = prod a^r} and
+         * {@literal g^(sum r*s) = prod b^r * y^(sum r*k)} for random {@literal r}. The powers of
+         * equal encoded messages are combined, as the ballots usually repeat the same choices.
+         *
+         * @param screened Whether the elements are known to be in the prime order subgroup.
+         * @return {@code NOT_SCREENED} if the elements did not pass the screening,
+         *         {@code INVALID} if the equations do not hold.
+         */
+        static Result verify(List<BatchEntry> entries, Random rnd, boolean screened) {
+            ElGamalPublicKey pub = entries.get(0).pub;
+            ElGamalParameters params = pub.getParameters();
+            Group group = params.getGroup();
+            BigInteger q = params.getGeneratorOrder();
+            int n = entries.size();
+
+            GroupElement[] lhsBases = new GroupElement[2 * n];
+            BigInteger[] lhsExps = new BigInteger[2 * n];
+            GroupElement[] a = new GroupElement[n];
+            GroupElement[] b = new GroupElement[n];
+            BigInteger[] r = new BigInteger[n];
+            Map<GroupElement, BigInteger> dExps = new LinkedHashMap<>();
+            BigInteger sumS = BigInteger.ZERO;
+            BigInteger sumK = BigInteger.ZERO;
+            for (int i = 0; i < n; i++) {
+                BatchEntry e = entries.get(i);
+                r[i] = new BigInteger(BATCH_SECURITY_BITS, rnd);
+                BigInteger rs = r[i].multiply(e.s).mod(q);
+                BigInteger rk = r[i].multiply(e.k).mod(q);
+                lhsBases[i] = e.c1;
+                lhsExps[i] = rs;
+                lhsBases[n + i] = e.c2;
+                lhsExps[n + i] = q.subtract(rk);
+                dExps.merge(e.d, rk, BigInteger::add);
+                a[i] = e.a;
+                b[i] = e.b;
+                sumS = sumS.add(rs);
+                sumK = sumK.add(rk);
+            }
+
+            // the exponents are reduced modulo q, which is sound only in the subgroup of order q
+            if (!screened) {
+                List<GroupElement> all = new ArrayList<>(4 * n + dExps.size() + 2);
+                all.add(params.getGenerator());
+                all.add(pub.getKey());
+                all.addAll(dExps.keySet());
+                for (BatchEntry e : entries) {
+                    all.add(e.a);
+                    all.add(e.b);
+                    all.add(e.c1);
+                    all.add(e.c2);
+                }
+                if (!group.areDecodable(all.toArray(new GroupElement[all.size()]))) {
+                    return Result.NOT_SCREENED;
+                }
+            }
+
+            GroupElement[] bases = Arrays.copyOf(lhsBases, 2 * n + dExps.size());
+            BigInteger[] exps = Arrays.copyOf(lhsExps, bases.length);
+            int i = 2 * n;
+            for (Map.Entry<GroupElement, BigInteger> e : dExps.entrySet()) {
+                bases[i] = e.getKey();
+                exps[i++] = e.getValue().mod(q);
+            }
+
+            try {
+                if (!group.multiScale(bases, exps).equals(group.multiScale(a, r))) {
+                    return Result.INVALID;
+                }
+                GroupElement left = params.scaleGenerator(sumS.mod(q));
+                GroupElement right = group.multiScale(b, r).op(pub.scaleKey(sumK.mod(q)));
+                return left.equals(right) ? Result.VALID : Result.INVALID;
+            } catch (MathException e) {
+                return Result.INVALID;
+            }
+        }
+    }
 }
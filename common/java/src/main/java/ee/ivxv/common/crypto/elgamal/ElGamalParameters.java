@@ -5,6 +5,7 @@ import ee.ivxv.common.asn1.Field;
 import ee.ivxv.common.asn1.Sequence;
 import ee.ivxv.common.math.ECGroup;
 import ee.ivxv.common.math.ECGroupElement;
+import ee.ivxv.common.math.FixedBaseTable;
 import ee.ivxv.common.math.Group;
 import ee.ivxv.common.math.GroupElement;
 import ee.ivxv.common.math.ModPGroup;
@@ -26,6 +27,7 @@ public class ElGamalParameters {
     private Group group;
     private GroupElement generator;
     private String electionIdentifier;
+    private volatile FixedBaseTable generatorTable;
 
     /**
      * Initialize the parameters using the group and generator.
@@ -210,6 +212,29 @@ public class ElGamalParameters {
         return this.generator;
     }
 
+    /**
+     * Precompute the powers of the generator for the expected number of exponentiations, which
+     * speeds up {@link #scaleGenerator(BigInteger)} when the number is large enough.
+     * 
+     * @see ee.ivxv.common.math.FixedBaseTable#create(GroupElement, long)
+     * 
+     * @param uses The expected number of exponentiations of the generator.
+     */
+    public void precompute(long uses) {
+        generatorTable = FixedBaseTable.create(generator, uses);
+    }
+
+    /**
+     * Scale the generator, using the precomputed table if it exists.
+     * 
+     * @param factor
+     * @return
+     */
+    public GroupElement scaleGenerator(BigInteger factor) {
+        FixedBaseTable table = generatorTable;
+        return table != null ? table.scale(factor) : generator.scale(factor);
+    }
+
     public BigInteger getOrder() {
         return this.group.getOrder();
     }
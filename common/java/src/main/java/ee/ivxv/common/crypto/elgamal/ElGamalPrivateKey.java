@@ -97,7 +97,7 @@ public class ElGamalPrivateKey {
     }
 
     private GroupElement computePublicPart() {
-        return getParameters().getGenerator().scale(key);
+        return getParameters().scaleGenerator(key);
     }
 
     /**
@@ -201,7 +201,7 @@ public class ElGamalPrivateKey {
         ElGamalDecryptionProof proof = new ElGamalDecryptionProof(ct, plaintext, getPublicKey());
         BigInteger r = IntegerConstructor.construct(rnd, getParameters().getGeneratorOrder());
         GroupElement a = ct.getBlind().scale(r);
-        GroupElement b = getParameters().getGenerator().scale(r);
+        GroupElement b = getParameters().scaleGenerator(r);
         proof.setMessageCommitment(a);
         proof.setKeyCommitment(b);
         BigInteger k = proof.computeChallenge();
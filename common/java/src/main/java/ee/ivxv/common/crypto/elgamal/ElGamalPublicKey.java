@@ -5,6 +5,7 @@ import ee.ivxv.common.asn1.X509PublicKey;
 import ee.ivxv.common.crypto.Plaintext;
 import ee.ivxv.common.crypto.rnd.NativeRnd;
 import ee.ivxv.common.crypto.rnd.Rnd;
+import ee.ivxv.common.math.FixedBaseTable;
 import ee.ivxv.common.math.GroupElement;
 import ee.ivxv.common.math.IntegerConstructor;
 import ee.ivxv.common.math.MathException;
@@ -22,6 +23,7 @@ import java.security.KeyException;
 public class ElGamalPublicKey {
     private final ElGamalParameters parameters;
     private final GroupElement key;
+    private volatile FixedBaseTable keyTable;
 
     /**
      * Initialize using parameters and a public key instance.
@@ -102,6 +104,31 @@ public class ElGamalPublicKey {
         return key;
     }
 
+    /**
+     * Precompute the powers of the generator and the public key for the expected number of
+     * exponentiations, which speeds up encryption and the verification of decryption proofs when
+     * the number is large enough.
+     * 
+     * @see ee.ivxv.common.math.FixedBaseTable#create(GroupElement, long)
+     * 
+     * @param uses The expected number of exponentiations of either base.
+     */
+    public void precompute(long uses) {
+        parameters.precompute(uses);
+        keyTable = FixedBaseTable.create(key, uses);
+    }
+
+    /**
+     * Scale the public key, using the precomputed table if it exists.
+     * 
+     * @param factor
+     * @return
+     */
+    public GroupElement scaleKey(BigInteger factor) {
+        FixedBaseTable table = keyTable;
+        return table != null ? table.scale(factor) : key.scale(factor);
+    }
+
     /**
      * Serialize as X509 public key.
      * 
@@ -189,8 +216,8 @@ public class ElGamalPublicKey {
             throw new KeyException("Encoding for key parameters failed: " + e);
         }
         try {
-            return new ElGamalCiphertext(getParameters().getGenerator().scale(r),
-                    getKey().scale(r).op(el), getParameters().getOID());
+            return new ElGamalCiphertext(getParameters().scaleGenerator(r),
+                    scaleKey(r).op(el), getParameters().getOID());
         } catch (MathException e) {
             throw new KeyException("Key initialization error");
         }
@@ -0,0 +1,58 @@
+package ee.ivxv.common.math;
+
+import java.math.BigInteger;
+
+/**
+ * BarrettReduction multiplies integers modulo a fixed modulus, reducing the products using the
+ * Barrett reduction. It is faster than {@code BigInteger.mod} for repeated reductions with the
+ * same modulus.
+ */
+final class BarrettReduction {
+    /**
+     * The cost of {@code BigInteger.modPow} per exponent bit, in multiplications of this class. The
+     * Montgomery arithmetic of {@code modPow} is several times faster per operation than a
+     * multiplication and a reduction of {@code BigInteger} values, hence an exponentiation costs
+     * about as much as a fifth of the exponent bits of those.
+     */
+    static final double MODPOW_COST_PER_BIT = 0.2;
+
+    private final BigInteger p;
+    private final BigInteger mu;
+    private final int k;
+
+    BarrettReduction(BigInteger p) {
+        this.p = p;
+        this.k = p.bitLength();
+        this.mu = BigInteger.ONE.shiftLeft(2 * k).divide(p);
+    }
+
+    BigInteger getModulus() {
+        return p;
+    }
+
+    /**
+     * Multiply two values less than the modulus.
+     */
+    BigInteger multiply(BigInteger a, BigInteger b) {
+        return reduce(a.multiply(b));
+    }
+
+    /**
+     * Reduce a value less than the square of the modulus.
+     */
+    BigInteger reduce(BigInteger x) {
+        BigInteger q = x.shiftRight(k - 1).multiply(mu).shiftRight(k + 1);
+        BigInteger r = x.subtract(q.multiply(p));
+        while (r.compareTo(p) >= 0) {
+            r = r.subtract(p);
+        }
+        return r;
+    }
+
+    /**
+     * Reduce an arbitrary value to the range [0, p).
+     */
+    BigInteger normalize(BigInteger x) {
+        return x.signum() < 0 || x.compareTo(p) >= 0 ? x.mod(p) : x;
+    }
+}
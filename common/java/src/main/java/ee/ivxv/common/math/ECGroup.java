@@ -3,6 +3,7 @@ package ee.ivxv.common.math;
 import ee.ivxv.common.asn1.ASN1DecodingException;
 import ee.ivxv.common.asn1.Field;
 import ee.ivxv.common.crypto.Plaintext;
+import ee.ivxv.common.math.MultiExponentiation.ECArithmetic;
 import java.math.BigInteger;
 import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECFieldElement;
@@ -179,6 +180,27 @@ public class ECGroup extends Group {
         return new ECGroupElement(this, X, Y);
     }
 
+    /**
+     * Get the point with the given x-coordinate and the smaller of the two possible
+     * y-coordinates.
+     *
+     * @param x The x-coordinate, less than the field order.
+     * @return The point, or {@code null} if there is no point with the x-coordinate.
+     */
+    public ECGroupElement getPointWithX(BigInteger x) {
+        ECFieldElement X = curve.fromBigInteger(x);
+        ECFieldElement Y = X.square().add(curve.getA()).multiply(X).add(curve.getB()).sqrt();
+        if (Y == null) {
+            return null;
+        }
+        BigInteger y = Y.toBigInteger();
+        BigInteger negy = curve.getField().getCharacteristic().subtract(y);
+        if (y.signum() != 0 && negy.compareTo(y) < 0) {
+            Y = curve.fromBigInteger(negy);
+        }
+        return new ECGroupElement(this, X, Y);
+    }
+
     @Override
     public Decodable isDecodable(GroupElement el) {
         if (!isGroupElement(el)) {
@@ -192,10 +214,36 @@ public class ECGroup extends Group {
         return Decodable.VALID;
     }
 
+    /**
+     * Compute the sum of multiples using the multi-exponentiation method of Straus or Pippenger,
+     * whichever is estimated to be faster.
+     * <p>
+     * Negative factors and factors not less than the order are reduced modulo the order.
+     * 
+     * @see MultiExponentiation
+     */
+    @Override
+    public GroupElement multiScale(GroupElement[] bases, BigInteger[] factors)
+            throws MathException {
+        checkMultiScale(bases, factors);
+        BigInteger order = getOrder();
+        ECPoint[] points = new ECPoint[bases.length];
+        BigInteger[] exps = new BigInteger[factors.length];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = ((ECGroupElement) bases[i]).getPoint();
+            exps[i] = factors[i].signum() < 0 || factors[i].compareTo(order) >= 0
+                    ? factors[i].mod(order)
+                    : factors[i];
+        }
+        ECPoint res = MultiExponentiation.compute(new ECArithmetic(curve), points, exps,
+                FixedBaseTable.ECTable.PLAIN_COST_PER_BIT);
+        return res == null ? getIdentity() : new ECGroupElement(this, res);
+    }
+
     @Override
     public Plaintext decode(GroupElement msg) {
         ECGroupElement m = (ECGroupElement) msg;
-        ECPoint M = m.getPoint();
+        ECPoint M = m.getAffinePoint();
         BigInteger MM = M.getAffineXCoord().toBigInteger().shiftRight(ENCODING_SUCCESS);
         return new Plaintext(MM, paddedMessageLengthBits(), true);
     }
@@ -9,6 +9,11 @@ import org.bouncycastle.math.ec.ECPoint;
 
 /**
  * ECGroupElement holds elliptic curve points.
+ * <p>
+ * The points are kept in the coordinates the curve computes in (Jacobian for the NIST prime
+ * curves) and are brought to affine coordinates only when the coordinates are needed, as that
+ * takes a field inversion. Arrays of points can be normalized together using
+ * {@link #normalizeAll(ECGroupElement[])}.
  */
 public class ECGroupElement extends GroupElement {
     private final ECGroup group;
@@ -22,7 +27,7 @@ public class ECGroupElement extends GroupElement {
      */
     public ECGroupElement(ECGroup group, ECPoint point) {
         this.group = group;
-        this.point = point.normalize();
+        this.point = point;
         checkPoint();
     }
 
@@ -81,6 +86,43 @@ public class ECGroupElement extends GroupElement {
         checkPoint();
     }
 
+    /**
+     * Get the elements with their points in affine coordinates. The points are normalized together
+     * using the trick of Montgomery, which takes a single field inversion for the whole array
+     * instead of one per point.
+     * 
+     * @param els
+     * @return The normalized elements, in the same order.
+     */
+    public static ECGroupElement[] normalizeAll(ECGroupElement[] els) {
+        ECGroupElement[] res = new ECGroupElement[els.length];
+        if (els.length == 0) {
+            return res;
+        }
+        ECPoint[] points = new ECPoint[els.length];
+        for (int i = 0; i < els.length; i++) {
+            points[i] = els[i].getPoint();
+        }
+        els[0].group.getCurve().normalizeAll(points);
+        for (int i = 0; i < els.length; i++) {
+            res[i] = points[i] == els[i].getPoint() ? els[i]
+                    : new ECGroupElement(els[i].group, points[i], false);
+        }
+        return res;
+    }
+
+    /**
+     * Initialize from a point, checking it only if asked. Points computed from valid points need
+     * no check.
+     */
+    private ECGroupElement(ECGroup group, ECPoint point, boolean check) {
+        this.group = group;
+        this.point = point;
+        if (check) {
+            checkPoint();
+        }
+    }
+
     private void checkPoint() throws IllegalArgumentException {
         if (!point.isValid()) {
             throw new IllegalArgumentException("Point coordinates are not valid");
@@ -135,7 +177,7 @@ public class ECGroupElement extends GroupElement {
             throw new MathException("Group elements from mismatching groups");
         }
         ECGroupElement e = (ECGroupElement) other;
-        return new ECGroupElement(this.group, this.getPoint().add(e.getPoint()));
+        return new ECGroupElement(this.group, this.getPoint().add(e.getPoint()), false);
     }
 
     /**
@@ -146,7 +188,7 @@ public class ECGroupElement extends GroupElement {
      */
     @Override
     public GroupElement scale(BigInteger factor) {
-        return new ECGroupElement(this.group, this.getPoint().multiply(factor));
+        return new ECGroupElement(this.group, this.getPoint().multiply(factor), false);
     }
 
     /**
@@ -156,7 +198,7 @@ public class ECGroupElement extends GroupElement {
      */
     @Override
     public GroupElement inverse() {
-        return new ECGroupElement(this.group, this.getPoint().negate());
+        return new ECGroupElement(this.group, this.getPoint().negate(), false);
     }
 
     /**
@@ -179,9 +221,9 @@ public class ECGroupElement extends GroupElement {
 
     @Override
     public String toString() {
-        return String.format("ECGroupElement(%s, %s)",
-                this.getPoint().getAffineXCoord().toBigInteger(),
-                this.getPoint().getAffineYCoord().toBigInteger());
+        ECPoint p = getAffinePoint();
+        return String.format("ECGroupElement(%s, %s)", p.getAffineXCoord().toBigInteger(),
+                p.getAffineYCoord().toBigInteger());
     }
 
     @Override
@@ -190,7 +232,7 @@ public class ECGroupElement extends GroupElement {
     }
 
     /**
-     * Get the actual point of the element.
+     * Get the actual point of the element. The point is not necessarily in affine coordinates.
      * 
      * @return
      */
@@ -198,6 +240,15 @@ public class ECGroupElement extends GroupElement {
         return point;
     }
 
+    /**
+     * Get the point of the element in affine coordinates.
+     * 
+     * @return
+     */
+    public ECPoint getAffinePoint() {
+        return point.normalize();
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other == null || this.getClass() != other.getClass()) {
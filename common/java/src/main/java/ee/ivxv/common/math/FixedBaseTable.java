@@ -0,0 +1,249 @@
+package ee.ivxv.common.math;
+
+import java.math.BigInteger;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.FixedPointUtil;
+
+/**
+ * FixedBaseTable speeds up the exponentiation of a long-lived base with varying exponents by
+ * precomputing powers of the base.
+ * <p>
+ * The size of the table is chosen to minimize the total cost of the precomputation and the
+ * expected number of exponentiations, within the memory budget. If the precomputation does not pay
+ * off, the table falls back to {@link GroupElement#scale(BigInteger)}. The instances are immutable
+ * after construction and safe for concurrent use.
+ */
+public abstract class FixedBaseTable {
+    /** The default memory budget of a table in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    private static final int MAX_WIDTH = 16;
+
+    private final GroupElement base;
+
+    FixedBaseTable(GroupElement base) {
+        this.base = base;
+    }
+
+    /**
+     * Create a table for the base using the default memory budget.
+     *
+     * @see #create(GroupElement, long, long)
+     *
+     * @param base
+     * @param uses
+     * @return
+     */
+    public static FixedBaseTable create(GroupElement base, long uses) {
+        return create(base, uses, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Create a table for the base.
+     * <p>
+     * Elements of groups of integers modulo a prime use the fixed-window method with a table of
+     * {@literal base^(d*2^(w*i))} for all digits {@literal d} of width {@literal w}, so that an
+     * exponentiation takes one multiplication per window and no squarings. Elliptic curve points
+     * use the fixed-point comb method. Other elements are not precomputed.
+     *
+     * @param base The base to exponentiate.
+     * @param uses The expected number of exponentiations.
+     * @param memoryBudget The maximum size of the table in bytes.
+     * @return
+     */
+    public static FixedBaseTable create(GroupElement base, long uses, long memoryBudget) {
+        if (base instanceof ModPGroupElement) {
+            int w = ModPTable.chooseWidth((ModPGroupElement) base, uses, memoryBudget);
+            if (w > 0) {
+                return new ModPTable((ModPGroupElement) base, w);
+            }
+        } else if (base instanceof ECGroupElement) {
+            int w = ECTable.chooseWidth((ECGroupElement) base, uses, memoryBudget);
+            if (w > 0) {
+                return new ECTable((ECGroupElement) base, w);
+            }
+        }
+        return new PlainTable(base);
+    }
+
+    /**
+     * Get the base of the table.
+     *
+     * @return
+     */
+    public GroupElement getBase() {
+        return base;
+    }
+
+    /**
+     * Scale the base. Equivalent to {@code getBase().scale(factor)}.
+     *
+     * @param factor
+     * @return
+     */
+    public abstract GroupElement scale(BigInteger factor);
+
+    /**
+     * Get the estimated size of the table in bytes.
+     *
+     * @return
+     */
+    public abstract long getMemoryUsage();
+
+    /**
+     * Choose the window width minimizing the estimated total cost of the fixed-window method, or
+     * 0 if the plain exponentiation is cheaper. The costs are in multiplications.
+     */
+    private static int chooseWidth(int bits, long uses, long budget, long entrySize,
+            double plainCost) {
+        int best = 0;
+        double bestCost = plainCost * uses;
+        for (int w = 1; w <= MAX_WIDTH; w++) {
+            long windows = (bits + w - 1) / w;
+            long entries = windows << w;
+            if (entries * entrySize > budget) {
+                break;
+            }
+            double cost = entries + (double) windows * uses;
+            if (cost < bestCost) {
+                best = w;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * PlainTable does not precompute anything.
+     */
+    static class PlainTable extends FixedBaseTable {
+        PlainTable(GroupElement base) {
+            super(base);
+        }
+
+        @Override
+        public GroupElement scale(BigInteger factor) {
+            return getBase().scale(factor);
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return 0;
+        }
+    }
+
+    /**
+     * ModPTable implements the fixed-window method of Brickell, Gordon, McCurley and Wilson. The
+     * products are reduced using the Barrett reduction.
+     */
+    static class ModPTable extends FixedBaseTable {
+        /** The estimated overhead of a {@code BigInteger} instance in bytes. */
+        private static final int OBJECT_OVERHEAD = 40;
+
+        private final BarrettReduction barrett;
+        private final BigInteger exponentModulus;
+        private final int width;
+        private final BigInteger[][] table;
+
+        ModPTable(ModPGroupElement base, int width) {
+            super(base);
+            this.barrett = new BarrettReduction(base.getGroup().getOrder());
+            // base^(p-1) = 1 for all elements, which allows to reduce any exponent
+            this.exponentModulus = barrett.getModulus().subtract(BigInteger.ONE);
+            this.width = width;
+
+            int windows = (exponentModulus.bitLength() + width - 1) / width;
+            int digits = (1 << width) - 1;
+            table = new BigInteger[windows][digits];
+            BigInteger g = barrett.normalize(base.getValue());
+            for (int i = 0; i < windows; i++) {
+                table[i][0] = g;
+                for (int d = 1; d < digits; d++) {
+                    table[i][d] = barrett.multiply(table[i][d - 1], g);
+                }
+                g = barrett.multiply(table[i][digits - 1], g);
+            }
+        }
+
+        static int chooseWidth(ModPGroupElement base, long uses, long budget) {
+            int bits = base.getGroup().getOrder().bitLength();
+            return FixedBaseTable.chooseWidth(bits, uses, budget,
+                    bits / Byte.SIZE + OBJECT_OVERHEAD,
+                    BarrettReduction.MODPOW_COST_PER_BIT * bits);
+        }
+
+        @Override
+        public GroupElement scale(BigInteger factor) {
+            BigInteger e = factor.mod(exponentModulus);
+            BigInteger res = null;
+            for (int i = 0; i < table.length; i++) {
+                int d = MultiExponentiation.digit(e, i * width, width);
+                if (d != 0) {
+                    BigInteger t = table[i][d - 1];
+                    res = res == null ? t : barrett.multiply(res, t);
+                }
+            }
+            return new ModPGroupElement((ModPGroup) getBase().getGroup(),
+                    res == null ? BigInteger.ONE : res);
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return (long) table.length * table[0].length
+                    * (barrett.getModulus().bitLength() / Byte.SIZE + OBJECT_OVERHEAD);
+        }
+    }
+
+    /**
+     * ECTable uses the fixed-point comb multiplier of Bouncy Castle, with the precomputation
+     * stored on the point of the base.
+     */
+    static class ECTable extends FixedBaseTable {
+        /** The cost of the default multiplier per scalar bit, in point operations. */
+        static final double PLAIN_COST_PER_BIT = 1.2;
+        /** The estimated size of a precomputed point in bytes. */
+        private static final int POINT_SIZE = 256;
+
+        private final FixedPointCombMultiplier multiplier = new FixedPointCombMultiplier();
+        private final BigInteger order;
+        private final int width;
+
+        ECTable(ECGroupElement base, int width) {
+            super(base);
+            this.order = base.getGroup().getOrder();
+            this.width = width;
+            FixedPointUtil.precompute(base.getPoint(), width);
+        }
+
+        static int chooseWidth(ECGroupElement base, long uses, long budget) {
+            int bits = FixedPointUtil.getCombSize(base.getPoint().getCurve());
+            // The multiplier never uses a narrower comb than its default
+            int min = bits > 257 ? 6 : 5;
+            int best = 0;
+            double bestCost = PLAIN_COST_PER_BIT * bits * uses;
+            for (int w = min; w <= MAX_WIDTH && ((long) POINT_SIZE << w) <= budget; w++) {
+                // The comb takes a doubling and an addition per column
+                double cost = (1 << w) + bits + 2.0 * ((bits + w - 1) / w) * uses;
+                if (cost < bestCost) {
+                    best = w;
+                    bestCost = cost;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public GroupElement scale(BigInteger factor) {
+            ECPoint p = multiplier.multiply(((ECGroupElement) getBase()).getPoint(),
+                    factor.mod(order));
+            return new ECGroupElement((ECGroup) getBase().getGroup(), p);
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return (long) POINT_SIZE << width;
+        }
+    }
+
+}
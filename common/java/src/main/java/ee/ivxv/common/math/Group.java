@@ -64,6 +64,78 @@ public abstract class Group {
      */
     public abstract Decodable isDecodable(GroupElement el);
 
+    /**
+     * Check that all the group elements can be decoded as this group elements.
+     * <p>
+     * Groups may override this method to check the elements together faster than one by one. A
+     * negative answer does not tell which elements are not decodable, use
+     * {@link #isDecodable(GroupElement)} to find out.
+     * 
+     * @param els
+     * @return Whether all the elements are decodable.
+     */
+    public boolean areDecodable(GroupElement[] els) {
+        for (GroupElement el : els) {
+            if (isDecodable(el) != Decodable.VALID) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute the product of the elements {@code els[from]} to {@code els[to - 1]}. Equivalent to
+     * combining them using {@link GroupElement#op(GroupElement)}, groups may override this method
+     * to avoid creating the intermediate elements.
+     * 
+     * @param els
+     * @param from The index of the first element, inclusive.
+     * @param to The index of the last element, exclusive.
+     * @return The product, or the identity if the range is empty.
+     * @throws MathException When an element is not from this group.
+     */
+    public GroupElement product(GroupElement[] els, int from, int to) throws MathException {
+        GroupElement res = getIdentity();
+        for (int i = from; i < to; i++) {
+            res = els[i].op(res);
+        }
+        return res;
+    }
+
+    /**
+     * Compute the product of the bases scaled by the corresponding factors. Equivalent to
+     * combining {@code bases[i].scale(factors[i])} for all {@code i} using
+     * {@link GroupElement#op(GroupElement)}.
+     * <p>
+     * Groups may override this method to compute the product faster than one element at a time.
+     * 
+     * @param bases
+     * @param factors
+     * @return The product, or the identity if there are no bases.
+     * @throws MathException When an element is not from this group.
+     * @throws IllegalArgumentException When the number of bases and factors differ.
+     */
+    public GroupElement multiScale(GroupElement[] bases, BigInteger[] factors)
+            throws MathException {
+        checkMultiScale(bases, factors);
+        GroupElement res = getIdentity();
+        for (int i = 0; i < bases.length; i++) {
+            res = res.op(bases[i].scale(factors[i]));
+        }
+        return res;
+    }
+
+    void checkMultiScale(GroupElement[] bases, BigInteger[] factors) throws MathException {
+        if (bases.length != factors.length) {
+            throw new IllegalArgumentException("Bases and factors length does not match");
+        }
+        for (GroupElement base : bases) {
+            if (!equals(base.getGroup())) {
+                throw new MathException("Group elements from mismatching groups");
+            }
+        }
+    }
+
     /**
      * Decode a group element as a plaintext message.
      * 
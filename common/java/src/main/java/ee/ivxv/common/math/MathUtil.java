@@ -1,5 +1,6 @@
 package ee.ivxv.common.math;
 
+import ee.ivxv.common.math.MultiExponentiation.ModPArithmetic;
 import java.math.BigInteger;
 
 /**
@@ -124,6 +125,37 @@ public class MathUtil {
         return new BigInteger[] {old_s, old_t};
     }
 
+    /**
+     * Compute the product of powers {@literal b_1^e_1 * ... * b_n^e_n mod modulus}.
+     * <p>
+     * The powers are computed simultaneously with {@link MultiExponentiation}, which is faster
+     * than exponentiating the bases one by one. The modulus need not be prime, the bases with
+     * negative exponents are inverted.
+     * 
+     * @param bases
+     * @param exps
+     * @param modulus
+     * @return
+     * @throws ArithmeticException When a base with a negative exponent is not invertible.
+     */
+    public static BigInteger multiModPow(BigInteger[] bases, BigInteger[] exps,
+            BigInteger modulus) {
+        if (bases.length != exps.length) {
+            throw new IllegalArgumentException("Bases and exponents count mismatch");
+        }
+        ModPArithmetic ar = new ModPArithmetic(modulus);
+        BigInteger[] values = new BigInteger[bases.length];
+        BigInteger[] abs = new BigInteger[exps.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = exps[i].signum() < 0 ? bases[i].modInverse(modulus)
+                    : ar.normalize(bases[i]);
+            abs[i] = exps[i].abs();
+        }
+        BigInteger res = MultiExponentiation.compute(ar, values, abs,
+                BarrettReduction.MODPOW_COST_PER_BIT);
+        return res == null ? BigInteger.ONE.mod(modulus) : res;
+    }
+
     /**
      * Compute Euler's phi for product of prime arguments.
      * 
@@ -138,25 +170,77 @@ public class MathUtil {
 
     /**
      * Compute the Legendre symbol of of modulo p
+     * <p>
+     * For prime p the Legendre symbol equals the Jacobi symbol, which is computed without modular
+     * exponentiation.
+     * 
+     * @see #jacobi(BigInteger, BigInteger)
      * 
      * @param e
      * @param p
      * @return
      */
     public static int legendre(BigInteger e, BigInteger p) {
-        BigInteger q = safePrimeOrder(p);
-        BigInteger big = e.modPow(q, p);
-        if (big.compareTo(BigInteger.ONE) == 0) {
-            return 1;
-        } else if (big.compareTo(BigInteger.ZERO) == 0) {
-            return 0;
-        } else if (big.compareTo(p.subtract(BigInteger.ONE)) == 0) {
-            return -1;
+        return jacobi(e, p);
+    }
+
+    /**
+     * Compute the Jacobi symbol of a modulo n.
+     * <p>
+     * Uses the binary algorithm: the factors of two are removed from a and accounted for by the
+     * second supplement of the quadratic reciprocity law, then a and n are swapped by the law of
+     * quadratic reciprocity and n is reduced modulo a. The reductions have small quotients on
+     * average, which makes the computation quadratic in the bit length. Once both values fit in a
+     * machine word, the computation continues on primitive longs.
+     * 
+     * @param a
+     * @param n Odd positive modulus.
+     * @return -1, 0 or 1.
+     * @throws IllegalArgumentException When n is not odd and positive.
+     */
+    public static int jacobi(BigInteger a, BigInteger n) {
+        if (n.signum() <= 0 || !n.testBit(0)) {
+            throw new IllegalArgumentException("Jacobi symbol modulus must be odd and positive");
+        }
+        a = a.mod(n);
+        int t = 1;
+        while (n.bitLength() >= Long.SIZE - 1) {
+            if (a.signum() == 0) {
+                return 0;
+            }
+            int z = a.getLowestSetBit();
+            a = a.shiftRight(z);
+            int r = n.intValue() & 7;
+            if ((z & 1) != 0 && (r == 3 || r == 5)) {
+                t = -t;
+            }
+            if ((a.intValue() & 3) == 3 && (r & 3) == 3) {
+                t = -t;
+            }
+            BigInteger tmp = n.mod(a);
+            n = a;
+            a = tmp;
         }
+        return t * jacobi(a.longValue(), n.longValue());
+    }
 
-        // should not reach here, but return something to silence compiler
-        // warning
-        return 1;
+    private static int jacobi(long a, long n) {
+        int t = 1;
+        while (a != 0) {
+            int z = Long.numberOfTrailingZeros(a);
+            a >>>= z;
+            int r = (int) n & 7;
+            if ((z & 1) != 0 && (r == 3 || r == 5)) {
+                t = -t;
+            }
+            if ((a & 3) == 3 && (r & 3) == 3) {
+                t = -t;
+            }
+            long tmp = n % a;
+            n = a;
+            a = tmp;
+        }
+        return n == 1 ? t : 0;
     }
 
     /**
@@ -0,0 +1,133 @@
+package ee.ivxv.common.math;
+
+import java.math.BigInteger;
+
+/**
+ * ModPAccumulator is a mutable element of a {@link ModPGroup} for computing products and powers in
+ * tight loops without creating an element per operation.
+ * <p>
+ * If the group uses the {@link ModPGroup.Backend#MONTGOMERY} backend, multiplications and
+ * squarings update the limbs of the accumulator in place and allocate nothing. Exponentiations
+ * and the other backend use {@code BigInteger} arithmetic. An accumulator is not safe for
+ * concurrent use.
+ */
+public final class ModPAccumulator {
+    private final ModPGroup group;
+    private final MontgomeryArithmetic ar;
+    private final int[] acc;
+    private final int[] scratch;
+    private BigInteger value;
+
+    ModPAccumulator(ModPGroup group) {
+        this.group = group;
+        if (group.getBackend() == ModPGroup.Backend.MONTGOMERY) {
+            this.ar = group.montgomery();
+            this.acc = ar.newValue();
+            this.scratch = ar.newScratch();
+        } else {
+            this.ar = null;
+            this.acc = null;
+            this.scratch = null;
+        }
+        reset();
+    }
+
+    /**
+     * Set the accumulator to the identity.
+     * 
+     * @return This accumulator.
+     */
+    public ModPAccumulator reset() {
+        if (ar != null) {
+            ar.setOne(acc);
+        } else {
+            value = BigInteger.ONE;
+        }
+        return this;
+    }
+
+    /**
+     * Set the accumulator to the element.
+     * 
+     * @param el
+     * @return This accumulator.
+     * @throws MathException When the element is from a different group.
+     */
+    public ModPAccumulator set(ModPGroupElement el) throws MathException {
+        checkGroup(el);
+        if (ar != null) {
+            System.arraycopy(el.getMontgomery(), 0, acc, 0, acc.length);
+        } else {
+            value = el.getValue();
+        }
+        return this;
+    }
+
+    /**
+     * Multiply the accumulator with the element.
+     * 
+     * @param el
+     * @return This accumulator.
+     * @throws MathException When the element is from a different group.
+     */
+    public ModPAccumulator multiply(ModPGroupElement el) throws MathException {
+        checkGroup(el);
+        if (ar != null) {
+            ar.multiply(acc, el.getMontgomery(), acc, scratch);
+        } else {
+            value = value.multiply(el.getValue()).mod(group.getOrder());
+        }
+        return this;
+    }
+
+    /**
+     * Square the accumulator.
+     * 
+     * @return This accumulator.
+     */
+    public ModPAccumulator square() {
+        if (ar != null) {
+            ar.multiply(acc, acc, acc, scratch);
+        } else {
+            value = value.multiply(value).mod(group.getOrder());
+        }
+        return this;
+    }
+
+    /**
+     * Exponentiate the accumulator.
+     * 
+     * @param e The non-negative exponent.
+     * @return This accumulator.
+     * @throws IllegalArgumentException When the exponent is negative.
+     */
+    public ModPAccumulator power(BigInteger e) {
+        if (e.signum() < 0) {
+            throw new IllegalArgumentException("Negative exponent");
+        }
+        if (ar != null) {
+            System.arraycopy(ar.power(acc, e), 0, acc, 0, acc.length);
+        } else {
+            value = value.modPow(e, group.getOrder());
+        }
+        return this;
+    }
+
+    /**
+     * Get the current value as an immutable element.
+     * 
+     * @return
+     */
+    public ModPGroupElement get() {
+        if (ar != null) {
+            return new ModPGroupElement(group, acc.clone());
+        }
+        return new ModPGroupElement(group, value);
+    }
+
+    private void checkGroup(ModPGroupElement el) throws MathException {
+        if (group != el.getGroup() && !group.equals(el.getGroup())) {
+            throw new MathException("Group elements from mismatching groups");
+        }
+    }
+}
@@ -4,16 +4,53 @@ import ee.ivxv.common.asn1.ASN1DecodingException;
 import ee.ivxv.common.asn1.Field;
 import ee.ivxv.common.crypto.Plaintext;
 import ee.ivxv.common.crypto.rnd.Rnd;
+import ee.ivxv.common.math.MultiExponentiation.ModPArithmetic;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
 
 /**
  * Group of integers modulo a safe prime.
  */
 public class ModPGroup extends Group {
+    /**
+     * The number of rounds of batch quadratic residuosity screening. A batch containing a
+     * non-residue passes a round with probability 1/2.
+     */
+    public static final int BATCH_QR_ROUNDS = 64;
+
+    /**
+     * Backend selects the arithmetic the elements of the group are computed with.
+     */
+    public enum Backend {
+        /**
+         * Immutable {@code BigInteger} values, the products are reduced with
+         * {@code BigInteger.mod}.
+         */
+        BIG_INTEGER,
+        /**
+         * Values kept in the Montgomery form in {@code int} limbs. The products are reduced
+         * without division, and {@link ModPAccumulator} updates the limbs in place.
+         */
+        MONTGOMERY;
+
+        /**
+         * @return The name of the backend as a command line choice.
+         */
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static volatile Backend defaultBackend = Backend.BIG_INTEGER;
+
     private final BigInteger p;
     private BigInteger q;
     private final ModPGroupElement one;
+    private final Backend backend;
+    private volatile MontgomeryArithmetic montgomery;
 
     /**
      * Initialize group using a safe prime modulus.
@@ -42,6 +79,21 @@ public class ModPGroup extends Group {
             }
         }
         this.p = p;
+        this.backend = defaultBackend;
+        this.one = new ModPGroupElement(this, BigInteger.ONE);
+    }
+
+    /**
+     * Initialize group using a safe prime modulus and the given arithmetic backend.
+     * <p>
+     * This constructor does not verify that modulus is a safe prime.
+     * 
+     * @param p
+     * @param backend
+     */
+    public ModPGroup(BigInteger p, Backend backend) {
+        this.p = p;
+        this.backend = backend;
         this.one = new ModPGroupElement(this, BigInteger.ONE);
     }
 
@@ -65,6 +117,7 @@ public class ModPGroup extends Group {
         } catch (ASN1DecodingException e) {
             throw new IllegalArgumentException("Parsing integer failed: " + e);
         }
+        this.backend = defaultBackend;
         this.one = new ModPGroupElement(this, BigInteger.ONE);
     }
 
@@ -84,6 +137,7 @@ public class ModPGroup extends Group {
      */
     public ModPGroup(int len, Rnd rnd, int tries)
             throws IllegalArgumentException, IOException, MathException {
+        backend = defaultBackend;
         int sglen = len - 1;
         BigInteger bigTwo = new BigInteger("2");
         BigInteger genp, genq;
@@ -109,6 +163,61 @@ public class ModPGroup extends Group {
         throw new MathException("Could not generate group parameters during tries");
     }
 
+    /**
+     * @return The backend of the groups that are created without specifying the backend.
+     */
+    public static Backend getDefaultBackend() {
+        return defaultBackend;
+    }
+
+    /**
+     * Set the backend of the groups that are created without specifying the backend, including
+     * the groups parsed from serialized keys and parameters. The groups created earlier keep
+     * their backend.
+     * 
+     * @param backend
+     */
+    public static void setDefaultBackend(Backend backend) {
+        defaultBackend = backend;
+    }
+
+    /**
+     * Get the group with the same modulus and the given arithmetic backend. The groups are equal
+     * and their elements can be combined.
+     * 
+     * @param backend
+     * @return
+     */
+    public ModPGroup withBackend(Backend backend) {
+        return backend == this.backend ? this : new ModPGroup(p, backend);
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Get a new mutable accumulator holding the identity.
+     * 
+     * @return
+     */
+    public ModPAccumulator newAccumulator() {
+        return new ModPAccumulator(this);
+    }
+
+    /**
+     * Get the Montgomery arithmetic modulo p, which is initialized on first use regardless of
+     * the backend.
+     */
+    MontgomeryArithmetic montgomery() {
+        MontgomeryArithmetic ar = montgomery;
+        if (ar == null) {
+            ar = new MontgomeryArithmetic(p);
+            montgomery = ar;
+        }
+        return ar;
+    }
+
     @Override
     public GroupElement getElement(byte[] data) throws IllegalArgumentException {
         return new ModPGroupElement(this, data);
@@ -219,6 +328,17 @@ public class ModPGroup extends Group {
 
     @Override
     public Decodable isDecodable(GroupElement el) {
+        Decodable res = checkRange(el);
+        if (res != Decodable.VALID) {
+            return res;
+        }
+        if (legendre(((ModPGroupElement) el).getValue()) != 1) {
+            return Decodable.INVALID_QR;
+        }
+        return Decodable.VALID;
+    }
+
+    private Decodable checkRange(GroupElement el) {
         if (!isGroupElement(el)) {
             return Decodable.INVALID_GROUP;
         }
@@ -229,12 +349,126 @@ public class ModPGroup extends Group {
         if (e.compareTo(getOrder()) > 0) {
             return Decodable.INVALID_RANGE;
         }
-        if (legendre(e) != 1) {
-            return Decodable.INVALID_QR;
-        }
         return Decodable.VALID;
     }
 
+    /**
+     * Check that all the group elements are decodable using batch screening.
+     * <p>
+     * The ranges are checked per element. Quadratic residuosity is screened in
+     * {@value #BATCH_QR_ROUNDS} rounds, each computing a single Legendre symbol of the product of
+     * a random subset of the elements. As the symbol is multiplicative, a batch with a
+     * non-residue fails a round with probability 1/2, so it is accepted with probability at most
+     * 2^-{@value #BATCH_QR_ROUNDS}. A round costs a modular multiplication per element in the
+     * subset.
+     * <p>
+     * This is not faster than checking the elements one by one with
+     * {@link #isDecodable(GroupElement)}, which computes the Jacobi symbol without
+     * exponentiation: the {@value #BATCH_QR_ROUNDS} rounds amount to about 32 modular
+     * multiplications per element, which cost more than the Jacobi symbol of a single element.
+     * Ciphertext validation in the tools therefore uses the per-element check, this method is
+     * used where the elements are multiplied together anyway, as in the batch verification of
+     * {@link ee.ivxv.common.crypto.elgamal.ElGamalDecryptionProof}.
+     *
+     * @param els
+     * @return Whether all the elements are decodable.
+     */
+    @Override
+    public boolean areDecodable(GroupElement[] els) {
+        BigInteger[] values = new BigInteger[els.length];
+        for (int i = 0; i < els.length; i++) {
+            if (checkRange(els[i]) != Decodable.VALID) {
+                return false;
+            }
+            values[i] = ((ModPGroupElement) els[i]).getValue();
+        }
+        return areQuadraticResidues(values, new SecureRandom(), BATCH_QR_ROUNDS);
+    }
+
+    /**
+     * Compute the product of powers using the multi-exponentiation method of Straus or Pippenger,
+     * whichever is estimated to be faster.
+     * <p>
+     * Negative factors and factors not less than p-1 are reduced modulo p-1.
+     * 
+     * @see MultiExponentiation
+     */
+    @Override
+    public GroupElement multiScale(GroupElement[] bases, BigInteger[] factors)
+            throws MathException {
+        checkMultiScale(bases, factors);
+        if (backend == Backend.MONTGOMERY) {
+            return multiScaleMontgomery(bases, factors);
+        }
+        ModPArithmetic ar = new ModPArithmetic(p);
+        BigInteger exponentModulus = p.subtract(BigInteger.ONE);
+        BigInteger[] values = new BigInteger[bases.length];
+        BigInteger[] exps = new BigInteger[factors.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ar.normalize(((ModPGroupElement) bases[i]).getValue());
+            exps[i] = factors[i].signum() < 0 || factors[i].compareTo(exponentModulus) >= 0
+                    ? factors[i].mod(exponentModulus)
+                    : factors[i];
+        }
+        BigInteger res = MultiExponentiation.compute(ar, values, exps,
+                BarrettReduction.MODPOW_COST_PER_BIT);
+        return res == null ? getIdentity() : new ModPGroupElement(this, res);
+    }
+
+    private GroupElement multiScaleMontgomery(GroupElement[] bases, BigInteger[] factors) {
+        BigInteger exponentModulus = p.subtract(BigInteger.ONE);
+        int[][] values = new int[bases.length][];
+        BigInteger[] exps = new BigInteger[factors.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((ModPGroupElement) bases[i]).getMontgomery();
+            exps[i] = factors[i].signum() < 0 || factors[i].compareTo(exponentModulus) >= 0
+                    ? factors[i].mod(exponentModulus)
+                    : factors[i];
+        }
+        int[] res = MultiExponentiation.compute(montgomery(), values, exps,
+                MontgomeryArithmetic.POWER_COST_PER_BIT);
+        return res == null ? getIdentity() : new ModPGroupElement(this, res);
+    }
+
+    /**
+     * Compute the product of the elements in an accumulator, which with the
+     * {@link Backend#MONTGOMERY} backend allocates nothing per element.
+     */
+    @Override
+    public GroupElement product(GroupElement[] els, int from, int to) throws MathException {
+        ModPAccumulator acc = newAccumulator();
+        for (int i = from; i < to; i++) {
+            if (!(els[i] instanceof ModPGroupElement)) {
+                throw new MathException("Group elements from mismatching groups");
+            }
+            acc.multiply((ModPGroupElement) els[i]);
+        }
+        return acc.get();
+    }
+
+    boolean areQuadraticResidues(BigInteger[] values, Random rnd, int rounds) {
+        if (values.length == 1) {
+            return legendre(values[0]) == 1;
+        }
+        for (int r = 0; r < rounds; r++) {
+            BigInteger product = BigInteger.ONE;
+            long bits = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (i % Long.SIZE == 0) {
+                    bits = rnd.nextLong();
+                }
+                if ((bits & 1) != 0) {
+                    product = product.multiply(values[i]).mod(getOrder());
+                }
+                bits >>>= 1;
+            }
+            if (legendre(product) != 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Decode group element as a message.
      * <p>
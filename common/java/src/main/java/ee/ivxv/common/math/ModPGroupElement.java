@@ -6,10 +6,14 @@ import java.math.BigInteger;
 
 /**
  * ModPGroupElement is an integer modulo a safe prime.
+ * <p>
+ * If the group uses the {@link ModPGroup.Backend#MONTGOMERY} backend, products are computed and
+ * kept in the Montgomery form and converted to integers only when the value is requested.
  */
 public class ModPGroupElement extends GroupElement {
     private final ModPGroup group;
-    private final BigInteger value;
+    private BigInteger value;
+    private volatile int[] mont;
     private BigInteger order;
 
     /**
@@ -24,6 +28,17 @@ public class ModPGroupElement extends GroupElement {
         this.value = value;
     }
 
+    /**
+     * Initialize using group and value in the Montgomery form of the group.
+     * 
+     * @param group
+     * @param mont The limbs, which must not be modified afterwards.
+     */
+    ModPGroupElement(ModPGroup group, int[] mont) {
+        this.group = group;
+        this.mont = mont;
+    }
+
     /**
      * Initialize using group and serialized value.
      * 
@@ -67,7 +82,7 @@ public class ModPGroupElement extends GroupElement {
                 group.getOrder().subtract(BigInteger.ONE).divide(BigInteger.valueOf(2)),
                 group.getOrder().subtract(BigInteger.ONE)};
         for (BigInteger p : possible) {
-            if (value.modPow(p, group.getOrder()).equals(BigInteger.ONE)) {
+            if (getValue().modPow(p, group.getOrder()).equals(BigInteger.ONE)) {
                 return p;
             }
         }
@@ -83,10 +98,14 @@ public class ModPGroupElement extends GroupElement {
      */
     @Override
     public GroupElement op(GroupElement other) throws MathException {
-        if (!this.group.equals(other.getGroup())) {
+        if (this.group != other.getGroup() && !this.group.equals(other.getGroup())) {
             throw new MathException("Group elements from mismatching groups");
         }
         ModPGroupElement o = (ModPGroupElement) other;
+        if (this.group.getBackend() == ModPGroup.Backend.MONTGOMERY) {
+            return new ModPGroupElement(this.group,
+                    this.group.montgomery().multiply(this.getMontgomery(), o.getMontgomery()));
+        }
         return new ModPGroupElement(this.group,
                 this.getValue().multiply(o.getValue()).mod(this.group.getOrder()));
     }
@@ -139,7 +158,8 @@ public class ModPGroupElement extends GroupElement {
             return true;
         }
         ModPGroupElement o = (ModPGroupElement) other;
-        return this.group.equals(o.group) && this.getValue().equals(o.getValue());
+        return (this.group == o.group || this.group.equals(o.group))
+                && this.getValue().equals(o.getValue());
     }
 
     @Override
@@ -153,7 +173,26 @@ public class ModPGroupElement extends GroupElement {
      * @return
      */
     public BigInteger getValue() {
-        return this.value;
+        BigInteger v = this.value;
+        if (v == null) {
+            v = group.montgomery().fromMontgomery(mont);
+            this.value = v;
+        }
+        return v;
+    }
+
+    /**
+     * Get the value in the Montgomery form of the group, converting it on first use.
+     * 
+     * @return The limbs, which must not be modified.
+     */
+    int[] getMontgomery() {
+        int[] m = this.mont;
+        if (m == null) {
+            m = group.montgomery().toMontgomery(value);
+            this.mont = m;
+        }
+        return m;
     }
 
     /**
@@ -165,12 +204,12 @@ public class ModPGroupElement extends GroupElement {
      */
     @Override
     public byte[] getBytes() {
-        return new Field(value).encode();
+        return new Field(getValue()).encode();
     }
 
     @Override
     public String toString() {
-        return String.format("ModPGroupElement(%s)", value);
+        return String.format("ModPGroupElement(%s)", getValue());
     }
 
     @Override
@@ -0,0 +1,282 @@
+package ee.ivxv.common.math;
+
+import java.math.BigInteger;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * MultiExponentiation computes products of powers {@literal b_1^e_1 * ... * b_n^e_n} faster than
+ * exponentiating the bases one by one.
+ * <p>
+ * Small batches use the method of Straus, which exponentiates all bases simultaneously with a
+ * single shared chain of squarings and a table of small powers per base. Large batches use the
+ * bucket method of Pippenger, which for every window of the exponents sorts the bases into
+ * buckets by their digit and combines the buckets with running products. The method and its
+ * window width are chosen to minimize the estimated number of multiplications, and if neither
+ * beats exponentiating the bases one by one, that is done instead.
+ * <p>
+ * The algorithms are generic over the element representation, the identity is represented by
+ * {@code null}.
+ */
+final class MultiExponentiation {
+    /** The maximum number of precomputed elements of the method of Straus. */
+    static final int MAX_TABLE_ENTRIES = 1 << 16;
+
+    private static final int MAX_STRAUS_WIDTH = 8;
+    private static final int MAX_PIPPENGER_WIDTH = 20;
+
+    private MultiExponentiation() {
+        // Static methods only
+    }
+
+    /**
+     * Arithmetic defines the operations of a group in the representation used by the algorithms.
+     *
+     * @param <T> The element representation.
+     */
+    interface Arithmetic<T> {
+        T multiply(T a, T b);
+
+        /**
+         * Square the element the given number of times.
+         */
+        T square(T a, int times);
+
+        /**
+         * Exponentiate a single element with the plain method of the group.
+         */
+        T power(T a, BigInteger e);
+
+        /**
+         * Bring the elements of a table into a representation which is cheaper to multiply with,
+         * if any.
+         */
+        default void prepare(T[] table) {
+            // Nothing to prepare by default
+        }
+
+        T[] newArray(int length);
+    }
+
+    /**
+     * Compute the product of powers.
+     *
+     * @param ar The arithmetic of the group.
+     * @param bases The bases.
+     * @param exps The non-negative exponents.
+     * @param plainCostPerBit The cost of {@link Arithmetic#power(Object, BigInteger)} per
+     *        exponent bit, in multiplications.
+     * @return The product, or {@code null} for the identity.
+     */
+    static <T> T compute(Arithmetic<T> ar, T[] bases, BigInteger[] exps,
+            double plainCostPerBit) {
+        int n = bases.length;
+        int bits = 0;
+        for (BigInteger e : exps) {
+            bits = Math.max(bits, e.bitLength());
+        }
+        if (n == 0 || bits == 0) {
+            return null;
+        }
+
+        double best = plainCostPerBit * bits * n;
+        int straus = 0;
+        int pippenger = 0;
+        for (int w = 1; w <= MAX_STRAUS_WIDTH && ((long) n << w) <= MAX_TABLE_ENTRIES; w++) {
+            double cost = (double) n * ((1 << w) - 2) + bits + (double) n * windows(bits, w);
+            if (cost < best) {
+                best = cost;
+                straus = w;
+            }
+        }
+        for (int c = 1; c <= MAX_PIPPENGER_WIDTH; c++) {
+            double cost = (double) windows(bits, c) * (n + (2L << c)) + bits;
+            if (cost < best) {
+                best = cost;
+                straus = 0;
+                pippenger = c;
+            }
+        }
+
+        if (straus > 0) {
+            return straus(ar, bases, exps, bits, straus);
+        }
+        if (pippenger > 0) {
+            return pippenger(ar, bases, exps, bits, pippenger);
+        }
+        return plain(ar, bases, exps);
+    }
+
+    static <T> T plain(Arithmetic<T> ar, T[] bases, BigInteger[] exps) {
+        T res = null;
+        for (int i = 0; i < bases.length; i++) {
+            if (exps[i].signum() != 0) {
+                res = multiply(ar, res, ar.power(bases[i], exps[i]));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The fixed-window method of Straus.
+     */
+    static <T> T straus(Arithmetic<T> ar, T[] bases, BigInteger[] exps, int bits, int width) {
+        int digits = (1 << width) - 1;
+        T[] table = ar.newArray(bases.length * digits);
+        for (int i = 0; i < bases.length; i++) {
+            int off = i * digits;
+            table[off] = bases[i];
+            for (int d = 1; d < digits; d++) {
+                table[off + d] = ar.multiply(table[off + d - 1], bases[i]);
+            }
+        }
+        ar.prepare(table);
+
+        T res = null;
+        for (int j = windows(bits, width) - 1; j >= 0; j--) {
+            if (res != null) {
+                res = ar.square(res, width);
+            }
+            for (int i = 0; i < bases.length; i++) {
+                int d = digit(exps[i], j * width, width);
+                if (d != 0) {
+                    res = multiply(ar, res, table[i * digits + d - 1]);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The bucket method of Pippenger.
+     */
+    static <T> T pippenger(Arithmetic<T> ar, T[] bases, BigInteger[] exps, int bits, int width) {
+        T[] buckets = ar.newArray(1 << width);
+        T res = null;
+        for (int j = windows(bits, width) - 1; j >= 0; j--) {
+            if (res != null) {
+                res = ar.square(res, width);
+            }
+            for (int i = 0; i < bases.length; i++) {
+                int d = digit(exps[i], j * width, width);
+                if (d != 0) {
+                    buckets[d] = multiply(ar, buckets[d], bases[i]);
+                }
+            }
+            // sum over d of bucket[d]^d, as the product of the running products from the top
+            T running = null;
+            T sum = null;
+            for (int d = buckets.length - 1; d > 0; d--) {
+                running = multiply(ar, running, buckets[d]);
+                sum = multiply(ar, sum, running);
+                buckets[d] = null;
+            }
+            res = multiply(ar, res, sum);
+        }
+        return res;
+    }
+
+    private static <T> T multiply(Arithmetic<T> ar, T a, T b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return ar.multiply(a, b);
+    }
+
+    private static int windows(int bits, int width) {
+        return (bits + width - 1) / width;
+    }
+
+    /**
+     * Get the digit of the given width starting from the given bit of the exponent.
+     */
+    static int digit(BigInteger e, int from, int width) {
+        int d = 0;
+        for (int j = width - 1; j >= 0; j--) {
+            d = (d << 1) | (e.testBit(from + j) ? 1 : 0);
+        }
+        return d;
+    }
+
+    /**
+     * ModPArithmetic multiplies integers modulo a prime, or any other modulus, using the Barrett
+     * reduction.
+     */
+    static class ModPArithmetic implements Arithmetic<BigInteger> {
+        private final BarrettReduction barrett;
+
+        ModPArithmetic(BigInteger p) {
+            this.barrett = new BarrettReduction(p);
+        }
+
+        @Override
+        public BigInteger multiply(BigInteger a, BigInteger b) {
+            return barrett.multiply(a, b);
+        }
+
+        @Override
+        public BigInteger square(BigInteger a, int times) {
+            for (int i = 0; i < times; i++) {
+                a = barrett.multiply(a, a);
+            }
+            return a;
+        }
+
+        @Override
+        public BigInteger power(BigInteger a, BigInteger e) {
+            return a.modPow(e, barrett.getModulus());
+        }
+
+        /**
+         * Reduce the value to the range [0, p).
+         */
+        BigInteger normalize(BigInteger a) {
+            return barrett.normalize(a);
+        }
+
+        @Override
+        public BigInteger[] newArray(int length) {
+            return new BigInteger[length];
+        }
+    }
+
+    /**
+     * ECArithmetic adds elliptic curve points. The precomputed points are normalized to affine
+     * coordinates, which makes adding them cheaper.
+     */
+    static class ECArithmetic implements Arithmetic<ECPoint> {
+        private final ECCurve curve;
+
+        ECArithmetic(ECCurve curve) {
+            this.curve = curve;
+        }
+
+        @Override
+        public ECPoint multiply(ECPoint a, ECPoint b) {
+            return a.add(b);
+        }
+
+        @Override
+        public ECPoint square(ECPoint a, int times) {
+            return a.timesPow2(times);
+        }
+
+        @Override
+        public ECPoint power(ECPoint a, BigInteger e) {
+            return a.multiply(e);
+        }
+
+        @Override
+        public void prepare(ECPoint[] table) {
+            curve.normalizeAll(table);
+        }
+
+        @Override
+        public ECPoint[] newArray(int length) {
+            return new ECPoint[length];
+        }
+    }
+}
@@ -157,6 +157,27 @@ public class ProductGroup extends Group {
         throw new RuntimeException("Invalid use of ProductGroup");
     }
 
+    /**
+     * Compute the product of powers pointwise, using the multi-exponentiation of the underlying
+     * groups.
+     * 
+     * @see Group#multiScale(GroupElement[], BigInteger[])
+     */
+    @Override
+    public GroupElement multiScale(GroupElement[] bases, BigInteger[] factors)
+            throws MathException {
+        checkMultiScale(bases, factors);
+        GroupElement[] res = new GroupElement[groups.length];
+        GroupElement[] components = new GroupElement[bases.length];
+        for (int j = 0; j < groups.length; j++) {
+            for (int i = 0; i < bases.length; i++) {
+                components[i] = ((ProductGroupElement) bases[i]).getElements()[j];
+            }
+            res[j] = groups[j].multiScale(components, factors);
+        }
+        return new ProductGroupElement(this, res);
+    }
+
     @Override
     public boolean isGroupElement(GroupElement el) {
         return this.equals(el.getGroup());
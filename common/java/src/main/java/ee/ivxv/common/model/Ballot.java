@@ -4,8 +4,6 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.time.Instant;
-import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -38,7 +36,7 @@ public class Ballot {
         this.time = time;
         this.version = version;
         this.voter = voter;
-        this.votes = Collections.unmodifiableMap(new LinkedHashMap<>(votes));
+        this.votes = VoteStore.getDefault().store(votes);
     }
 
     public String getId() {
@@ -0,0 +1,200 @@
+package ee.ivxv.common.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MappedVoteStore keeps the encrypted votes in memory-mapped chunks of a temporary file, outside of
+ * the heap. The heap only holds a compact view per ballot: the shared array of question ids and an
+ * array of handles to the stored votes. The votes are copied to heap arrays on access.
+ *
+ * <p>
+ * The store is append-only and safe for concurrent use. The temporary file is deleted when the
+ * store is closed or the JVM exits.
+ */
+public class MappedVoteStore extends VoteStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedVoteStore.class);
+
+    static final int CHUNK_SIZE = 1 << 28; // 256MB
+    private static final int LENGTH_BYTES = Integer.BYTES;
+
+    private final FileChannel channel;
+    /** Question id arrays shared by ballots with the same questions. */
+    private final Map<List<String>, String[]> keys = new ConcurrentHashMap<>();
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int position = CHUNK_SIZE;
+    private long size;
+
+    /**
+     * @param dir The directory to create the temporary file in.
+     * @throws IOException
+     */
+    public MappedVoteStore(Path dir) throws IOException {
+        Path file = Files.createTempFile(dir, "votes", ".tmp");
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        file.toFile().deleteOnExit();
+        log.info("MappedVoteStore instantiated with file {}", file);
+    }
+
+    @Override
+    public Map<String, byte[]> store(Map<String, byte[]> votes) {
+        String[] ids = votes.keySet().toArray(new String[votes.size()]);
+        String[] shared = keys.computeIfAbsent(Arrays.asList(ids), k -> ids);
+        long[] handles = new long[ids.length];
+
+        int i = 0;
+        for (byte[] vote : votes.values()) {
+            handles[i++] = append(vote);
+        }
+
+        return new StoredVotes(shared, handles);
+    }
+
+    /**
+     * Appends the value to the current chunk, mapping a new chunk if needed.
+     *
+     * @return Returns the handle of the value: the chunk index in the high and the offset in the
+     *         low 32 bits.
+     */
+    private synchronized long append(byte[] value) {
+        int len = LENGTH_BYTES + value.length;
+        if (len > CHUNK_SIZE) {
+            throw new IllegalArgumentException("Vote too large: " + value.length);
+        }
+        if (position + len > CHUNK_SIZE) {
+            mapChunk();
+        }
+        ByteBuffer chunk = chunks[chunks.length - 1].duplicate();
+        chunk.position(position);
+        chunk.putInt(value.length);
+        chunk.put(value);
+
+        long handle = ((long) (chunks.length - 1) << 32) | position;
+        position += len;
+        size += value.length;
+
+        return handle;
+    }
+
+    private void mapChunk() {
+        try {
+            MappedByteBuffer chunk = channel.map(MapMode.READ_WRITE,
+                    (long) chunks.length * CHUNK_SIZE, CHUNK_SIZE);
+            ByteBuffer[] result = Arrays.copyOf(chunks, chunks.length + 1);
+            result[chunks.length] = chunk;
+            chunks = result;
+            position = 0;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private byte[] read(long handle) {
+        ByteBuffer chunk = chunks[(int) (handle >>> 32)].duplicate();
+        chunk.position((int) handle);
+        byte[] value = new byte[chunk.getInt()];
+        chunk.get(value);
+        return value;
+    }
+
+    @Override
+    public synchronized long getOffHeapBytes() {
+        return size;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Closing MappedVoteStore failed", e);
+        }
+    }
+
+    /**
+     * StoredVotes is an unmodifiable map view of the votes of a single ballot.
+     */
+    private class StoredVotes extends AbstractMap<String, byte[]> {
+        private final String[] ids;
+        private final long[] handles;
+
+        StoredVotes(String[] ids, long[] handles) {
+            this.ids = ids;
+            this.handles = handles;
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+
+        @Override
+        public byte[] get(Object key) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i].equals(key)) {
+                    return read(handles[i]);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return Arrays.asList(ids).contains(key);
+        }
+
+        @Override
+        public Set<Entry<String, byte[]>> entrySet() {
+            return new AbstractSet<Entry<String, byte[]>>() {
+                @Override
+                public int size() {
+                    return ids.length;
+                }
+
+                @Override
+                public Iterator<Entry<String, byte[]>> iterator() {
+                    return new Iterator<Entry<String, byte[]>>() {
+                        private int i = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < ids.length;
+                        }
+
+                        @Override
+                        public Entry<String, byte[]> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, byte[]> e =
+                                    new SimpleImmutableEntry<>(ids[i], read(handles[i]));
+                            i++;
+                            return e;
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+}
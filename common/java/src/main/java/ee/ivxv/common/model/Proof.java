@@ -63,8 +63,16 @@ public class Proof {
      * @param proof
      */
     public void addProof(ElGamalDecryptionProof proof) {
-        proofs.add(new ProofJson(proof.ciphertext.getBytes(),
-                proof.decrypted.getUTF8DecodedMessage(), proof.getBytes()));
+        proofs.add(new ProofJson(proof));
+    }
+
+    /**
+     * Add serialized decryption proof.
+     * 
+     * @param proof
+     */
+    public void addProof(ProofJson proof) {
+        proofs.add(proof);
     }
 
     /**
@@ -85,6 +93,16 @@ public class Proof {
         private final String message;
         private final byte[] proof;
 
+        /**
+         * Initialize using decryption proof.
+         * 
+         * @param proof
+         */
+        public ProofJson(ElGamalDecryptionProof proof) {
+            this(proof.ciphertext.getBytes(), proof.decrypted.getUTF8DecodedMessage(),
+                    proof.getBytes());
+        }
+
         /**
          * Initialize using serialized values.
          * 
@@ -93,7 +111,7 @@ public class Proof {
          * @param proof
          */
         @JsonCreator
-        private ProofJson( //
+        public ProofJson( //
                 @JsonProperty("ciphertext") byte[] ciphertext, //
                 @JsonProperty("message") String message, //
                 @JsonProperty("proof") byte[] proof) {
@@ -0,0 +1,87 @@
+package ee.ivxv.common.model;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * VoteStore is the storage engine of the encrypted votes of ballots. Every {@code Ballot} passes
+ * its votes to the process-wide default store, which returns the map to be used as the votes of the
+ * ballot. The default store keeps the votes on heap, the alternative {@code MappedVoteStore} keeps
+ * them in memory-mapped buffers outside of the heap.
+ */
+public abstract class VoteStore {
+
+    public static final String HEAP = "heap";
+    public static final String MAPPED = "mapped";
+
+    private static volatile VoteStore defaultStore = new HeapVoteStore();
+
+    /**
+     * @return Returns the store used by the ballots created from now on.
+     */
+    public static VoteStore getDefault() {
+        return defaultStore;
+    }
+
+    /**
+     * Sets the store used by the ballots created from now on. Must be called before any ballots
+     * are created, i.e. before loading a ballot box.
+     *
+     * @param store
+     */
+    public static void setDefault(VoteStore store) {
+        defaultStore = store;
+    }
+
+    /**
+     * @param type Either {@value #HEAP} or {@value #MAPPED}.
+     * @return Returns a new store of the specified type. Mapped stores use the system temporary
+     *         directory.
+     * @throws IOException If creating a mapped store fails.
+     */
+    public static VoteStore create(String type) throws IOException {
+        if (MAPPED.equals(type)) {
+            return new MappedVoteStore(Paths.get(System.getProperty("java.io.tmpdir")));
+        }
+        if (HEAP.equals(type)) {
+            return new HeapVoteStore();
+        }
+        throw new IllegalArgumentException("Unknown vote store type: " + type);
+    }
+
+    /**
+     * Stores the votes of a ballot.
+     *
+     * @param votes The map from question id to the encrypted vote.
+     * @return Returns an unmodifiable map with the same content and order as {@code votes}.
+     */
+    public abstract Map<String, byte[]> store(Map<String, byte[]> votes);
+
+    /**
+     * Releases the resources of the store. The votes stored must not be used afterwards.
+     */
+    public void close() {
+        // Nothing to release by default
+    }
+
+    /**
+     * @return Returns the number of bytes of votes held outside of the heap.
+     */
+    public long getOffHeapBytes() {
+        return 0;
+    }
+
+    /**
+     * HeapVoteStore keeps the votes in a regular on-heap map.
+     */
+    static class HeapVoteStore extends VoteStore {
+        @Override
+        public Map<String, byte[]> store(Map<String, byte[]> votes) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(votes));
+        }
+    }
+
+}
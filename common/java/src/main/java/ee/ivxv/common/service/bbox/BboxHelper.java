@@ -5,6 +5,7 @@ import ee.ivxv.common.model.BallotBox;
 import ee.ivxv.common.model.Voter;
 import ee.ivxv.common.service.console.Progress;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
@@ -13,7 +14,20 @@ import java.util.function.Consumer;
 
 public interface BboxHelper {
 
-    Loader<?> getLoader(Path path, Progress.Factory pf, int nThreads);
+    /**
+     * @param path The path of the ballot box.
+     * @param pf Progress factory.
+     * @param nThreads The number of threads for checking the ballots.
+     * @param nZipThreads The number of threads for decompressing the ballot box and registration
+     *        data files. Values less than or equal to 1 mean sequential processing.
+     * @param cacheDir The directory of the ballot validation cache, {@code null} to disable the
+     *        cache.
+     * @param cacheKey The file of the key authenticating the cache entries, must be outside the
+     *        cache directory. Required if the cache is enabled.
+     * @return
+     */
+    Loader<?> getLoader(Path path, Progress.Factory pf, int nThreads, int nZipThreads,
+            Path cacheDir, Path cacheKey);
 
     interface Loader<U> {
         BboxLoader<U> getBboxLoader(Path path, Reporter<Ref.BbRef> r) throws InvalidBboxException;
@@ -24,6 +38,18 @@ public interface BboxHelper {
 
     byte[] getChecksum(Path path) throws Exception;
 
+    /**
+     * @return Returns a new message digest of the checksum algorithm, for computing the checksum
+     *         of a file while writing it.
+     */
+    MessageDigest createChecksumDigest();
+
+    /**
+     * @param digest The digest computed using {@link #createChecksumDigest()}.
+     * @return Returns the checksum in the same format as {@link #getChecksum(Path)}.
+     */
+    byte[] toChecksum(byte[] digest);
+
     boolean compareChecksum(byte[] sum1, byte[] sum2);
 
     @FunctionalInterface
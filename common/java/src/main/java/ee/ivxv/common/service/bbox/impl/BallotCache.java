@@ -0,0 +1,365 @@
+package ee.ivxv.common.service.bbox.impl;
+
+import ee.ivxv.common.conf.Conf;
+import ee.ivxv.common.service.container.Container;
+import ee.ivxv.common.service.container.DataFile;
+import ee.ivxv.common.service.container.InvalidContainerException;
+import ee.ivxv.common.service.container.Signature;
+import ee.ivxv.common.service.container.Subject;
+import ee.ivxv.common.util.Util;
+import ee.ivxv.common.util.log.PerformanceLog;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BallotCache is an opt-in on-disk cache of ballot container validation outcomes.
+ *
+ * <p>
+ * The cache is content-addressed: the key of an entry is the SHA-256 digest of the tool version,
+ * the hash of the trust configuration and the raw ballot data the container is combined from. Any
+ * change in those produces a different key, hence stale entries are never used. Each entry holds
+ * the validation outcome and, for valid containers, the extracted data files and signatures.
+ * Voters are not cached, since they depend on the voter lists of the current run.
+ *
+ * <p>
+ * Every entry is authenticated with HMAC-SHA256 using a secret key of {@value #KEY_LEN} bytes,
+ * which is read from a file outside the cache directory. The key is never created by the cache,
+ * so whoever can write the cache directory cannot replace the key along with the entries. Entries
+ * that fail the authentication or cannot be parsed are ignored and the container is validated
+ * again. The cache directory can be deleted at any time.
+ */
+class BallotCache {
+
+    private static final Logger log = LoggerFactory.getLogger(BallotCache.class);
+
+    static final int KEY_LEN = 32;
+    private static final String HASH_ALG = "SHA-256";
+    private static final String MAC_ALG = "HmacSHA256";
+    private static final int FORMAT_VERSION = 1;
+    private static final byte OUTCOME_VALID = 0;
+    private static final byte OUTCOME_INVALID = 1;
+
+    private final Path dir;
+    private final byte[] prefix;
+    private final SecretKeySpec macKey;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param dir The cache directory, created if missing.
+     * @param keyFile The file of the HMAC key, must exist outside the cache directory.
+     * @param conf The trust configuration the containers are validated against.
+     * @throws IOException If the cache directory cannot be created or the key file is missing,
+     *         invalid or inside the cache directory.
+     */
+    BallotCache(Path dir, Path keyFile, Conf conf) throws IOException {
+        this.dir = dir;
+        macKey = new SecretKeySpec(loadKey(dir, keyFile), MAC_ALG);
+        Files.createDirectories(dir);
+        prefix = digest(Util.toBytes(FORMAT_VERSION + ":" + getToolVersion()), getTrustHash(conf));
+        log.info("BallotCache instantiated in directory {}", dir);
+    }
+
+    private static byte[] loadKey(Path dir, Path keyFile) throws IOException {
+        if (keyFile == null) {
+            throw new IOException("Ballot cache key file is not specified");
+        }
+        Path key = keyFile.toAbsolutePath().normalize();
+        if (key.startsWith(dir.toAbsolutePath().normalize())) {
+            throw new IOException("Ballot cache key file must be outside the cache: " + keyFile);
+        }
+        if (!Files.isRegularFile(key)) {
+            throw new IOException("Ballot cache key file does not exist: " + keyFile);
+        }
+        byte[] bytes = Files.readAllBytes(key);
+        if (bytes.length != KEY_LEN) {
+            throw new IOException("Invalid ballot cache key file: " + keyFile);
+        }
+        return bytes;
+    }
+
+    private static String getToolVersion() {
+        String version = BallotCache.class.getPackage().getImplementationVersion();
+        return version == null ? "dev" : version;
+    }
+
+    private static byte[] getTrustHash(Conf conf) {
+        List<byte[]> parts = new ArrayList<>();
+        try {
+            for (List<X509Certificate> certs : Arrays.asList(conf.getCaCerts(),
+                    conf.getOcspCerts(), conf.getTsaCerts())) {
+                parts.add(Util.toBytes(certs.size()));
+                for (X509Certificate cert : certs) {
+                    parts.add(cert.getEncoded());
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return digest(parts.toArray(new byte[parts.size()][]));
+    }
+
+    /**
+     * Computes SHA-256 over the length-prefixed parts, so that the boundaries of the parts are
+     * unambiguous.
+     */
+    private static byte[] digest(byte[]... parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance(HASH_ALG);
+            for (byte[] part : parts) {
+                if (part == null) {
+                    md.update(Util.toBytes(-1));
+                    continue;
+                }
+                md.update(Util.toBytes(part.length));
+                md.update(part);
+            }
+            return md.digest();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the container from the cache or, if missing, opens it using {@code opener} and
+     * stores the outcome in the cache.
+     *
+     * @param ref The reference name of the container.
+     * @param opener Opens and validates the container.
+     * @param data The raw data the container is combined from.
+     * @return
+     * @throws InvalidContainerException If the container is not valid.
+     */
+    Container open(String ref, Supplier<Container> opener, byte[]... data)
+            throws InvalidContainerException {
+        byte[] key = digest(prefix, digest(data));
+        Path path = getPath(key);
+
+        Entry entry = read(path, key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            if (entry.container == null) {
+                throw new InvalidContainerException(ref);
+            }
+            return entry.container;
+        }
+        misses.incrementAndGet();
+
+        Container c;
+        try {
+            c = toCacheable(opener.get());
+        } catch (InvalidContainerException e) {
+            // Only a validation failure is a definite outcome, a technical error is not
+            if (e.getCause() == null) {
+                write(path, key, null);
+            }
+            throw e;
+        }
+        write(path, key, c);
+
+        return c;
+    }
+
+    /**
+     * Logs the cache statistics to performance log.
+     */
+    void logStatistics() {
+        PerformanceLog.log.info("BallotCache HITS: {}, MISSES: {}, REJECTED: {}", hits.get(),
+                misses.get(), rejected.get());
+    }
+
+    private Path getPath(byte[] key) {
+        String hex = DatatypeConverter.printHexBinary(key).toLowerCase();
+        return dir.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    private Entry read(Path path, byte[] key) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            int len = bytes.length - KEY_LEN;
+            if (len < 0 || !MessageDigest.isEqual(mac(key, bytes, len),
+                    Arrays.copyOfRange(bytes, len, bytes.length))) {
+                log.warn("Ballot cache entry {} failed authentication, ignoring it", path);
+                rejected.incrementAndGet();
+                return null;
+            }
+            return decode(new DataInputStream(new ByteArrayInputStream(bytes, 0, len)));
+        } catch (Exception e) {
+            log.warn("Reading ballot cache entry {} failed, ignoring it", path, e);
+            rejected.incrementAndGet();
+            return null;
+        }
+    }
+
+    private void write(Path path, byte[] key, Container c) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encode(new DataOutputStream(out), c);
+            byte[] bytes = out.toByteArray();
+
+            Files.createDirectories(path.getParent());
+            Path tmp = Files.createTempFile(path.getParent(), null, null);
+            Files.write(tmp, Util.concatAll(bytes, mac(key, bytes, bytes.length)));
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            // The cache is optional, failing to write it must not fail the processing
+            log.warn("Writing ballot cache entry {} failed", path, e);
+        }
+    }
+
+    private byte[] mac(byte[] key, byte[] bytes, int len) throws Exception {
+        Mac mac = Mac.getInstance(MAC_ALG);
+        mac.init(macKey);
+        // Bind the entry to its key, so that entries cannot be swapped
+        mac.update(key);
+        mac.update(bytes, 0, len);
+        return mac.doFinal();
+    }
+
+    private static Container toCacheable(Container c) {
+        List<DataFile> files = new ArrayList<>();
+        c.getFiles().forEach(f -> files.add(new BytesDataFile(f.getName(), readAll(f))));
+        return new Container(files, c.getSignatures());
+    }
+
+    private static byte[] readAll(DataFile f) {
+        try (InputStream in = f.getStream()) {
+            return Util.toBytes(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void encode(DataOutputStream out, Container c) throws IOException {
+        if (c == null) {
+            out.writeByte(OUTCOME_INVALID);
+            return;
+        }
+        out.writeByte(OUTCOME_VALID);
+        out.writeInt(c.getFiles().size());
+        for (DataFile f : c.getFiles()) {
+            out.writeUTF(f.getName());
+            writeBytes(out, ((BytesDataFile) f).bytes);
+        }
+        out.writeInt(c.getSignatures().size());
+        for (Signature s : c.getSignatures()) {
+            Subject signer = s.getSigner();
+            out.writeBoolean(signer != null);
+            if (signer != null) {
+                writeString(out, signer.getSerialNumber());
+                writeString(out, signer.getName());
+            }
+            Instant time = s.getSigningTime();
+            out.writeBoolean(time != null);
+            if (time != null) {
+                out.writeLong(time.getEpochSecond());
+                out.writeInt(time.getNano());
+            }
+            out.writeUTF(s.getProfile().name());
+            writeBytes(out, s.getValue());
+        }
+    }
+
+    private static Entry decode(DataInputStream in) throws IOException {
+        if (in.readByte() == OUTCOME_INVALID) {
+            return new Entry(null);
+        }
+        List<DataFile> files = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            files.add(new BytesDataFile(in.readUTF(), readBytes(in)));
+        }
+        List<Signature> signatures = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            Subject signer = in.readBoolean() ? new Subject(readString(in), readString(in)) : null;
+            Instant time = in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt())
+                    : null;
+            Signature.Profile profile = Signature.Profile.valueOf(in.readUTF());
+            signatures.add(new Signature(signer, time, profile, readBytes(in)));
+        }
+        return new Entry(new Container(files, signatures));
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s == null ? null : Util.toBytes(s));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : Util.toString(bytes);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static class Entry {
+        /** The cached container or {@code null} if the container is invalid. */
+        final Container container;
+
+        Entry(Container container) {
+            this.container = container;
+        }
+    }
+
+    private static class BytesDataFile implements DataFile {
+        private final String name;
+        private final byte[] bytes;
+
+        BytesDataFile(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public InputStream getStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+}
@@ -9,8 +9,12 @@ import ee.ivxv.common.service.bbox.impl.TspProfile.TsProfile;
 import ee.ivxv.common.service.console.Progress;
 import ee.ivxv.common.service.container.ContainerReader;
 import ee.ivxv.common.util.Util;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import javax.xml.bind.DatatypeConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,23 +23,51 @@ public class BboxHelperImpl implements BboxHelper {
 
     private static final Logger log = LoggerFactory.getLogger(BboxHelperImpl.class);
 
+    /** The algorithm of {@code HashType.SHA256}, used for computing checksums while writing. */
+    private static final String CHECKSUM_ALG = "SHA-256";
+
+    private final Conf conf;
     private final ContainerReader container;
 
     public BboxHelperImpl(Conf conf, ContainerReader container) {
+        this.conf = conf;
         this.container = container;
     }
 
     @Override
-    public Loader<?> getLoader(Path path, Progress.Factory pf, int nThreads) {
-        Profile<?, ?, ?, ?> profile = new TsProfile(container);
-        return new LoaderImpl<>(profile, pf, nThreads);
+    public Loader<?> getLoader(Path path, Progress.Factory pf, int nThreads, int nZipThreads,
+            Path cacheDir, Path cacheKey) {
+        BallotCache cache = null;
+        if (cacheDir != null) {
+            try {
+                cache = new BallotCache(cacheDir, cacheKey, conf);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Profile<?, ?, ?, ?> profile = new TsProfile(container, cache);
+        return new LoaderImpl<>(profile, pf, nThreads, nZipThreads);
     }
 
     @Override
     public byte[] getChecksum(Path path) throws Exception {
-        byte[] bytes = HashType.SHA256.getFunction().digest(Files.newInputStream(path));
-        String checksum = DatatypeConverter.printHexBinary(bytes).toLowerCase();
-        return Util.toBytes(checksum);
+        try (InputStream in = Files.newInputStream(path)) {
+            return toChecksum(HashType.SHA256.getFunction().digest(in));
+        }
+    }
+
+    @Override
+    public MessageDigest createChecksumDigest() {
+        try {
+            return MessageDigest.getInstance(CHECKSUM_ALG);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public byte[] toChecksum(byte[] digest) {
+        return Util.toBytes(DatatypeConverter.printHexBinary(digest).toLowerCase());
     }
 
     @Override
@@ -55,23 +87,27 @@ public class BboxHelperImpl implements BboxHelper {
         private final Profile<T, U, RT, RU> profile;
         private final Progress.Factory pf;
         private final int nThreads;
+        private final int nZipThreads;
 
-        LoaderImpl(Profile<T, U, RT, RU> profile, Progress.Factory pf, int nThreads) {
+        LoaderImpl(Profile<T, U, RT, RU> profile, Progress.Factory pf, int nThreads,
+                int nZipThreads) {
             this.profile = profile;
             this.pf = pf;
             this.nThreads = nThreads;
+            this.nZipThreads = nZipThreads;
         }
 
         @Override
         public BboxLoader<RU> getBboxLoader(Path path, Reporter<Ref.BbRef> r)
                 throws InvalidBboxException {
-            return new IvxvBboxLoader<>(profile, new ZipSource(path), pf, r, nThreads);
+            return new IvxvBboxLoader<>(profile, new ZipSource(path, nZipThreads), pf, r,
+                    nThreads);
         }
 
         @Override
         public RegDataLoader<RU> getRegDataLoader(Path path, Reporter<Ref.RegRef> r)
                 throws InvalidBboxException {
-            return new IvxvRegDataLoader<>(profile, new ZipSource(path), pf, r);
+            return new IvxvRegDataLoader<>(profile, new ZipSource(path, nZipThreads), pf, r);
         }
     }
 
@@ -0,0 +1,79 @@
+package ee.ivxv.common.service.bbox.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * BoundedTaskRunner runs tasks on an executor service, limiting the number of tasks that are
+ * submitted but not yet completed. Submitting blocks while the limit is reached, so that the
+ * producer never gets far ahead of the workers and the queued tasks do not pile up on the heap.
+ *
+ * <p>
+ * The completion of every task happens-before {@link #awaitCompletion()} returns, hence the
+ * results written by the tasks can be read without further synchronization afterwards.
+ */
+class BoundedTaskRunner {
+
+    /** The number of pending tasks per thread, enough to keep the workers busy. */
+    static final int TASKS_PER_THREAD = 16;
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxPending;
+
+    /**
+     * @param executor The executor service to run the tasks on. It is shut down by
+     *        {@link #awaitCompletion()}.
+     * @param nThreads The number of threads of the executor, values less than or equal to 0 are
+     *        interpreted as the number of available processors.
+     */
+    BoundedTaskRunner(ExecutorService executor, int nThreads) {
+        this.executor = executor;
+        int n = nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors();
+        maxPending = n * TASKS_PER_THREAD;
+        permits = new Semaphore(maxPending);
+    }
+
+    /**
+     * Submits the task, blocking while the maximum number of tasks is pending.
+     *
+     * @param task
+     */
+    void submit(Runnable task) {
+        acquire(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until all submitted tasks are completed and shuts down the executor service.
+     */
+    void awaitCompletion() {
+        try {
+            acquire(maxPending);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void acquire(int n) {
+        try {
+            permits.acquire(n);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw new RuntimeException(e);
+        }
+    }
+
+}
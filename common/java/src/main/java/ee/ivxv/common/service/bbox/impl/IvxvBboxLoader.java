@@ -26,14 +26,17 @@ import ee.ivxv.common.service.bbox.impl.verify.TsVerifier;
 import ee.ivxv.common.service.console.Progress;
 import ee.ivxv.common.service.container.InvalidContainerException;
 import ee.ivxv.common.util.Util;
+import ee.ivxv.common.util.log.PerformanceLog;
 import eu.europa.esig.dss.DSSException;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.format.ResolverStyle;
 import java.time.temporal.ChronoField;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,9 +44,8 @@ import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.TreeSet;
 import java.util.Vector;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -55,7 +57,6 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
 
     static final Logger log = LoggerFactory.getLogger(IvxvBboxLoader.class);
 
-    static final int MAX_NUMBER_OF_RETRIES = 5;
     static final DateTimeFormatter BALLOT_TIMESTAMP_FMT =
             // Work around JDK-8031085 which prevents the use of SSS:
             // https://bugs.openjdk.java.net/browse/JDK-8031085
@@ -66,6 +67,10 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
     final Profile<T, U, RT, RU> profile;
     final LoaderHelper<BbRef> helper;
     private final int nThreads;
+    /** Technical container errors, i.e. containers not processed for other reasons than invalid. */
+    private final AtomicLong containerErrors = new AtomicLong();
+    /** Technical errors caused by concurrent modification of shared state, expected to be 0. */
+    private final AtomicLong concurrentModificationErrors = new AtomicLong();
 
     public IvxvBboxLoader(Profile<T, U, RT, RU> profile, FileSource source, Progress.Factory pf,
             Reporter<BbRef> reporter, int nThreads) throws InvalidBboxException {
@@ -87,11 +92,11 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
         return new IntegrityCheckedImpl(helper.checkIntegrity(profile::createBbRecord, n), n);
     }
 
-    ExecutorService createExecutorService() {
+    BoundedTaskRunner createTaskRunner() {
         if (nThreads <= 0) {
-            return Executors.newCachedThreadPool();
+            return new BoundedTaskRunner(Executors.newCachedThreadPool(), nThreads);
         }
-        return Executors.newFixedThreadPool(nThreads);
+        return new BoundedTaskRunner(Executors.newFixedThreadPool(nThreads), nThreads);
     }
 
     static class BbRefProvider implements RefProvider<BbRef> {
@@ -125,21 +130,29 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
         @Override
         public BallotsChecked<RU> checkBallots(VoterProvider vp, PublicKeyHolder tsKey,
                 Instant elStart) {
-            Map<BbRef, BallotResponse> ballots = Collections.synchronizedMap(new LinkedHashMap<>());
-            ExecutorService executor = createExecutorService();
+            // Results in file order, each slot is written only by the task of its record
+            List<ResultSlot> slots = new ArrayList<>();
+            BoundedTaskRunner runner = createTaskRunner();
             TsVerifier tsv = new TsVerifier(tsKey);
             Progress pb = helper.getProgress(getNumberOfValidBallots());
-            Predicate<FileName<BbRef>> filter = name -> records.containsKey(name.ref);
 
-            helper.processRecords(filter, profile::createBbRecord, (name, record) -> {
-                // Ensure stable order of votes
-                ballots.putIfAbsent(name.ref, null);
+            // Process all records, including incomplete ones, to collect the response keys of the
+            // invalid records in the same pass. These are needed by 'checkRegData()', which then
+            // does not have to read the ballot box again.
+            helper.processRecords(name -> true, true, profile::createBbRecord, (name, record) -> {
+                ResultSlot slot = new ResultSlot(name.ref);
+                slots.add(slot);
+
+                if (!records.containsKey(name.ref)) {
+                    runner.submit(() -> slot.invalidKey = getResponseKey(name, record));
+                    return;
+                }
 
-                executor.submit(() -> {
+                runner.submit(() -> {
                     try {
-                        BallotResponse br = createBallotResponse(name, record, vp, tsv, elStart);
-                        if (br != null) {
-                            ballots.put(name.ref, br);
+                        slot.response = createBallotResponse(name, record, vp, tsv, elStart);
+                        if (slot.response == null) {
+                            slot.invalidKey = getResponseKey(name, record);
                         }
                     } finally {
                         pb.increase(1);
@@ -147,22 +160,28 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
                 });
             });
 
-            executor.shutdown();
-
-            try {
-                executor.awaitTermination(1, TimeUnit.DAYS);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+            runner.awaitCompletion();
 
-            // Remove nulls added before
-            ballots.values().removeIf(v -> v == null);
+            Map<BbRef, BallotResponse> ballots = new LinkedHashMap<>();
+            Map<BbRef, Object> invalidKeys = new HashMap<>();
+            slots.forEach(slot -> {
+                if (slot.response != null) {
+                    ballots.put(slot.ref, slot.response);
+                } else if (slot.invalidKey != null) {
+                    invalidKeys.put(slot.ref, slot.invalidKey);
+                }
+            });
 
-            removeRecurrentResponses(ballots);
+            removeRecurrentResponses(ballots, invalidKeys);
 
             pb.finish();
+            helper.logBytesRead("checkBallots");
+            profile.logStatistics();
+            PerformanceLog.log.info("checkBallots CONTAINER ERRORS: {}, CONCURRENT MODIFICATION "
+                    + "ERRORS: {}", containerErrors.get(), concurrentModificationErrors.get());
 
-            return new BallotsCheckedImpl(ballots, getNumberOfValidBallots());
+            return new BallotsCheckedImpl(ballots, orderedKeys(slots, invalidKeys),
+                    getNumberOfValidBallots());
         }
 
         @Override
@@ -183,6 +202,7 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
             });
 
             pb.ifPresent(p -> p.finish());
+            helper.logBytesRead("export");
         }
 
         @Override
@@ -229,12 +249,12 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
             });
 
             pb.finish();
+            helper.logBytesRead("listVoters");
         }
 
         private BallotResponse createBallotResponse(FileName<BbRef> name, T record,
                 VoterProvider vp, TsVerifier tsv, Instant elStart) {
-            int i = 0;
-            retry: try {
+            try {
                 RT response = profile.getResponse(record);
                 log.info("BALLOT-KEY ballot: {}/{} key: {}", name.ref.voter, name.ref.ballot,
                         response.getKey());
@@ -251,20 +271,13 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
                 helper.report(name.ref, e.result, e.args);
             } catch (InvalidContainerException e) {
                 log.error("Invalid container '{}': {}", e.path, e.getMessage(), e);
+                if (e.getCause() != null) {
+                    countContainerError(e);
+                }
                 helper.report(name.ref, Result.INVALID_BALLOT_SIGNATURE, e);
             } catch (DSSException e) {
-                /*
-                 * In very rare cases a concurrent modification exception is re-thrown from a
-                 * DSS-(?) library. Just try again for MAX times.
-                 */
                 log.error("DSSException occurred while processing {}", name.path, e);
-                if (e.getCause() instanceof ConcurrentModificationException) {
-                    log.error("!!! Caused by ConcurrentModificationException !!!");
-                    if (++i < MAX_NUMBER_OF_RETRIES) {
-                        break retry;
-                    }
-                }
-                // Not concurrent modification exception - process as normally
+                countContainerError(e);
                 helper.handleTechnicalError(name, e);
             } catch (Exception e) {
                 helper.handleTechnicalError(name, e);
@@ -272,13 +285,57 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
             return null;
         }
 
+        /**
+         * Counts a technical error of container processing. The container reader isolates the
+         * validation state of the worker threads, so concurrent modification errors indicate a
+         * regression and are counted separately.
+         */
+        private void countContainerError(Throwable e) {
+            containerErrors.incrementAndGet();
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof ConcurrentModificationException) {
+                    log.error("!!! Caused by ConcurrentModificationException !!!");
+                    concurrentModificationErrors.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Computes the response key of an invalid or incomplete record, which is retained for
+         * comparing the ballot box with the registration data.
+         * 
+         * @param name
+         * @param record
+         * @return Returns the response key or {@code null} if it is not available.
+         */
+        private Object getResponseKey(FileName<BbRef> name, T record) {
+            try {
+                return profile.getResponseKey(record).orElse(null);
+            } catch (Exception e) {
+                helper.handleTechnicalError(name, e);
+                return null;
+            }
+        }
+
+        private Map<BbRef, Object> orderedKeys(List<ResultSlot> order, Map<BbRef, Object> keys) {
+            Map<BbRef, Object> result = new LinkedHashMap<>();
+            order.forEach(slot -> Optional.ofNullable(keys.get(slot.ref)).ifPresent(key -> {
+                result.put(slot.ref, key);
+            }));
+            return result;
+        }
+
         /**
          * Ensure the uniqueness of all responses (response signatures/keys). In case of recurrence
-         * only use the earliest one, remove others and report.
+         * only use the earliest one, remove others and report. The response keys of the removed
+         * ballots are retained in {@code invalidKeys}.
          * 
          * @param ballots
+         * @param invalidKeys
          */
-        private void removeRecurrentResponses(Map<BbRef, BallotResponse> ballots) {
+        private void removeRecurrentResponses(Map<BbRef, BallotResponse> ballots,
+                Map<BbRef, Object> invalidKeys) {
             ballots.entrySet().stream() //
                     .collect(groupingBy(e -> e.getValue().response.getKey(), // Group by resp key
                             mapping(e -> e, toCollection(() -> new TreeSet<>(this::compare)))))
@@ -286,6 +343,7 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
                     .flatMap(es -> es.stream().skip(1)) // Skip the first in sorted set as earliest
                     .forEach(e -> { // Process the others as the recurring ones
                         helper.report(e.getKey(), Result.REG_RESP_NOT_UNIQUE);
+                        invalidKeys.put(e.getKey(), e.getValue().response.getKey());
                         ballots.remove(e.getKey());
                     });
         }
@@ -301,6 +359,22 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
 
     } // class IntegrityCheckedImpl
 
+    /**
+     * ResultSlot holds the outcome of checking a single record. Slots are created in file order by
+     * the reading thread and filled by the worker threads, without any shared lock.
+     */
+    class ResultSlot {
+        final BbRef ref;
+        /** The valid ballot or {@code null} if the record did not result in a valid ballot. */
+        BallotResponse response;
+        /** The response key of the record that did not result in a valid ballot. */
+        Object invalidKey;
+
+        ResultSlot(BbRef ref) {
+            this.ref = ref;
+        }
+    }
+
     class BallotResponse {
         final Ballot ballot;
         final RT response;
@@ -314,17 +388,21 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
     class BallotsCheckedImpl extends AbstractStage implements BallotsChecked<RU> {
 
         private final Map<BbRef, BallotResponse> ballots;
+        /** Response keys of the records that did not result in a valid ballot, in file order. */
+        private final Map<BbRef, Object> invalidKeys;
 
-        BallotsCheckedImpl(Map<BbRef, BallotResponse> ballots, int oldValid) {
+        BallotsCheckedImpl(Map<BbRef, BallotResponse> ballots, Map<BbRef, Object> invalidKeys,
+                int oldValid) {
             super(ballots.size(), oldValid);
             this.ballots = ballots;
+            this.invalidKeys = invalidKeys;
         }
 
         @Override
         public BboxLoaderResult checkRegData(RegDataLoaderResult<RU> regData) {
             Map<String, List<Ballot>> voters = Collections.synchronizedMap(new LinkedHashMap<>());
             Map<Object, RegRef> regFiles = Collections.synchronizedMap(new LinkedHashMap<>());
-            ExecutorService executor = createExecutorService();
+            BoundedTaskRunner runner = createTaskRunner();
             Progress pb = helper.getProgress(getNumberOfValidBallots());
 
             regData.getRegData().forEach((key, rr) -> regFiles.put(key, rr.ref));
@@ -335,7 +413,7 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
 
                 voters.computeIfAbsent(ref.voter, s -> new Vector<>());
 
-                executor.submit(() -> {
+                runner.submit(() -> {
                     try {
                         if (rr == null) {
                             // Request not found - report and continue
@@ -359,30 +437,19 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
                 });
             });
 
-            pb.finish();
-
-            executor.shutdown();
+            runner.awaitCompletion();
 
-            try {
-                executor.awaitTermination(1, TimeUnit.DAYS);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+            pb.finish();
 
-            // Check all records not among the ballots just processed and remove them from regFiles
-            Progress pb2 = helper.getProgress(getNumberOfValidBallots());
-            helper.processRecords(name -> true, true, profile::createBbRecord, (name, record) -> {
+            // Check all records not among the valid ballots and remove them from regFiles. The
+            // response keys were retained by 'checkBallots()', the ballot box is not read again.
+            Progress pb2 = helper.getProgress(invalidKeys.size());
+            invalidKeys.forEach((ref, key) -> {
                 pb2.increase(1);
-                if (ballots.containsKey(name.ref)) {
-                    return;
+                log.info("BALLOT-KEY (invalid) ballot: {}/{} key: {}", ref.voter, ref.ballot, key);
+                if (regFiles.remove(key) == null) {
+                    helper.report(ref, Result.BALLOT_WITHOUT_REG_REQ);
                 }
-                profile.getResponseKey(record).ifPresent(key -> {
-                    log.info("BALLOT-KEY (invalid) ballot: {}/{} key: {}", name.ref.voter,
-                            name.ref.ballot, key);
-                    if (regFiles.remove(key) == null) {
-                        helper.report(name.ref, Result.BALLOT_WITHOUT_REG_REQ);
-                    }
-                });
             });
 
             // Report registration data without corresponding ballots using regData's reporting
@@ -392,6 +459,7 @@ class IvxvBboxLoader<T extends Record<?>, U extends Record<?>, RT extends Keyabl
             voters.values().removeIf(ballotList -> ballotList.isEmpty());
 
             pb2.finish();
+            helper.logBytesRead("checkRegData");
 
             return new BboxLoaderResultImpl(voters, getNumberOfValidBallots());
         }
@@ -73,6 +73,7 @@ public class IvxvRegDataLoader<T extends Record<?>, U extends Record<?>, RT exte
                     helper.handleTechnicalError(name, e);
                 }
             });
+            helper.logBytesRead("getRegData");
 
             return new RegDataLoaderResultImpl(regData, getNumberOfValidBallots());
         }
@@ -6,11 +6,15 @@ import ee.ivxv.common.service.bbox.Result;
 import ee.ivxv.common.service.bbox.impl.FileName.RefProvider;
 import ee.ivxv.common.service.console.Progress;
 import ee.ivxv.common.util.Util;
+import ee.ivxv.common.util.log.PerformanceLog;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -31,6 +35,7 @@ public class LoaderHelper<T extends Ref> {
     private final RefProvider<T> refProvider;
     private final Progress.Factory pf;
     private final Reporter<T> reporter;
+    private final AtomicLong bytesRead = new AtomicLong();
 
     LoaderHelper(FileSource source, RefProvider<T> refProvider, Progress.Factory pf,
             Reporter<T> reporter) {
@@ -111,7 +116,7 @@ public class LoaderHelper<T extends Ref> {
             try {
                 FileName<T> name = new FileName<>(path, refProvider);
                 try {
-                    processor.accept(name, in);
+                    processor.accept(name, new CountingInputStream(in, bytesRead));
                 } catch (Exception e) {
                     handleTechnicalError(name, e);
                 }
@@ -151,6 +156,16 @@ public class LoaderHelper<T extends Ref> {
         }
     }
 
+    /**
+     * Logs the number of bytes read from the file source since the previous call to performance
+     * log and resets the counter.
+     * 
+     * @param stage The name of the stage that read the bytes.
+     */
+    void logBytesRead(String stage) {
+        PerformanceLog.log.info("{} BYTES READ: {}", stage, bytesRead.getAndSet(0));
+    }
+
     void handleTechnicalError(FileName<T> name, Exception e) {
         log.error("Tehcnical error occurred while processing file {}: ", name.path, e);
         report(name.ref, Result.TECHNICAL_ERROR, e);
@@ -169,6 +184,43 @@ public class LoaderHelper<T extends Ref> {
         return pf.apply(total);
     }
 
+    /**
+     * Input stream that adds the number of bytes read through it to the given counter.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            counter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+
     private static class NameRecord<T extends Ref, U extends Record<?>> {
         final FileName<T> name;
         final U record;
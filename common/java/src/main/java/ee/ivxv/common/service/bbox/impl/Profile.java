@@ -57,6 +57,14 @@ public interface Profile<T extends Record<?>, U extends Record<?>, RT extends Ke
 
     Result checkRegistration(RT response, RU request);
 
+    /**
+     * Logs the statistics collected by the profile, e.g. of caching, to performance log. The
+     * default implementation does nothing.
+     */
+    default void logStatistics() {
+        // Nothing
+    }
+
 }
 
 
@@ -39,9 +39,45 @@ abstract class TspProfile<T extends TspRespRecord<?>, U extends TspReqRecord<?>>
     private static final String SN_PNOEE_PREFIX = "PNOEE-"; // Make country code configurable.
 
     final ContainerReader container;
+    private final BallotCache cache;
 
-    TspProfile(ContainerReader container) {
+    /**
+     * @param container
+     * @param cache The ballot validation cache, may be {@code null}.
+     */
+    TspProfile(ContainerReader container, BallotCache cache) {
         this.container = container;
+        this.cache = cache;
+    }
+
+    /**
+     * Opens the combined ballot container of the record. If the ballot validation cache is
+     * enabled, the cached outcome is used for unchanged ballots.
+     * 
+     * @param record
+     * @param ref The reference name of the container.
+     * @return
+     * @throws InvalidContainerException
+     */
+    Container openBallotContainer(T record, String ref) throws InvalidContainerException {
+        if (cache == null) {
+            return container.open(combineBallotContainer(record), ref);
+        }
+        return cache.open(ref, () -> container.open(combineBallotContainer(record), ref),
+                getContainerData(record));
+    }
+
+    /**
+     * @param record
+     * @return Returns the raw data the ballot container of the record is combined from.
+     */
+    abstract byte[][] getContainerData(T record);
+
+    @Override
+    public void logStatistics() {
+        if (cache != null) {
+            cache.logStatistics();
+        }
     }
 
     Voter findVoter(VoterProvider vp, String voterId, String version) throws ResultException {
@@ -142,8 +178,8 @@ abstract class TspProfile<T extends TspRespRecord<?>, U extends TspReqRecord<?>>
      */
     static class TmProfile extends TspProfile<TspRespRecord<TmType>, TspReqRecord<RegType>> {
 
-        TmProfile(ContainerReader container) {
-            super(container);
+        TmProfile(ContainerReader container, BallotCache cache) {
+            super(container, cache);
         }
 
         @Override
@@ -151,6 +187,12 @@ abstract class TspProfile<T extends TspRespRecord<?>, U extends TspReqRecord<?>>
             return record.get(TmType.bdoc);
         }
 
+        @Override
+        byte[][] getContainerData(TspRespRecord<TmType> record) {
+            return new byte[][] {Util.toBytes(TmType.class.getName()), record.get(TmType.bdoc),
+                    record.get(TmType.ocsptm)};
+        }
+
         @Override
         public TspRespRecord<TmType> createBbRecord() {
             return new TspRespRecord<>(TmType.class, TmType.tspreg);
@@ -177,7 +219,7 @@ abstract class TspProfile<T extends TspRespRecord<?>, U extends TspReqRecord<?>>
             Voter voter = findVoter(vp, name.ref.voter, version);
 
             FileName<Ref.BbRef> bdocName = name.forType(TmType.bdoc);
-            Container c = container.open(combineBallotContainer(record), bdocName.path);
+            Container c = openBallotContainer(record, bdocName.path);
 
             checkSignatureProfiles(c, Signature.Profile.BDOC_TM);
 
@@ -198,8 +240,8 @@ abstract class TspProfile<T extends TspRespRecord<?>, U extends TspReqRecord<?>>
      */
     static class TsProfile extends TspProfile<TspRespRecord<TsType>, TspReqRecord<RegType>> {
 
-        TsProfile(ContainerReader container) {
-            super(container);
+        TsProfile(ContainerReader container, BallotCache cache) {
+            super(container, cache);
         }
 
         @Override
@@ -207,6 +249,12 @@ abstract class TspProfile<T extends TspRespRecord<?>, U extends TspReqRecord<?>>
             return record.get(TsType.bdoc);
         }
 
+        @Override
+        byte[][] getContainerData(TspRespRecord<TsType> record) {
+            return new byte[][] {Util.toBytes(TsType.class.getName()), record.get(TsType.bdoc),
+                    record.get(TsType.ocsp), record.get(TsType.tspreg), Util.toBytes(TS_C14N_ALG)};
+        }
+
         @Override
         public TspRespRecord<TsType> createBbRecord() {
             return new TspRespRecord<>(TsType.class, TsType.tspreg);
@@ -233,7 +281,7 @@ abstract class TspProfile<T extends TspRespRecord<?>, U extends TspReqRecord<?>>
             Voter voter = findVoter(vp, name.ref.voter, version);
 
             FileName<Ref.BbRef> bdocName = name.forType(TsType.bdoc);
-            Container c = container.open(combineBallotContainer(record), bdocName.path);
+            Container c = openBallotContainer(record, bdocName.path);
 
             checkSignatureProfiles(c, Signature.Profile.BDOC_TS);
 
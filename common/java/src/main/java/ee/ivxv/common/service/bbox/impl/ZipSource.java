@@ -3,21 +3,59 @@ package ee.ivxv.common.service.bbox.impl;
 import static ee.ivxv.common.util.Util.CHARSET;
 
 import ee.ivxv.common.service.bbox.InvalidBboxException;
+import ee.ivxv.common.util.Util;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
+/**
+ * File source backed by a ZIP file.
+ *
+ * <p>
+ * By default the entries are processed sequentially through a {@code ZipInputStream}. If the
+ * number of threads is greater than 1, the entries are located through the central directory of
+ * the ZIP file and decompressed in parallel by worker threads. Each worker handles a contiguous
+ * chunk of entries that never splits the files of a single record. The processor is still called
+ * on the calling thread in the order of the central directory, so the output is deterministic and
+ * the processor does not have to be thread-safe.
+ */
 class ZipSource implements FileSource {
 
+    /** Approximate number of entries decompressed by a single worker task. */
+    static final int CHUNK_SIZE = 256;
+    /** The number of chunks per thread that may be decompressed ahead of the processor. */
+    static final int CHUNKS_PER_THREAD = 2;
+
     private final Path path;
+    private final int nThreads;
 
     ZipSource(Path path) {
+        this(path, 0);
+    }
+
+    /**
+     * @param path The path of the ZIP file.
+     * @param nThreads The number of decompression threads. Values less than or equal to 1 select
+     *        sequential stream processing.
+     */
+    ZipSource(Path path, int nThreads) {
         this.path = path;
+        this.nThreads = nThreads;
     }
 
     private static void processZippedStream(Path path,
@@ -34,6 +72,90 @@ class ZipSource implements FileSource {
         }
     }
 
+    private static void processZipFileParallel(Path path, int nThreads,
+            BiConsumer<ZipEntry, InputStream> processor) {
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try (ZipFile zip = openZipFile(path)) {
+            Deque<Future<List<ZipData>>> pending = new ArrayDeque<>();
+            int window = nThreads * CHUNKS_PER_THREAD;
+
+            for (List<ZipEntry> chunk : getChunks(zip)) {
+                if (pending.size() >= window) {
+                    processChunk(pending.poll(), processor);
+                }
+                pending.add(executor.submit(() -> readChunk(zip, chunk)));
+            }
+            while (!pending.isEmpty()) {
+                processChunk(pending.poll(), processor);
+            }
+        } catch (InvalidBboxException e) {
+            throw new RuntimeException(e);
+        } catch (Exception e) {
+            throw new RuntimeException(new InvalidBboxException(path, e));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Splits the entries of the central directory into chunks of approximately
+     * {@code CHUNK_SIZE} entries. Consecutive entries with the same base name (i.e. files of the
+     * same record) are kept in the same chunk.
+     */
+    private static List<List<ZipEntry>> getChunks(ZipFile zip) {
+        List<List<ZipEntry>> chunks = new ArrayList<>();
+        List<ZipEntry> chunk = new ArrayList<>(CHUNK_SIZE);
+        String lastBase = null;
+
+        for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+            ZipEntry ze = e.nextElement();
+            if (ze.isDirectory()) {
+                continue;
+            }
+            String base = getBaseName(ze.getName());
+            if (chunk.size() >= CHUNK_SIZE && !base.equals(lastBase)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+            chunk.add(ze);
+            lastBase = base;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    private static String getBaseName(String name) {
+        int i = name.lastIndexOf('.');
+        return i < 0 ? name : name.substring(0, i);
+    }
+
+    private static List<ZipData> readChunk(ZipFile zip, List<ZipEntry> chunk) throws Exception {
+        List<ZipData> result = new ArrayList<>(chunk.size());
+        byte[] buffer = new byte[1024];
+
+        for (ZipEntry ze : chunk) {
+            try (InputStream in = zip.getInputStream(ze)) {
+                result.add(new ZipData(ze, Util.toBytes(in, buffer)));
+            }
+        }
+
+        return result;
+    }
+
+    private static void processChunk(Future<List<ZipData>> future,
+            BiConsumer<ZipEntry, InputStream> processor) throws Exception {
+        List<ZipData> chunk;
+        try {
+            chunk = future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        chunk.forEach(zd -> processor.accept(zd.entry, new ByteArrayInputStream(zd.data)));
+    }
+
     private static void processZipFile(Path path, Consumer<ZipEntry> processor) {
         try (ZipFile zip = openZipFile(path)) {
             zip.stream().forEach(ze -> {
@@ -57,9 +179,14 @@ class ZipSource implements FileSource {
 
     @Override
     public void processFiles(BiConsumer<String, InputStream> processor) {
-        processZippedStream(path, (ze, in) -> {
+        BiConsumer<ZipEntry, InputStream> entryProcessor = (ze, in) -> {
             processor.accept(ze.getName(), in);
-        });
+        };
+        if (nThreads > 1) {
+            processZipFileParallel(path, nThreads, entryProcessor);
+        } else {
+            processZippedStream(path, entryProcessor);
+        }
     }
 
     @Override
@@ -69,4 +196,14 @@ class ZipSource implements FileSource {
         });
     }
 
+    private static class ZipData {
+        final ZipEntry entry;
+        final byte[] data;
+
+        ZipData(ZipEntry entry, byte[] data) {
+            this.entry = entry;
+            this.data = data;
+        }
+    }
+
 }
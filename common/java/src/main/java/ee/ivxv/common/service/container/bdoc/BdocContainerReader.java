@@ -26,14 +26,16 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import org.apache.xml.security.Init;
 import org.apache.xml.security.c14n.Canonicalizer;
 import org.digidoc4j.Configuration;
@@ -54,23 +56,47 @@ public class BdocContainerReader implements ContainerReader {
     private static final String SIG_FILE_PREFIX = "META-INF/signatures";
     private static final String SIG_VALUE_EL = "SignatureValue";
 
-    private Configuration conf;
+    /**
+     * Thread-confined XML parser for extracting the timestamp data. Looking up and configuring
+     * {@code DocumentBuilderFactory} is costly and {@code DocumentBuilder} is not thread-safe, so
+     * each thread creates a single parser and reuses it.
+     */
+    private static final ThreadLocal<DocumentBuilder> TS_DATA_PARSER =
+            ThreadLocal.withInitial(BdocContainerReader::createTimestampDataParser);
+
+    /**
+     * Thread-confined digidoc4j configuration. DSS mutates the state reachable from the
+     * configuration (e.g. the trusted certificate source) during validation, which causes
+     * occasional {@code ConcurrentModificationException}-s if the configuration is shared between
+     * worker threads. Hence each thread gets an isolated configuration, built on the first use.
+     * Only the thread executor, which is thread-safe, is shared.
+     */
+    private final ThreadLocal<Configuration> conf;
+    private final ExecutorService executor;
 
     static {
         Init.init();
     }
 
     public BdocContainerReader(Conf conf, int nThreads) {
-        this(createConfiguration(conf, nThreads));
+        executor = createExecutorService(nThreads);
+        this.conf = ThreadLocal.withInitial(() -> createConfiguration(conf, executor));
+        // Pre-warm the configuration of the creating thread and fail early on invalid conf
+        this.conf.get();
         log.info("BdocContainerReader instantiated with thread count {}", nThreads);
     }
 
-    private BdocContainerReader(Configuration conf) {
-        this.conf = conf;
+    private static ExecutorService createExecutorService(int nThreads) {
+        if (nThreads <= 0) {
+            return Executors.newCachedThreadPool();
+        }
+        return Executors.newFixedThreadPool(nThreads);
     }
 
-    private static Configuration createConfiguration(Conf conf, int nThreads) {
-        ConfigurationBuilder cb = ConfigurationBuilder.aConfiguration().withNThreads(nThreads);
+    private static Configuration createConfiguration(Conf conf, ExecutorService executor) {
+        log.debug("Creating digidoc4j configuration for thread {}",
+                Thread.currentThread().getName());
+        ConfigurationBuilder cb = ConfigurationBuilder.aConfiguration().withExecutor(executor);
 
         conf.getCaCerts().forEach(cb::withCaCert);
         conf.getOcspCerts().forEach(cb::withOcspCert);
@@ -91,14 +117,16 @@ public class BdocContainerReader implements ContainerReader {
     @Override
     public final Container read(String path) throws InvalidContainerException {
         log.debug("readContainer({}) called", path);
-        return read(ContainerBuilder.aContainer().fromExistingFile(path).withConfiguration(conf),
+        return read(ContainerBuilder.aContainer().fromExistingFile(path)
+                .withConfiguration(conf.get()),
                 path);
     }
 
     @Override
     public final Container read(InputStream input, String ref) throws InvalidContainerException {
         log.debug("readContainer(<InputStream>, {}) called", ref);
-        return read(ContainerBuilder.aContainer().fromStream(input).withConfiguration(conf), ref);
+        return read(ContainerBuilder.aContainer().fromStream(input)
+                .withConfiguration(conf.get()), ref);
     }
 
     private Container read(ContainerBuilder containerBuilder, String ref)
@@ -147,11 +175,29 @@ public class BdocContainerReader implements ContainerReader {
 
     @Override
     public byte[] combine(byte[] bdoc, byte[] ocsp, byte[] ts, String tsC14nAlg) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream(5000);
-        byte[] buffer = new byte[1024];
+        byte[] unsignedProps = Util.toBytes(createUnsignedProperties(ocsp, ts, tsC14nAlg));
 
         log.debug("combine(): combining container data");
 
+        // Modify signature file, copy others raw
+        try {
+            return RawZipRewriter.rewrite(bdoc, name -> name.startsWith(SIG_FILE_PREFIX),
+                    xml -> addDataToSignature(xml, unsignedProps));
+        } catch (ZipException e) {
+            log.debug("combine(): raw copy not possible, recompressing container", e);
+        }
+
+        return combineRecompressed(bdoc, unsignedProps);
+    }
+
+    /**
+     * Combines the container by decompressing and recompressing all entries. This is used for
+     * containers that {@code RawZipRewriter} does not support.
+     */
+    private byte[] combineRecompressed(byte[] bdoc, byte[] unsignedProps) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(5000);
+        byte[] buffer = new byte[1024];
+
         try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bdoc), CHARSET);
                 ZipOutputStream zos = new ZipOutputStream(out, CHARSET)) {
             for (ZipEntry ze; (ze = zis.getNextEntry()) != null;) {
@@ -159,9 +205,7 @@ public class BdocContainerReader implements ContainerReader {
 
                 // Modify signature file, copy others
                 if (ze.getName().startsWith(SIG_FILE_PREFIX)) {
-                    String xml = Util.toString(Util.toBytes(zis, buffer));
-
-                    zos.write(addDataToSignature(xml, ocsp, ts, tsC14nAlg));
+                    zos.write(addDataToSignature(Util.toBytes(zis, buffer), unsignedProps));
                 } else {
                     for (int len; (len = zis.read(buffer)) > 0;) {
                         zos.write(buffer, 0, len);
@@ -176,7 +220,7 @@ public class BdocContainerReader implements ContainerReader {
         return out.toByteArray();
     }
 
-    private byte[] addDataToSignature(String sigXml, byte[] ocsp, byte[] ts, String tsC14nAlg) {
+    private static String createUnsignedProperties(byte[] ocsp, byte[] ts, String tsC14nAlg) {
         String unsignedProps = UNSIGNED_PROPS_EL;
 
         // Insert OCSP response
@@ -191,16 +235,95 @@ public class BdocContainerReader implements ContainerReader {
 
             tsStr = TS_EL;
             tsStr = tsStr.replace(TS_C14N_EL_KEY, c14nEl);
-            tsStr = tsStr.replaceAll(TS_RESP_KEY, tsRespStr);
+            tsStr = tsStr.replace(TS_RESP_KEY, tsRespStr);
         }
-        unsignedProps = unsignedProps.replace(TS_EL_KEY, tsStr);
+
+        return unsignedProps.replace(TS_EL_KEY, tsStr);
+    }
+
+    /**
+     * Splices the 'UnsignedProperties' element into the signature XML at byte level, without
+     * decoding the XML. Any existing 'UnsignedProperties' element, from the first opening tag to
+     * the last closing tag, is removed and the new element is inserted on a new line after the
+     * first closing tag of the 'SignedProperties' element. Tags are matched as
+     * {@code <\s*\w+:Name[^>]*>} and {@code </\s*\w+:Name[^>]*>}, all of which are ASCII, hence
+     * multi-byte UTF-8 sequences never match.
+     */
+    static byte[] addDataToSignature(byte[] sigXml, byte[] unsignedProps) {
+        byte[] xml = sigXml;
 
         // First remove any traces of possible existing 'UnsignedProperties' element
-        String cleanSigXml = REMOVE_USP.matcher(sigXml).replaceAll("");
+        int closeStart = -1;
+        int closeEnd = -1;
+        for (int i = xml.length - 1; i >= 0 && closeEnd < 0; i--) {
+            closeEnd = matchTag(xml, i, true, UNSIGNED_PROPS_TAG);
+            closeStart = i;
+        }
+        if (closeEnd >= 0) {
+            for (int i = 0; i <= closeStart; i++) {
+                int openEnd = matchTag(xml, i, false, UNSIGNED_PROPS_TAG);
+                if (openEnd >= 0 && openEnd <= closeStart) {
+                    xml = Util.concatAll(Arrays.copyOfRange(xml, 0, i),
+                            Arrays.copyOfRange(xml, closeEnd, xml.length));
+                    break;
+                }
+            }
+        }
+
         // Then add new 'UnsignedProperties' element
-        String result = ADD_USP.matcher(cleanSigXml).replaceFirst("$1\n" + unsignedProps);
+        for (int i = 0; i < xml.length; i++) {
+            int end = matchTag(xml, i, true, SIGNED_PROPS_TAG);
+            if (end >= 0) {
+                byte[] result = new byte[xml.length + 1 + unsignedProps.length];
+                System.arraycopy(xml, 0, result, 0, end);
+                result[end] = '\n';
+                System.arraycopy(unsignedProps, 0, result, end + 1, unsignedProps.length);
+                System.arraycopy(xml, end, result, end + 1 + unsignedProps.length,
+                        xml.length - end);
+                return result;
+            }
+        }
 
-        return Util.toBytes(result);
+        return xml;
+    }
+
+    /**
+     * @return Returns the index following the opening or closing tag with the given local name
+     *         that starts at index {@code i}, or -1 if there is no such tag.
+     */
+    private static int matchTag(byte[] xml, int i, boolean closing, byte[] localName) {
+        int j = i;
+        if (xml[j++] != '<' || closing && (j >= xml.length || xml[j++] != '/')) {
+            return -1;
+        }
+        while (j < xml.length && isSpace(xml[j])) {
+            j++;
+        }
+        int prefixStart = j;
+        while (j < xml.length && isWordChar(xml[j])) {
+            j++;
+        }
+        if (j == prefixStart || j >= xml.length || xml[j++] != ':'
+                || j + localName.length > xml.length) {
+            return -1;
+        }
+        for (byte b : localName) {
+            if (xml[j++] != b) {
+                return -1;
+            }
+        }
+        while (j < xml.length && xml[j] != '>') {
+            j++;
+        }
+        return j < xml.length ? j + 1 : -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    private static boolean isWordChar(byte b) {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_';
     }
 
     @Override
@@ -218,12 +341,24 @@ public class BdocContainerReader implements ContainerReader {
         throw new RuntimeException("Signature file with prefix" + SIG_FILE_PREFIX + " not found");
     }
 
-    private byte[] calculateTimestampData(byte[] sigXml, String c14nAlg) throws Exception {
+    private static DocumentBuilder createTimestampDataParser() {
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
         dbf.setNamespaceAware(true);
-        Document doc = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(sigXml));
+        try {
+            return dbf.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static byte[] calculateTimestampData(byte[] sigXml, String c14nAlg) throws Exception {
+        DocumentBuilder db = TS_DATA_PARSER.get();
+        db.reset();
+        Document doc = db.parse(new ByteArrayInputStream(sigXml));
         NodeList nl = doc.getElementsByTagNameNS(XMLSignature.XMLNS, SIG_VALUE_EL);
 
+        // NB! Canonicalizer instances must not be reused, since they retain the namespace state
+        // of the previous subtree and would omit namespace declarations from the output.
         Canonicalizer c11r = Canonicalizer.getInstance(c14nAlg);
 
         return c11r.canonicalizeSubtree(nl.item(0));
@@ -236,15 +371,11 @@ public class BdocContainerReader implements ContainerReader {
 
     @Override
     public void shutdown() {
-        if (conf.getThreadExecutor() != null) {
-            conf.getThreadExecutor().shutdown();
-        }
+        executor.shutdown();
     }
 
-    private static final Pattern REMOVE_USP = Pattern.compile(
-            "<\\s*\\w+:UnsignedProperties[^>]*>.*</\\s*\\w+:UnsignedProperties[^>]*>",
-            Pattern.DOTALL);
-    private static final Pattern ADD_USP = Pattern.compile("(</\\s*\\w+:SignedProperties[^>]*>)");
+    private static final byte[] UNSIGNED_PROPS_TAG = Util.toBytes("UnsignedProperties");
+    private static final byte[] SIGNED_PROPS_TAG = Util.toBytes("SignedProperties");
 
     private static final String OCSP_RESP_KEY = "OCSP_RESPONSE";
     private static final String TS_EL_KEY = "TS_ELEMENT";
@@ -295,14 +426,14 @@ public class BdocContainerReader implements ContainerReader {
                 "http://uri.etsi.org/TrstSvc/TrustedList/Svcstatus/undersupervision";
 
         private TSLCertificateSource certSource = new TSLCertificateSourceImpl();
-        private int nThreads;
+        private ExecutorService executor;
 
         static ConfigurationBuilder aConfiguration() {
             return new ConfigurationBuilder();
         }
 
-        ConfigurationBuilder withNThreads(int n) {
-            nThreads = n;
+        ConfigurationBuilder withExecutor(ExecutorService e) {
+            executor = e;
             return this;
         }
 
@@ -324,7 +455,7 @@ public class BdocContainerReader implements ContainerReader {
         Configuration build() {
             Configuration conf = new Configuration();
             conf.setTSL(certSource);
-            conf.setThreadExecutor(createExecutorService());
+            conf.setThreadExecutor(executor);
             conf.setAllowASN1UnsafeInteger(true);
             return conf;
         }
@@ -352,13 +483,6 @@ public class BdocContainerReader implements ContainerReader {
             serviceInfo.setStatus(new TimeDependentValues<>(Arrays.asList(status)));
             return serviceInfo;
         }
-
-        private ExecutorService createExecutorService() {
-            if (nThreads <= 0) {
-                return Executors.newCachedThreadPool();
-            }
-            return Executors.newFixedThreadPool(nThreads);
-        }
     }
 
 }
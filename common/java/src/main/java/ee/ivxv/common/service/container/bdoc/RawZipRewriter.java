@@ -0,0 +1,337 @@
+package ee.ivxv.common.service.container.bdoc;
+
+import static ee.ivxv.common.util.Util.CHARSET;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * RawZipRewriter rewrites a ZIP archive held in memory. The entries selected by a filter are
+ * decompressed, transformed and deflated again. All other entries are copied raw, i.e. their local
+ * headers and compressed data are copied as is, without decompressing and recompressing them.
+ *
+ * <p>
+ * The entries are written in the order of their local headers, as they would be read by
+ * {@code ZipInputStream}. Archives using features that are not needed for BDOC containers (ZIP64,
+ * multiple disks, encryption) are rejected with {@code UnsupportedZipException}.
+ */
+class RawZipRewriter {
+
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int LOC_HDR = 30;
+    private static final int CEN_HDR = 46;
+    private static final int END_HDR = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    /** Deflate expands the data at most about 1032 times, larger sizes are invalid. */
+    private static final long MAX_DEFLATE_RATIO = 1032;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private RawZipRewriter() {
+        // Static methods only
+    }
+
+    /**
+     * @param zip The bytes of the ZIP archive.
+     * @param filter Selects the entries, by name, to transform.
+     * @param transformer Transforms the uncompressed content of the selected entries.
+     * @return Returns the bytes of the rewritten ZIP archive.
+     * @throws UnsupportedZipException If the archive uses unsupported ZIP features.
+     * @throws ZipException If the archive is malformed.
+     */
+    static byte[] rewrite(byte[] zip, Predicate<String> filter, UnaryOperator<byte[]> transformer)
+            throws ZipException {
+        int end = findEnd(zip);
+        if (u16(zip, end + 4) != 0 || u16(zip, end + 6) != 0) {
+            throw new UnsupportedZipException("Multi-disk archives are not supported");
+        }
+        int total = u16(zip, end + 10);
+        long cenSize = u32(zip, end + 12);
+        long cenOffset = u32(zip, end + 16);
+        int commentLen = u16(zip, end + 20);
+        if (total == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC) {
+            throw new UnsupportedZipException("ZIP64 archives are not supported");
+        }
+        if (cenOffset + cenSize > end) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        List<Entry> entries = readCentralDirectory(zip, (int) cenOffset, (int) cenSize, total);
+        entries.sort(Comparator.comparingInt(e -> e.locOffset));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(zip.length + 8192);
+        ByteArrayOutputStream cen = new ByteArrayOutputStream((int) cenSize + 256);
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            int next = i + 1 < entries.size() ? entries.get(i + 1).locOffset : (int) cenOffset;
+            int offset = out.size();
+            if (e.dataOffset + e.csize > next) {
+                throw new ZipException("Overlapping entries: " + e.name);
+            }
+
+            if (filter.test(e.name)) {
+                writeTransformed(zip, e, transformer, offset, out, cen);
+            } else {
+                // Copy local header, data and optional data descriptor as is
+                out.write(zip, e.locOffset, next - e.locOffset);
+                byte[] header = copyOf(zip, e.cenOffset, e.cenLength);
+                put16(header, 34, 0);
+                put32(header, 42, offset);
+                cen.write(header, 0, header.length);
+            }
+        }
+
+        int newCenOffset = out.size();
+        out.write(cen.toByteArray(), 0, cen.size());
+
+        byte[] trailer = copyOf(zip, end, END_HDR + commentLen);
+        put16(trailer, 8, entries.size());
+        put16(trailer, 10, entries.size());
+        put32(trailer, 12, cen.size());
+        put32(trailer, 16, newCenOffset);
+        out.write(trailer, 0, trailer.length);
+
+        return out.toByteArray();
+    }
+
+    private static int findEnd(byte[] zip) throws ZipException {
+        int min = Math.max(0, zip.length - END_HDR - MAX_COMMENT);
+        for (int i = zip.length - END_HDR; i >= min; i--) {
+            if (i32(zip, i) == END_SIG && i + END_HDR + u16(zip, i + 20) <= zip.length) {
+                return i;
+            }
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    /**
+     * Reads the central directory. All the offsets and lengths are checked to be within the
+     * archive, so that a malformed archive is rejected with {@code ZipException}.
+     */
+    private static List<Entry> readCentralDirectory(byte[] zip, int offset, int size, int total)
+            throws ZipException {
+        List<Entry> entries = new ArrayList<>(total);
+        int limit = offset + size;
+        int p = offset;
+
+        for (int i = 0; i < total; i++) {
+            if (p + CEN_HDR > limit || i32(zip, p) != CEN_SIG) {
+                throw new ZipException("Invalid central directory header");
+            }
+            Entry e = new Entry();
+            int flags = u16(zip, p + 8);
+            long csize = u32(zip, p + 20);
+            long usize = u32(zip, p + 24);
+            long locOffset = u32(zip, p + 42);
+            int nameLen = u16(zip, p + 28);
+
+            if ((flags & FLAG_ENCRYPTED) != 0) {
+                throw new UnsupportedZipException("Encrypted entries are not supported");
+            }
+            if (csize == ZIP64_MAGIC || usize == ZIP64_MAGIC || locOffset == ZIP64_MAGIC) {
+                throw new UnsupportedZipException("ZIP64 entries are not supported");
+            }
+
+            e.cenOffset = p;
+            e.cenLength = CEN_HDR + nameLen + u16(zip, p + 30) + u16(zip, p + 32);
+            if (p + e.cenLength > limit) {
+                throw new ZipException("Invalid central directory header");
+            }
+            e.name = new String(zip, p + CEN_HDR, nameLen, CHARSET);
+
+            if (locOffset + LOC_HDR > offset || i32(zip, (int) locOffset) != LOC_SIG) {
+                throw new ZipException("Invalid local file header: " + e.name);
+            }
+            e.locOffset = (int) locOffset;
+            long dataOffset = locOffset + LOC_HDR + u16(zip, e.locOffset + 26)
+                    + u16(zip, e.locOffset + 28);
+            if (dataOffset + csize > offset || usize > Integer.MAX_VALUE
+                    || usize > csize * MAX_DEFLATE_RATIO + LOC_HDR) {
+                throw new ZipException("Invalid entry size: " + e.name);
+            }
+            e.dataOffset = (int) dataOffset;
+            e.csize = (int) csize;
+            e.usize = (int) usize;
+
+            entries.add(e);
+            p += e.cenLength;
+        }
+
+        return entries;
+    }
+
+    private static void writeTransformed(byte[] zip, Entry e, UnaryOperator<byte[]> transformer,
+            int offset, ByteArrayOutputStream out, ByteArrayOutputStream cen)
+            throws ZipException {
+        byte[] content = transformer.apply(inflate(zip, e));
+
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        byte[] data = deflate(content);
+
+        int p = e.cenOffset;
+        int flags = u16(zip, p + 8) & FLAG_UTF8;
+        int nameLen = u16(zip, p + 28);
+        int commentLen = u16(zip, p + 32);
+
+        byte[] loc = new byte[LOC_HDR + nameLen];
+        put32(loc, 0, LOC_SIG);
+        put16(loc, 4, VERSION_DEFLATED);
+        put16(loc, 6, flags);
+        put16(loc, 8, METHOD_DEFLATED);
+        System.arraycopy(zip, p + 12, loc, 10, 4); // Modification time and date
+        put32(loc, 14, crc.getValue());
+        put32(loc, 18, data.length);
+        put32(loc, 22, content.length);
+        put16(loc, 26, nameLen);
+        put16(loc, 28, 0);
+        System.arraycopy(zip, p + CEN_HDR, loc, LOC_HDR, nameLen);
+        out.write(loc, 0, loc.length);
+        out.write(data, 0, data.length);
+
+        byte[] header = new byte[CEN_HDR + nameLen + commentLen];
+        put32(header, 0, CEN_SIG);
+        System.arraycopy(zip, p + 4, header, 4, 2); // Version made by
+        put16(header, 6, VERSION_DEFLATED);
+        put16(header, 8, flags);
+        put16(header, 10, METHOD_DEFLATED);
+        System.arraycopy(zip, p + 12, header, 12, 4); // Modification time and date
+        put32(header, 16, crc.getValue());
+        put32(header, 20, data.length);
+        put32(header, 24, content.length);
+        put16(header, 28, nameLen);
+        put16(header, 30, 0);
+        put16(header, 32, commentLen);
+        put16(header, 34, 0);
+        System.arraycopy(zip, p + 36, header, 36, 6); // Internal and external attributes
+        put32(header, 42, offset);
+        System.arraycopy(zip, p + CEN_HDR, header, CEN_HDR, nameLen);
+        System.arraycopy(zip, p + CEN_HDR + nameLen + u16(zip, p + 30), header,
+                CEN_HDR + nameLen, commentLen);
+        cen.write(header, 0, header.length);
+    }
+
+    private static byte[] inflate(byte[] zip, Entry e) throws ZipException {
+        int method = u16(zip, e.cenOffset + 10);
+        byte[] result;
+
+        if (method == METHOD_STORED) {
+            result = copyOf(zip, e.dataOffset, e.csize);
+        } else if (method == METHOD_DEFLATED) {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(zip, e.dataOffset, e.csize);
+                result = new byte[e.usize];
+                int n = 0;
+                while (n < result.length && !inflater.finished()) {
+                    int len = inflater.inflate(result, n, result.length - n);
+                    if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += len;
+                }
+                if (n != result.length) {
+                    throw new ZipException("Invalid entry size: " + e.name);
+                }
+            } catch (DataFormatException ex) {
+                throw new ZipException("Invalid compressed data: " + e.name);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new UnsupportedZipException("Unsupported compression method: " + method);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(result, 0, result.length);
+        if (crc.getValue() != u32(zip, e.cenOffset + 16)) {
+            throw new ZipException("Invalid entry CRC: " + e.name);
+        }
+
+        return result;
+    }
+
+    private static byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 64);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] copyOf(byte[] b, int offset, int len) {
+        byte[] result = new byte[len];
+        System.arraycopy(b, offset, result, 0, len);
+        return result;
+    }
+
+    private static int u16(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8);
+    }
+
+    private static long u32(byte[] b, int i) {
+        return i32(b, i) & 0xFFFFFFFFL;
+    }
+
+    private static int i32(byte[] b, int i) {
+        return u16(b, i) | (u16(b, i + 2) << 16);
+    }
+
+    private static void put16(byte[] b, int i, int v) {
+        b[i] = (byte) v;
+        b[i + 1] = (byte) (v >>> 8);
+    }
+
+    private static void put32(byte[] b, int i, long v) {
+        put16(b, i, (int) (v & 0xFFFF));
+        put16(b, i + 2, (int) ((v >>> 16) & 0xFFFF));
+    }
+
+    private static class Entry {
+        String name;
+        int cenOffset;
+        int cenLength;
+        int locOffset;
+        int dataOffset;
+        int csize;
+        int usize;
+    }
+
+    /**
+     * Thrown if the archive uses a ZIP feature that is not supported by the rewriter.
+     */
+    static class UnsupportedZipException extends ZipException {
+        private static final long serialVersionUID = -2843626430519561417L;
+
+        UnsupportedZipException(String message) {
+            super(message);
+        }
+    }
+
+}
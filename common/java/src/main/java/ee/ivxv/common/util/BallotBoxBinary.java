@@ -0,0 +1,550 @@
+package ee.ivxv.common.util;
+
+import static ee.ivxv.common.util.Util.CHARSET;
+
+import ee.ivxv.common.model.AnonymousBallotBox;
+import ee.ivxv.common.util.BallotBoxJson.VoteConsumer;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BallotBoxBinary is the reader and writer of anonymous ballot boxes in the binary format. The
+ * file consists of a header, the records of the votes and a trailer:
+ *
+ * <pre>
+ * header:  magic "IVXV-ABB", u16 version, u16 flags (0), string election, u32 group count,
+ *          per group: string district, string station, string question, u32 vote count,
+ *                     u32 record size, u64 offset of the first record
+ * records: per group, vote count records of record size bytes each:
+ *          u32 vote length, vote, zero padding
+ * trailer: SHA-256 digest of all the preceding bytes
+ * </pre>
+ *
+ * All integers are big-endian and strings are UTF-8 bytes prefixed with their u16 length, the
+ * length 0xFFFF stands for {@code null}. A group holds the votes of a single district, station
+ * and question, and its records are padded to the length of its longest vote. A district without
+ * stations is stored as a group without votes, station and question, and a station without
+ * questions as a group without votes and question. The index in the header and the fixed-size
+ * records allow to locate any vote without parsing the file, which is what the memory-mapped
+ * reader relies on.
+ */
+public class BallotBoxBinary {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = "IVXV-ABB".getBytes(CHARSET);
+    private static final String DIGEST_ALG = "SHA-256";
+    private static final int DIGEST_LEN = 32;
+    private static final int LENGTH_BYTES = Integer.BYTES;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final int MAX_STRING = NULL_STRING - 1;
+    /** The maximum size of a single mapping, records are never split between mappings. */
+    private static final int MAX_SEGMENT = Integer.MAX_VALUE;
+    private static final int DIGEST_WINDOW = 1 << 26; // 64MB
+
+    private BallotBoxBinary() {
+        // Static methods only
+    }
+
+    /**
+     * @param path
+     * @return Returns whether the file at the specified path starts like a binary ballot box.
+     * @throws IOException
+     */
+    public static boolean isBinary(Path path) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n = 0;
+            for (int len; n < magic.length && (len = in.read(magic, n, magic.length - n)) > 0;) {
+                n += len;
+            }
+            return n == magic.length && Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    /**
+     * Writes the anonymous ballot box in the binary format at the specified path. All parent
+     * folders of the specified path will be created.
+     *
+     * @param abb The ballot box to write.
+     * @param path Location of the binary file.
+     * @param digest The digest to update with the written bytes, may be {@code null}.
+     * @throws Exception if an i/o error occurs.
+     */
+    public static void write(AnonymousBallotBox abb, Path path, MessageDigest digest)
+            throws Exception {
+        List<Group> groups = new ArrayList<>();
+        abb.getDistricts().forEach((d, sMap) -> {
+            if (sMap.isEmpty()) {
+                groups.add(new Group(d, null, null));
+            }
+            sMap.forEach((s, qMap) -> {
+                if (qMap.isEmpty()) {
+                    groups.add(new Group(d, s, null));
+                }
+                qMap.forEach((q, l) -> {
+                    Group g = new Group(d, s, q);
+                    l.forEach(g::count);
+                    groups.add(g);
+                });
+            });
+        });
+
+        try (Writer w = new Writer(path, abb.getElection(), groups, digest)) {
+            for (Group g : groups) {
+                if (g.question == null) {
+                    continue;
+                }
+                for (byte[] vote : abb.getDistricts().get(g.district).get(g.station)
+                        .get(g.question)) {
+                    w.add(g.district, g.station, g.question, vote);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts the anonymous ballot box in JSON format to the binary format. The JSON file is
+     * streamed twice, first to build the index and then to write the records, so that the ballot
+     * box is never held in memory.
+     *
+     * @param json The JSON file to read.
+     * @param binary The binary file to write.
+     * @param digest The digest to update with the written bytes, may be {@code null}.
+     * @throws Exception if an i/o or parsing error occurs.
+     */
+    public static void jsonToBinary(Path json, Path binary, MessageDigest digest)
+            throws Exception {
+        // A district or a station is indexed as an empty group until its first station or question
+        Map<List<String>, Group> index = new LinkedHashMap<>();
+        String election = BallotBoxJson.forEachVote(json, (d, s, q) -> {
+            if (s != null) {
+                index.remove(Arrays.asList(d, q != null ? s : null, null));
+            }
+            index.computeIfAbsent(Arrays.asList(d, s, q), k -> new Group(d, s, q));
+        }, (d, s, q, vote) -> index.get(Arrays.asList(d, s, q)).count(vote));
+
+        try (Writer w = new Writer(binary, election, new ArrayList<>(index.values()), digest)) {
+            BallotBoxJson.forEachVote(json, w::add);
+        }
+    }
+
+    /**
+     * Converts the anonymous ballot box in the binary format to JSON format. The votes are read
+     * from the mapped file one at a time while writing.
+     *
+     * @param binary The binary file to read.
+     * @param json The JSON file to write.
+     * @param compact Whether to omit the whitespace of pretty printing.
+     * @param digest The digest to update with the written bytes, may be {@code null}.
+     * @throws Exception if an i/o or format error occurs.
+     */
+    public static void binaryToJson(Path binary, Path json, boolean compact, MessageDigest digest)
+            throws Exception {
+        BallotBoxJson.write(read(binary), json, compact, digest);
+    }
+
+    /**
+     * Reads the anonymous ballot box in the binary format. The returned ballot box is backed by
+     * the mapped file: it holds only the index on heap and copies a vote to heap on access.
+     *
+     * @param path
+     * @return
+     * @throws Exception if an i/o or format error occurs, including a digest mismatch.
+     */
+    public static AnonymousBallotBox read(Path path) throws Exception {
+        return map(path).toAnonymousBallotBox();
+    }
+
+    /**
+     * Maps the binary anonymous ballot box at the specified path into memory, after checking the
+     * integrity digest of the file. The mappings stay valid until the returned object is garbage
+     * collected, no file handle is kept open.
+     *
+     * @param path
+     * @return
+     * @throws IOException if an i/o or format error occurs, including a digest mismatch.
+     */
+    public static MappedBallotBox map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            long size = channel.size();
+            if (size < MAGIC.length + DIGEST_LEN) {
+                throw new IOException("Invalid binary ballot box: file too short");
+            }
+            long end = size - DIGEST_LEN;
+            verifyDigest(channel, end);
+
+            ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(end, MAX_SEGMENT));
+            MappedBallotBox result;
+            try {
+                result = readHeader(header, end);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Invalid binary ballot box: truncated header");
+            }
+
+            for (Group g : result.groups) {
+                g.map(channel);
+            }
+
+            return result;
+        }
+    }
+
+    private static void verifyDigest(FileChannel channel, long end) throws IOException {
+        MessageDigest md = createDigest();
+        for (long p = 0; p < end; p += DIGEST_WINDOW) {
+            md.update(channel.map(MapMode.READ_ONLY, p, Math.min(DIGEST_WINDOW, end - p)));
+        }
+        ByteBuffer expected = channel.map(MapMode.READ_ONLY, end, DIGEST_LEN);
+        if (!ByteBuffer.wrap(md.digest()).equals(expected)) {
+            throw new IOException("Invalid binary ballot box: digest mismatch");
+        }
+    }
+
+    private static MappedBallotBox readHeader(ByteBuffer b, long end) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        b.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Invalid binary ballot box: bad magic");
+        }
+        int version = Short.toUnsignedInt(b.getShort());
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary ballot box version: " + version);
+        }
+        b.getShort(); // Flags
+
+        String election = getString(b);
+        long count = Integer.toUnsignedLong(b.getInt());
+        List<Group> groups = new ArrayList<>();
+        long next = 0;
+        for (long i = 0; i < count; i++) {
+            Group g = new Group(getString(b), getString(b), getString(b));
+            g.size = b.getInt();
+            g.recordSize = b.getInt();
+            g.offset = b.getLong();
+            if (g.district == null || g.station == null && g.question != null
+                    || g.question == null && g.size != 0 || g.size < 0
+                    || g.recordSize < LENGTH_BYTES || g.offset < next
+                    || g.offset + (long) g.size * g.recordSize > end) {
+                throw new IOException("Invalid binary ballot box: bad index entry " + i);
+            }
+            next = g.offset + (long) g.size * g.recordSize;
+            groups.add(g);
+        }
+        if (!groups.isEmpty() && groups.get(0).offset < b.position()) {
+            throw new IOException("Invalid binary ballot box: records overlap the header");
+        }
+
+        return new MappedBallotBox(election, groups);
+    }
+
+    private static String getString(ByteBuffer b) {
+        int len = Short.toUnsignedInt(b.getShort());
+        if (len == NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        b.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALG);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * MappedBallotBox gives zero-copy access to the votes of a mapped binary ballot box. It is
+     * safe for concurrent use.
+     */
+    public static class MappedBallotBox {
+        private final String election;
+        private final List<Group> groups;
+
+        MappedBallotBox(String election, List<Group> groups) {
+            this.election = election;
+            this.groups = Collections.unmodifiableList(groups);
+        }
+
+        public String getElection() {
+            return election;
+        }
+
+        /**
+         * @return Returns the index of the ballot box in file order.
+         */
+        public List<Group> getGroups() {
+            return groups;
+        }
+
+        /**
+         * @param group
+         * @param index
+         * @return Returns a read-only buffer of the vote, sharing the content of the mapping.
+         */
+        public ByteBuffer getVote(Group group, int index) {
+            return group.get(index);
+        }
+
+        /**
+         * Visits all votes in file order.
+         *
+         * @param consumer
+         * @throws Exception if the consumer throws.
+         */
+        public void forEachVote(VoteConsumer consumer) throws Exception {
+            for (Group g : groups) {
+                for (int i = 0; i < g.size; i++) {
+                    consumer.accept(g.district, g.station, g.question, toBytes(g.get(i)));
+                }
+            }
+        }
+
+        /**
+         * @return Returns the anonymous ballot box backed by this mapping.
+         */
+        public AnonymousBallotBox toAnonymousBallotBox() {
+            Map<String, Map<String, Map<String, List<byte[]>>>> districts = new LinkedHashMap<>();
+            groups.forEach(g -> {
+                Map<String, Map<String, List<byte[]>>> sMap =
+                        districts.computeIfAbsent(g.district, x -> new LinkedHashMap<>());
+                if (g.station != null) {
+                    Map<String, List<byte[]>> qMap =
+                            sMap.computeIfAbsent(g.station, x -> new LinkedHashMap<>());
+                    if (g.question != null) {
+                        qMap.put(g.question, new MappedVotes(g));
+                    }
+                }
+            });
+
+            return new AnonymousBallotBox(election, districts);
+        }
+    }
+
+    /**
+     * Group is the index entry of the votes of a single district, station and question.
+     */
+    public static class Group {
+        final String district;
+        final String station;
+        final String question;
+        int size;
+        int recordSize = LENGTH_BYTES;
+        long offset;
+        private ByteBuffer[] segments;
+        private int perSegment;
+
+        Group(String district, String station, String question) {
+            this.district = district;
+            this.station = station;
+            this.question = question;
+        }
+
+        public String getDistrict() {
+            return district;
+        }
+
+        public String getStation() {
+            return station;
+        }
+
+        public String getQuestion() {
+            return question;
+        }
+
+        /**
+         * @return Returns the number of votes.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        void count(byte[] vote) {
+            size = Math.addExact(size, 1);
+            recordSize = Math.max(recordSize, Math.addExact(LENGTH_BYTES, vote.length));
+        }
+
+        void map(FileChannel channel) throws IOException {
+            perSegment = MAX_SEGMENT / recordSize;
+            segments = new ByteBuffer[(size + perSegment - 1) / perSegment];
+            for (int i = 0; i < segments.length; i++) {
+                int n = Math.min(perSegment, size - i * perSegment);
+                segments[i] = channel.map(MapMode.READ_ONLY,
+                        offset + (long) i * perSegment * recordSize, (long) n * recordSize);
+            }
+        }
+
+        ByteBuffer get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            ByteBuffer b = segments[index / perSegment].duplicate();
+            int p = (index % perSegment) * recordSize;
+            int len = b.getInt(p);
+            if (len < 0 || len > recordSize - LENGTH_BYTES) {
+                throw new IllegalStateException("Invalid binary ballot box: bad record length");
+            }
+            b.limit(p + LENGTH_BYTES + len).position(p + LENGTH_BYTES);
+            return b.slice();
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer b) {
+        byte[] result = new byte[b.remaining()];
+        b.get(result);
+        return result;
+    }
+
+    /**
+     * MappedVotes is an unmodifiable list view of the votes of a group.
+     */
+    private static class MappedVotes extends AbstractList<byte[]> {
+        private final Group group;
+
+        MappedVotes(Group group) {
+            this.group = group;
+        }
+
+        @Override
+        public byte[] get(int index) {
+            return toBytes(group.get(index));
+        }
+
+        @Override
+        public int size() {
+            return group.size;
+        }
+    }
+
+    /**
+     * Writer writes the header for the given groups and then the records of the votes, which must
+     * be added in the order of the groups.
+     */
+    private static class Writer implements AutoCloseable {
+        private final List<Group> groups;
+        private final OutputStream file;
+        private final MessageDigest md = createDigest();
+        private final DataOutputStream out;
+        private byte[] padding = new byte[0];
+        private int current = -1;
+        private int written;
+        private long remaining;
+
+        Writer(Path path, String election, List<Group> groups, MessageDigest digest)
+                throws IOException {
+            this.groups = groups;
+
+            // The size of the header does not depend on the offsets written into it
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            writeHeader(new DataOutputStream(header), election, groups);
+            long offset = header.size();
+            for (Group g : groups) {
+                g.offset = offset;
+                offset += (long) g.size * g.recordSize;
+                remaining += g.size;
+            }
+            header.reset();
+            writeHeader(new DataOutputStream(header), election, groups);
+
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            OutputStream o = new BufferedOutputStream(Files.newOutputStream(path));
+            file = digest != null ? new DigestOutputStream(o, digest) : o;
+            out = new DataOutputStream(new DigestOutputStream(file, md));
+            header.writeTo(out);
+        }
+
+        private static void writeHeader(DataOutputStream out, String election, List<Group> groups)
+                throws IOException {
+            out.write(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            writeString(out, election);
+            out.writeInt(groups.size());
+            for (Group g : groups) {
+                writeString(out, g.district);
+                writeString(out, g.station);
+                writeString(out, g.question);
+                out.writeInt(g.size);
+                out.writeInt(g.recordSize);
+                out.writeLong(g.offset);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            if (s == null) {
+                out.writeShort(NULL_STRING);
+                return;
+            }
+            byte[] bytes = s.getBytes(CHARSET);
+            if (bytes.length > MAX_STRING) {
+                throw new IOException("String too long for binary ballot box: " + bytes.length);
+            }
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        void add(String district, String station, String question, byte[] vote)
+                throws IOException {
+            while (current < 0 || written == groups.get(current).size) {
+                if (++current == groups.size()) {
+                    throw new IOException("More votes than indexed");
+                }
+                written = 0;
+            }
+            Group g = groups.get(current);
+            if (!g.district.equals(district) || !g.station.equals(station)
+                    || !g.question.equals(question)) {
+                throw new IOException("Votes of " + district + "/" + station + "/" + question
+                        + " are not contiguous");
+            }
+            int pad = g.recordSize - LENGTH_BYTES - vote.length;
+            if (pad < 0) {
+                throw new IOException("Vote longer than indexed");
+            }
+            if (padding.length < pad) {
+                padding = new byte[pad];
+            }
+            out.writeInt(vote.length);
+            out.write(vote);
+            out.write(padding, 0, pad);
+            written++;
+            remaining--;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (OutputStream f = file) {
+                out.flush();
+                if (remaining != 0) {
+                    throw new IOException("Fewer votes than indexed");
+                }
+                f.write(md.digest());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package ee.ivxv.common.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import ee.ivxv.common.model.AnonymousBallotBox;
+import ee.ivxv.common.model.BallotBox;
+import ee.ivxv.common.model.IBallotBox;
+import ee.ivxv.common.model.VoterBallots;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BallotBoxJson is a streaming reader and writer of ballot box files in JSON format. The format is
+ * the same as that of {@code Json}, but the files are processed token by token: the reader builds
+ * the ballot box directly from the stream, one voter or vote at a time, without buffering the
+ * intermediate structures, and {@link #forEachVote(Path, VoteConsumer)} processes an anonymous
+ * ballot box in bounded memory. The writer can compute the digest of the output while writing.
+ */
+public class BallotBoxJson {
+
+    private static final String ELECTION = "election";
+    private static final String TYPE = "type";
+    private static final String BALLOTS = "ballots";
+    private static final String DISTRICTS = "districts";
+
+    /**
+     * Reads the ballot box of the specified type.
+     *
+     * @param path
+     * @param type Either {@code BallotBox} or {@code AnonymousBallotBox}.
+     * @return
+     * @throws Exception if an i/o or parsing error occurs.
+     */
+    public static <T extends IBallotBox> T read(Path path, Class<T> type) throws Exception {
+        if (type == BallotBox.class) {
+            return type.cast(readBallotBox(path));
+        }
+        if (type == AnonymousBallotBox.class) {
+            return type.cast(readAnonymousBallotBox(path));
+        }
+        return Json.read(path, type);
+    }
+
+    public static BallotBox readBallotBox(Path path) throws Exception {
+        ObjectMapper mapper = Json.getMapper();
+        String election = null;
+        IBallotBox.Type type = null;
+        Map<String, VoterBallots> ballots = new LinkedHashMap<>();
+
+        try (InputStream in = Files.newInputStream(path);
+                JsonParser p = mapper.getFactory().createParser(in)) {
+            expect(p, p.nextToken(), JsonToken.START_OBJECT);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken t = p.nextToken();
+                if (ELECTION.equals(field)) {
+                    election = p.getValueAsString();
+                } else if (TYPE.equals(field)) {
+                    type = mapper.readValue(p, IBallotBox.Type.class);
+                } else if (BALLOTS.equals(field)) {
+                    expect(p, t, JsonToken.START_OBJECT);
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String voterId = p.getCurrentName();
+                        p.nextToken();
+                        ballots.put(voterId, mapper.readValue(p, VoterBallots.class));
+                    }
+                } else {
+                    throw new JsonMappingException(p, "Unrecognized field \"" + field + "\"");
+                }
+            }
+        }
+
+        return new BallotBox(election, type, ballots);
+    }
+
+    public static AnonymousBallotBox readAnonymousBallotBox(Path path) throws Exception {
+        Map<String, Map<String, Map<String, List<byte[]>>>> districts = new LinkedHashMap<>();
+
+        // The groups are created as they start, so that the empty ones are kept
+        String election = forEachVote(path, (d, s, q) -> {
+            Map<String, Map<String, List<byte[]>>> sMap =
+                    districts.computeIfAbsent(d, x -> new LinkedHashMap<>());
+            if (s != null) {
+                Map<String, List<byte[]>> qMap =
+                        sMap.computeIfAbsent(s, x -> new LinkedHashMap<>());
+                if (q != null) {
+                    qMap.computeIfAbsent(q, x -> new ArrayList<>());
+                }
+            }
+        }, (d, s, q, vote) -> districts.get(d).get(s).get(q).add(vote));
+
+        return new AnonymousBallotBox(election, districts);
+    }
+
+    /**
+     * Streams the votes of the anonymous ballot box at the specified path in file order, holding
+     * only a single vote in memory at a time.
+     *
+     * @param path
+     * @param consumer
+     * @return Returns the election id.
+     * @throws Exception if an i/o or parsing error occurs.
+     */
+    public static String forEachVote(Path path, VoteConsumer consumer) throws Exception {
+        return forEachVote(path, (d, s, q) -> {
+            // Only the votes are consumed
+        }, consumer);
+    }
+
+    /**
+     * Streams the anonymous ballot box at the specified path in file order like
+     * {@link #forEachVote(Path, VoteConsumer)}, reporting also the start of every district, station
+     * and question, including the empty ones.
+     *
+     * @param path
+     * @param groups The consumer of the starts of the groups.
+     * @param consumer The consumer of the votes.
+     * @return Returns the election id.
+     * @throws Exception if an i/o or parsing error occurs.
+     */
+    public static String forEachVote(Path path, GroupConsumer groups, VoteConsumer consumer)
+            throws Exception {
+        String election = null;
+
+        try (InputStream in = Files.newInputStream(path);
+                JsonParser p = Json.getMapper().getFactory().createParser(in)) {
+            expect(p, p.nextToken(), JsonToken.START_OBJECT);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken t = p.nextToken();
+                if (ELECTION.equals(field)) {
+                    election = p.getValueAsString();
+                } else if (DISTRICTS.equals(field)) {
+                    expect(p, t, JsonToken.START_OBJECT);
+                    readDistricts(p, groups, consumer);
+                } else {
+                    throw new JsonMappingException(p, "Unrecognized field \"" + field + "\"");
+                }
+            }
+        }
+
+        return election;
+    }
+
+    private static void readDistricts(JsonParser p, GroupConsumer groups, VoteConsumer consumer)
+            throws Exception {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String district = p.getCurrentName();
+            expect(p, p.nextToken(), JsonToken.START_OBJECT);
+            groups.accept(district, null, null);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String station = p.getCurrentName();
+                expect(p, p.nextToken(), JsonToken.START_OBJECT);
+                groups.accept(district, station, null);
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String question = p.getCurrentName();
+                    expect(p, p.nextToken(), JsonToken.START_ARRAY);
+                    groups.accept(district, station, question);
+                    for (JsonToken t; (t = p.nextToken()) != JsonToken.END_ARRAY;) {
+                        expect(p, t, JsonToken.VALUE_STRING);
+                        consumer.accept(district, station, question, p.getBinaryValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void expect(JsonParser p, JsonToken actual, JsonToken expected)
+            throws JsonMappingException {
+        if (actual != expected) {
+            throw new JsonMappingException(p, "Expected " + expected + ", got " + actual);
+        }
+    }
+
+    /**
+     * Writes the ballot box in JSON format at the specified path. All parent folders of the
+     * specified path will be created.
+     *
+     * @param bb The ballot box to write.
+     * @param path Location of the JSON file.
+     * @param compact Whether to omit the whitespace of pretty printing.
+     * @param digest The digest to update with the written bytes, may be {@code null}.
+     * @throws Exception if an i/o or serialization error occurs.
+     */
+    public static void write(IBallotBox bb, Path path, boolean compact, MessageDigest digest)
+            throws Exception {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        ObjectMapper mapper = Json.getMapper();
+        ObjectWriter writer = compact ? mapper.writer() : mapper.writerWithDefaultPrettyPrinter();
+
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(path));
+        if (digest != null) {
+            out = new DigestOutputStream(out, digest);
+        }
+        try (OutputStream o = out) {
+            writer.writeValue(o, bb);
+        }
+    }
+
+    @FunctionalInterface
+    public interface GroupConsumer {
+        /**
+         * Accepts the start of a district with {@code null} station and question, of a station
+         * with {@code null} question or of the votes of a question.
+         */
+        void accept(String district, String station, String question) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface VoteConsumer {
+        void accept(String district, String station, String question, byte[] vote)
+                throws Exception;
+    }
+
+}
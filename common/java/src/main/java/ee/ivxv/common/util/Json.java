@@ -21,6 +21,9 @@ import java.time.Instant;
  */
 public class Json {
 
+    /** The mapper is thread-safe once configured, so a single instance is shared. */
+    private static final ObjectMapper MAPPER = createMapper();
+
     /**
      * Reads the specified path as JSON file and parses the result into new instance of the
      * specified type.
@@ -63,10 +66,14 @@ public class Json {
     }
 
     /**
-     * @return Creates and returns a mapper that is properly set up for serialization and
+     * @return Returns the shared mapper that is properly set up for serialization and
      *         deserialization as required in this project.
      */
-    private static ObjectMapper getMapper() {
+    static ObjectMapper getMapper() {
+        return MAPPER;
+    }
+
+    private static ObjectMapper createMapper() {
         ObjectMapper mapper = new ObjectMapper();
         SimpleModule module = new SimpleModule();
 
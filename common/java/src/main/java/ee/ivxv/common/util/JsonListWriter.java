@@ -0,0 +1,73 @@
+package ee.ivxv.common.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * JsonListWriter streams a JSON object consisting of an election identifier and a single list
+ * into a file. The output is the same as that of {@link Json#write(Object, Path)} for a model
+ * holding the list, such as {@code Proof}, but only the current element is held in memory. The
+ * writer can compute the digest of the output while writing.
+ *
+ * @param <T> The type of the elements.
+ */
+public class JsonListWriter<T> implements ListWriter<T> {
+
+    private static final String ELECTION = "election";
+
+    private final JsonGenerator gen;
+    private final ObjectWriter writer;
+
+    /**
+     * Writes the start of the object at the specified path. All parent folders of the specified
+     * path will be created.
+     *
+     * @param path Location of the JSON file.
+     * @param election The election identifier.
+     * @param field The name of the list field.
+     * @param digest The digest to update with the written bytes, may be {@code null}.
+     * @throws IOException if an i/o error occurs.
+     */
+    public JsonListWriter(Path path, String election, String field, MessageDigest digest)
+            throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(path));
+        if (digest != null) {
+            out = new DigestOutputStream(out, digest);
+        }
+        ObjectMapper mapper = Json.getMapper();
+        gen = mapper.getFactory().createGenerator(out);
+        gen.useDefaultPrettyPrinter();
+        // The elements are buffered, not flushed one by one
+        writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        gen.writeStartObject();
+        gen.writeStringField(ELECTION, election);
+        gen.writeArrayFieldStart(field);
+    }
+
+    @Override
+    public void add(T element) throws IOException {
+        writer.writeValue(gen, element);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (JsonGenerator g = gen) {
+            g.writeEndArray();
+            g.writeEndObject();
+        }
+    }
+
+}
@@ -0,0 +1,28 @@
+package ee.ivxv.common.util;
+
+import java.io.IOException;
+
+/**
+ * ListWriter writes the elements of a list into a file one at a time, so that the list is never
+ * held in memory. The file is complete only after the writer has been closed.
+ *
+ * @param <T> The type of the elements.
+ */
+public interface ListWriter<T> extends AutoCloseable {
+
+    /**
+     * Write the next element.
+     *
+     * @param element
+     * @throws IOException if an i/o or serialization error occurs.
+     */
+    void add(T element) throws IOException;
+
+    /**
+     * Write the end of the list and close the file.
+     *
+     * @throws IOException if an i/o error occurs.
+     */
+    @Override
+    void close() throws IOException;
+}
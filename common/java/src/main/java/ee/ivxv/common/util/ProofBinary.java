@@ -0,0 +1,325 @@
+package ee.ivxv.common.util;
+
+import static ee.ivxv.common.util.Util.CHARSET;
+
+import ee.ivxv.common.model.Proof.ProofJson;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ProofBinary is the reader and writer of decryption proofs in the binary format. The proofs are
+ * stored in chunks which can be located without decoding the proofs and are decoded independently
+ * of each other, so that a verifier can process the chunks in parallel. The file consists of a
+ * header, the chunks and a trailer:
+ *
+ * <pre>
+ * header:  magic "IVXV-PRF", u16 version, u16 flags (0), string election
+ * chunks:  u32 proof count, u32 length of the records, records:
+ *          bytes ciphertext, bytes message, bytes proof
+ * trailer: SHA-256 digest of all the preceding bytes
+ * </pre>
+ *
+ * All integers are big-endian, the string is UTF-8 bytes prefixed with its u16 length and bytes
+ * are prefixed with their u32 length. The message is in UTF-8. Every chunk but the last one holds
+ * {@link #CHUNK_SIZE} proofs.
+ */
+public class ProofBinary {
+
+    public static final int VERSION = 1;
+    /** The number of proofs in a chunk. */
+    public static final int CHUNK_SIZE = 4096;
+
+    private static final byte[] MAGIC = "IVXV-PRF".getBytes(CHARSET);
+    private static final String DIGEST_ALG = "SHA-256";
+    private static final int DIGEST_LEN = 32;
+    private static final int CHUNK_HEADER = 2 * Integer.BYTES;
+    private static final int MAX_STRING = 0xFFFF;
+    private static final int MAX_HEADER = MAGIC.length + 3 * Short.BYTES + MAX_STRING;
+    private static final int DIGEST_WINDOW = 1 << 26; // 64MB
+
+    private ProofBinary() {
+        // Static methods only
+    }
+
+    /**
+     * @param path
+     * @return Returns whether the file at the specified path starts like binary proofs.
+     * @throws IOException
+     */
+    public static boolean isBinary(Path path) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n = 0;
+            for (int len; n < magic.length && (len = in.read(magic, n, magic.length - n)) > 0;) {
+                n += len;
+            }
+            return n == magic.length && Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    /**
+     * Maps the binary proofs at the specified path into memory, after checking the integrity
+     * digest of the file. The chunks are located, but not decoded. The mappings stay valid until
+     * the returned object is garbage collected, no file handle is kept open.
+     *
+     * @param path
+     * @return
+     * @throws IOException if an i/o or format error occurs, including a digest mismatch.
+     */
+    public static MappedProofs map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            long size = channel.size();
+            if (size < MAGIC.length + DIGEST_LEN) {
+                throw new IOException("Invalid binary proofs: file too short");
+            }
+            long end = size - DIGEST_LEN;
+            verifyDigest(channel, end);
+
+            ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(end, MAX_HEADER));
+            String election;
+            try {
+                election = readHeader(header);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Invalid binary proofs: truncated header");
+            }
+
+            List<Chunk> chunks = new ArrayList<>();
+            ByteBuffer lengths = ByteBuffer.allocate(CHUNK_HEADER);
+            for (long p = header.position(); p < end;) {
+                if (p + CHUNK_HEADER > end) {
+                    throw new IOException(
+                            "Invalid binary proofs: truncated chunk " + chunks.size());
+                }
+                lengths.clear();
+                while (lengths.hasRemaining()) {
+                    channel.read(lengths, p + lengths.position());
+                }
+                int count = lengths.getInt(0);
+                int length = lengths.getInt(Integer.BYTES);
+                p += CHUNK_HEADER;
+                if (count <= 0 || length < 0 || p + length > end) {
+                    throw new IOException("Invalid binary proofs: bad chunk " + chunks.size());
+                }
+                chunks.add(new Chunk(count, channel.map(MapMode.READ_ONLY, p, length)));
+                p += length;
+            }
+
+            return new MappedProofs(election, chunks);
+        }
+    }
+
+    private static void verifyDigest(FileChannel channel, long end) throws IOException {
+        MessageDigest md = createDigest();
+        for (long p = 0; p < end; p += DIGEST_WINDOW) {
+            md.update(channel.map(MapMode.READ_ONLY, p, Math.min(DIGEST_WINDOW, end - p)));
+        }
+        ByteBuffer expected = channel.map(MapMode.READ_ONLY, end, DIGEST_LEN);
+        if (!ByteBuffer.wrap(md.digest()).equals(expected)) {
+            throw new IOException("Invalid binary proofs: digest mismatch");
+        }
+    }
+
+    private static String readHeader(ByteBuffer b) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        b.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Invalid binary proofs: bad magic");
+        }
+        int version = Short.toUnsignedInt(b.getShort());
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary proofs version: " + version);
+        }
+        b.getShort(); // Flags
+
+        byte[] election = new byte[Short.toUnsignedInt(b.getShort())];
+        b.get(election);
+        return new String(election, CHARSET);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALG);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * MappedProofs gives access to the chunks of mapped binary proofs. It is safe for concurrent
+     * use.
+     */
+    public static class MappedProofs {
+        private final String election;
+        private final List<Chunk> chunks;
+        private final int count;
+
+        MappedProofs(String election, List<Chunk> chunks) {
+            this.election = election;
+            this.chunks = Collections.unmodifiableList(chunks);
+            this.count = chunks.stream().mapToInt(Chunk::getSize).reduce(0, Math::addExact);
+        }
+
+        public String getElection() {
+            return election;
+        }
+
+        /**
+         * @return Returns the chunks in file order.
+         */
+        public List<Chunk> getChunks() {
+            return chunks;
+        }
+
+        /**
+         * @return Returns the total number of proofs.
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Chunk is a mapped chunk of proofs.
+     */
+    public static class Chunk {
+        private final int size;
+        private final ByteBuffer records;
+
+        Chunk(int size, ByteBuffer records) {
+            this.size = size;
+            this.records = records;
+        }
+
+        /**
+         * @return Returns the number of proofs.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Decodes the proofs of the chunk.
+         *
+         * @return
+         * @throws IOException if the records of the chunk are malformed.
+         */
+        public List<ProofJson> read() throws IOException {
+            ByteBuffer b = records.duplicate();
+            List<ProofJson> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                byte[] ciphertext = getBytes(b);
+                String message = new String(getBytes(b), CHARSET);
+                result.add(new ProofJson(ciphertext, message, getBytes(b)));
+            }
+            if (b.hasRemaining()) {
+                throw new IOException("Invalid binary proofs: trailing data in chunk");
+            }
+            return result;
+        }
+
+        private static byte[] getBytes(ByteBuffer b) throws IOException {
+            if (b.remaining() < Integer.BYTES) {
+                throw new IOException("Invalid binary proofs: truncated record");
+            }
+            int len = b.getInt();
+            if (len < 0 || len > b.remaining()) {
+                throw new IOException("Invalid binary proofs: bad record length");
+            }
+            byte[] result = new byte[len];
+            b.get(result);
+            return result;
+        }
+    }
+
+    /**
+     * Writer writes the proofs in the binary format, buffering a single chunk in memory.
+     */
+    public static class Writer implements ListWriter<ProofJson> {
+        private final OutputStream file;
+        private final MessageDigest md = createDigest();
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        private final DataOutputStream records = new DataOutputStream(chunk);
+        private int count;
+
+        /**
+         * Writes the header at the specified path. All parent folders of the specified path will
+         * be created.
+         *
+         * @param path Location of the binary file.
+         * @param election The election identifier.
+         * @param digest The digest to update with the written bytes, may be {@code null}.
+         * @throws IOException if an i/o error occurs.
+         */
+        public Writer(Path path, String election, MessageDigest digest) throws IOException {
+            byte[] e = (election == null ? "" : election).getBytes(CHARSET);
+            if (e.length > MAX_STRING) {
+                throw new IOException("String too long for binary proofs: " + e.length);
+            }
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            OutputStream o = new BufferedOutputStream(Files.newOutputStream(path));
+            file = digest != null ? new DigestOutputStream(o, digest) : o;
+            out = new DataOutputStream(new DigestOutputStream(file, md));
+
+            out.write(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeShort(e.length);
+            out.write(e);
+        }
+
+        @Override
+        public void add(ProofJson proof) throws IOException {
+            writeBytes(proof.getCiphertext());
+            writeBytes(proof.getMessage().getBytes(CHARSET));
+            writeBytes(proof.getProof());
+            if (++count == CHUNK_SIZE) {
+                writeChunk();
+            }
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            records.writeInt(bytes.length);
+            records.write(bytes);
+        }
+
+        private void writeChunk() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            out.writeInt(count);
+            out.writeInt(chunk.size());
+            chunk.writeTo(out);
+            chunk.reset();
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (OutputStream f = file) {
+                writeChunk();
+                out.flush();
+                f.write(md.digest());
+            }
+        }
+    }
+
+}
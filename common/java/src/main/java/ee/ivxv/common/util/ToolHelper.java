@@ -17,6 +17,7 @@ import ee.ivxv.common.service.i18n.MessageException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 
 public class ToolHelper {
 
@@ -25,11 +26,24 @@ public class ToolHelper {
     private final I18nConsole console;
     private final ContainerReader container;
     private final BboxHelper bbox;
+    private final boolean compactJson;
 
     public ToolHelper(I18nConsole console, ContainerReader container, BboxHelper bbox) {
+        this(console, container, bbox, false);
+    }
+
+    /**
+     * @param console
+     * @param container
+     * @param bbox
+     * @param compactJson Whether to write ballot boxes in compact JSON, without pretty printing.
+     */
+    public ToolHelper(I18nConsole console, ContainerReader container, BboxHelper bbox,
+            boolean compactJson) {
         this.console = console;
         this.container = container;
         this.bbox = bbox;
+        this.compactJson = compactJson;
     }
 
     public void checkBbChecksum(Path bb, Path checksum) throws Exception {
@@ -64,6 +78,15 @@ public class ToolHelper {
         return readJsonBb(path, BallotBox.class, requiredType);
     }
 
+    /**
+     * Reads the anonymous ballot box either in JSON or in the binary format, detecting the format
+     * from the content of the file.
+     *
+     * @param path
+     * @param requiredType
+     * @return
+     * @throws Exception
+     */
     public AnonymousBallotBox readJsonAbb(Path path, BallotBox.Type requiredType) throws Exception {
         return readJsonBb(path, AnonymousBallotBox.class, requiredType);
     }
@@ -72,7 +95,9 @@ public class ToolHelper {
             BallotBox.Type requiredType) throws Exception {
         console.println();
         console.println(M.m_bb_loading, path);
-        T bb = Json.read(path, clazz);
+        T bb = clazz == AnonymousBallotBox.class && BallotBoxBinary.isBinary(path)
+                ? clazz.cast(BallotBoxBinary.read(path))
+                : BallotBoxJson.read(path, clazz);
         console.println(M.m_bb_loaded);
 
         console.println(M.m_bb_checking_type);
@@ -87,16 +112,60 @@ public class ToolHelper {
     public void writeJsonBb(IBallotBox bb, Path out) throws Exception {
         console.println();
         console.println(M.m_bb_saving, bb.getType(), out);
-        Json.write(bb, out);
+        // The checksum is computed while writing, the file is not read again
+        MessageDigest digest = bbox.createChecksumDigest();
+        BallotBoxJson.write(bb, out, compactJson, digest);
         console.println(M.m_bb_saved, bb.getType());
 
+        writeChecksum(out, digest);
+    }
+
+    /**
+     * Writes the anonymous ballot box in the binary format, along with its checksum file.
+     *
+     * @param abb
+     * @param out
+     * @throws Exception
+     */
+    public void writeBinaryAbb(AnonymousBallotBox abb, Path out) throws Exception {
+        console.println();
+        console.println(M.m_bb_saving, abb.getType(), out);
+        MessageDigest digest = bbox.createChecksumDigest();
+        BallotBoxBinary.write(abb, out, digest);
+        console.println(M.m_bb_saved, abb.getType());
+
+        writeChecksum(out, digest);
+    }
+
+    private void writeChecksum(Path out, MessageDigest digest) throws Exception {
         Path checksumOut = Paths.get(out.toString() + CHECKSUM_SUFFIX);
         console.println(M.m_bb_checksum_saving, checksumOut);
-        byte[] checksum = bbox.getChecksum(out);
-        Files.write(checksumOut, checksum);
+        writeChecksumFile(out, digest);
         console.println(M.m_bb_checksum_saved);
     }
 
+    /**
+     * @return Returns a new digest for computing the checksum of a file while writing it.
+     */
+    public MessageDigest createChecksumDigest() {
+        return bbox.createChecksumDigest();
+    }
+
+    /**
+     * Writes the checksum file of a file, without reading the file again.
+     *
+     * @param out The file that has been written.
+     * @param digest The digest from {@link #createChecksumDigest()} that has been updated with all
+     *        the bytes of the file.
+     * @return Returns the location of the checksum file.
+     * @throws Exception if an i/o error occurs.
+     */
+    public Path writeChecksumFile(Path out, MessageDigest digest) throws Exception {
+        Path checksumOut = Paths.get(out.toString() + CHECKSUM_SUFFIX);
+        Files.write(checksumOut, bbox.toChecksum(digest.digest()));
+        return checksumOut;
+    }
+
     public CandidateList readJsonCandidates(Path path, DistrictList dl) throws Exception {
         console.println();
         console.println(M.m_cand_loading, path);
@@ -152,4 +221,23 @@ public class ToolHelper {
         return proofs;
     }
 
+    /**
+     * Maps the decryption proofs in the binary format. The proofs are decoded only when the chunks
+     * are read.
+     *
+     * @param path
+     * @return
+     * @throws Exception if an i/o or format error occurs.
+     */
+    public ProofBinary.MappedProofs readBinaryProofs(Path path) throws Exception {
+        console.println();
+        console.println(M.m_proof_loading, path);
+        ProofBinary.MappedProofs proofs = ProofBinary.map(path);
+        console.println(M.m_proof_loaded);
+
+        console.println(M.m_proof_count, proofs.getCount());
+
+        return proofs;
+    }
+
 }
@@ -14,6 +14,8 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Comparator;
+import java.util.stream.Stream;
 
 public class Util {
 
@@ -136,6 +138,24 @@ public class Util {
         Files.createFile(path);
     }
 
+    /**
+     * Delete a file or a directory with all its contents. Does nothing if the path does not exist.
+     * 
+     * @param path
+     * @throws IOException
+     */
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            // the contents of a directory come after the directory in the walk
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
     /**
      * Concatenate the byte arrays into a single byte array.
      * 
@@ -0,0 +1,121 @@
+package ee.ivxv.common.crypto;
+
+import static org.junit.Assert.assertTrue;
+
+import ee.ivxv.common.crypto.CryptoUtil.PublicKeyHolder;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the rate of verifying signatures with {@link PublicKeyHolder}, which reuses the
+ * {@code Signature} objects of a thread, and with a {@code Signature} created and initialized for
+ * every verification as before.
+ * <p>
+ * The verifications are run by one thread and by one thread per available processor. The number
+ * of verifications is 20000 by default and can be set with
+ * {@code -Pbenchmark.verifications=<count>}. The benchmark is skipped unless run with
+ * {@code -Pbenchmark}, which sets the system property {@code ivxv.benchmark}.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class SignatureVerifyBenchmarkTest {
+
+    private static final byte[] DATA = new byte[32];
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    // The registration nonce, OCSP responses and the voter lists
+    private static Object[] algorithms() {
+        return new Object[] {"NONEwithRSA", "SHA256withRSA", "SHA256withECDSA"};
+    }
+
+    @Test
+    @Parameters(method = "algorithms")
+    public void verify(String algorithm) throws Exception {
+        int total = Integer.getInteger("ivxv.benchmark.verifications", 20_000);
+        KeyPair pair = keyPair(algorithm);
+        Signature signer = Signature.getInstance(algorithm);
+        signer.initSign(pair.getPrivate());
+        signer.update(DATA);
+        byte[] signature = signer.sign();
+        PublicKeyHolder holder = CryptoUtil.withPublicKey(pair.getPublic());
+
+        Verification before = () -> {
+            Signature dsa = Signature.getInstance(algorithm);
+            dsa.initVerify(pair.getPublic());
+            dsa.update(DATA);
+            return dsa.verify(signature);
+        };
+        Verification after = () -> holder.verify(DATA, signature, algorithm);
+        // Warm up the JIT on both paths
+        run(total / 10, 1, before);
+        run(total / 10, 1, after);
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads : new int[] {1, processors}) {
+            long beforeTime = run(total, threads, before);
+            long afterTime = run(total, threads, after);
+            System.out.printf("%-15s %d threads: new Signature %.0f/s, reused Signature %.0f/s%n",
+                    algorithm, threads, total * 1e9 / beforeTime, total * 1e9 / afterTime);
+            if (processors == 1) {
+                break;
+            }
+        }
+    }
+
+    private static KeyPair keyPair(String algorithm) throws Exception {
+        if (algorithm.endsWith("ECDSA")) {
+            KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+            gen.initialize(new ECGenParameterSpec("secp384r1"));
+            return gen.generateKeyPair();
+        }
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(2048);
+        return gen.generateKeyPair();
+    }
+
+    private static long run(int total, int threads, Verification verification) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<Void>> parts = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int count = total / threads + (t < total % threads ? 1 : 0);
+                parts.add(executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        assertTrue(verification.verify());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> f : parts) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return System.nanoTime() - start;
+    }
+
+    @FunctionalInterface
+    private interface Verification {
+        boolean verify() throws Exception;
+    }
+
+}
@@ -0,0 +1,84 @@
+package ee.ivxv.common.math;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Random;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the rate of exponentiating a fixed base with {@link GroupElement#scale(BigInteger)} and
+ * with a {@link FixedBaseTable} in the 2048-bit and 3072-bit ModP groups and on the P-384 curve.
+ * <p>
+ * The number of exponentiations is 2000 by default and can be set with
+ * {@code -Pbenchmark.exponentiations=<count>}. The table is built for that many uses with the
+ * default memory budget. The benchmark is skipped unless run with {@code -Pbenchmark}, which sets
+ * the system property {@code ivxv.benchmark}.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class FixedBaseTableBenchmarkTest {
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    private static Object[] groups() {
+        return new Object[] {"ModP 2048", "ModP 3072", "P-384"};
+    }
+
+    @Test
+    @Parameters(method = "groups")
+    public void scale(String name) throws Exception {
+        int count = Integer.getInteger("ivxv.benchmark.exponentiations", 2000);
+        Random rnd = new Random(count);
+        GroupElement base;
+        BigInteger order;
+        if (name.equals("P-384")) {
+            ECGroup group = new ECGroup(ECGroup.P384);
+            base = group.getBasePoint();
+            order = group.getOrder();
+        } else {
+            // The cost of the arithmetic does not depend on whether the prime is safe
+            int bits = Integer.parseInt(name.substring("ModP ".length()));
+            ModPGroup group = new ModPGroup(BigInteger.probablePrime(bits, rnd));
+            order = group.getOrder();
+            base = new ModPGroupElement(group, new BigInteger(bits - 1, rnd).add(BigInteger.ONE));
+        }
+        BigInteger[] exps = new BigInteger[count];
+        for (int i = 0; i < count; i++) {
+            exps[i] = new BigInteger(order.bitLength(), rnd).mod(order);
+        }
+
+        long start = System.nanoTime();
+        FixedBaseTable table = FixedBaseTable.create(base, count);
+        long buildTime = System.nanoTime() - start;
+        // Warm up the JIT on both paths
+        for (int i = 0; i < Math.min(count, 100); i++) {
+            assertEquals(base.scale(exps[i]), table.scale(exps[i]));
+        }
+
+        start = System.nanoTime();
+        for (BigInteger e : exps) {
+            base.scale(e);
+        }
+        long plainTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (BigInteger e : exps) {
+            table.scale(e);
+        }
+        long tableTime = System.nanoTime() - start;
+
+        System.out.printf("%-9s %d exponentiations: plain %.0f/s, table %.0f/s "
+                + "(%s, %d KiB, built in %.0f ms)%n", name, count, count * 1e9 / plainTime,
+                count * 1e9 / tableTime, table.getClass().getSimpleName(),
+                table.getMemoryUsage() >> 10, buildTime / 1e6);
+    }
+
+}
@@ -0,0 +1,257 @@
+package ee.ivxv.common.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import ee.ivxv.common.math.ModPGroup.Backend;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the arithmetic of both backends of {@link ModPGroup} with plain {@code BigInteger}
+ * computations.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class ModPGroupTest {
+
+    private static final int ROUNDS = 20;
+    private static final Map<Integer, BigInteger> MODULI = new ConcurrentHashMap<>();
+
+    // Sizes around the limb boundaries and the sizes of the real groups
+    private static Object[] params() {
+        int[] bits = {5, 31, 32, 33, 63, 64, 65, 127, 256, 1024, 2048, 3072};
+        Object[] res = new Object[2 * bits.length];
+        for (int i = 0; i < bits.length; i++) {
+            res[2 * i] = new Object[] {bits[i], Backend.BIG_INTEGER};
+            res[2 * i + 1] = new Object[] {bits[i], Backend.MONTGOMERY};
+        }
+        return res;
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void opMatchesBigInteger(int bits, Backend backend) throws Exception {
+        Random rnd = new Random(bits);
+        ModPGroup group = group(bits, backend);
+        BigInteger p = group.getOrder();
+        for (int i = 0; i < ROUNDS; i++) {
+            BigInteger a = value(p, rnd, i);
+            BigInteger b = value(p, rnd, i + 1);
+
+            GroupElement res = element(group, a).op(element(group, b));
+
+            assertEquals(a.multiply(b).mod(p), value(res));
+        }
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void opChainMatchesBigInteger(int bits, Backend backend) throws Exception {
+        Random rnd = new Random(bits);
+        ModPGroup group = group(bits, backend);
+        BigInteger p = group.getOrder();
+        // The intermediate results stay in the Montgomery form
+        GroupElement acc = group.getIdentity();
+        BigInteger expected = BigInteger.ONE;
+        for (int i = 0; i < ROUNDS; i++) {
+            BigInteger a = value(p, rnd, i);
+            acc = acc.op(element(group, a));
+            expected = expected.multiply(a).mod(p);
+        }
+        assertEquals(expected, value(acc));
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void scaleMatchesBigInteger(int bits, Backend backend) throws Exception {
+        Random rnd = new Random(bits);
+        ModPGroup group = group(bits, backend);
+        BigInteger p = group.getOrder();
+        for (int i = 0; i < ROUNDS; i++) {
+            BigInteger a = unit(p, rnd);
+            BigInteger e = exponent(p, rnd, i);
+            // Scale an element in the Montgomery form as well
+            GroupElement el = element(group, a).op(group.getIdentity());
+
+            assertEquals(a.modPow(e, p), value(el.scale(e)));
+        }
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void inverseMatchesBigInteger(int bits, Backend backend) throws Exception {
+        Random rnd = new Random(bits);
+        ModPGroup group = group(bits, backend);
+        BigInteger p = group.getOrder();
+        for (int i = 0; i < ROUNDS; i++) {
+            BigInteger a = unit(p, rnd);
+            GroupElement el = element(group, a).op(group.getIdentity());
+
+            GroupElement inv = el.inverse();
+
+            assertEquals(a.modInverse(p), value(inv));
+            assertEquals(BigInteger.ONE, value(inv.op(el)));
+        }
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void multiScaleMatchesBigInteger(int bits, Backend backend) throws Exception {
+        Random rnd = new Random(bits);
+        ModPGroup group = group(bits, backend);
+        BigInteger p = group.getOrder();
+        // Small counts use the method of Straus and large counts the method of Pippenger
+        for (int n : new int[] {1, 2, 3, 8, 33, 200}) {
+            GroupElement[] bases = new GroupElement[n];
+            BigInteger[] factors = new BigInteger[n];
+            BigInteger expected = BigInteger.ONE;
+            for (int i = 0; i < n; i++) {
+                BigInteger a = unit(p, rnd);
+                bases[i] = element(group, a);
+                factors[i] = exponent(p, rnd, i);
+                expected = expected.multiply(a.modPow(factors[i], p)).mod(p);
+            }
+
+            assertEquals("n=" + n, expected, value(group.multiScale(bases, factors)));
+        }
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void productMatchesBigInteger(int bits, Backend backend) throws Exception {
+        Random rnd = new Random(bits);
+        ModPGroup group = group(bits, backend);
+        BigInteger p = group.getOrder();
+        GroupElement[] els = new GroupElement[ROUNDS];
+        BigInteger[] prefix = new BigInteger[ROUNDS + 1];
+        prefix[0] = BigInteger.ONE;
+        for (int i = 0; i < ROUNDS; i++) {
+            BigInteger a = value(p, rnd, i);
+            els[i] = element(group, a);
+            prefix[i + 1] = prefix[i].multiply(a).mod(p);
+        }
+
+        assertEquals(prefix[ROUNDS], value(group.product(els, 0, ROUNDS)));
+        assertEquals(BigInteger.ONE, value(group.product(els, 3, 3)));
+        assertEquals(prefix[7].multiply(prefix[2].modInverse(p)).mod(p),
+                value(group.product(els, 2, 7)));
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void accumulatorMatchesBigInteger(int bits, Backend backend) throws Exception {
+        Random rnd = new Random(bits);
+        ModPGroup group = group(bits, backend);
+        BigInteger p = group.getOrder();
+        ModPAccumulator acc = group.newAccumulator();
+        BigInteger expected = BigInteger.ONE;
+        for (int i = 0; i < ROUNDS; i++) {
+            BigInteger a = value(p, rnd, i);
+            BigInteger e = exponent(p, rnd, 0);
+            acc.multiply(element(group, a)).square().power(e);
+            expected = expected.multiply(a).pow(2).mod(p).modPow(e, p);
+        }
+        assertEquals(expected, value(acc.get()));
+        assertEquals(BigInteger.ONE, value(acc.reset().get()));
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void backendsCombine(int bits, Backend backend) throws Exception {
+        Random rnd = new Random(bits);
+        ModPGroup group = group(bits, backend);
+        ModPGroup other =
+                group.withBackend(backend == Backend.MONTGOMERY ? Backend.BIG_INTEGER
+                        : Backend.MONTGOMERY);
+        BigInteger p = group.getOrder();
+        BigInteger a = unit(p, rnd);
+        BigInteger b = unit(p, rnd);
+
+        GroupElement res = element(group, a).op(element(other, b));
+
+        assertEquals(group, other);
+        assertEquals(a.multiply(b).mod(p), value(res));
+        assertEquals(element(other, a).op(element(group, b)), res);
+    }
+
+    @Test
+    public void defaultBackendAppliesToNewGroups() {
+        Backend saved = ModPGroup.getDefaultBackend();
+        try {
+            ModPGroup.setDefaultBackend(Backend.MONTGOMERY);
+            ModPGroup group = new ModPGroup(BigInteger.valueOf(23));
+            ModPGroup parsed = new ModPGroup(group.getBytes());
+
+            assertSame(Backend.MONTGOMERY, group.getBackend());
+            assertSame(Backend.MONTGOMERY, parsed.getBackend());
+            assertSame(Backend.BIG_INTEGER,
+                    new ModPGroup(BigInteger.valueOf(23), Backend.BIG_INTEGER).getBackend());
+        } finally {
+            ModPGroup.setDefaultBackend(saved);
+        }
+    }
+
+    private static ModPGroup group(int bits, Backend backend) {
+        // The arithmetic only needs a prime modulus, safe primes are slow to find
+        return new ModPGroup(
+                MODULI.computeIfAbsent(bits, b -> BigInteger.probablePrime(b, new Random(b))),
+                backend);
+    }
+
+    private static ModPGroupElement element(ModPGroup group, BigInteger value) {
+        return new ModPGroupElement(group, value);
+    }
+
+    private static BigInteger value(GroupElement el) {
+        return ((ModPGroupElement) el).getValue();
+    }
+
+    /**
+     * @return A random value, which is every few rounds negative or not less than p.
+     */
+    private static BigInteger value(BigInteger p, Random rnd, int round) {
+        BigInteger v = new BigInteger(p.bitLength() + 8, rnd);
+        switch (round % 4) {
+            case 0:
+                return v.negate();
+            case 1:
+                return v;
+            default:
+                return v.mod(p);
+        }
+    }
+
+    private static BigInteger unit(BigInteger p, Random rnd) {
+        BigInteger v;
+        do {
+            v = new BigInteger(p.bitLength(), rnd).mod(p);
+        } while (v.signum() == 0);
+        return v;
+    }
+
+    /**
+     * @return A random exponent, which is every few rounds zero, negative or not less than p-1.
+     */
+    private static BigInteger exponent(BigInteger p, Random rnd, int round) {
+        BigInteger e = new BigInteger(p.bitLength() + 8, rnd);
+        switch (round % 5) {
+            case 0:
+                return e.mod(p.subtract(BigInteger.ONE));
+            case 1:
+                return BigInteger.ZERO;
+            case 2:
+                return e.negate();
+            case 3:
+                return e;
+            default:
+                return BigInteger.valueOf(rnd.nextInt(16));
+        }
+    }
+
+}
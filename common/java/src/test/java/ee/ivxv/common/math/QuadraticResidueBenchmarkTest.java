@@ -0,0 +1,83 @@
+package ee.ivxv.common.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ee.ivxv.common.crypto.elgamal.TestParameters;
+import ee.ivxv.common.math.Group.Decodable;
+import java.math.BigInteger;
+import java.util.Random;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the time per element of checking the quadratic residuosity of group elements with the
+ * Legendre symbol computed by exponentiation as before, with the Jacobi symbol of
+ * {@link ModPGroup#isDecodable(GroupElement)} and with the batch screening of
+ * {@link ModPGroup#areDecodable(GroupElement[])} in the 2048-bit and 3072-bit ModP groups.
+ * <p>
+ * The number of elements is 2000 by default and can be set with
+ * {@code -Pbenchmark.elements=<count>}. The benchmark is skipped unless run with
+ * {@code -Pbenchmark}, which sets the system property {@code ivxv.benchmark}.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class QuadraticResidueBenchmarkTest {
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    private static Object[] groups() {
+        return new Object[] {"ModP 2048", "ModP 3072"};
+    }
+
+    @Test
+    @Parameters(method = "groups")
+    public void decodable(String name) throws Exception {
+        int count = Integer.getInteger("ivxv.benchmark.elements", 2000);
+        Random rnd = new Random(count);
+        // The cost of the symbols does not depend on whether the prime is safe
+        ModPGroup group = name.equals("ModP 3072") ? new ModPGroup(TestParameters.MODP_3072)
+                : new ModPGroup(BigInteger.probablePrime(2048, rnd));
+        BigInteger p = group.getOrder();
+        BigInteger euler = p.subtract(BigInteger.ONE).shiftRight(1);
+        GroupElement[] els = new GroupElement[count];
+        for (int i = 0; i < count; i++) {
+            BigInteger x = new BigInteger(p.bitLength() - 1, rnd).add(BigInteger.ONE);
+            els[i] = new ModPGroupElement(group, x.multiply(x).mod(p));
+        }
+        // Warm up the JIT on all the paths
+        for (int i = 0; i < Math.min(count, 50); i++) {
+            BigInteger e = ((ModPGroupElement) els[i]).getValue();
+            assertEquals(BigInteger.ONE, e.modPow(euler, p));
+            assertEquals(Decodable.VALID, group.isDecodable(els[i]));
+        }
+        assertTrue(group.areDecodable(els));
+
+        long start = System.nanoTime();
+        for (GroupElement el : els) {
+            ((ModPGroupElement) el).getValue().modPow(euler, p);
+        }
+        long exponentiationTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (GroupElement el : els) {
+            group.isDecodable(el);
+        }
+        long jacobiTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        group.areDecodable(els);
+        long batchTime = System.nanoTime() - start;
+
+        System.out.printf("%-9s %d elements: exponentiation %.3f ms, Jacobi %.3f ms, "
+                + "batch screening %.3f ms per element%n", name, count,
+                exponentiationTime / 1e6 / count, jacobiTime / 1e6 / count,
+                batchTime / 1e6 / count);
+    }
+
+}
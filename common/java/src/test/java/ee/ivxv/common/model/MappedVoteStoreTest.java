@@ -0,0 +1,132 @@
+package ee.ivxv.common.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitParamsRunner.class)
+public class MappedVoteStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private MappedVoteStore mapped;
+    private final VoteStore heap = new VoteStore.HeapVoteStore();
+
+    @Before
+    public void setUp() throws Exception {
+        mapped = new MappedVoteStore(tmp.getRoot().toPath());
+    }
+
+    @After
+    public void tearDown() {
+        mapped.close();
+    }
+
+    private static Object[] questionCounts() {
+        return new Object[] {0, 1, 3};
+    }
+
+    @Test
+    @Parameters(method = "questionCounts")
+    public void storeReturnsSameVotesAsHeapStore(int questions) throws Exception {
+        Random rnd = new Random(questions);
+        List<Map<String, byte[]>> fromHeap = new ArrayList<>();
+        List<Map<String, byte[]>> fromMapped = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, byte[]> votes = votes(rnd, questions);
+            fromHeap.add(heap.store(votes));
+            fromMapped.add(mapped.store(votes));
+        }
+
+        // Read back only after all ballots are stored, so that later appends can not mask errors
+        for (int i = 0; i < fromHeap.size(); i++) {
+            assertSameVotes(fromHeap.get(i), fromMapped.get(i));
+        }
+        long bytes = 0;
+        for (Map<String, byte[]> votes : fromHeap) {
+            for (byte[] vote : votes.values()) {
+                bytes += vote.length;
+            }
+        }
+        assertEquals(bytes, mapped.getOffHeapBytes());
+    }
+
+    @Test
+    public void emptyVoteIsPreserved() throws Exception {
+        Map<String, byte[]> votes = new LinkedHashMap<>();
+        votes.put("q1", new byte[0]);
+        votes.put("q2", new byte[] {1});
+
+        assertSameVotes(heap.store(votes), mapped.store(votes));
+    }
+
+    @Test
+    public void storedVotesAreDetachedFromInput() throws Exception {
+        Map<String, byte[]> votes = new LinkedHashMap<>();
+        byte[] vote = {1, 2, 3};
+        votes.put("q1", vote);
+        Map<String, byte[]> stored = mapped.store(votes);
+
+        vote[0] = 0;
+        votes.put("q2", vote);
+
+        assertEquals(1, stored.size());
+        assertArrayEquals(new byte[] {1, 2, 3}, stored.get("q1"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void storedVotesAreUnmodifiable() throws Exception {
+        Map<String, byte[]> votes = new LinkedHashMap<>();
+        votes.put("q1", new byte[] {1});
+
+        mapped.store(votes).put("q2", new byte[] {2});
+    }
+
+    private static Map<String, byte[]> votes(Random rnd, int questions) {
+        Map<String, byte[]> votes = new LinkedHashMap<>();
+        // Vary the question order, it must be preserved like by the heap store
+        int first = rnd.nextInt(questions + 1);
+        for (int q = 0; q < questions; q++) {
+            byte[] vote = new byte[rnd.nextInt(1024)];
+            rnd.nextBytes(vote);
+            votes.put("question" + (first + q) % questions, vote);
+        }
+        return votes;
+    }
+
+    private static void assertSameVotes(Map<String, byte[]> expected,
+            Map<String, byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        Iterator<Map.Entry<String, byte[]>> it = actual.entrySet().iterator();
+        for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+            assertTrue(it.hasNext());
+            Map.Entry<String, byte[]> a = it.next();
+            assertEquals(e.getKey(), a.getKey());
+            assertArrayEquals(e.getValue(), a.getValue());
+            assertTrue(actual.containsKey(e.getKey()));
+            assertArrayEquals(e.getValue(), actual.get(e.getKey()));
+        }
+        assertFalse(it.hasNext());
+        assertFalse(actual.containsKey("missing"));
+        assertNull(actual.get("missing"));
+    }
+
+}
@@ -0,0 +1,89 @@
+package ee.ivxv.common.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the heap used by the votes of ballots kept in the heap and in the mapped
+ * {@link VoteStore}, reported per million ballots of one 780-byte vote, the size of a ModP 3072
+ * ciphertext.
+ * <p>
+ * The number of ballots is 1M by default and can be set with {@code -Pbenchmark.ballots=<count>}.
+ * The heap store needs a maximum heap of more than 1 GB for the default count. The benchmark is
+ * skipped unless run with {@code -Pbenchmark}, which sets the system property
+ * {@code ivxv.benchmark}.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class VoteStoreBenchmarkTest {
+
+    private static final int VOTE_SIZE = 780;
+    private static final int POOL = 1000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    private static Object[] types() {
+        return new Object[] {VoteStore.HEAP, VoteStore.MAPPED};
+    }
+
+    @Test
+    @Parameters(method = "types")
+    public void store(String type) throws Exception {
+        int count = Integer.getInteger("ivxv.benchmark.ballots", 1_000_000);
+        Random rnd = new Random(count);
+        byte[][] votes = new byte[POOL][VOTE_SIZE];
+        for (byte[] vote : votes) {
+            rnd.nextBytes(vote);
+        }
+        VoteStore store = VoteStore.HEAP.equals(type) ? new VoteStore.HeapVoteStore()
+                : new MappedVoteStore(tmp.getRoot().toPath());
+        List<Map<String, byte[]>> ballots = new ArrayList<>(count);
+
+        try {
+            long before = usedHeap();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                // Every ballot has its own vote, as when read from a ballot box
+                ballots.add(store.store(
+                        Collections.singletonMap("question", votes[i % POOL].clone())));
+            }
+            long time = System.nanoTime() - start;
+            long heap = usedHeap() - before;
+
+            double perMillion = 1e6 / count / (1 << 20);
+            System.out.printf("%-6s %d ballots: %.0f MB heap, %.0f MB off-heap per 1M ballots, "
+                    + "stored in %.0f ms%n", type, ballots.size(), heap * perMillion,
+                    store.getOffHeapBytes() * perMillion, time / 1e6);
+        } finally {
+            store.close();
+        }
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+}
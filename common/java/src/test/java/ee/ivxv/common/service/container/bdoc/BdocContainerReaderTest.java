@@ -0,0 +1,110 @@
+package ee.ivxv.common.service.container.bdoc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import ee.ivxv.common.util.Util;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitParamsRunner.class)
+public class BdocContainerReaderTest {
+
+    private static final String SIG_PREFIX = "META-INF/signatures";
+    private static final String UNSIGNED_PROPS = "        <xades:UnsignedProperties>\n"
+            + "          <xades:UnsignedSignatureProperties>õ"
+            + "</xades:UnsignedSignatureProperties>\n"
+            + "        </xades:UnsignedProperties>";
+
+    // The rewrite that addDataToSignature replaced
+    private static final Pattern REMOVE_USP = Pattern.compile(
+            "<\\s*\\w+:UnsignedProperties[^>]*>.*</\\s*\\w+:UnsignedProperties[^>]*>",
+            Pattern.DOTALL);
+    private static final Pattern ADD_USP = Pattern.compile("(</\\s*\\w+:SignedProperties[^>]*>)");
+
+    // The containers are copied from the test data of the collector
+    private static Object[] signatures() throws IOException {
+        List<Object> result = new ArrayList<>();
+        for (String name : new String[] {"testEIDTS.bdoc", "testMIDTM.bdoc",
+                "testMultipleFiles.bdoc", "testMultipleSigners.bdoc"}) {
+            for (String sig : signatures(name)) {
+                result.add(new Object[] {name, sig});
+            }
+        }
+        return result.toArray();
+    }
+
+    private static Object[] edgeCases() {
+        return new Object[] {
+                // No existing 'UnsignedProperties'
+                "<a:QualifyingProperties><a:SignedProperties Id=\"S0\">õ</a:SignedProperties>"
+                        + "</a:QualifyingProperties>",
+                // Several elements, whitespace and attributes in the tags
+                "<a:X><a:SignedProperties>x</ a:SignedProperties >\n"
+                        + "<  b:UnsignedProperties Id=\"1\">ä</b:UnsignedProperties>õ"
+                        + "<c:UnsignedProperties/><d:UnsignedProperties>ü</d:UnsignedProperties\n>"
+                        + "</a:X>",
+                // A closing tag before the first opening tag and none after it
+                "</a:UnsignedProperties><a:SignedProperties/></a:SignedProperties>"
+                        + "<a:UnsignedProperties>",
+                // Tags without a prefix, with a longer name and unterminated ones
+                "<SignedProperties></SignedProperties>"
+                        + "<a:UnsignedPropertiesX></a:UnsignedProperties>"
+                        + "</a:SignedPropertiesY><a:UnsignedProperties",
+                // No 'SignedProperties', nothing is added
+                "<a:UnsignedProperties>x</a:UnsignedProperties>",
+                "",
+                "<",
+                "</"};
+    }
+
+    @Test
+    @Parameters(method = "signatures")
+    public void addDataToSignatureEqualsRegexRewrite(String container, String sig)
+            throws Exception {
+        assertTrue(container, sig.contains("UnsignedProperties"));
+
+        assertEqualsRegexRewrite(sig);
+        assertEqualsRegexRewrite(REMOVE_USP.matcher(sig).replaceAll(""));
+    }
+
+    @Test
+    @Parameters(method = "edgeCases")
+    public void addDataToSignatureEqualsRegexRewriteOnEdgeCases(String sig) throws Exception {
+        assertEqualsRegexRewrite(sig);
+    }
+
+    private static void assertEqualsRegexRewrite(String sig) {
+        String expected =
+                ADD_USP.matcher(REMOVE_USP.matcher(sig).replaceAll("")).replaceFirst(
+                        "$1\n" + UNSIGNED_PROPS);
+
+        byte[] actual = BdocContainerReader.addDataToSignature(Util.toBytes(sig),
+                Util.toBytes(UNSIGNED_PROPS));
+
+        assertArrayEquals(sig, Util.toBytes(expected), actual);
+    }
+
+    private static List<String> signatures(String container) throws IOException {
+        List<String> result = new ArrayList<>();
+        try (InputStream in = BdocContainerReaderTest.class.getResourceAsStream(container);
+                ZipInputStream zis = new ZipInputStream(in)) {
+            for (ZipEntry e; (e = zis.getNextEntry()) != null;) {
+                if (e.getName().startsWith(SIG_PREFIX)) {
+                    result.add(Util.toString(Util.toBytes(zis)));
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,164 @@
+package ee.ivxv.common.service.container.bdoc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import ee.ivxv.common.util.Util;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitParamsRunner.class)
+public class RawZipRewriterTest {
+
+    private static final String SIG_PREFIX = "META-INF/signatures";
+    private static final byte[] SUFFIX = Util.toBytes("<!-- unsigned properties -->");
+    private static final UnaryOperator<byte[]> APPEND = b -> Util.concatAll(b, SUFFIX);
+
+    // The containers are copied from the test data of the collector
+    private static Object[] containers() {
+        return new Object[] {"testEIDTS.bdoc", "testMIDTM.bdoc", "testMultipleFiles.bdoc",
+                "testMultipleSigners.bdoc", "testNoSignatures.bdoc"};
+    }
+
+    @Test
+    @Parameters(method = "containers")
+    public void rewriteWithoutTransformingIsByteIdentical(String name) throws Exception {
+        byte[] zip = read(name);
+
+        byte[] result = RawZipRewriter.rewrite(zip, n -> false, APPEND);
+
+        assertArrayEquals(zip, result);
+    }
+
+    @Test
+    @Parameters(method = "containers")
+    public void rewriteTransformsOnlySelectedEntries(String name) throws Exception {
+        byte[] zip = read(name);
+        Predicate<String> filter = n -> n.startsWith(SIG_PREFIX);
+
+        byte[] result = RawZipRewriter.rewrite(zip, filter, APPEND);
+
+        Map<String, byte[]> expected = entries(zip);
+        expected.replaceAll((n, content) -> filter.test(n) ? APPEND.apply(content) : content);
+        Map<String, byte[]> actual = entries(result);
+        assertEquals(expected.keySet().toString(), actual.keySet().toString());
+        expected.forEach((n, content) -> assertArrayEquals(n, content, actual.get(n)));
+    }
+
+    @Test
+    public void rewriteHandlesStoredDeflatedAndDataDescriptors() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(out)) {
+            byte[] mimetype = Util.toBytes("application/vnd.etsi.asic-e+zip");
+            ZipEntry stored = new ZipEntry("mimetype");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(mimetype.length);
+            CRC32 crc = new CRC32();
+            crc.update(mimetype);
+            stored.setCrc(crc.getValue());
+            zos.putNextEntry(stored);
+            zos.write(mimetype);
+            // Deflated entries are written with data descriptors
+            zos.putNextEntry(new ZipEntry("vote.ballot"));
+            zos.write(new byte[1000]);
+            zos.putNextEntry(new ZipEntry(SIG_PREFIX + "0.xml"));
+            zos.write(Util.toBytes("<signature/>"));
+        }
+        byte[] zip = out.toByteArray();
+
+        assertArrayEquals(zip, RawZipRewriter.rewrite(zip, n -> false, APPEND));
+
+        Map<String, byte[]> actual =
+                entries(RawZipRewriter.rewrite(zip, n -> n.startsWith(SIG_PREFIX), APPEND));
+        assertArrayEquals(new byte[1000], actual.get("vote.ballot"));
+        assertArrayEquals(APPEND.apply(Util.toBytes("<signature/>")),
+                actual.get(SIG_PREFIX + "0.xml"));
+    }
+
+    @Test
+    @Parameters(method = "containers")
+    public void truncatedContainerIsRejected(String name) throws Exception {
+        byte[] zip = read(name);
+        for (int len = 0; len < zip.length; len += 7) {
+            assertRejectedOrRewritten(Arrays.copyOf(zip, len), true);
+        }
+    }
+
+    @Test
+    @Parameters(method = "containers")
+    public void corruptedHeadersAreRejected(String name) throws Exception {
+        byte[] zip = read(name);
+        // Overwrite every byte of the headers with the extreme values, one at a time, and check
+        // that only ZipException is thrown
+        for (int i = 0; i < zip.length; i++) {
+            if (!isHeader(zip, i)) {
+                continue;
+            }
+            for (byte value : new byte[] {(byte) 0x00, (byte) 0x7F, (byte) 0xFF}) {
+                byte[] corrupted = zip.clone();
+                corrupted[i] = value;
+                assertRejectedOrRewritten(corrupted, false);
+            }
+        }
+    }
+
+    private static void assertRejectedOrRewritten(byte[] zip, boolean mustReject) {
+        try {
+            RawZipRewriter.rewrite(zip, n -> n.startsWith(SIG_PREFIX), APPEND);
+            if (mustReject) {
+                fail("Malformed container of " + zip.length + " bytes was not rejected");
+            }
+        } catch (ZipException e) {
+            // Expected
+        } catch (RuntimeException e) {
+            throw new AssertionError("Malformed container raised " + e, e);
+        }
+    }
+
+    /**
+     * Returns whether the byte is within the first 46 bytes after a header signature, i.e. in a
+     * local, central or end of central directory header.
+     */
+    private static boolean isHeader(byte[] zip, int i) {
+        for (int p = Math.max(0, i - 45); p <= i && p + 4 <= zip.length; p++) {
+            if (zip[p] == 'P' && zip[p + 1] == 'K' && zip[p + 2] < 7 && zip[p + 3] < 7) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, byte[]> entries(byte[] zip) throws IOException {
+        Map<String, byte[]> res = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry e; (e = zis.getNextEntry()) != null;) {
+                res.put(e.getName(), Util.toBytes(zis));
+            }
+        }
+        return res;
+    }
+
+    private static byte[] read(String name) throws IOException {
+        try (InputStream in = RawZipRewriterTest.class.getResourceAsStream(name)) {
+            return Util.toBytes(in);
+        }
+    }
+
+}
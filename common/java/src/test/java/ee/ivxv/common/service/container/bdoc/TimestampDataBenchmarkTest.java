@@ -0,0 +1,145 @@
+package ee.ivxv.common.service.container.bdoc;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import ee.ivxv.common.util.Util;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * Compares the rate of computing the timestamp data of signatures with
+ * {@link BdocContainerReader#calculateTimestampData(byte[], String)}, which reuses a parser per
+ * thread, and with a parser created for every signature as before.
+ * <p>
+ * The signatures are synthesized from the signature of a test container by replacing the
+ * signature value. The number of signatures is 100k by default and can be set with
+ * {@code -Pbenchmark.signatures=<count>}. The signatures are processed by one thread per available
+ * processor. The benchmark is skipped unless run with {@code -Pbenchmark}, which sets the system
+ * property {@code ivxv.benchmark}.
+ */
+public class TimestampDataBenchmarkTest {
+
+    private static final String SIG_PREFIX = "META-INF/signatures";
+    private static final String SIG_VALUE_EL = "SignatureValue";
+    private static final int POOL = 1000;
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    @Test
+    public void timestampData() throws Exception {
+        int total = Integer.getInteger("ivxv.benchmark.signatures", 100_000);
+        int threads = Runtime.getRuntime().availableProcessors();
+        String alg = Canonicalizer.ALGO_ID_C14N11_OMIT_COMMENTS;
+        List<byte[]> sigs = signatures(signature("testEIDTS.bdoc"));
+        for (byte[] sig : sigs) {
+            assertArrayEquals(calculateWithNewParser(sig, alg),
+                    BdocContainerReader.calculateTimestampData(sig, alg));
+        }
+
+        long before = run(total, threads, i -> calculateWithNewParser(sigs.get(i % POOL), alg));
+        long after = run(total, threads,
+                i -> BdocContainerReader.calculateTimestampData(sigs.get(i % POOL), alg));
+
+        System.out.printf("%d signatures with %d threads: new parser per signature %.0f/s, "
+                + "reused parser %.0f/s%n", total, threads, total * 1e9 / before,
+                total * 1e9 / after);
+    }
+
+    /**
+     * The timestamp data computation as it was before the parsers were reused.
+     */
+    private static byte[] calculateWithNewParser(byte[] sigXml, String c14nAlg)
+            throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        Document doc = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(sigXml));
+        NodeList nl = doc.getElementsByTagNameNS(XMLSignature.XMLNS, SIG_VALUE_EL);
+
+        return Canonicalizer.getInstance(c14nAlg).canonicalizeSubtree(nl.item(0));
+    }
+
+    private static long run(int total, int threads, Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<Void>> parts = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int from = (int) ((long) total * t / threads);
+                int to = (int) ((long) total * (t + 1) / threads);
+                parts.add(executor.submit(() -> {
+                    for (int i = from; i < to; i++) {
+                        task.run(i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> f : parts) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return Signatures that differ from the given one in the signature value.
+     */
+    private static List<byte[]> signatures(String xml) {
+        Matcher m = Pattern.compile(SIG_VALUE_EL + "[^>]*>([^<]+)<").matcher(xml);
+        if (!m.find()) {
+            throw new IllegalStateException("No signature value");
+        }
+        byte[] value = new byte[Base64.getMimeDecoder().decode(m.group(1)).length];
+        Random rnd = new Random(POOL);
+        List<byte[]> result = new ArrayList<>(POOL);
+        for (int i = 0; i < POOL; i++) {
+            rnd.nextBytes(value);
+            result.add(Util.toBytes(xml.substring(0, m.start(1))
+                    + Base64.getEncoder().encodeToString(value) + xml.substring(m.end(1))));
+        }
+        return result;
+    }
+
+    private static String signature(String container) throws IOException {
+        try (InputStream in = TimestampDataBenchmarkTest.class.getResourceAsStream(container);
+                ZipInputStream zis = new ZipInputStream(in)) {
+            for (ZipEntry e; (e = zis.getNextEntry()) != null;) {
+                if (e.getName().startsWith(SIG_PREFIX)) {
+                    return Util.toString(Util.toBytes(zis));
+                }
+            }
+        }
+        throw new IllegalStateException("No signature in " + container);
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run(int i) throws Exception;
+    }
+
+}
@@ -0,0 +1,170 @@
+package ee.ivxv.common.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import ee.ivxv.common.model.AnonymousBallotBox;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BallotBoxBinaryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void jsonToBinaryAndBackPreservesVotes() throws Exception {
+        AnonymousBallotBox abb = ballotBox();
+        Path json = tmp.getRoot().toPath().resolve("bb-4.json");
+        Path binary = tmp.getRoot().toPath().resolve("bb-4.abb");
+        Path back = tmp.getRoot().toPath().resolve("bb-4-back.json");
+        BallotBoxJson.write(abb, json, false, null);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        BallotBoxBinary.jsonToBinary(json, binary, digest);
+
+        assertTrue(BallotBoxBinary.isBinary(binary));
+        assertFalse(BallotBoxBinary.isBinary(json));
+        assertArrayEquals(sha256(binary), digest.digest());
+        assertBallotBoxEquals(abb, BallotBoxBinary.read(binary));
+
+        digest.reset();
+        BallotBoxBinary.binaryToJson(binary, back, false, digest);
+
+        assertArrayEquals(sha256(back), digest.digest());
+        assertArrayEquals(Files.readAllBytes(json), Files.readAllBytes(back));
+    }
+
+    @Test
+    public void emptyGroupsAndNullElectionArePreserved() throws Exception {
+        Map<String, Map<String, Map<String, List<byte[]>>>> districts = new LinkedHashMap<>();
+        districts.put("0482.1", new LinkedHashMap<>());
+        districts.computeIfAbsent("0482.2", x -> new LinkedHashMap<>()).put("0482.1",
+                new LinkedHashMap<>());
+        districts.get("0482.2").computeIfAbsent("0482.2", x -> new LinkedHashMap<>())
+                .put("TESTKVV", new ArrayList<>());
+        districts.get("0482.2").get("0482.2").put("TESTRH", Arrays.asList(new byte[] {1, 2}));
+        AnonymousBallotBox abb = new AnonymousBallotBox(null, districts);
+        Path json = tmp.getRoot().toPath().resolve("bb-4.json");
+        Path binary = tmp.getRoot().toPath().resolve("bb-4.abb");
+        Path written = tmp.getRoot().toPath().resolve("bb-4-written.abb");
+        Path back = tmp.getRoot().toPath().resolve("bb-4-back.json");
+        BallotBoxJson.write(abb, json, false, null);
+
+        BallotBoxBinary.jsonToBinary(json, binary, null);
+        BallotBoxBinary.write(abb, written, null);
+
+        assertBallotBoxEquals(abb, BallotBoxJson.readAnonymousBallotBox(json));
+        assertBallotBoxEquals(abb, BallotBoxBinary.read(binary));
+        assertArrayEquals(Files.readAllBytes(binary), Files.readAllBytes(written));
+
+        BallotBoxBinary.binaryToJson(binary, back, false, null);
+
+        assertArrayEquals(Files.readAllBytes(json), Files.readAllBytes(back));
+    }
+
+    @Test
+    public void emptyAndNullElectionDiffer() throws Exception {
+        Path empty = tmp.getRoot().toPath().resolve("empty.abb");
+        Path none = tmp.getRoot().toPath().resolve("null.abb");
+
+        BallotBoxBinary.write(new AnonymousBallotBox("", new LinkedHashMap<>()), empty, null);
+        BallotBoxBinary.write(new AnonymousBallotBox(null, new LinkedHashMap<>()), none, null);
+
+        assertEquals("", BallotBoxBinary.read(empty).getElection());
+        assertNull(BallotBoxBinary.read(none).getElection());
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws Exception {
+        Path binary = tmp.getRoot().toPath().resolve("bb-4.abb");
+        BallotBoxBinary.write(ballotBox(), binary, null);
+        byte[] bytes = Files.readAllBytes(binary);
+
+        for (int len : new int[] {0, 8, 40, bytes.length / 2, bytes.length - 1}) {
+            Files.write(binary, Arrays.copyOf(bytes, len));
+            assertRejected(binary);
+        }
+    }
+
+    @Test
+    public void corruptedFileIsRejected() throws Exception {
+        Path binary = tmp.getRoot().toPath().resolve("bb-4.abb");
+        BallotBoxBinary.write(ballotBox(), binary, null);
+        byte[] bytes = Files.readAllBytes(binary);
+
+        // A flipped byte in the header, in a record and in the digest
+        for (int i : new int[] {12, bytes.length / 2, bytes.length - 1}) {
+            byte[] corrupted = bytes.clone();
+            corrupted[i] ^= 1;
+            Files.write(binary, corrupted);
+            assertRejected(binary);
+        }
+    }
+
+    private static void assertRejected(Path binary) throws Exception {
+        try {
+            BallotBoxBinary.read(binary);
+            fail("Invalid binary ballot box was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid binary ballot box"));
+        }
+    }
+
+    private static AnonymousBallotBox ballotBox() {
+        Map<String, Map<String, Map<String, List<byte[]>>>> districts = new LinkedHashMap<>();
+        for (int d = 0; d < 3; d++) {
+            for (int s = 0; s < 2; s++) {
+                List<byte[]> votes = new ArrayList<>();
+                // Votes of different lengths, so that the records are padded
+                for (int v = 0; v < 5 + d; v++) {
+                    byte[] vote = new byte[10 + v * s];
+                    vote[0] = (byte) (d * 16 + v);
+                    votes.add(vote);
+                }
+                districts.computeIfAbsent("0482." + d, x -> new LinkedHashMap<>())
+                        .computeIfAbsent("0482." + s, x -> new LinkedHashMap<>())
+                        .put("TESTKVV", votes);
+            }
+        }
+        return new AnonymousBallotBox("TESTKVV", districts);
+    }
+
+    private static void assertBallotBoxEquals(AnonymousBallotBox expected,
+            AnonymousBallotBox actual) {
+        assertEquals(expected.getElection(), actual.getElection());
+        assertEquals(expected.getDistricts().keySet(), actual.getDistricts().keySet());
+        expected.getDistricts().forEach((d, smap) -> {
+            assertEquals(smap.keySet(), actual.getDistricts().get(d).keySet());
+            smap.forEach((s, qmap) -> {
+                assertEquals(qmap.keySet(), actual.getDistricts().get(d).get(s).keySet());
+                qmap.forEach((q, votes) -> {
+                    List<byte[]> actualVotes = actual.getDistricts().get(d).get(s).get(q);
+                    assertEquals(votes.size(), actualVotes.size());
+                    for (int i = 0; i < votes.size(); i++) {
+                        assertArrayEquals(votes.get(i), actualVotes.get(i));
+                    }
+                });
+            });
+        });
+    }
+
+    private static byte[] sha256(Path path) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(path));
+    }
+
+}
@@ -0,0 +1,57 @@
+package ee.ivxv.common.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ee.ivxv.common.model.Proof;
+import ee.ivxv.common.model.Proof.ProofJson;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JsonListWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void outputEqualsModelOutput() throws Exception {
+        for (int count : new int[] {0, 1, 100}) {
+            List<ProofJson> proofs = proofs(count);
+            Path expected = tmp.getRoot().toPath().resolve("expected-" + count + ".json");
+            Path actual = tmp.getRoot().toPath().resolve("out/actual-" + count + ".json");
+            Json.write(new Proof("TESTKVV", proofs), expected);
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (JsonListWriter<ProofJson> w =
+                    new JsonListWriter<>(actual, "TESTKVV", "proofs", digest)) {
+                for (ProofJson proof : proofs) {
+                    w.add(proof);
+                }
+            }
+
+            assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+            assertArrayEquals(MessageDigest.getInstance("SHA-256")
+                    .digest(Files.readAllBytes(actual)), digest.digest());
+            assertEquals(count, Json.read(actual, Proof.class).getCount());
+        }
+    }
+
+    static List<ProofJson> proofs(int count) {
+        List<ProofJson> proofs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] ciphertext = new byte[20 + i % 7];
+            ciphertext[0] = (byte) i;
+            byte[] proof = new byte[30 + i % 5];
+            proof[proof.length - 1] = (byte) (i >> 8);
+            proofs.add(new ProofJson(ciphertext, "vote õ " + i, proof));
+        }
+        return proofs;
+    }
+
+}
@@ -0,0 +1,111 @@
+package ee.ivxv.common.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import ee.ivxv.common.model.Proof.ProofJson;
+import ee.ivxv.common.util.ProofBinary.Chunk;
+import ee.ivxv.common.util.ProofBinary.MappedProofs;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProofBinaryTest {
+
+    private static final int COUNT = 2 * ProofBinary.CHUNK_SIZE + 3;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void writeAndMapPreservesProofs() throws Exception {
+        List<ProofJson> proofs = JsonListWriterTest.proofs(COUNT);
+        Path binary = tmp.getRoot().toPath().resolve("out/proofs.bin");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        write(proofs, binary, digest);
+
+        assertTrue(ProofBinary.isBinary(binary));
+        assertArrayEquals(MessageDigest.getInstance("SHA-256")
+                .digest(Files.readAllBytes(binary)), digest.digest());
+
+        MappedProofs mapped = ProofBinary.map(binary);
+        assertEquals("TESTKVV", mapped.getElection());
+        assertEquals(COUNT, mapped.getCount());
+        assertEquals(3, mapped.getChunks().size());
+        List<ProofJson> actual = new ArrayList<>();
+        for (Chunk chunk : mapped.getChunks()) {
+            List<ProofJson> read = chunk.read();
+            assertEquals(chunk.getSize(), read.size());
+            actual.addAll(read);
+        }
+        assertEquals(COUNT, actual.size());
+        for (int i = 0; i < COUNT; i++) {
+            assertArrayEquals(proofs.get(i).getCiphertext(), actual.get(i).getCiphertext());
+            assertEquals(proofs.get(i).getMessage(), actual.get(i).getMessage());
+            assertArrayEquals(proofs.get(i).getProof(), actual.get(i).getProof());
+        }
+    }
+
+    @Test
+    public void jsonIsNotBinary() throws Exception {
+        Path json = tmp.getRoot().toPath().resolve("proofs.json");
+        Files.write(json, "{\"election\":\"TESTKVV\",\"proofs\":[]}".getBytes(Util.CHARSET));
+
+        assertFalse(ProofBinary.isBinary(json));
+    }
+
+    @Test
+    public void flippedByteIsRejected() throws Exception {
+        Path binary = tmp.getRoot().toPath().resolve("proofs.bin");
+        write(JsonListWriterTest.proofs(10), binary, null);
+        byte[] bytes = Files.readAllBytes(binary);
+
+        for (int i = 0; i < bytes.length; i += 7) {
+            byte[] corrupted = bytes.clone();
+            corrupted[i] ^= 1;
+            Files.write(binary, corrupted);
+            assertRejected(binary);
+        }
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws Exception {
+        Path binary = tmp.getRoot().toPath().resolve("proofs.bin");
+        write(JsonListWriterTest.proofs(10), binary, null);
+        byte[] bytes = Files.readAllBytes(binary);
+
+        for (int len : new int[] {0, 8, 40, bytes.length / 2, bytes.length - 1}) {
+            Files.write(binary, Arrays.copyOf(bytes, len));
+            assertRejected(binary);
+        }
+    }
+
+    private static void write(List<ProofJson> proofs, Path path, MessageDigest digest)
+            throws IOException {
+        try (ProofBinary.Writer w = new ProofBinary.Writer(path, "TESTKVV", digest)) {
+            for (ProofJson proof : proofs) {
+                w.add(proof);
+            }
+        }
+    }
+
+    private static void assertRejected(Path binary) throws Exception {
+        try {
+            ProofBinary.map(binary);
+            fail("Invalid binary proofs were mapped");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid binary proofs"));
+        }
+    }
+
+}
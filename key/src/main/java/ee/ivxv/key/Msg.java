@@ -21,12 +21,12 @@ public enum Msg implements NameHolder {
     // Common tool arguments
     arg_identifier("i"), arg_parties("n"), arg_threshold("m"), arg_out("o"), //
     arg_mod, arg_ec, arg_paramtype, arg_random_source("r"), arg_random_source_type, //
-    arg_random_source_path, arg_fastmode,
+    arg_random_source_path, arg_fastmode, arg_concurrent,
 
     // 'decrypt' tool arguments
     d_anonballotbox, d_anonballotbox_checksum, //
-    d_questioncount, d_candidates, d_districts, d_recover, d_protocol, //
-    d_provable, d_check_decodable, //
+    d_questioncount, d_candidates, d_districts, d_recover, d_desmedt, d_protocol, //
+    d_provable, d_binary_proof, d_check_decodable, //
 
     // 'groupgen' tool arguments
     g_length("l"), g_init_template,
@@ -51,7 +51,8 @@ public enum Msg implements NameHolder {
     m_abb_dist_verifying, m_abb_dist_ok, m_protocol_init, m_protocol_init_ok, //
     m_dec_start, m_dec_done, m_out_tally, m_out_proof, m_out_invalid, m_out_logs, //
     m_keys_saved, m_collecting_required_randomness, m_with_proof, m_without_proof, m_card_id, //
-    m_fastmode_disabled, m_fastmode_enabled, m_storing_shares, m_generating_certificate;
+    m_fastmode_disabled, m_fastmode_enabled, m_storing_shares, m_generating_certificate, //
+    m_quorum_test_time;
 
 
     private final String shortName;
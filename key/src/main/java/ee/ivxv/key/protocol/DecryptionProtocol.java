@@ -26,6 +26,36 @@ public interface DecryptionProtocol {
      */
     ElGamalDecryptionProof decryptMessage(byte[] msg) throws ProtocolException, IOException;
 
+    /**
+     * Take in a batch of ciphertexts as bytes and output the proofs of correct decryption.
+     * <p>
+     * The result holds the proof of every ciphertext in the same order, or null if the ciphertext
+     * is invalid, i.e. it can not be parsed or the decrypted message is not correctly padded. Any
+     * other failure fails the whole batch, so that the votes of the batch are not counted as
+     * invalid because of an error which does not depend on the votes. Protocols which involve
+     * several parties may override this to decrypt the whole batch in a single round. The default
+     * implementation calls {@link #decryptMessage(byte[])} for every ciphertext.
+     * 
+     * @param msgs
+     * @return
+     * @throws ProtocolException When the decryption fails for a reason other than invalid input.
+     * @throws IOException When reading the randomness for the proofs fails.
+     */
+    default ElGamalDecryptionProof[] decryptMessages(byte[][] msgs)
+            throws ProtocolException, IOException {
+        ElGamalDecryptionProof[] res = new ElGamalDecryptionProof[msgs.length];
+        for (int i = 0; i < msgs.length; i++) {
+            try {
+                res[i] = decryptMessage(msgs[i]);
+            } catch (IllegalArgumentException e) {
+                // the ciphertext is left undecrypted. Omit the exception, as it may contain
+                // identifiable information about the error. The possible reasons for decryption
+                // failure are different padding errors.
+            }
+        }
+        return res;
+    }
+
     /**
      * Check if the ciphertext could be decrypted using the protocol.
      * <p>
@@ -41,4 +71,16 @@ public interface DecryptionProtocol {
      * @throws ProtocolException
      */
     CorrectnessUtil.CiphertextCorrectness checkCorrectness(byte[] msg) throws ProtocolException;
+
+    /**
+     * Prepare the protocol for decrypting the given number of ciphertexts.
+     * <p>
+     * The protocol may precompute values which speed up decrypting many ciphertexts. The default
+     * implementation does nothing.
+     * 
+     * @param count The expected number of ciphertexts.
+     */
+    default void prepare(long count) {
+        // Nothing to prepare by default
+    }
 }
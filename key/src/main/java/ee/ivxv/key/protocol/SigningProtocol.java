@@ -14,4 +14,22 @@ public interface SigningProtocol extends ContentSigner {
      * @throws ProtocolException When exception occurs during protocol run.
      */
     byte[] sign(byte[] msg) throws ProtocolException;
+
+    /**
+     * Sign a batch of messages using the signing protocol and return serialized signatures.
+     * <p>
+     * The default implementation signs the messages one by one, protocols which can share the
+     * work between the messages should override it.
+     * 
+     * @param msgs Messages to be signed.
+     * @return Serialized signatures in the order of the messages.
+     * @throws ProtocolException When exception occurs during protocol run.
+     */
+    default byte[][] signMessages(byte[][] msgs) throws ProtocolException {
+        byte[][] res = new byte[msgs.length][];
+        for (int i = 0; i < msgs.length; i++) {
+            res[i] = sign(msgs[i]);
+        }
+        return res;
+    }
 }
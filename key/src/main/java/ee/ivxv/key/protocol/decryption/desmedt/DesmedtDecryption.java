@@ -1,48 +1,344 @@
 package ee.ivxv.key.protocol.decryption.desmedt;
 
+import ee.ivxv.common.crypto.CorrectnessUtil;
 import ee.ivxv.common.crypto.CorrectnessUtil.CiphertextCorrectness;
+import ee.ivxv.common.crypto.Plaintext;
+import ee.ivxv.common.crypto.elgamal.ElGamalCiphertext;
 import ee.ivxv.common.crypto.elgamal.ElGamalDecryptionProof;
+import ee.ivxv.common.crypto.elgamal.ElGamalParameters;
+import ee.ivxv.common.crypto.elgamal.ElGamalPrivateKey;
+import ee.ivxv.common.crypto.elgamal.ElGamalPublicKey;
+import ee.ivxv.common.crypto.rnd.NativeRnd;
+import ee.ivxv.common.crypto.rnd.Rnd;
+import ee.ivxv.common.math.GroupElement;
+import ee.ivxv.common.math.IntegerConstructor;
+import ee.ivxv.common.math.LagrangeInterpolation;
+import ee.ivxv.common.math.MathException;
+import ee.ivxv.common.service.smartcard.IndexedBlob;
 import ee.ivxv.key.protocol.DecryptionProtocol;
+import ee.ivxv.key.protocol.ProtocolException;
+import ee.ivxv.key.protocol.ThresholdParameters;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
  * DesmedtDecryption combines the decryption shares into a decrypted message without recovering the
- * key. Currently this protocol is not implemented.
+ * key.
+ * <p>
+ * Every party of the quorum holds a Shamir share {@literal s_i = f(i)} of the private key
+ * {@literal x = f(0)}. For a ciphertext {@literal (c1, c2)} the party computes the decryption share
+ * {@literal c1^s_i} and, for the proof of correct decryption, the commitments {@literal c1^r_i} and
+ * {@literal g^r_i} for a random {@literal r_i}. The shares are combined with the Lagrange
+ * coefficients {@literal l_i} of the quorum, which are computed once, as
+ * {@literal c1^x = prod (c1^s_i)^l_i} with a single multi-exponentiation per ciphertext. The
+ * commitments are combined in the same way and the response
+ * {@literal sum l_i (r_i + k s_i) = r + k x} completes an ordinary proof of correct decryption.
+ * <p>
+ * The parties compute the decryption shares for a batch of ciphertexts in parallel.
+ * <p>
+ * The shares of all parties are parsed in the same process, where the key is as easily computed
+ * as {@literal x = sum l_i s_i}. The protocol therefore protects the key no better than
+ * {@link ee.ivxv.key.protocol.decryption.recover.RecoverDecryption}, and it is slower.
  */
 public class DesmedtDecryption implements DecryptionProtocol {
+    private final ThresholdParameters tparams;
+    private final boolean withProof;
+    private final ElGamalParameters params;
+    private final Party[] parties;
+    private final BigInteger[] coefficients;
+    private final ElGamalPublicKey publicKey;
+
+    /**
+     * Initialize the protocol from values.
+     *
+     * @param blobs The set of blobs that contain the private key shares of the quorum.
+     * @param tparams Parameters for threshold decryption.
+     * @param withProof Boolean indicating if decrypting without providing proofs of correct
+     *        decryption.
+     * @throws ProtocolException When the number of cards is less than is required for decryption
+     *         or the shares are invalid.
+     */
+    public DesmedtDecryption(Set<IndexedBlob> blobs, ThresholdParameters tparams,
+            boolean withProof) throws ProtocolException {
+        if (blobs.size() < tparams.getThreshold()) {
+            throw new ProtocolException("Fewer cards available than threshold");
+        }
+        this.tparams = tparams;
+        this.withProof = withProof;
+
+        ElGamalPrivateKey[] keys = parseAllBlobs(blobs);
+        ElGamalParameters p = null;
+        for (ElGamalPrivateKey key : keys) {
+            if (key == null) {
+                continue;
+            }
+            if (p == null) {
+                p = key.getParameters();
+            } else if (!p.equals(key.getParameters())) {
+                throw new ProtocolException("Key share parameters mismatch");
+            }
+        }
+        this.params = p;
+
+        parties = new Party[blobs.size()];
+        coefficients = new BigInteger[parties.length];
+        GroupElement[] keyShares = new GroupElement[parties.length];
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) {
+                continue;
+            }
+            parties[j] = new Party(i + 1, keys[i].getSecretPart());
+            coefficients[j] = LagrangeInterpolation.basisPolynomial(params.getGeneratorOrder(),
+                    keys, BigInteger.valueOf(i + 1));
+            keyShares[j] = params.scaleGenerator(parties[j].share);
+            j++;
+        }
+        try {
+            publicKey = new ElGamalPublicKey(params,
+                    params.getGroup().multiScale(keyShares, coefficients));
+        } catch (MathException e) {
+            throw new ProtocolException("Arithmetic error: " + e.toString());
+        }
+    }
+
+    private ElGamalPrivateKey[] parseAllBlobs(Set<IndexedBlob> blobs) throws ProtocolException {
+        ElGamalPrivateKey[] parsed = new ElGamalPrivateKey[tparams.getParties()];
+        for (IndexedBlob blob : blobs) {
+            int i = blob.getIndex();
+            if (i < 1 || i > tparams.getParties() || parsed[i - 1] != null) {
+                throw new ProtocolException("Indexed blob index mismatch");
+            }
+            try {
+                parsed[i - 1] = new ElGamalPrivateKey(blob.getBlob());
+            } catch (IllegalArgumentException e) {
+                throw new ProtocolException(
+                        "Exception while parsing secret share: " + e.toString());
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Get the public key corresponding to the shares of the quorum.
+     *
+     * @return
+     */
+    public ElGamalPublicKey getPublicKey() {
+        return publicKey;
+    }
+
     /**
-     * Get the corresponding decryption share.
+     * Get the decryption share of a party.
+     *
+     * @param party The index of the party, starting from 1.
+     * @param msg Serialized {@link ElGamalCiphertext}.
+     * @return Serialized group element {@literal c1^s_i}.
+     * @throws ProtocolException When the party is not in the quorum.
+     * @throws IllegalArgumentException If invalid input.
+     */
+    public byte[] getDecryptionShare(int party, byte[] msg) throws ProtocolException {
+        ElGamalCiphertext ct = new ElGamalCiphertext(params, msg);
+        for (Party p : parties) {
+            if (p.index == party) {
+                return ct.getBlind().scale(p.share).getBytes();
+            }
+        }
+        throw new ProtocolException("Party not in quorum: " + party);
+    }
+
+    /**
+     * Decrypt the message by combining the decryption shares of the quorum.
      * <p>
-     * Currently, this method is not implemented and returns null.
-     * 
-     * @param party
-     * @param msg
+     * If the protocol was initialized to decrypt without proofs, then the corresponding values in
+     * the returned value are null.
+     *
+     * @param msg Message to be decrypted. Must be serialized instance of
+     *        {@link ee.ivxv.common.crypto.elgamal.ElGamalCiphertext}
+     * @return Decrypted message
+     * @throws ProtocolException If computation exception occurs.
+     * @throws IllegalArgumentException If invalid input.
+     */
+    @Override
+    public ElGamalDecryptionProof decryptMessage(byte[] msg)
+            throws ProtocolException, IllegalArgumentException {
+        ElGamalCiphertext ct = new ElGamalCiphertext(params, msg);
+        ElGamalDecryptionProof[] res = decrypt(new ElGamalCiphertext[] {ct}, true);
+        return res[0];
+    }
+
+    /**
+     * Decrypt a batch of messages in a single round over the parties. The parties compute their
+     * decryption shares of the whole batch in parallel.
+     * <p>
+     * Only the messages which can not be parsed or which are not correctly padded after decryption
+     * are left undecrypted. A failure of the random source or of the arithmetic fails the whole
+     * batch.
+     *
+     * @param msgs
      * @return
+     * @throws ProtocolException If computation exception occurs.
      */
-    public byte[] getDecryptionShare(int party, byte[] msg) {
-        return null;
+    @Override
+    public ElGamalDecryptionProof[] decryptMessages(byte[][] msgs) throws ProtocolException {
+        ElGamalCiphertext[] cts = new ElGamalCiphertext[msgs.length];
+        for (int i = 0; i < msgs.length; i++) {
+            try {
+                cts[i] = new ElGamalCiphertext(params, msgs[i]);
+            } catch (IllegalArgumentException e) {
+                // the ciphertext is left undecrypted. Omit the exception, as it may contain
+                // identifiable information about the ciphertext
+            }
+        }
+        return decrypt(cts, false);
+    }
+
+    private ElGamalDecryptionProof[] decrypt(ElGamalCiphertext[] cts, boolean rethrow)
+            throws ProtocolException {
+        Round[] rounds = new Round[parties.length];
+        try {
+            IntStream.range(0, parties.length).parallel()
+                    .forEach(i -> rounds[i] = parties[i].decrypt(cts, withProof));
+        } catch (UncheckedIOException e) {
+            throw new ProtocolException("Random source error: " + e.getCause().toString());
+        }
+
+        ElGamalDecryptionProof[] res = new ElGamalDecryptionProof[cts.length];
+        GroupElement[] bases = new GroupElement[parties.length];
+        for (int j = 0; j < cts.length; j++) {
+            if (cts[j] == null) {
+                continue;
+            }
+            try {
+                res[j] = combine(cts[j], rounds, j, bases);
+            } catch (IllegalArgumentException e) {
+                // the message is not correctly padded
+                if (rethrow) {
+                    throw e;
+                }
+            } catch (MathException e) {
+                throw new ProtocolException("Arithmetic error: " + e.toString());
+            }
+        }
+        return res;
+    }
+
+    private ElGamalDecryptionProof combine(ElGamalCiphertext ct, Round[] rounds, int j,
+            GroupElement[] bases) throws MathException {
+        for (int i = 0; i < rounds.length; i++) {
+            bases[i] = rounds[i].shares[j];
+        }
+        GroupElement blindKey = params.getGroup().multiScale(bases, coefficients);
+        GroupElement msg = ct.getBlindedMessage().op(blindKey.inverse());
+        Plaintext pt = params.getGroup().decode(msg).stripPadding();
+        ElGamalDecryptionProof proof = new ElGamalDecryptionProof(ct, pt, publicKey);
+        if (!withProof) {
+            return proof;
+        }
+
+        for (int i = 0; i < rounds.length; i++) {
+            bases[i] = rounds[i].msgCommitments[j];
+        }
+        proof.setMessageCommitment(params.getGroup().multiScale(bases, coefficients));
+        for (int i = 0; i < rounds.length; i++) {
+            bases[i] = rounds[i].keyCommitments[j];
+        }
+        proof.setKeyCommitment(params.getGroup().multiScale(bases, coefficients));
+        BigInteger k = proof.computeChallenge();
+        BigInteger q = params.getGeneratorOrder();
+        BigInteger s = BigInteger.ZERO;
+        for (int i = 0; i < rounds.length; i++) {
+            BigInteger si = k.multiply(parties[i].share).add(rounds[i].randomness[j]);
+            s = s.add(si.multiply(coefficients[i]));
+        }
+        proof.setResponse(s.mod(q));
+        return proof;
     }
 
     /**
-     * Get the decrypted message.
+     * Precompute the powers of the generator for the commitments of the decryption proofs.
      * <p>
-     * Decryption using DesmedDecryption is not implemented and the method returns null.
-     * 
-     * @param msg
+     * Nothing is precomputed if the protocol was initialized to decrypt without proofs.
+     *
+     * @param count The expected number of ciphertexts.
      */
     @Override
-    public ElGamalDecryptionProof decryptMessage(byte[] msg) {
-        return null;
+    public void prepare(long count) {
+        if (withProof) {
+            params.precompute(count * parties.length);
+        }
     }
 
     /**
-     * Check the correctness of the message.
+     * Check the ciphertext correctness.
      * <p>
-     * Checking correctness using DesmedtDecryption is not implemented and the method returns null.
-     * 
+     * Calls {@link CorrectnessUtil#isValidCiphertext(ElGamalPublicKey, byte[])} with the public
+     * key of the quorum.
+     *
+     * @see ee.ivxv.common.crypto.CorrectnessUtil
+     *
      * @param msg
      */
     @Override
     public CiphertextCorrectness checkCorrectness(byte[] msg) {
-        return null;
+        return CorrectnessUtil.isValidCiphertext(publicKey, msg);
+    }
+
+    /**
+     * Party holds the private key share of a card holder and computes the decryption shares of the
+     * card holder.
+     */
+    private class Party {
+        private final int index;
+        private final BigInteger share;
+        private final Rnd rnd = new NativeRnd();
+
+        Party(int index, BigInteger share) {
+            this.index = index;
+            this.share = share;
+        }
+
+        Round decrypt(ElGamalCiphertext[] cts, boolean withProof) {
+            Round round = new Round(cts.length, withProof);
+            for (int j = 0; j < cts.length; j++) {
+                if (cts[j] == null) {
+                    continue;
+                }
+                GroupElement blind = cts[j].getBlind();
+                round.shares[j] = blind.scale(share);
+                if (withProof) {
+                    BigInteger r;
+                    try {
+                        r = IntegerConstructor.construct(rnd, params.getGeneratorOrder());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    round.randomness[j] = r;
+                    round.msgCommitments[j] = blind.scale(r);
+                    round.keyCommitments[j] = params.scaleGenerator(r);
+                }
+            }
+            return round;
+        }
+    }
+
+    /**
+     * Round holds the decryption shares of a single party for a batch of ciphertexts.
+     */
+    private static class Round {
+        private final GroupElement[] shares;
+        private final BigInteger[] randomness;
+        private final GroupElement[] msgCommitments;
+        private final GroupElement[] keyCommitments;
+
+        Round(int count, boolean withProof) {
+            shares = new GroupElement[count];
+            randomness = withProof ? new BigInteger[count] : null;
+            msgCommitments = withProof ? new GroupElement[count] : null;
+            keyCommitments = withProof ? new GroupElement[count] : null;
+        }
     }
 }
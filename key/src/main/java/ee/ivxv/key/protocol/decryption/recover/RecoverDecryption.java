@@ -15,6 +15,8 @@ import ee.ivxv.key.protocol.ProtocolException;
 import ee.ivxv.key.protocol.ThresholdParameters;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -59,14 +61,40 @@ public class RecoverDecryption implements DecryptionProtocol {
         recoverKey();
     }
 
+    /**
+     * Initialize the protocol from already parsed private key shares.
+     * <p>
+     * This allows to parse the shares once and test the recovery with several quorums.
+     * 
+     * @param shares The private key shares indexed by the party, {@code null} for the parties
+     *        outside the quorum.
+     * @param tparams Parameters for threshold decryption.
+     * @param withProof Boolean indicating if decrypting without providing proofs of correct
+     *        decryption.
+     * @throws ProtocolException When the number of shares is less than is required for decryption.
+     */
+    public RecoverDecryption(ElGamalPrivateKey[] shares, ThresholdParameters tparams,
+            boolean withProof) throws ProtocolException {
+        if (shares.length != tparams.getParties()) {
+            throw new ProtocolException("Key share count mismatch");
+        }
+        if (Arrays.stream(shares).filter(Objects::nonNull).count() < tparams.getThreshold()) {
+            throw new ProtocolException("Fewer cards available than threshold");
+        }
+        this.blobs = null;
+        this.tparams = tparams;
+        this.withProof = withProof;
+        this.sk = forceKeyRecover(shares);
+    }
+
     private void recoverKey() throws ProtocolException {
         if (this.sk == null) {
-            this.sk = forceKeyRecover();
+            this.sk = forceKeyRecover(parseAllBlobs(blobs));
         }
     }
 
-    private ElGamalPrivateKey forceKeyRecover() throws ProtocolException {
-        ElGamalPrivateKey[] parsedKeys = parseAllBlobs(blobs);
+    private ElGamalPrivateKey forceKeyRecover(ElGamalPrivateKey[] parsedKeys)
+            throws ProtocolException {
         if (!filterKeys(parsedKeys)) {
             throw new ProtocolException("Key share parameters mismatch");
         }
@@ -164,6 +192,20 @@ public class RecoverDecryption implements DecryptionProtocol {
         }
     }
 
+    /**
+     * Precompute the powers of the generator for the commitments of the decryption proofs.
+     * <p>
+     * Nothing is precomputed if the protocol was initialized to decrypt without proofs.
+     * 
+     * @param count The expected number of ciphertexts.
+     */
+    @Override
+    public void prepare(long count) {
+        if (withProof && this.sk != null) {
+            this.sk.getParameters().precompute(count);
+        }
+    }
+
     /**
      * Check the ciphertext correctness.
      * <p>
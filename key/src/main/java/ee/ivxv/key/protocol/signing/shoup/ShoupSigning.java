@@ -15,7 +15,10 @@ import java.io.OutputStream;
 import java.math.BigInteger;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.Set;
+import java.util.stream.IntStream;
 import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
@@ -25,9 +28,11 @@ import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
  */
 public class ShoupSigning implements SigningProtocol {
     private final Set<IndexedBlob> blobs;
+    private final RSAParams[] shares;
     private final ThresholdParameters tparams;
     private final Rnd rnd;
     private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private Quorum quorum;
 
     /**
      * Initialize the protocol using values.
@@ -43,6 +48,32 @@ public class ShoupSigning implements SigningProtocol {
             throw new ProtocolException("Fewer cards available than threshold");
         }
         this.blobs = blobs;
+        this.shares = null;
+        this.tparams = tparams;
+        this.rnd = rnd;
+    }
+
+    /**
+     * Initialize the protocol from already parsed private key shares.
+     * <p>
+     * This allows to parse the shares once and sign with several quorums.
+     * 
+     * @param shares The private key shares indexed by the party, {@code null} for the parties
+     *        outside the quorum.
+     * @param tparams Threshold parameters.
+     * @param rnd Random source for signing.
+     * @throws ProtocolException When the number of shares is less than the threshold.
+     */
+    public ShoupSigning(RSAParams[] shares, ThresholdParameters tparams, Rnd rnd)
+            throws ProtocolException {
+        if (shares.length != tparams.getParties()) {
+            throw new ProtocolException("Key share count mismatch");
+        }
+        if (Arrays.stream(shares).filter(Objects::nonNull).count() < tparams.getThreshold()) {
+            throw new ProtocolException("Fewer cards available than threshold");
+        }
+        this.blobs = null;
+        this.shares = shares;
         this.tparams = tparams;
         this.rnd = rnd;
     }
@@ -60,6 +91,9 @@ public class ShoupSigning implements SigningProtocol {
      *  6. multiply the shares
      *  7. verify the signature
      * }
+     * The keys and the coefficients of steps 2 and 4 are computed once for the quorum and reused
+     * for the following messages. The signature shares of step 3 are generated in parallel and
+     * the steps 5 and 6 are done as a single multi-exponentiation.
      * 
      * @return RSA-PSS signature
      * @throws ProtocolException When exception occurs during card token communication or signature
@@ -67,38 +101,73 @@ public class ShoupSigning implements SigningProtocol {
      */
     @Override
     public byte[] sign(byte[] msg) throws ProtocolException {
+        return signMessages(new byte[][] {msg})[0];
+    }
 
-        byte[] salt = new byte[SignatureUtil.RSA.RSA_PSS.HASH_LENGTH];
-        byte[] signature;
-        byte[][] sigShares;
-        RSAParams[] parsedKeys;
-        try {
-            parsedKeys = unpackAllBlobs(blobs);
-        } catch (InvalidKeySpecException ex) {
-            throw new ProtocolException("Invalid key blob: " + ex.toString());
-        }
-        if (!filterKeys(parsedKeys)) {
-            throw new ProtocolException("Key share parameters mismatch");
-        }
-        BigInteger n = getModulus(parsedKeys);
-        BigInteger e = getPublicExponent(parsedKeys);
+    /**
+     * Sign a batch of messages using RSA-PSS signing scheme.
+     * <p>
+     * The signature shares of all the messages and parties are generated in parallel and every
+     * signature is combined with a single multi-exponentiation, using the coefficients of the
+     * quorum.
+     * 
+     * @see #sign(byte[])
+     * @return RSA-PSS signatures in the order of the messages.
+     * @throws ProtocolException When exception occurs during signature share generation.
+     */
+    @Override
+    public byte[][] signMessages(byte[][] msgs) throws ProtocolException {
+        Quorum quorum = getQuorum();
+        byte[][] salts = new byte[msgs.length][SignatureUtil.RSA.RSA_PSS.HASH_LENGTH];
         try {
-            rnd.read(salt, 0, salt.length);
+            for (byte[] salt : salts) {
+                rnd.read(salt, 0, salt.length);
+            }
         } catch (IOException ex) {
             throw new ProtocolException("Reading from random source failed", ex);
         }
+        int parties = quorum.keys.length;
+        byte[][][] sigShares = new byte[msgs.length][parties][];
         try {
-            sigShares = generateSignatureShares(msg, parsedKeys, salt);
-        } catch (SignatureException ex) {
-            throw new ProtocolException("Signature share generation failed: " + ex.toString());
+            IntStream.range(0, msgs.length * parties).parallel().forEach(i -> {
+                int m = i / parties;
+                int p = i % parties;
+                sigShares[m][p] = generateSignatureShare(msgs[m], quorum.keys[p], salts[m]);
+            });
+        } catch (ShareException ex) {
+            throw new ProtocolException(
+                    "Signature share generation failed: " + ex.getCause().toString());
         }
+        byte[][] signatures = new byte[msgs.length][];
         try {
-            signature = combineSignatureShares(sigShares, msg, n, e, salt);
-        } catch (SignatureException ex) {
-            throw new ProtocolException("Signature combining failed: " + ex.toString());
+            IntStream.range(0, msgs.length).parallel().forEach(m -> signatures[m] =
+                    combineSignatureShares(quorum, sigShares[m], msgs[m], salts[m]));
+        } catch (ShareException ex) {
+            throw new ProtocolException("Signature combining failed: " + ex.getCause().toString());
+        }
+        for (int m = 0; m < signatures.length; m++) {
+            signatures[m] = SignatureUtil.stripSignature(signatures[m]);
+        }
+        return signatures;
+    }
+
+    private synchronized Quorum getQuorum() throws ProtocolException {
+        if (quorum != null) {
+            return quorum;
+        }
+        RSAParams[] parsedKeys = shares;
+        if (parsedKeys == null) {
+            try {
+                parsedKeys = unpackAllBlobs(blobs);
+            } catch (InvalidKeySpecException ex) {
+                throw new ProtocolException("Invalid key blob: " + ex.toString());
+            }
+        }
+        if (!filterKeys(parsedKeys)) {
+            throw new ProtocolException("Key share parameters mismatch");
         }
-        signature = SignatureUtil.stripSignature(signature);
-        return signature;
+        quorum = new Quorum(parsedKeys, getModulus(parsedKeys), getPublicExponent(parsedKeys));
+        return quorum;
     }
 
     private RSAParams[] unpackAllBlobs(Set<IndexedBlob> blobs) throws InvalidKeySpecException {
@@ -135,41 +204,29 @@ public class ShoupSigning implements SigningProtocol {
         return true;
     }
 
-    private byte[][] generateSignatureShares(byte[] msg, RSAParams[] keys, byte[] salt)
-            throws SignatureException {
-        byte[][] shares = new byte[keys.length][];
-        for (int i = 0; i < shares.length; i++) {
-            if (keys[i] == null) {
-                continue;
-            }
-            shares[i] = SignatureUtil.RSA.RSA_PSS.generateSignature(msg, keys[i], salt);
+    private static byte[] generateSignatureShare(byte[] msg, RSAParams key, byte[] salt) {
+        try {
+            return SignatureUtil.RSA.RSA_PSS.generateSignature(msg, key, salt);
+        } catch (SignatureException ex) {
+            throw new ShareException(ex);
         }
-        return shares;
     }
 
-    private byte[] combineSignatureShares(byte[][] shares, byte[] msg, BigInteger n, BigInteger e,
-            byte[] salt) throws SignatureException {
-        BigInteger c;
-        BigInteger sigShare = BigInteger.ONE;
-        BigInteger exp;
+    private static byte[] combineSignatureShares(Quorum quorum, byte[][] shares, byte[] msg,
+            byte[] salt) {
         byte[] encShare;
+        try {
+            encShare = SignatureUtil.RSA.RSA_PSS.encode(msg, quorum.n, salt);
+        } catch (SignatureException ex) {
+            throw new ShareException(ex);
+        }
+        // sigShare = (prod c_i^coef_i)^bezout_1 * enc^bezout_0 mod n
+        BigInteger[] bases = new BigInteger[shares.length + 1];
         for (int i = 0; i < shares.length; i++) {
-            if (shares[i] == null) {
-                continue;
-            }
-            c = new BigInteger(1, shares[i]);
-            exp = LagrangeInterpolation.basisInverselessPolynomial(shares,
-                    BigInteger.valueOf(i + 1));
-            c = c.modPow(exp, n);
-            sigShare = sigShare.multiply(c).mod(n);
-        }
-        BigInteger[] bezout = MathUtil.extendedEuclidean(e,
-                MathUtil.factorial(BigInteger.valueOf(tparams.getParties())));
-        sigShare = sigShare.modPow(bezout[1], n);
-        encShare = SignatureUtil.RSA.RSA_PSS.encode(msg, n, salt);
-        c = new BigInteger(1, encShare);
-        c = c.modPow(bezout[0], n);
-        sigShare = sigShare.multiply(c).mod(n);
+            bases[i] = new BigInteger(1, shares[i]);
+        }
+        bases[shares.length] = new BigInteger(1, encShare);
+        BigInteger sigShare = MathUtil.multiModPow(bases, quorum.exps, quorum.n);
         return sigShare.toByteArray();
     }
 
@@ -232,4 +289,48 @@ public class ShoupSigning implements SigningProtocol {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * The key shares of the quorum and the exponents for combining their signature shares.
+     */
+    private static class Quorum {
+        private final RSAParams[] keys;
+        private final BigInteger n;
+        private final BigInteger[] exps;
+
+        Quorum(RSAParams[] parsedKeys, BigInteger n, BigInteger e) {
+            this.n = n;
+            int count = 0;
+            for (RSAParams sk : parsedKeys) {
+                if (sk != null) {
+                    count++;
+                }
+            }
+            keys = new RSAParams[count];
+            exps = new BigInteger[count + 1];
+            BigInteger[] bezout = MathUtil.extendedEuclidean(e,
+                    MathUtil.factorial(BigInteger.valueOf(parsedKeys.length)));
+            for (int i = 0, j = 0; i < parsedKeys.length; i++) {
+                if (parsedKeys[i] == null) {
+                    continue;
+                }
+                keys[j] = parsedKeys[i];
+                exps[j++] = LagrangeInterpolation
+                        .basisInverselessPolynomial(parsedKeys, BigInteger.valueOf(i + 1))
+                        .multiply(bezout[1]);
+            }
+            exps[count] = bezout[0];
+        }
+    }
+
+    /**
+     * ShareException carries the exception of a parallel signature computation.
+     */
+    private static class ShareException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ShareException(SignatureException cause) {
+            super(cause);
+        }
+    }
 }
@@ -19,6 +19,7 @@ import ee.ivxv.common.service.smartcard.Cards;
 import ee.ivxv.common.service.smartcard.IndexedBlob;
 import ee.ivxv.common.util.I18nConsole;
 import ee.ivxv.common.util.ToolHelper;
+import ee.ivxv.common.util.Util;
 import ee.ivxv.key.KeyContext;
 import ee.ivxv.key.Msg;
 import ee.ivxv.key.model.Vote;
@@ -26,24 +27,29 @@ import ee.ivxv.key.protocol.DecryptionProtocol;
 import ee.ivxv.key.protocol.ProtocolException;
 import ee.ivxv.key.protocol.SigningProtocol;
 import ee.ivxv.key.protocol.ThresholdParameters;
+import ee.ivxv.key.protocol.decryption.desmedt.DesmedtDecryption;
 import ee.ivxv.key.protocol.decryption.recover.RecoverDecryption;
 import ee.ivxv.key.protocol.signing.shoup.ShoupSigning;
 import ee.ivxv.key.tool.DecryptTool.DecryptArgs;
 import ee.ivxv.key.util.ElectionResult;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +60,11 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
 
     static final Logger log = LoggerFactory.getLogger(DecryptTool.class);
 
+    private static final int BATCH_SIZE = 64;
+    private static final int QUEUED_BATCHES_PER_THREAD = 4;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+    private static final List<Vote> END_OF_VOTES = new ArrayList<>();
+
     private final KeyContext ctx;
     private final I18nConsole console;
     private final ToolHelper tool;
@@ -91,50 +102,21 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
         SigningProtocol signer = null;
         if (args.recover.isSet()) {
             ThresholdParameters tparams = new ThresholdParameters(args.dn.value(), args.dm.value());
-            byte[] aid = new byte[] {0x01};
-            byte[] decShareName = new byte[] {0x44, 0x45, 0x43};
-            byte[] signShareName = new byte[] {0x53, 0x49, 0x47, 0x4E};
-            Cards cards = ctx.card.createCards();
-            if (!ctx.card.isPluggableService()) {
-                for (int i = 0; i < tparams.getParties(); i++) {
-                    cards.addCard(String.valueOf(i));
-                }
-            }
             Set<IndexedBlob> decBlobs = new HashSet<>();
             Set<IndexedBlob> signBlobs = new HashSet<>();
-            for (int i = 0; i < tparams.getThreshold(); i++) {
-                int retryCount = 0;
-                int maxTries = 2;
-                while (true) {
-                    try {
-                        Card card;
-                        if (ctx.card.isPluggableService()) {
-                            card = ctx.card.createCard("-1");
-                            cards.initUnprocessedCard(card);
-                        } else {
-                            card = cards.getCard(i);
-                        }
-                        IndexedBlob ib = card.getIndexedBlob(aid, decShareName);
-                        if (ib.getIndex() < 1 || ib.getIndex() > tparams.getParties()) {
-                            throw new ProtocolException("Indexed blob index mismatch");
-                        }
-                        decBlobs.add(ib);
-
-                        ib = card.getIndexedBlob(aid, signShareName);
-                        if (ib.getIndex() < 1 || ib.getIndex() > tparams.getParties()) {
-                            throw new ProtocolException("Indexed blob index mismatch");
-                        }
-                        signBlobs.add(ib);
-                        break;
-                    } catch (ProtocolException e) {
-                        throw e;
-                    } catch (Exception e) {
-                        if (++retryCount == maxTries) throw e;
-                    }
-                }
-            }
+            readShares(tparams, decBlobs, signBlobs);
 
             dec = new RecoverDecryption(decBlobs, tparams, args.doProvable.value());
+            dec.prepare(abb.getNumberOfBallots());
+            signer = new ShoupSigning(signBlobs, tparams, new NativeRnd());
+        } else if (args.desmedt.isSet()) {
+            ThresholdParameters tparams = new ThresholdParameters(args.sn.value(), args.sm.value());
+            Set<IndexedBlob> decBlobs = new HashSet<>();
+            Set<IndexedBlob> signBlobs = new HashSet<>();
+            readShares(tparams, decBlobs, signBlobs);
+
+            dec = new DesmedtDecryption(decBlobs, tparams, args.doProvable.value());
+            dec.prepare(abb.getNumberOfBallots());
             signer = new ShoupSigning(signBlobs, tparams, new NativeRnd());
         }
         console.println(Msg.m_protocol_init_ok);
@@ -142,106 +124,184 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
         console.println();
         console.println(Msg.m_dec_start);
         Path out = args.outputPath.value();
-        ElectionResult result = processVotes(abb, dec, candidates, districts,
-                args.doProvable.value(), args.checkDecodable.value(), ctx.args.threads.value());
-        console.println(Msg.m_dec_done);
-
-        console.println();
-        console.println(M.m_out_start, out);
+        // the proofs and the invalid votes are written during decryption
         Files.createDirectory(out);
+        ElectionResult result = new ElectionResult(abb.getElection(), candidates, districts,
+                args.doProvable.value());
+        boolean done = false;
+        try {
+            result.openOutput(out, args.binaryProof.value(), tool);
+            processVotes(abb, dec, result, args.checkDecodable.value(), ctx.args.threads.value());
+            console.println(Msg.m_dec_done);
 
-        console.println(Msg.m_out_tally);
-        result.outputTally(out, signer);
+            console.println();
+            console.println(M.m_out_start, out);
 
-        if (args.doProvable.value()) {
-            console.println(Msg.m_out_proof);
-            result.outputProof(out);
-        }
+            console.println(Msg.m_out_tally);
+            result.outputTally(out, signer);
+
+            if (args.doProvable.value()) {
+                console.println(Msg.m_out_proof);
+                result.outputProof();
+            }
 
-        console.println(Msg.m_out_invalid);
-        result.outputInvalid(out);
+            console.println(Msg.m_out_invalid);
+            result.outputInvalid();
+            done = true;
+        } finally {
+            if (!done) {
+                // remove the partial output, so that the decryption can be run again
+                result.closeOutput();
+                Util.deleteRecursively(out);
+            }
+        }
 
         console.println(M.m_out_done);
 
         return true;
     }
 
-    private ElectionResult processVotes(AnonymousBallotBox abb, DecryptionProtocol dec,
-            CandidateList candidates, DistrictList districts, boolean withProof,
-            boolean checkDecodable, int threadCount) throws Exception {
-        ElectionResult result =
-                new ElectionResult(abb.getElection(), candidates, districts, withProof);
-        // WorkerFactory consumer = new WorkerFactory(getDecConsumer(dec, result));
-
-        ExecutorService ioExecutor = Executors.newFixedThreadPool(3);
-        CompletionService<Void> ioCompService = new ExecutorCompletionService<>(ioExecutor);
-
-        ExecutorService decExecutor;
+    /**
+     * Decrypt and tally the votes in a pipeline. A reader thread groups the votes into batches,
+     * the decryption workers decrypt the batches and tally them in their own shards, and the
+     * result worker collects the proofs and the invalid votes. The queues between the stages are
+     * bounded, so that a stage that is ahead blocks until the next stage catches up.
+     */
+    private void processVotes(AnonymousBallotBox abb, DecryptionProtocol dec,
+            ElectionResult result, boolean checkDecodable, int threadCount) throws Exception {
         threadCount = threadCount > 0 ? threadCount : 1;
-        decExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
-                new ArrayBlockingQueue<>(threadCount * 2));
-
-        WorkManager manager = new WorkManager(abb, getDecConsumer(dec, result, checkDecodable),
-                decExecutor, result);
-        ioCompService.submit(manager);
-        ioCompService
-                .submit(result.getResultWorker(abb.getNumberOfBallots(), console, ctx.reporter));
+        BlockingQueue<List<Vote>> batches =
+                new ArrayBlockingQueue<>(threadCount * QUEUED_BATCHES_PER_THREAD);
+        AtomicInteger running = new AtomicInteger(threadCount);
+        BatchConsumer consumer = getDecConsumer(dec, checkDecodable);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount + 2);
+        CompletionService<Void> compService = new ExecutorCompletionService<>(executor);
+        compService.submit(new Reader(abb, batches, threadCount));
+        for (int i = 0; i < threadCount; i++) {
+            compService.submit(new Decryptor(batches, consumer, result, running));
+        }
+        compService.submit(result.getResultWorker(abb.getNumberOfBallots(), console, ctx.reporter));
 
         try {
-            for (int done = 0; done < 2; done++) {
-                ioCompService.take().get();
+            for (int done = 0; done < threadCount + 2; done++) {
+                compService.take().get();
             }
+        } catch (ExecutionException e) {
+            // a failed stage aborts the decryption, report the reason of the failure
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
         } finally {
-            ioExecutor.shutdown();
-            decExecutor.shutdown();
+            // interrupts the stages blocked on the queues if any of the stages has failed and
+            // waits for the stages to stop writing the output
+            executor.shutdownNow();
+            executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         }
-
-        return result;
     }
 
-    private Consumer<Vote> getDecConsumer(DecryptionProtocol dec, ElectionResult result,
-            boolean checkDecodable) {
-        return (vote) -> {
-            byte[] msg = vote.getVote();
-            // as a defensive measure, assume that the message is not decodable.
-            boolean isCorrect = false;
-            ElGamalDecryptionProof dp;
-            if (checkDecodable) {
-                // decodability check of the ciphertexts is explicitly required
+    /**
+     * Read the decryption and signing key shares of the threshold number of card holders.
+     *
+     * @param tparams Threshold parameters.
+     * @param decBlobs Set to add the decryption key shares to.
+     * @param signBlobs Set to add the signing key shares to.
+     * @throws Exception When reading the cards fails or the shares are not correct.
+     */
+    private void readShares(ThresholdParameters tparams, Set<IndexedBlob> decBlobs,
+            Set<IndexedBlob> signBlobs) throws Exception {
+        byte[] aid = new byte[] {0x01};
+        byte[] decShareName = new byte[] {0x44, 0x45, 0x43};
+        byte[] signShareName = new byte[] {0x53, 0x49, 0x47, 0x4E};
+        Cards cards = ctx.card.createCards();
+        if (!ctx.card.isPluggableService()) {
+            for (int i = 0; i < tparams.getParties(); i++) {
+                cards.addCard(String.valueOf(i));
+            }
+        }
+        for (int i = 0; i < tparams.getThreshold(); i++) {
+            int retryCount = 0;
+            int maxTries = 2;
+            while (true) {
                 try {
-                    if (dec.checkCorrectness(msg) == CiphertextCorrectness.VALID) {
-                        // the ciphertext is correctly encoded
-                        isCorrect = true;
+                    Card card;
+                    if (ctx.card.isPluggableService()) {
+                        card = ctx.card.createCard("-1");
+                        cards.initUnprocessedCard(card);
                     } else {
-                        // ciphertext is not correctly encoded
+                        card = cards.getCard(i);
                     }
+                    IndexedBlob ib = card.getIndexedBlob(aid, decShareName);
+                    if (ib.getIndex() < 1 || ib.getIndex() > tparams.getParties()) {
+                        throw new ProtocolException("Indexed blob index mismatch");
+                    }
+                    decBlobs.add(ib);
+
+                    ib = card.getIndexedBlob(aid, signShareName);
+                    if (ib.getIndex() < 1 || ib.getIndex() > tparams.getParties()) {
+                        throw new ProtocolException("Indexed blob index mismatch");
+                    }
+                    signBlobs.add(ib);
+                    break;
                 } catch (ProtocolException e) {
-                    // catch the exception, but omit the stack-trace as it may contain unique
-                    // information about why the correctness verification failed. This unique
-                    // information could be used to connect the ballot with a voter.
+                    throw e;
+                } catch (Exception e) {
+                    if (++retryCount == maxTries) throw e;
                 }
-            } else {
-                // if decodability check is not explicitly required, then assume that the message is
-                // decodable. This assumption holds when the checks are done in previous steps (i.e.
-                // during processing of the votes).
-                isCorrect = true;
             }
-            if (isCorrect) {
-                try {
-                    dp = dec.decryptMessage(msg);
-                    vote.setProof(dp);
-                } catch (Exception e) {
-                    // catch the exception, but omit the stack-trace as it may contain identifiable
-                    // information about the error. The possible reasons for decryption failure are
-                    // different padding errors.
+        }
+    }
+
+    private BatchConsumer getDecConsumer(DecryptionProtocol dec, boolean checkDecodable) {
+        return (batch) -> {
+            List<Vote> correct = new ArrayList<>(batch.size());
+            for (Vote vote : batch) {
+                // as a defensive measure, assume that the message is not decodable.
+                boolean isCorrect = false;
+                if (checkDecodable) {
+                    // decodability check of the ciphertexts is explicitly required
+                    try {
+                        if (dec.checkCorrectness(vote.getVote()) == CiphertextCorrectness.VALID) {
+                            // the ciphertext is correctly encoded
+                            isCorrect = true;
+                        } else {
+                            // ciphertext is not correctly encoded
+                        }
+                    } catch (ProtocolException e) {
+                        // catch the exception, but omit the stack-trace as it may contain unique
+                        // information about why the correctness verification failed. This unique
+                        // information could be used to connect the ballot with a voter.
+                    }
+                } else {
+                    // if decodability check is not explicitly required, then assume that the
+                    // message is decodable. This assumption holds when the checks are done in
+                    // previous steps (i.e. during processing of the votes).
+                    isCorrect = true;
                 }
+                if (isCorrect) {
+                    correct.add(vote);
+                }
+            }
+            byte[][] msgs = new byte[correct.size()][];
+            for (int i = 0; i < msgs.length; i++) {
+                msgs[i] = correct.get(i).getVote();
+            }
+            // the protocol leaves the votes which are not correctly padded undecrypted, they are
+            // counted as invalid. Any other failure aborts the decryption, as otherwise the valid
+            // votes of the batch would be counted as invalid.
+            ElGamalDecryptionProof[] dps = dec.decryptMessages(msgs);
+            for (int i = 0; i < dps.length; i++) {
+                correct.get(i).setProof(dps[i]);
             }
-            // the vote is added to the result even if it is not correctly encoded - it is counted
-            // towards the invalid vote count
-            result.addVote(vote);
         };
     }
 
+    /**
+     * BatchConsumer decrypts a batch of votes, setting the proof of every vote that is decrypted.
+     */
+    @FunctionalInterface
+    private interface BatchConsumer {
+        void accept(List<Vote> batch) throws ProtocolException, IOException;
+    }
+
     private void verifyAbb(AnonymousBallotBox abb, DistrictList districts) {
         abb.getDistricts().forEach((d, pMap) -> {
             District dist = districts.getDistricts().get(d);
@@ -265,6 +325,7 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
         Arg<Path> districts = Arg.aPath(Msg.d_districts, true, false);
         Arg<Path> outputPath = Arg.aPath(Msg.arg_out, false, null);
         Arg<Boolean> doProvable = Arg.aFlag(Msg.d_provable).setDefault(true);
+        Arg<Boolean> binaryProof = Arg.aFlag(Msg.d_binary_proof).setDefault(false);
         Arg<Boolean> checkDecodable = Arg.aFlag(Msg.d_check_decodable).setDefault(false);
 
         // protocols
@@ -273,7 +334,11 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
         Arg<Integer> dn = Arg.anInt(Msg.arg_parties);
         Arg<Args> recover = new Arg.Tree(Msg.d_recover, dm, dn).setOptional();
 
-        Arg.Tree protocol = new Arg.Tree(Msg.d_protocol, recover).setExclusive();
+        Arg<Integer> sm = Arg.anInt(Msg.arg_threshold);
+        Arg<Integer> sn = Arg.anInt(Msg.arg_parties);
+        Arg<Args> desmedt = new Arg.Tree(Msg.d_desmedt, sm, sn).setOptional();
+
+        Arg.Tree protocol = new Arg.Tree(Msg.d_protocol, recover, desmedt).setExclusive();
 
         public DecryptArgs() {
             super();
@@ -285,48 +350,91 @@ public class DecryptTool implements Tool.Runner<DecryptArgs> {
             args.add(districts);
             args.add(outputPath);
             args.add(doProvable);
+            args.add(binaryProof);
             args.add(checkDecodable);
             args.add(protocol);
         }
     }
 
-    private class WorkManager implements Callable<Void> {
+    /**
+     * Reader enumerates the votes of the ballot box in batches. After the last batch it adds an
+     * end marker for every decryption worker.
+     */
+    private static class Reader implements Callable<Void> {
 
         private final AnonymousBallotBox abb;
-        private final Consumer<Vote> consumer;
-        private final ExecutorService decExecutor;
-        private final ElectionResult result;
+        private final BlockingQueue<List<Vote>> batches;
+        private final int workerCount;
 
-        WorkManager(AnonymousBallotBox abb, Consumer<Vote> factory, ExecutorService decExecutor,
-                ElectionResult result) {
+        Reader(AnonymousBallotBox abb, BlockingQueue<List<Vote>> batches, int workerCount) {
             this.abb = abb;
-            this.consumer = factory;
-            this.decExecutor = decExecutor;
-            this.result = result;
+            this.batches = batches;
+            this.workerCount = workerCount;
         }
 
         @Override
         public Void call() throws Exception {
-            abb.getDistricts().forEach((d, sMap) -> sMap.forEach((s, qMap) -> {
-                qMap.forEach((q, cList) -> cList.forEach(c -> {
-                    boolean taskAdded = false;
-                    do {
-                        try {
-                            decExecutor.execute(() -> consumer.accept(new Vote(d, s, q, c)));
-                            taskAdded = true;
-                        } catch (RejectedExecutionException e) {
-                            try {
-                                Thread.sleep(20);
-                            } catch (InterruptedException e1) {
-                                log.warn("Unexpected interruption", e1);
+            List<Vote> batch = new ArrayList<>(BATCH_SIZE);
+            for (Map.Entry<String, Map<String, Map<String, List<byte[]>>>> d : abb.getDistricts()
+                    .entrySet()) {
+                for (Map.Entry<String, Map<String, List<byte[]>>> s : d.getValue().entrySet()) {
+                    for (Map.Entry<String, List<byte[]>> q : s.getValue().entrySet()) {
+                        for (byte[] c : q.getValue()) {
+                            batch.add(new Vote(d.getKey(), s.getKey(), q.getKey(), c));
+                            if (batch.size() == BATCH_SIZE) {
+                                batches.put(batch);
+                                batch = new ArrayList<>(BATCH_SIZE);
                             }
                         }
-                    } while (!taskAdded);
-                }));
-            }));
-            decExecutor.shutdown();
-            decExecutor.awaitTermination(1, TimeUnit.DAYS);
-            result.setEot();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.put(batch);
+            }
+            for (int i = 0; i < workerCount; i++) {
+                batches.put(END_OF_VOTES);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Decryptor decrypts batches of votes in a single call to the protocol and tallies them in its
+     * own shard of the result. The last worker to finish sets the end marker of the result.
+     */
+    private static class Decryptor implements Callable<Void> {
+
+        private final BlockingQueue<List<Vote>> batches;
+        private final BatchConsumer consumer;
+        private final ElectionResult result;
+        private final ElectionResult.Shard shard;
+        private final AtomicInteger running;
+
+        Decryptor(BlockingQueue<List<Vote>> batches, BatchConsumer consumer,
+                ElectionResult result, AtomicInteger running) {
+            this.batches = batches;
+            this.consumer = consumer;
+            this.result = result;
+            this.shard = result.newShard();
+            this.running = running;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            List<Vote> batch;
+            while ((batch = batches.take()) != END_OF_VOTES) {
+                consumer.accept(batch);
+                for (Vote vote : batch) {
+                    // the vote is added to the result even if it is not correctly encoded - it is
+                    // counted towards the invalid vote count
+                    shard.add(vote);
+                }
+                shard.flush();
+            }
+            if (running.decrementAndGet() == 0) {
+                result.setEot();
+            }
             return null;
         }
     }
@@ -1,5 +1,6 @@
 package ee.ivxv.key.tool;
 
+import ee.ivxv.common.asn1.RSAParams;
 import ee.ivxv.common.cli.Arg;
 import ee.ivxv.common.cli.Args;
 import ee.ivxv.common.cli.Tool;
@@ -7,6 +8,7 @@ import ee.ivxv.common.crypto.Plaintext;
 import ee.ivxv.common.crypto.SignatureUtil;
 import ee.ivxv.common.crypto.elgamal.ElGamalCiphertext;
 import ee.ivxv.common.crypto.elgamal.ElGamalDecryptionProof;
+import ee.ivxv.common.crypto.elgamal.ElGamalPrivateKey;
 import ee.ivxv.common.crypto.elgamal.ElGamalPublicKey;
 import ee.ivxv.common.crypto.rnd.NativeRnd;
 import ee.ivxv.common.crypto.rnd.Rnd;
@@ -35,8 +37,15 @@ import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.smartcardio.CardException;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.cert.X509CertificateHolder;
@@ -59,6 +68,7 @@ public class TestKeyTool implements Tool.Runner<TestKeyArgs> {
         Arg<Integer> dm = Arg.anInt(Msg.arg_threshold);
         Arg<Integer> dn = Arg.anInt(Msg.arg_parties);
         Arg<Boolean> fm = Arg.aFlag(Msg.arg_fastmode).setDefault(true);
+        Arg<Boolean> concurrent = Arg.aFlag(Msg.arg_concurrent).setDefault(false);
 
         public TestKeyArgs() {
             super();
@@ -67,6 +77,7 @@ public class TestKeyTool implements Tool.Runner<TestKeyArgs> {
             args.add(dm);
             args.add(dn);
             args.add(fm);
+            args.add(concurrent);
         }
     }
 
@@ -76,9 +87,8 @@ public class TestKeyTool implements Tool.Runner<TestKeyArgs> {
             Util.UNIT_SEPARATOR, "PARTY", Util.UNIT_SEPARATOR, "NAME SURNAME"));
 
     static void allRecoverTests(I18nConsole console, Logger log, List<Set<IndexedBlob>> quorums,
-            ElGamalPublicKey pub, ThresholdParameters tparams, Rnd rnd, Plaintext message)
-            throws ProtocolException, IOException {
-        console.println(Msg.m_test_decryption_key);
+            ElGamalPrivateKey[] shares, ElGamalPublicKey pub, ThresholdParameters tparams, Rnd rnd,
+            Plaintext message, ExecutorService executor) throws Exception {
         ElGamalCiphertext c;
         try {
             c = pub.encrypt(message, rnd);
@@ -88,23 +98,55 @@ public class TestKeyTool implements Tool.Runner<TestKeyArgs> {
             throw new MessageException(Msg.e_testencryption_fail);
         }
 
+        List<Future<Long>> results = new ArrayList<>();
         for (Set<IndexedBlob> quorum : quorums) {
-            recoverTest(console, log, quorum, c, tparams, message);
+            results.add(executor.submit(timed(() -> recoverTest(log, quorum,
+                    selectShares(shares, quorum), c, tparams, message))));
         }
+        printResults(console, quorums, results, Msg.m_test_decryption_key);
     }
 
     static void allShoupTests(I18nConsole console, Logger log, List<Set<IndexedBlob>> quorums,
-            RSAPublicKey rsaPub, ThresholdParameters tparams, Rnd rnd, Plaintext message)
-            throws ProtocolException {
-        console.println(Msg.m_test_signature_key);
+            RSAParams[] shares, RSAPublicKey rsaPub, ThresholdParameters tparams, Rnd rnd,
+            Plaintext message, ExecutorService executor) throws Exception {
+        List<Future<Long>> results = new ArrayList<>();
         for (Set<IndexedBlob> quorum : quorums) {
-            shoupTest(console, log, quorum, rsaPub, tparams, rnd, message);
+            results.add(executor.submit(timed(() -> shoupTest(log, quorum,
+                    selectShares(shares, quorum), rsaPub, tparams, rnd, message))));
         }
+        printResults(console, quorums, results, Msg.m_test_signature_key);
     }
 
     static void allTests(I18nConsole console, Logger log, CardService cardService,
             ThresholdParameters tparams, Rnd rnd, ElGamalPublicKey pub, RSAPublicKey rsaPub)
             throws ProtocolException, IOException {
+        allTests(console, log, cardService, tparams, rnd, pub, rsaPub, false);
+    }
+
+    /**
+     * Test the decryption and signing key shares with several quorums of the cards.
+     * <p>
+     * The shares are read from the cards and decoded once for all the quorums. The quorums are
+     * tested one after another or, if requested, all at once. In the latter case the random
+     * source is shared through a synchronized wrapper, as the sources are not safe for concurrent
+     * use in general, e.g. {@code CombineRnd}. The results are reported in the order of the
+     * quorums, with the time the test of each quorum took.
+     * 
+     * @param console
+     * @param log
+     * @param cardService
+     * @param tparams
+     * @param rnd
+     * @param pub
+     * @param rsaPub
+     * @param concurrent Whether to test the quorums concurrently.
+     * @throws ProtocolException
+     * @throws IOException When any of the tests fails.
+     */
+    static void allTests(I18nConsole console, Logger log, CardService cardService,
+            ThresholdParameters tparams, Rnd rnd, ElGamalPublicKey pub, RSAPublicKey rsaPub,
+            boolean concurrent) throws ProtocolException, IOException {
+        ExecutorService executor = null;
         try {
             Cards cards = cardService.createCards();
             if (!cardService.isPluggableService()) {
@@ -150,11 +192,126 @@ public class TestKeyTool implements Tool.Runner<TestKeyArgs> {
                     QuorumUtil.getQuorumList(decList, tparams.getThreshold());
             List<Set<IndexedBlob>> shoupQuorums =
                     QuorumUtil.getQuorumList(signList, tparams.getThreshold());
+            ElGamalPrivateKey[] decShares = decodeDecryptionShares(decList, tparams);
+            RSAParams[] signShares = decodeSigningShares(signList, tparams);
 
-            allRecoverTests(console, log, recoverQuorums, pub, tparams, rnd, TEST_MESSAGE);
-            allShoupTests(console, log, shoupQuorums, rsaPub, tparams, rnd, TEST_MESSAGE);
+            if (concurrent) {
+                rnd = new SynchronizedRnd(rnd);
+                int tasks = Math.max(recoverQuorums.size(), shoupQuorums.size());
+                executor = Executors.newFixedThreadPool(
+                        Math.min(tasks, Runtime.getRuntime().availableProcessors()));
+            } else {
+                executor = Executors.newSingleThreadExecutor();
+            }
+            allRecoverTests(console, log, recoverQuorums, decShares, pub, tparams, rnd,
+                    TEST_MESSAGE, executor);
+            allShoupTests(console, log, shoupQuorums, signShares, rsaPub, tparams, rnd,
+                    TEST_MESSAGE, executor);
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * SynchronizedRnd serializes the access to a random source shared by concurrent tests.
+     */
+    private static class SynchronizedRnd implements Rnd {
+        private final Rnd rnd;
+
+        SynchronizedRnd(Rnd rnd) {
+            this.rnd = rnd;
+        }
+
+        @Override
+        public synchronized int read(byte[] buf, int offset, int len) throws IOException {
+            return rnd.read(buf, offset, len);
+        }
+
+        @Override
+        public synchronized int mustRead(byte[] buf, int offset, int len) throws IOException {
+            return rnd.mustRead(buf, offset, len);
+        }
+
+        @Override
+        public boolean isFinite() {
+            return rnd.isFinite();
+        }
+
+        @Override
+        public synchronized void close() {
+            rnd.close();
+        }
+    }
+
+    private static ElGamalPrivateKey[] decodeDecryptionShares(List<IndexedBlob> blobs,
+            ThresholdParameters tparams) throws ProtocolException {
+        ElGamalPrivateKey[] shares = new ElGamalPrivateKey[tparams.getParties()];
+        for (IndexedBlob blob : blobs) {
+            try {
+                shares[blob.getIndex() - 1] = new ElGamalPrivateKey(blob.getBlob());
+            } catch (IllegalArgumentException e) {
+                throw new ProtocolException(
+                        "Exception while parsing secret share: " + e.toString());
+            }
+        }
+        return shares;
+    }
+
+    private static RSAParams[] decodeSigningShares(List<IndexedBlob> blobs,
+            ThresholdParameters tparams) throws ProtocolException {
+        RSAParams[] shares = new RSAParams[tparams.getParties()];
+        for (IndexedBlob blob : blobs) {
+            try {
+                shares[blob.getIndex() - 1] = SignatureUtil.RSA.bytesToRSAParams(blob.getBlob());
+            } catch (RuntimeException e) {
+                throw new ProtocolException("Invalid key blob: " + e.toString());
+            }
+        }
+        return shares;
+    }
+
+    /**
+     * @return Returns the shares of the parties in the quorum, {@code null} for the others.
+     */
+    private static <T> T[] selectShares(T[] shares, Set<IndexedBlob> quorum) {
+        T[] res = Arrays.copyOf(shares, shares.length);
+        Arrays.fill(res, null);
+        for (IndexedBlob blob : quorum) {
+            res[blob.getIndex() - 1] = shares[blob.getIndex() - 1];
+        }
+        return res;
+    }
+
+    /**
+     * @return Returns the task which runs the test and returns the time it took in milliseconds.
+     */
+    private static Callable<Long> timed(Callable<Void> test) {
+        return () -> {
+            long start = System.nanoTime();
+            test.call();
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        };
+    }
+
+    private static void printResults(I18nConsole console, List<Set<IndexedBlob>> quorums,
+            List<Future<Long>> results, Msg header) throws Exception {
+        console.println(header);
+        for (int i = 0; i < quorums.size(); i++) {
+            long time;
+            try {
+                time = results.get(i).get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+            console.println(Msg.m_quorum_test_ok, quorums.get(i));
+            console.println(Msg.m_quorum_test_time, quorums.get(i), time);
         }
     }
 
@@ -186,39 +343,40 @@ public class TestKeyTool implements Tool.Runner<TestKeyArgs> {
         return key;
     }
 
-    static void recoverTest(I18nConsole console, Logger log, Set<IndexedBlob> quorum,
+    static Void recoverTest(Logger log, Set<IndexedBlob> quorum, ElGamalPrivateKey[] shares,
             ElGamalCiphertext c, ThresholdParameters tparams, Plaintext message)
             throws ProtocolException, IOException {
-        RecoverDecryption dec = new RecoverDecryption(quorum, tparams);
-        ElGamalDecryptionProof decProof = dec.decryptMessage(c.getBytes());
+        RecoverDecryption dec = new RecoverDecryption(shares, tparams, true);
         boolean res = false;
         try {
+            // a wrong share gives a random message, which is usually not correctly padded
+            ElGamalDecryptionProof decProof = dec.decryptMessage(c.getBytes());
             res = decProof.getDecrypted().equals(message);
         } catch (IllegalArgumentException e) {
             e.printStackTrace();
         }
         if (res) {
-            console.println(Msg.m_quorum_test_ok, quorum);
             log.debug("Key usage test succeeded with quorum: {}", quorum);
         } else {
             log.debug("Key usage test failed with quorum: {}", quorum);
             throw new MessageException(Msg.e_quorum_test_fail, quorum);
         }
+        return null;
     }
 
-    static void shoupTest(I18nConsole console, Logger log, Set<IndexedBlob> quorum,
+    static Void shoupTest(Logger log, Set<IndexedBlob> quorum, RSAParams[] shares,
             RSAPublicKey rsaPub, ThresholdParameters tparams, Rnd rnd, Plaintext message)
             throws ProtocolException {
-        ShoupSigning shoupSign = new ShoupSigning(quorum, tparams, rnd);
+        ShoupSigning shoupSign = new ShoupSigning(shares, tparams, rnd);
         byte[] signature = shoupSign.sign(message.getMessage());
         boolean res = SignatureUtil.RSA.RSA_PSS.verifySignature(message.getMessage(), rsaPub, signature);
         if (res) {
-            console.println(Msg.m_quorum_test_ok, quorum);
             log.debug("Signature creation test succeeded with quorum: {}", quorum);
         } else {
             log.debug("Signature creation test failed with quorum: {}", quorum);
             throw new MessageException(Msg.e_quorum_test_fail, quorum);
         }
+        return null;
     }
 
     static boolean testReaders(I18nConsole console, Logger log, KeyContext ctx, TestKeyArgs args)
@@ -238,7 +396,7 @@ public class TestKeyTool implements Tool.Runner<TestKeyArgs> {
         } catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
             throw new ProtocolException("Invalid RSA encoding", e);
         }
-        allTests(console, log, ctx.card, tparams, rnd, pub, rsaPub);
+        allTests(console, log, ctx.card, tparams, rnd, pub, rsaPub, args.concurrent.value());
         return true;
     }
 
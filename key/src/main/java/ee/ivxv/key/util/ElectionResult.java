@@ -1,26 +1,34 @@
 package ee.ivxv.key.util;
 
+import ee.ivxv.common.crypto.elgamal.ElGamalDecryptionProof;
 import ee.ivxv.common.model.CandidateList;
 import ee.ivxv.common.model.DistrictList;
-import ee.ivxv.common.model.Proof;
+import ee.ivxv.common.model.Proof.ProofJson;
 import ee.ivxv.common.service.console.Progress;
 import ee.ivxv.common.service.report.Reporter;
 import ee.ivxv.common.util.I18nConsole;
 import ee.ivxv.common.util.Json;
+import ee.ivxv.common.util.JsonListWriter;
+import ee.ivxv.common.util.ListWriter;
+import ee.ivxv.common.util.ProofBinary;
+import ee.ivxv.common.util.ToolHelper;
 import ee.ivxv.common.util.Util;
-import ee.ivxv.key.model.Invalid;
 import ee.ivxv.key.model.Tally;
 import ee.ivxv.key.model.Vote;
 import ee.ivxv.key.protocol.SigningProtocol;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.LinkedBlockingQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,17 +40,28 @@ public class ElectionResult {
 
     private static final String INVALID_VOTE_PATH_TMPL = "invalid";
     private static final String PROOF_PATH_TMPL = "proof";
+    private static final String PROOF_BIN_PATH_TMPL = "proof.bin";
+    private static final String INVALID_FIELD = "invalid";
+    private static final String PROOFS_FIELD = "proofs";
     private static final String TALLY_SUFFIX = ".tally";
     private static final String SIGNATURE_SUFFIX = TALLY_SUFFIX + ".signature";
+    private static final int QUEUED_BATCHES = 256;
 
     private final String electionName;
     private final CandidateList candidates;
     private final DistrictList districts;
     private final boolean withProof;
-    private final BlockingQueue<Object> votes = new LinkedBlockingQueue<>();
+    private final TallyIndex index;
+    private final BlockingQueue<Object> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+    private final List<Shard> shards = new ArrayList<>();
     private final Map<String, Tally> tallySet;
-    private final Proof proof;
-    private final Invalid invalid;
+    private ToolHelper tool;
+    private ListWriter<ProofJson> proofOut;
+    private Path proofPath;
+    private MessageDigest proofDigest;
+    private ListWriter<Vote> invalidOut;
+    private Path invalidPath;
+    private MessageDigest invalidDigest;
 
     /**
      * Initialize using values.
@@ -59,16 +78,17 @@ public class ElectionResult {
         this.candidates = candidates;
         this.districts = districts;
         this.withProof = withProof;
+        this.index = new TallyIndex(candidates, districts);
         this.tallySet = new HashMap<>();
-        this.proof = withProof ? new Proof(electionName) : null;
-        this.invalid = new Invalid(electionName);
     }
 
     /**
-     * Get the worker for computing the tally.
+     * Get the worker for collecting the result.
      * <p>
-     * The worker works in parallel to decryptions and continuously computes the tally. It separates
-     * votes which are invalid or are given for invalid candidates
+     * The worker works in parallel to decryptions and writes the proofs and the invalid votes
+     * which the {@link Shard}s have separated into the files opened by
+     * {@link #openOutput(Path, boolean, ToolHelper)}. After the end marker it merges the tallies
+     * of all the shards.
      *
      * @param voteCount
      * @param console
@@ -80,22 +100,28 @@ public class ElectionResult {
     }
 
     /**
-     * Set the end of incoming votes.
-     * <p>
-     * After the last vote has been added, set the end marker indicating the worker thread to stop
-     * waiting for incoming votes.
+     * Create a new shard for tallying the votes of a single decryption worker.
+     *
+     * @return
      */
-    public void setEot() {
-        votes.add(Util.EOT);
+    public Shard newShard() {
+        Shard shard = new Shard();
+        synchronized (shards) {
+            shards.add(shard);
+        }
+        return shard;
     }
 
     /**
-     * Add a vote for worker to process.
+     * Set the end of incoming votes.
+     * <p>
+     * After all the shards have been flushed for the last time, set the end marker indicating the
+     * worker thread to stop waiting for incoming votes.
      *
-     * @param vote
+     * @throws InterruptedException When interrupted while waiting for the worker.
      */
-    public void addVote(Vote vote) {
-        votes.add(vote);
+    public void setEot() throws InterruptedException {
+        batches.put(Util.EOT);
     }
 
     /**
@@ -106,37 +132,189 @@ public class ElectionResult {
      * @throws Exception When writing or communication with card tokens fail.
      */
     public void outputTally(Path outDir, SigningProtocol signer) throws Exception {
-        for (Map.Entry<String, Tally> tally : tallySet.entrySet()) {
+        List<String> questions = new ArrayList<>(tallySet.keySet());
+        byte[][] tallies = new byte[questions.size()][];
+        for (int i = 0; i < tallies.length; i++) {
             ByteArrayOutputStream in = new ByteArrayOutputStream();
-            Json.write(tally.getValue(), in);
-            byte[] signature = signer.sign(in.toByteArray());
-            Files.write(outDir.resolve(Paths.get(tally.getKey() + TALLY_SUFFIX)), in.toByteArray());
-            Files.write(outDir.resolve(Paths.get(tally.getKey() + SIGNATURE_SUFFIX)), signature);
+            Json.write(tallySet.get(questions.get(i)), in);
+            tallies[i] = in.toByteArray();
+        }
+        // sign the tallies of all the questions in a single batch
+        byte[][] signatures = signer.signMessages(tallies);
+        for (int i = 0; i < tallies.length; i++) {
+            String question = questions.get(i);
+            Files.write(outDir.resolve(Paths.get(question + TALLY_SUFFIX)), tallies[i]);
+            Files.write(outDir.resolve(Paths.get(question + SIGNATURE_SUFFIX)), signatures[i]);
+        }
+    }
+
+    /**
+     * Open the files of the proofs and the invalid votes in the output directory. The result
+     * worker writes the files while the votes are decrypted and only the current batch is held in
+     * memory. The checksums of the files are computed while writing.
+     *
+     * @param outDir Output directory to store the proofs and the invalid votes.
+     * @param binaryProof Whether to write the proofs in the binary format of {@link ProofBinary}
+     *        instead of JSON.
+     * @param tool Helper for computing and writing the checksums.
+     * @throws IOException When opening the files fails.
+     */
+    public void openOutput(Path outDir, boolean binaryProof, ToolHelper tool) throws IOException {
+        this.tool = tool;
+        invalidPath = outDir.resolve(Util.prefixedPath(electionName, INVALID_VOTE_PATH_TMPL));
+        invalidDigest = tool.createChecksumDigest();
+        invalidOut = new JsonListWriter<>(invalidPath, electionName, INVALID_FIELD, invalidDigest);
+        if (withProof) {
+            proofDigest = tool.createChecksumDigest();
+            if (binaryProof) {
+                proofPath = outDir.resolve(Util.prefixedPath(electionName, PROOF_BIN_PATH_TMPL));
+                proofOut = new ProofBinary.Writer(proofPath, electionName, proofDigest);
+            } else {
+                proofPath = outDir.resolve(Util.prefixedPath(electionName, PROOF_PATH_TMPL));
+                proofOut = new JsonListWriter<>(proofPath, electionName, PROOFS_FIELD, proofDigest);
+            }
         }
     }
 
     /**
-     * Output proofs of correct decryptions.
+     * Finish the file of the proofs of correct decryptions and output its checksum.
      *
-     * @param outDir Output directory to store the proofs file.
      * @throws Exception When writing the proofs file fails.
      */
-    public void outputProof(Path outDir) throws Exception {
+    public void outputProof() throws Exception {
         if (!withProof) {
             return;
         }
-        Json.write(proof, outDir.resolve(Util.prefixedPath(electionName, PROOF_PATH_TMPL)));
+        ListWriter<ProofJson> out = proofOut;
+        proofOut = null;
+        out.close();
+        tool.writeChecksumFile(proofPath, proofDigest);
     }
 
     /**
-     * Output invalid votes.
+     * Finish the file of the invalid votes and output its checksum.
      *
-     * @param outDir Output directory to store the invalid votes.
      * @throws Exception When writing the file fails.
      */
-    public void outputInvalid(Path outDir) throws Exception {
-        Json.write(invalid,
-                outDir.resolve(Util.prefixedPath(electionName, INVALID_VOTE_PATH_TMPL)));
+    public void outputInvalid() throws Exception {
+        ListWriter<Vote> out = invalidOut;
+        invalidOut = null;
+        out.close();
+        tool.writeChecksumFile(invalidPath, invalidDigest);
+    }
+
+    /**
+     * Close the files of the proofs and the invalid votes that have not been finished by
+     * {@link #outputProof()} and {@link #outputInvalid()}. Used when the decryption fails, the
+     * files are incomplete then.
+     */
+    public void closeOutput() {
+        for (ListWriter<?> out : new ListWriter<?>[] {proofOut, invalidOut}) {
+            if (out == null) {
+                continue;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.warn("Closing incomplete output failed: {}", e.getMessage());
+            }
+        }
+        proofOut = null;
+        invalidOut = null;
+    }
+
+    private void merge(Map<String, long[]> from, Map<String, long[]> to) {
+        from.forEach((q, counts) -> {
+            long[] total = to.computeIfAbsent(q, tmp -> new long[index.size()]);
+            for (int i = 0; i < counts.length; i++) {
+                total[i] += counts[i];
+            }
+        });
+    }
+
+    /**
+     * Shard tallies the votes of a single decryption worker.
+     * <p>
+     * The votes are counted in arrays of counters laid out by {@link TallyIndex}, one array for
+     * every question. A shard is not thread-safe, but the shards do not share any state and the
+     * workers do not contend for the tally. The proofs and the invalid votes are buffered until
+     * {@link #flush()} hands them to the result worker.
+     */
+    public class Shard {
+        private final Map<String, long[]> tallies = new HashMap<>();
+        private Batch pending = new Batch();
+        // the votes are enumerated by stations, resolve the station only when it changes
+        private String district;
+        private String station;
+        private int base;
+
+        private Shard() {
+            // Use ElectionResult.newShard()
+        }
+
+        /**
+         * Add a decrypted vote to the tally of the shard. Votes which are not decrypted or are
+         * given for invalid candidates are counted as invalid.
+         *
+         * @param vote
+         */
+        public void add(Vote vote) {
+            pending.count++;
+            if (!vote.getDistrict().equals(district) || !vote.getStation().equals(station)) {
+                base = index.getStation(vote.getDistrict(), vote.getStation());
+                district = vote.getDistrict();
+                station = vote.getStation();
+            }
+            int choice = -1;
+            if (vote.getProof() != null) {
+                // the message has been decrypted
+                choice = index.getChoice(district,
+                        vote.getProof().getDecrypted().getUTF8DecodedMessage());
+                if (choice < 0) {
+                    // the message was correctly decrypted, but this does not represent a valid
+                    // choice string
+                    log.warn("Choice is not correctly encoded: invalid vote");
+                }
+            } else {
+                // the message has not been decrypted. This can be
+                // caused by invalid padding, incorrect group elements etc. It was not decrypted
+                // to prevent any leaks about the key.
+                log.warn("Ciphertext not correctly encoded: invalid vote");
+            }
+            if (withProof && choice >= 0) {
+                // output proof of correct decryption only if it is requested and the choice
+                // string is valid. As the decryption proof also contains the whole encrypted
+                // message, then this may leak identifiable information
+                pending.proofs.add(vote.getProof());
+            }
+            if (choice < 0) {
+                pending.invalid.add(vote);
+                choice = index.getInvalid(district);
+            }
+            long[] counts =
+                    tallies.computeIfAbsent(vote.getQuestion(), q -> new long[index.size()]);
+            counts[base + choice]++;
+        }
+
+        /**
+         * Hand the proofs and the invalid votes added since the previous call to the result
+         * worker. Blocks while the result worker is behind.
+         *
+         * @throws InterruptedException When interrupted while waiting for the worker.
+         */
+        public void flush() throws InterruptedException {
+            if (pending.count == 0) {
+                return;
+            }
+            batches.put(pending);
+            pending = new Batch();
+        }
+    }
+
+    private static class Batch {
+        private final List<ElGamalDecryptionProof> proofs = new ArrayList<>();
+        private final List<Vote> invalid = new ArrayList<>();
+        private int count;
     }
 
     private class ResultWorker implements Callable<Void> {
@@ -152,83 +330,36 @@ public class ElectionResult {
         public Void call() throws Exception {
             Progress progress = console.startProgress(voteCount);
             Object obj;
-            while ((obj = votes.take()) != Util.EOT) {
-                progress.increase(1);
-                Vote vote;
-                if (obj instanceof Vote) {
-                    vote = (Vote) obj;
+            while ((obj = batches.take()) != Util.EOT) {
+                Batch batch;
+                if (obj instanceof Batch) {
+                    batch = (Batch) obj;
                 } else {
                     throw new IllegalArgumentException(
                             "Unexpected decryption result type: " + obj.getClass());
                 }
-                String choice = Tally.INVALID_VOTE_ID;
-                if (vote.getProof() != null) {
-                    // the message has been decrypted
-                    if (isValidChoice(vote)) {
-                        // the message contains a valid choice string.
-                        choice = getCandidateNumber(vote);
-                    } else {
-                        // the message was correctly decrypted, but this does not represent a valid
-                        // choice string
-                        log.warn("Choice is not correctly encoded: invalid vote");
+                if (withProof) {
+                    for (ElGamalDecryptionProof p : batch.proofs) {
+                        proofOut.add(new ProofJson(p));
                     }
-                } else {
-                    // the message has not been decrypted. This can be
-                    // caused by invalid padding, incorrect group elements etc. It was not decrypted
-                    // to prevent any leaks about the key.
-                    log.warn("Ciphertext not correctly encoded: invalid vote");
                 }
-                if (withProof && !choice.equals(Tally.INVALID_VOTE_ID)) {
-                    // output proof of correct decryption only if it is requested and the choice
-                    // string is valid. As the decryption proof also contains the whole encrypted
-                    // message, then this may leak identifiable information
-                    proof.addProof(vote.getProof());
+                for (Vote vote : batch.invalid) {
+                    invalidOut.add(vote);
                 }
-                if (choice.equals(Tally.INVALID_VOTE_ID)) {
-                    invalid.getInvalid().add(vote);
-                }
-                addVoteToTally(vote, choice);
+                progress.increase(batch.count);
+            }
+            // all the shards have been flushed before the end marker
+            Map<String, long[]> totals = new HashMap<>();
+            synchronized (shards) {
+                shards.forEach(shard -> merge(shard.tallies, totals));
             }
+            totals.forEach((q, counts) -> {
+                Tally tally = new Tally(electionName, candidates, districts);
+                index.fill(counts, tally);
+                tallySet.put(q, tally);
+            });
             progress.finish();
             return null;
         }
-
-        private String getCandidateNumber(Vote vote) {
-            String message = vote.getProof().getDecrypted().getUTF8DecodedMessage();
-            return message.split(Util.UNIT_SEPARATOR)[0];
-        }
-
-        private boolean isValidChoice(Vote vote) {
-            String voteStr = vote.getProof().getDecrypted().getUTF8DecodedMessage();
-            String[] voteParts = voteStr.split(Util.UNIT_SEPARATOR, 3);
-            if (voteParts.length != 3) {
-                return false;
-            }
-            Map<String, Map<String, Map<String, String>>> ds = candidates.getCandidates();
-            if (!ds.containsKey(vote.getDistrict())) {
-                return false;
-            }
-            Map<String, Map<String, String>> ps = ds.get(vote.getDistrict());
-            if (!ps.containsKey(voteParts[1])) {
-                return false;
-            }
-            Map<String, String> ids = ps.get(voteParts[1]);
-            if (!ids.containsKey(voteParts[0])) {
-                return false;
-            }
-            String name = ids.get(voteParts[0]);
-            if (!name.equals(voteParts[2])) {
-                return false;
-            }
-            return true;
-        }
-
-        private void addVoteToTally(Vote vote, String choice) {
-            tallySet.computeIfAbsent(vote.getQuestion(),
-                    q -> new Tally(electionName, candidates, districts)).getByParish()
-                    .get(vote.getDistrict()).get(vote.getStation())
-                    .compute(choice, (c, count) -> count + 1);
-        }
-
     }
 }
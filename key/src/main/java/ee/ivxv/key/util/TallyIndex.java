@@ -0,0 +1,133 @@
+package ee.ivxv.key.util;
+
+import ee.ivxv.common.model.CandidateList;
+import ee.ivxv.common.model.District;
+import ee.ivxv.common.model.DistrictList;
+import ee.ivxv.common.util.Util;
+import ee.ivxv.key.model.Tally;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TallyIndex maps the district, station and candidate identifiers of a tally to dense indices of
+ * a counter array.
+ * <p>
+ * Every station has a block of counters with one counter for every candidate of its district and
+ * one for the invalid votes, in the order of {@link Tally}. The index is resolved once from the
+ * candidate and district lists. Tallying a vote then takes a lookup of the whole choice string,
+ * instead of splitting it and walking the nested maps.
+ */
+class TallyIndex {
+    private final Map<String, DistrictIndex> districts = new LinkedHashMap<>();
+    private final int size;
+
+    /**
+     * Initialize using values.
+     *
+     * @param candidates Candidates list
+     * @param districts Districts list
+     */
+    TallyIndex(CandidateList candidates, DistrictList districts) {
+        int base = 0;
+        for (Map.Entry<String, District> d : districts.getDistricts().entrySet()) {
+            DistrictIndex di = new DistrictIndex(candidates.getCandidates().get(d.getKey()));
+            for (String s : d.getValue().getParish()) {
+                if (!di.stations.containsKey(s)) {
+                    di.stations.put(s, base);
+                    base += di.offsets.size();
+                }
+            }
+            this.districts.put(d.getKey(), di);
+        }
+        this.size = base;
+    }
+
+    /**
+     * @return The number of counters of a tally.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the index of the first counter of a station.
+     *
+     * @param district District identifier
+     * @param station Station identifier
+     * @return
+     * @throws IllegalArgumentException When the station is not in the districts list.
+     */
+    int getStation(String district, String station) {
+        DistrictIndex di = districts.get(district);
+        Integer base = di == null ? null : di.stations.get(station);
+        if (base == null) {
+            throw new IllegalArgumentException(
+                    "Unknown station " + station + " of district " + district);
+        }
+        return base;
+    }
+
+    /**
+     * Get the offset of the counter of a choice within the block of a station.
+     *
+     * @param district District identifier
+     * @param choice Decrypted choice string
+     * @return The offset or -1 if the choice string is not valid in the district.
+     */
+    int getChoice(String district, String choice) {
+        Integer offset = districts.get(district).choices.get(choice);
+        return offset == null ? -1 : offset;
+    }
+
+    /**
+     * Get the offset of the counter of the invalid votes within the block of a station.
+     *
+     * @param district District identifier
+     * @return
+     */
+    int getInvalid(String district) {
+        return districts.get(district).offsets.get(Tally.INVALID_VOTE_ID);
+    }
+
+    /**
+     * Copy the counters into a tally which has been initialized with the same lists.
+     *
+     * @param counts Counters of a tally
+     * @param tally
+     */
+    void fill(long[] counts, Tally tally) {
+        districts.forEach((d, di) -> {
+            Map<String, Map<String, Integer>> dTally = tally.getByParish().get(d);
+            di.stations.forEach((s, base) -> {
+                Map<String, Integer> sTally = dTally.get(s);
+                di.offsets.forEach(
+                        (c, offset) -> sTally.put(c, Math.toIntExact(counts[base + offset])));
+            });
+        });
+    }
+
+    private static class DistrictIndex {
+        private final Map<String, Integer> stations = new LinkedHashMap<>();
+        private final Map<String, Integer> offsets = new LinkedHashMap<>();
+        private final Map<String, Integer> choices = new HashMap<>();
+
+        DistrictIndex(Map<String, Map<String, String>> dCands) {
+            if (dCands != null) {
+                dCands.forEach((pName, pCandMap) -> pCandMap.forEach((cId, cName) -> {
+                    int offset = offsets.computeIfAbsent(cId, tmp -> offsets.size());
+                    // a choice string is valid if it splits into a candidate id, the party name
+                    // and the candidate name. As the id and the party name are split at the
+                    // separator, they can not contain it. A choice of the invalid vote id is
+                    // counted as an invalid vote.
+                    if (!cId.contains(Util.UNIT_SEPARATOR)
+                            && !pName.contains(Util.UNIT_SEPARATOR)
+                            && !cId.equals(Tally.INVALID_VOTE_ID)) {
+                        choices.put(String.join(Util.UNIT_SEPARATOR, cId, pName, cName), offset);
+                    }
+                }));
+            }
+            offsets.computeIfAbsent(Tally.INVALID_VOTE_ID, tmp -> offsets.size());
+        }
+    }
+}
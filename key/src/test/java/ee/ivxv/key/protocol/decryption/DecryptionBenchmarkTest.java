@@ -0,0 +1,96 @@
+package ee.ivxv.key.protocol.decryption;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import ee.ivxv.common.crypto.Plaintext;
+import ee.ivxv.common.crypto.elgamal.ElGamalDecryptionProof;
+import ee.ivxv.common.crypto.elgamal.ElGamalParameters;
+import ee.ivxv.common.crypto.elgamal.ElGamalPrivateKey;
+import ee.ivxv.common.crypto.elgamal.ElGamalPublicKey;
+import ee.ivxv.common.crypto.elgamal.TestParameters;
+import ee.ivxv.common.crypto.rnd.NativeRnd;
+import ee.ivxv.common.math.Polynomial;
+import ee.ivxv.common.service.smartcard.IndexedBlob;
+import ee.ivxv.key.protocol.ProtocolUtil;
+import ee.ivxv.key.protocol.ThresholdParameters;
+import ee.ivxv.key.protocol.decryption.desmedt.DesmedtDecryption;
+import ee.ivxv.key.protocol.decryption.recover.RecoverDecryption;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the time of decrypting a batch of ciphertexts with proofs by {@link RecoverDecryption}
+ * and {@link DesmedtDecryption}.
+ * <p>
+ * The number of ciphertexts is 1000 by default and can be set with
+ * {@code -Pbenchmark.ciphertexts=<count>}. The benchmark is skipped unless run with
+ * {@code -Pbenchmark}, which sets the system property {@code ivxv.benchmark}.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class DecryptionBenchmarkTest {
+
+    private static final int PARTIES = 5;
+    private static final int THRESHOLD = 3;
+    private static final int[] QUORUM = {1, 3, 5};
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    private static Object[] groups() {
+        return new Object[] {"P-384", "ModP 3072"};
+    }
+
+    @Test
+    @Parameters(method = "groups")
+    public void decrypt(String name) throws Exception {
+        int count = Integer.getInteger("ivxv.benchmark.ciphertexts", 1000);
+        ElGamalParameters params =
+                name.equals("P-384") ? TestParameters.p384() : TestParameters.modp3072();
+        ThresholdParameters tparams = new ThresholdParameters(PARTIES, THRESHOLD);
+        Polynomial pol = new Polynomial(THRESHOLD - 1, params.getGeneratorOrder(), new NativeRnd());
+        BigInteger[] shares = ProtocolUtil.generateShares(pol, PARTIES);
+        Set<IndexedBlob> blobs = new HashSet<>();
+        for (int i : QUORUM) {
+            blobs.add(new IndexedBlob(i,
+                    new ElGamalPrivateKey(params, shares[i - 1]).getBytes()));
+        }
+        DesmedtDecryption desmedt = new DesmedtDecryption(blobs, tparams, true);
+        RecoverDecryption recover = new RecoverDecryption(blobs, tparams, true);
+        ElGamalPublicKey pk = desmedt.getPublicKey();
+        byte[][] cts = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            cts[i] = pk.encrypt(new Plaintext("vote " + i), new NativeRnd()).getBytes();
+        }
+
+        // Warm up the JIT on a part of the batch
+        recover.decryptMessages(Arrays.copyOf(cts, Math.min(count, 50)));
+        desmedt.decryptMessages(Arrays.copyOf(cts, Math.min(count, 50)));
+
+        long start = System.nanoTime();
+        ElGamalDecryptionProof[] expected = recover.decryptMessages(cts);
+        long recoverTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        ElGamalDecryptionProof[] actual = desmedt.decryptMessages(cts);
+        long desmedtTime = System.nanoTime() - start;
+
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(expected[i].getDecrypted().getMessage(),
+                    actual[i].getDecrypted().getMessage());
+        }
+        System.out.printf("%-9s %d of %d, %d ciphertexts: recover %.2f ms/ciphertext, "
+                + "desmedt %.2f ms/ciphertext%n", name, THRESHOLD, PARTIES, count,
+                recoverTime / 1e6 / count, desmedtTime / 1e6 / count);
+    }
+
+}
@@ -0,0 +1,151 @@
+package ee.ivxv.key.protocol.decryption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import ee.ivxv.common.crypto.CorrectnessUtil.CiphertextCorrectness;
+import ee.ivxv.common.crypto.Plaintext;
+import ee.ivxv.common.crypto.elgamal.ElGamalCiphertext;
+import ee.ivxv.common.crypto.elgamal.ElGamalDecryptionProof;
+import ee.ivxv.common.crypto.elgamal.ElGamalParameters;
+import ee.ivxv.common.crypto.elgamal.ElGamalPrivateKey;
+import ee.ivxv.common.crypto.elgamal.ElGamalPublicKey;
+import ee.ivxv.common.crypto.rnd.NativeRnd;
+import ee.ivxv.common.math.ECGroup;
+import ee.ivxv.common.math.ModPGroup;
+import ee.ivxv.common.math.ModPGroupElement;
+import ee.ivxv.common.math.Polynomial;
+import ee.ivxv.common.service.smartcard.IndexedBlob;
+import ee.ivxv.key.protocol.DecryptionProtocol;
+import ee.ivxv.key.protocol.ProtocolException;
+import ee.ivxv.key.protocol.ProtocolUtil;
+import ee.ivxv.key.protocol.ThresholdParameters;
+import ee.ivxv.key.protocol.decryption.desmedt.DesmedtDecryption;
+import ee.ivxv.key.protocol.decryption.recover.RecoverDecryption;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Decrypts the same ciphertexts with {@link RecoverDecryption} and {@link DesmedtDecryption} and
+ * compares the results.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class DecryptionEquivalenceTest {
+
+    private static final int PARTIES = 5;
+    private static final int THRESHOLD = 3;
+    private static final int[] QUORUM = {1, 3, 5};
+    private static final int COUNT = 100;
+
+    private static Object[] params() {
+        return new Object[] {modpParameters(), new ElGamalParameters(new ECGroup(ECGroup.P384),
+                new ECGroup(ECGroup.P384).getBasePoint())};
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void protocolsDecryptEqually(ElGamalParameters params) throws Exception {
+        ThresholdParameters tparams = new ThresholdParameters(PARTIES, THRESHOLD);
+        Set<IndexedBlob> blobs = quorumBlobs(params);
+        DecryptionProtocol recover = new RecoverDecryption(blobs, tparams, true);
+        DesmedtDecryption desmedt = new DesmedtDecryption(blobs, tparams, true);
+        ElGamalPublicKey pk = desmedt.getPublicKey();
+        byte[][] cts = new byte[COUNT][];
+        for (int i = 0; i < COUNT; i++) {
+            cts[i] = pk.encrypt(new Plaintext("vote " + i), new NativeRnd()).getBytes();
+        }
+
+        ElGamalDecryptionProof[] expected = recover.decryptMessages(cts);
+        ElGamalDecryptionProof[] actual = desmedt.decryptMessages(cts);
+
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals("vote " + i, expected[i].getDecrypted().getUTF8DecodedMessage());
+            assertArrayEquals(expected[i].getDecrypted().getMessage(),
+                    actual[i].getDecrypted().getMessage());
+            assertTrue(actual[i].verifyProof());
+        }
+        boolean[] valid = ElGamalDecryptionProof.verifyProofs(Arrays.asList(actual));
+        for (int i = 0; i < COUNT; i++) {
+            assertTrue("proof " + i, valid[i]);
+        }
+    }
+
+    @Test
+    @Parameters(method = "params")
+    public void onlyInvalidCiphertextsAreLeftUndecrypted(ElGamalParameters params)
+            throws Exception {
+        ThresholdParameters tparams = new ThresholdParameters(PARTIES, THRESHOLD);
+        Set<IndexedBlob> blobs = quorumBlobs(params);
+        DesmedtDecryption desmedt = new DesmedtDecryption(blobs, tparams, true);
+        ElGamalPublicKey pk = desmedt.getPublicKey();
+        ElGamalCiphertext ct = pk.encrypt(new Plaintext("vote"), new NativeRnd());
+        // Shifting the message by the generator breaks the padding
+        ElGamalCiphertext badPadding = new ElGamalCiphertext(ct.getBlind(),
+                ct.getBlindedMessage().op(params.getGenerator()), params.getOID());
+        byte[][] cts = {ct.getBytes(), badPadding.getBytes(), new byte[] {1, 2, 3}};
+
+        for (DecryptionProtocol protocol : new DecryptionProtocol[] {desmedt,
+                new RecoverDecryption(blobs, tparams, true)}) {
+            ElGamalDecryptionProof[] res = protocol.decryptMessages(cts);
+
+            assertEquals(3, res.length);
+            assertNotNull(res[0]);
+            assertEquals("vote", res[0].getDecrypted().getUTF8DecodedMessage());
+            assertNull(res[1]);
+            assertNull(res[2]);
+        }
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void protocolFailureFailsTheBatch() throws Exception {
+        DecryptionProtocol failing = new DecryptionProtocol() {
+            @Override
+            public ElGamalDecryptionProof decryptMessage(byte[] msg) throws ProtocolException {
+                throw new ProtocolException("Random source error");
+            }
+
+            @Override
+            public CiphertextCorrectness checkCorrectness(byte[] msg) {
+                return CiphertextCorrectness.VALID;
+            }
+        };
+
+        failing.decryptMessages(new byte[][] {new byte[1], new byte[1]});
+    }
+
+    private static Set<IndexedBlob> quorumBlobs(ElGamalParameters params) throws IOException {
+        Polynomial pol = new Polynomial(THRESHOLD - 1, params.getGeneratorOrder(), new NativeRnd());
+        BigInteger[] shares = ProtocolUtil.generateShares(pol, PARTIES);
+        Set<IndexedBlob> blobs = new HashSet<>();
+        for (int i : QUORUM) {
+            blobs.add(new IndexedBlob(i,
+                    new ElGamalPrivateKey(params, shares[i - 1]).getBytes()));
+        }
+        return blobs;
+    }
+
+    private static ElGamalParameters modpParameters() {
+        // A small safe prime keeps the test fast, the protocols do not depend on the size
+        Random rnd = new Random(512);
+        BigInteger q;
+        BigInteger p;
+        do {
+            q = BigInteger.probablePrime(511, rnd);
+            p = q.shiftLeft(1).add(BigInteger.ONE);
+        } while (!p.isProbablePrime(80));
+        ModPGroup group = new ModPGroup(p);
+        return new ElGamalParameters(group, new ModPGroupElement(group, BigInteger.valueOf(4)));
+    }
+
+}
@@ -0,0 +1,102 @@
+package ee.ivxv.key.protocol.signing.shoup;
+
+import static org.junit.Assert.assertTrue;
+
+import ee.ivxv.common.crypto.SignatureUtil;
+import ee.ivxv.common.crypto.rnd.NativeRnd;
+import ee.ivxv.common.crypto.rnd.Rnd;
+import ee.ivxv.common.service.smartcard.Cards;
+import ee.ivxv.common.service.smartcard.IndexedBlob;
+import ee.ivxv.common.service.smartcard.dummy.DummyCardService;
+import ee.ivxv.common.util.Util;
+import ee.ivxv.key.protocol.ThresholdParameters;
+import ee.ivxv.key.protocol.generation.shoup.ShoupGeneration;
+import java.security.interfaces.RSAPublicKey;
+import java.util.HashSet;
+import java.util.Set;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the time of threshold RSA signing with {@link ShoupSigning}: the first signature of a
+ * quorum, which parses the shares and computes the coefficients, the following signatures one by
+ * one and a batch of signatures.
+ * <p>
+ * The benchmark is skipped unless run with {@code -Pbenchmark}, which sets the system property
+ * {@code ivxv.benchmark}.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class ShoupSigningBenchmarkTest {
+
+    private static final int PARTIES = 5;
+    private static final int THRESHOLD = 3;
+    private static final int[] QUORUM = {1, 3, 5};
+    private static final int MESSAGES = 20;
+    private static final byte[] AID = Util.toBytes("AID");
+    private static final byte[] NAME = Util.toBytes("SIGN");
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    private static Object[] modLens() {
+        return new Object[] {3072, 4096};
+    }
+
+    @Test
+    @Parameters(method = "modLens")
+    public void sign(int modLen) throws Exception {
+        ThresholdParameters tparams = new ThresholdParameters(PARTIES, THRESHOLD);
+        Rnd rnd = new NativeRnd();
+        Cards cards = new DummyCardService(null, null).createCards();
+        for (int i = 0; i < PARTIES; i++) {
+            cards.addCard(Integer.toString(i + 1));
+        }
+        byte[][] shares = new byte[PARTIES][];
+        RSAPublicKey pub = SignatureUtil.RSA.bytesToRSAPublicKey(
+                new ShoupGeneration(cards, modLen, tparams, rnd, AID, NAME, shares).generateKey());
+        Set<IndexedBlob> blobs = new HashSet<>();
+        for (int i : QUORUM) {
+            blobs.add(new IndexedBlob(i, shares[i - 1]));
+        }
+        byte[][] msgs = new byte[MESSAGES][];
+        for (int i = 0; i < MESSAGES; i++) {
+            msgs[i] = Util.toBytes("tally " + i);
+        }
+
+        ShoupSigning signer = new ShoupSigning(blobs, tparams, rnd);
+        long start = System.nanoTime();
+        byte[] first = signer.sign(msgs[0]);
+        long firstTime = System.nanoTime() - start;
+        assertTrue(SignatureUtil.RSA.RSA_PSS.verifySignature(msgs[0], pub, first));
+
+        byte[][] singleSigs = new byte[MESSAGES][];
+        start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            singleSigs[i] = signer.sign(msgs[i]);
+        }
+        long singleTime = System.nanoTime() - start;
+        for (int i = 0; i < MESSAGES; i++) {
+            assertTrue(SignatureUtil.RSA.RSA_PSS.verifySignature(msgs[i], pub, singleSigs[i]));
+        }
+
+        start = System.nanoTime();
+        byte[][] sigs = signer.signMessages(msgs);
+        long batchTime = System.nanoTime() - start;
+        for (int i = 0; i < MESSAGES; i++) {
+            assertTrue(SignatureUtil.RSA.RSA_PSS.verifySignature(msgs[i], pub, sigs[i]));
+        }
+
+        System.out.printf("RSA %d, %d of %d: first signature %.1f ms, "
+                + "one by one %.1f ms/signature, batch of %d %.1f ms/signature%n", modLen,
+                THRESHOLD, PARTIES, firstTime / 1e6, singleTime / 1e6 / MESSAGES, MESSAGES,
+                batchTime / 1e6 / MESSAGES);
+    }
+
+}
@@ -0,0 +1,226 @@
+package ee.ivxv.key.tool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import ee.ivxv.common.asn1.RSAParams;
+import ee.ivxv.common.crypto.SignatureUtil;
+import ee.ivxv.common.crypto.elgamal.ElGamalParameters;
+import ee.ivxv.common.crypto.elgamal.ElGamalPrivateKey;
+import ee.ivxv.common.crypto.elgamal.ElGamalPublicKey;
+import ee.ivxv.common.crypto.rnd.CombineRnd;
+import ee.ivxv.common.crypto.rnd.NativeRnd;
+import ee.ivxv.common.math.ECGroup;
+import ee.ivxv.common.service.console.Console;
+import ee.ivxv.common.service.console.Progress;
+import ee.ivxv.common.service.i18n.DefaultI18n;
+import ee.ivxv.common.service.i18n.I18n;
+import ee.ivxv.common.service.i18n.MessageException;
+import ee.ivxv.common.service.smartcard.Cards;
+import ee.ivxv.common.service.smartcard.IndexedBlob;
+import ee.ivxv.common.service.smartcard.dummy.DummyCardService;
+import ee.ivxv.common.util.I18nConsole;
+import ee.ivxv.key.Msg;
+import ee.ivxv.key.protocol.ThresholdParameters;
+import ee.ivxv.key.protocol.generation.desmedt.DesmedtGeneration;
+import ee.ivxv.key.protocol.generation.shoup.ShoupGeneration;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests the quorums of the key shares on dummy cards with {@link TestKeyTool}, both one after
+ * another and concurrently.
+ */
+@RunWith(JUnitParamsRunner.class)
+public class TestKeyToolTest {
+
+    private static final Logger log = LoggerFactory.getLogger(TestKeyToolTest.class);
+
+    private static final int PARTIES = 5;
+    private static final int THRESHOLD = 3;
+    private static final int RSA_LENGTH = 2048;
+    // QuorumUtil tests the quorums {1, 2, 3}, {3, 4, 5} and {1, 2, 5}
+    private static final int QUORUMS = 3;
+    private static final int CORRUPTED = 4;
+    private static final Set<Integer> FAILING_QUORUM = new TreeSet<>(Arrays.asList(3, 4, 5));
+
+    private static ThresholdParameters tparams;
+    private static byte[][] decShares;
+    private static byte[][] signShares;
+    private static ElGamalPublicKey pub;
+    private static RSAPublicKey rsaPub;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        tparams = new ThresholdParameters(PARTIES, THRESHOLD);
+        ECGroup group = new ECGroup(ECGroup.P384);
+        ElGamalParameters params = new ElGamalParameters(group, group.getBasePoint());
+        Cards cards = new DummyCardService(null, null).createCards();
+        for (int i = 0; i < PARTIES; i++) {
+            cards.addCard(String.valueOf(i));
+        }
+        decShares = new byte[PARTIES][];
+        signShares = new byte[PARTIES][];
+        pub = new ElGamalPublicKey(new DesmedtGeneration(cards, params, tparams, new NativeRnd(),
+                InitTool.AID, InitTool.DEC_SHARE_NAME, decShares).generateKey());
+        rsaPub = SignatureUtil.RSA.bytesToRSAPublicKey(new ShoupGeneration(cards, RSA_LENGTH,
+                tparams, new NativeRnd(), InitTool.AID, InitTool.SIGN_SHARE_NAME, signShares)
+                        .generateKey());
+    }
+
+    private static Object[] modes() {
+        return new Object[] {false, true};
+    }
+
+    @Test
+    @Parameters(method = "modes")
+    public void allQuorumsPass(boolean concurrent) throws Exception {
+        RecordingConsole console = new RecordingConsole();
+        // The combined source of InitTool, which is not safe for concurrent use by itself
+        CombineRnd rnd = new CombineRnd();
+        rnd.addSource(new NativeRnd());
+
+        TestKeyTool.allTests(console.console(), log, cardService(console, decShares, signShares),
+                tparams, rnd, pub, rsaPub, concurrent);
+
+        // every quorum is reported for both the decryption and the signing key
+        assertEquals(2 * QUORUMS,
+                Collections.frequency(console.lines, Msg.m_quorum_test_ok.name()));
+        assertEquals(2 * QUORUMS,
+                Collections.frequency(console.lines, Msg.m_quorum_test_time.name()));
+    }
+
+    @Test
+    @Parameters(method = "modes")
+    public void corruptedDecryptionShareFailsQuorum(boolean concurrent) throws Exception {
+        byte[][] corrupted = decShares.clone();
+        ElGamalPrivateKey share = new ElGamalPrivateKey(decShares[CORRUPTED - 1]);
+        corrupted[CORRUPTED - 1] = new ElGamalPrivateKey(share.getParameters(),
+                share.getSecretPart().add(BigInteger.ONE)).getBytes();
+
+        assertQuorumFails(concurrent, corrupted, signShares);
+    }
+
+    @Test
+    @Parameters(method = "modes")
+    public void corruptedSigningShareFailsQuorum(boolean concurrent) throws Exception {
+        byte[][] corrupted = signShares.clone();
+        RSAParams share = SignatureUtil.RSA.bytesToRSAParams(signShares[CORRUPTED - 1]);
+        corrupted[CORRUPTED - 1] = SignatureUtil.RSA.paramsToRSAParams(share.getPublicExponent(),
+                share.getPrivateExponent().add(BigInteger.ONE), share.getModulus()).encode();
+
+        assertQuorumFails(concurrent, decShares, corrupted);
+    }
+
+    private static void assertQuorumFails(boolean concurrent, byte[][] dec, byte[][] sign)
+            throws Exception {
+        RecordingConsole console = new RecordingConsole();
+        try {
+            TestKeyTool.allTests(console.console(), log, cardService(console, dec, sign), tparams,
+                    new NativeRnd(), pub, rsaPub, concurrent);
+            fail("The corrupted share was not detected");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof MessageException);
+            MessageException me = (MessageException) e.getCause();
+            assertSame(Msg.e_quorum_test_fail, me.getKey());
+            assertEquals(FAILING_QUORUM, indices(me.getArgs()[0]));
+        }
+        // the quorum before the failing one has passed
+        assertTrue(console.lines.contains(Msg.m_quorum_test_ok.name()));
+    }
+
+    private static Set<Integer> indices(Object quorum) {
+        Set<Integer> res = new TreeSet<>();
+        for (Object blob : (Set<?>) quorum) {
+            res.add(((IndexedBlob) blob).getIndex());
+        }
+        return res;
+    }
+
+    /**
+     * @return A card service with the shares stored on the cards as the init tool does.
+     */
+    private static DummyCardService cardService(RecordingConsole console, byte[][] dec,
+            byte[][] sign) throws Exception {
+        DummyCardService service = new DummyCardService(console, console.i18n);
+        Cards cards = service.createCards();
+        for (int i = 0; i < PARTIES; i++) {
+            cards.addCard(String.valueOf(i));
+            cards.getCard(i).storeIndexedBlob(InitTool.AID, InitTool.DEC_SHARE_NAME, dec[i],
+                    i + 1);
+            cards.getCard(i).storeIndexedBlob(InitTool.AID, InitTool.SIGN_SHARE_NAME, sign[i],
+                    i + 1);
+        }
+        return service;
+    }
+
+    /**
+     * Records the keys of the printed messages.
+     */
+    private static class RecordingConsole implements Console {
+        private final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        private final I18n i18n = new DefaultI18n() {
+            @Override
+            protected String getInternal(Enum<?> key, Object... args) {
+                return key.name();
+            }
+        };
+
+        I18nConsole console() {
+            return new I18nConsole(this, i18n);
+        }
+
+        @Override
+        public void println() {
+            // Not recorded
+        }
+
+        @Override
+        public void println(String format, Object... args) {
+            lines.add(format);
+        }
+
+        @Override
+        public String readln() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String readPw() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Progress startProgress(String format, long total) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Progress startInfiniteProgress(String format, long total) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdown() {
+            // Nothing to shut down
+        }
+
+    }
+
+}
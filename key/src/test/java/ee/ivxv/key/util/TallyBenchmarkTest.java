@@ -0,0 +1,222 @@
+package ee.ivxv.key.util;
+
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.ivxv.common.crypto.Plaintext;
+import ee.ivxv.common.crypto.elgamal.ElGamalDecryptionProof;
+import ee.ivxv.common.model.CandidateList;
+import ee.ivxv.common.model.District;
+import ee.ivxv.common.model.DistrictList;
+import ee.ivxv.common.service.console.Progress;
+import ee.ivxv.common.util.I18nConsole;
+import ee.ivxv.common.util.Util;
+import ee.ivxv.key.model.Vote;
+import ee.ivxv.key.protocol.SigningProtocol;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Measures the rate of tallying decrypted votes with {@link ElectionResult}.
+ * <p>
+ * The votes are added by one shard per available processor, flushed in batches as the decrypt
+ * tool does. The number of votes is 50M by default and can be set with
+ * {@code -Pbenchmark.votes=<count>}. The benchmark is skipped unless run with {@code -Pbenchmark},
+ * which sets the system property {@code ivxv.benchmark}.
+ */
+public class TallyBenchmarkTest {
+
+    private static final String ELECTION = "RK2051";
+    private static final String QUESTION = "RK2051";
+    private static final int DISTRICTS = 12;
+    private static final int STATIONS = 80;
+    private static final int PARTIES = 10;
+    private static final int CANDIDATES = 12;
+    private static final int POOL = 100_000;
+    private static final int BATCH_SIZE = 64;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark",
+                Boolean.getBoolean("ivxv.benchmark"));
+    }
+
+    @Test
+    public void tally() throws Exception {
+        long total = Long.getLong("ivxv.benchmark.votes", 50_000_000L);
+        int threads = Runtime.getRuntime().availableProcessors();
+        CandidateList candidates = candidates();
+        DistrictList districts = districts();
+        List<Vote> pool = votes(candidates);
+
+        ElectionResult result = new ElectionResult(ELECTION, candidates, districts, false);
+        I18nConsole console = new I18nConsole(null, null) {
+            @Override
+            public Progress startProgress(long total) {
+                return new NoProgress();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        long start = System.nanoTime();
+        try {
+            Future<Void> worker =
+                    executor.submit(result.getResultWorker((int) total, console, null));
+            List<Future<?>> shards = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long from = total * t / threads;
+                long to = total * (t + 1) / threads;
+                ElectionResult.Shard shard = result.newShard();
+                shards.add(executor.submit(() -> {
+                    for (long i = from; i < to; i++) {
+                        shard.add(pool.get((int) (i % POOL)));
+                        if ((i - from + 1) % BATCH_SIZE == 0) {
+                            shard.flush();
+                        }
+                    }
+                    shard.flush();
+                    return null;
+                }));
+            }
+            for (Future<?> f : shards) {
+                f.get();
+            }
+            result.setEot();
+            worker.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("Tallied %d votes with %d shards in %.1f s, %.0f votes/s%n", total,
+                threads, nanos / 1e9, total * 1e9 / nanos);
+
+        result.outputTally(tmp.getRoot().toPath(), new NoSigning());
+        JsonNode tally = new ObjectMapper()
+                .readTree(tmp.getRoot().toPath().resolve(QUESTION + ".tally").toFile());
+        long counted = 0;
+        for (JsonNode district : tally.get("bydistrict")) {
+            for (JsonNode count : district) {
+                counted += count.asLong();
+            }
+        }
+        assertEquals(total, counted);
+    }
+
+    private static CandidateList candidates() {
+        Map<String, Map<String, Map<String, String>>> choices = new LinkedHashMap<>();
+        for (int d = 0; d < DISTRICTS; d++) {
+            Map<String, Map<String, String>> parties = new LinkedHashMap<>();
+            for (int p = 0; p < PARTIES; p++) {
+                Map<String, String> cands = new LinkedHashMap<>();
+                for (int c = 0; c < CANDIDATES; c++) {
+                    cands.put(String.format("%d.%d", d + 1, 101 + p * CANDIDATES + c),
+                            "Candidate " + c + " of party " + p);
+                }
+                parties.put("Party " + p, cands);
+            }
+            choices.put(district(d), parties);
+        }
+        return new CandidateList(ELECTION, choices);
+    }
+
+    private static DistrictList districts() {
+        Map<String, District> districts = new LinkedHashMap<>();
+        for (int d = 0; d < DISTRICTS; d++) {
+            List<String> stations = new ArrayList<>();
+            for (int s = 0; s < STATIONS; s++) {
+                stations.add(station(d, s));
+            }
+            districts.put(district(d), new District("District " + d, stations));
+        }
+        return new DistrictList(ELECTION, districts, Collections.emptyMap(),
+                Collections.emptyMap());
+    }
+
+    /**
+     * @return Valid votes, enumerated by stations as in the ballot box.
+     */
+    private static List<Vote> votes(CandidateList candidates) {
+        Random rnd = new Random(POOL);
+        List<Vote> votes = new ArrayList<>(POOL);
+        for (int i = 0; i < POOL; i++) {
+            int d = rnd.nextInt(DISTRICTS);
+            int p = rnd.nextInt(PARTIES);
+            Map.Entry<String, String> cand = new ArrayList<>(
+                    candidates.getCandidates().get(district(d)).get("Party " + p).entrySet())
+                            .get(rnd.nextInt(CANDIDATES));
+            String choice =
+                    String.join(Util.UNIT_SEPARATOR, cand.getKey(), "Party " + p, cand.getValue());
+            Vote vote = new Vote(district(d), station(d, rnd.nextInt(STATIONS)), QUESTION, null);
+            vote.setProof(new ElGamalDecryptionProof(null, new Plaintext(choice), null));
+            votes.add(vote);
+        }
+        Collections.sort(votes, (a, b) -> (a.getDistrict() + a.getStation())
+                .compareTo(b.getDistrict() + b.getStation()));
+        return votes;
+    }
+
+    private static String district(int d) {
+        return "0" + (d + 1);
+    }
+
+    private static String station(int d, int s) {
+        return String.format("%d.%d", d + 1, s + 1);
+    }
+
+    private static class NoProgress implements Progress {
+
+        @Override
+        public void increase(int amount) {
+            // Not reported
+        }
+
+        @Override
+        public void finish() {
+            // Not reported
+        }
+
+    }
+
+    private static class NoSigning implements SigningProtocol {
+
+        @Override
+        public byte[] sign(byte[] msg) {
+            return new byte[0];
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return null;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            return null;
+        }
+
+    }
+
+}
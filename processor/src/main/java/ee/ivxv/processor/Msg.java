@@ -17,7 +17,7 @@ public enum Msg implements NameHolder {
 
     // Tools
     tool_check, tool_squash, tool_revoke, tool_anonymize, tool_export, tool_stats, tool_statsdiff,
-    tool_checkAndSquash, tool_revokeAndAnonymize,
+    tool_checkAndSquash, tool_revokeAndAnonymize, tool_convertAbb,
     // Tool arguments
     arg_ballotbox("bb"), arg_ballotbox_checksum("bbcs"), //
     arg_registrationlist, arg_registrationlist_checksum, //
@@ -28,6 +28,7 @@ public enum Msg implements NameHolder {
     arg_voter_id, //
     arg_election_start, //
     arg_voterforeignehak, //
+    arg_ballot_cache, arg_ballot_cache_key, //
     arg_enckey, //
     arg_election_day, arg_period_start, arg_period_end, //
     arg_compare, arg_to, arg_diff, //
@@ -49,7 +50,7 @@ public enum Msg implements NameHolder {
 
     e_dist_mapping_invalid_row,
     e_skip_cmd_loading,
-    e_reg_checksum_missing, //
+    e_reg_checksum_missing, e_ballot_cache_key_missing, //
     e_bb_read_error, e_bb_ballot_processing, e_reg_record_processing, //
     e_bb_invalid_file_name, e_bb_missing_file, e_bb_repeated_file, e_bb_unknown_file_type, //
     e_ballot_signature_invalid, e_ballot_missing_voter_signature, //
@@ -134,6 +135,8 @@ public enum Msg implements NameHolder {
     m_stats_generating, m_stats_generated, m_stats_ballot_errors, m_stats_valid_ballots, //
     m_stats_json_saved, m_stats_csv_saved, m_stats_diff_saved, //
 
+    m_abb_converting, m_abb_converted, //
+
     ;
 
     private final String shortName;
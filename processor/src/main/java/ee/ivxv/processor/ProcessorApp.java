@@ -11,6 +11,8 @@ import ee.ivxv.processor.tool.AnonymizeTool;
 import ee.ivxv.processor.tool.AnonymizeTool.AnonymizeArgs;
 import ee.ivxv.processor.tool.CheckTool;
 import ee.ivxv.processor.tool.CheckTool.CheckArgs;
+import ee.ivxv.processor.tool.ConvertAbbTool;
+import ee.ivxv.processor.tool.ConvertAbbTool.ConvertAbbArgs;
 import ee.ivxv.processor.tool.ExportTool;
 import ee.ivxv.processor.tool.ExportTool.ExportArgs;
 import ee.ivxv.processor.tool.RevokeTool;
@@ -45,7 +47,8 @@ class ProcessorApp extends App<ProcessorContext> {
                 new Tool<>(Msg.tool_stats, StatsArgs::new, StatsTool::new),
                 new Tool<>(Msg.tool_statsdiff, StatsDiffArgs::new, StatsDiffTool::new),
                 new Tool<>(Msg.tool_checkAndSquash, CheckAndSquashArgs::new, CheckAndSquashTool::new),
-                new Tool<>(Msg.tool_revokeAndAnonymize, RevokeAndAnonymizeArgs::new, RevokeAndAnonymizeTool::new));
+                new Tool<>(Msg.tool_revokeAndAnonymize, RevokeAndAnonymizeArgs::new, RevokeAndAnonymizeTool::new),
+                new Tool<>(Msg.tool_convertAbb, ConvertAbbArgs::new, ConvertAbbTool::new));
     }
 
     @Override
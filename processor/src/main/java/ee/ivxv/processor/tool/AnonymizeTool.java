@@ -20,19 +20,23 @@ import java.util.concurrent.ConcurrentHashMap;
 public class AnonymizeTool implements Tool.Runner<AnonymizeArgs> {
 
     private static final String OUT_BB_TMPL = "bb-4.json";
+    private static final String OUT_BB_BINARY_TMPL = "bb-4.abb";
 
     private static final Map<String, Object> EMPTY = new HashMap<>();
 
     final I18nConsole console;
     final ReportHelper reporter;
     private final ToolHelper tool;
+    private final boolean binaryAbb;
 
     final Map<String, Map<String, Object>> excluded = new ConcurrentHashMap<>();
 
     public AnonymizeTool(ProcessorContext ctx) {
         console = new I18nConsole(ctx.i.console, ctx.i.i18n);
         reporter = new ReportHelper(ctx, console);
-        tool = new ToolHelper(console, ctx.container, ctx.bbox);
+        tool = new ToolHelper(console, ctx.container, ctx.bbox,
+                ctx.args.compactJson.value());
+        binaryAbb = ctx.args.binaryAbb.value();
     }
 
     @Override
@@ -49,8 +53,13 @@ public class AnonymizeTool implements Tool.Runner<AnonymizeArgs> {
         reporter.writeLog3(args.out.value(), bb,
                 (voterId, qid) -> !excluded.getOrDefault(voterId, EMPTY).containsKey(qid));
 
-        Path OUT_BB = Util.prefixedPath(bb.getElection(), OUT_BB_TMPL);
-        tool.writeJsonBb(abb, args.out.value().resolve(OUT_BB));
+        if (binaryAbb) {
+            Path OUT_BB = Util.prefixedPath(bb.getElection(), OUT_BB_BINARY_TMPL);
+            tool.writeBinaryAbb(abb, args.out.value().resolve(OUT_BB));
+        } else {
+            Path OUT_BB = Util.prefixedPath(bb.getElection(), OUT_BB_TMPL);
+            tool.writeJsonBb(abb, args.out.value().resolve(OUT_BB));
+        }
 
         return true;
     }
@@ -74,7 +74,8 @@ public class CheckAndSquashTool implements Tool.Runner<CheckAndSquashTool.CheckA
         this.ctx = ctx;
         console = new I18nConsole(ctx.i.console, ctx.i.i18n);
         reporter = new ReportHelper(ctx, console);
-        tool = new ToolHelper(console, ctx.container, ctx.bbox);
+        tool = new ToolHelper(console, ctx.container, ctx.bbox,
+                ctx.args.compactJson.value());
     }
 
     @Override
@@ -199,6 +200,9 @@ public class CheckAndSquashTool implements Tool.Runner<CheckAndSquashTool.CheckA
             if (args.bbChecksum.isSet()) {
                 tool.checkBbChecksum(args.bb.value(), args.bbChecksum.value());
             }
+            if (args.cache.isSet() && !args.cacheKey.isSet()) {
+                throw new MessageException(Msg.e_ballot_cache_key_missing);
+            }
             if (args.rl.isSet()) {
                 if (!args.rlChecksum.isSet()) {
                     throw new MessageException(Msg.e_reg_checksum_missing);
@@ -207,8 +211,9 @@ public class CheckAndSquashTool implements Tool.Runner<CheckAndSquashTool.CheckA
             }
 
             int tc = ctx.args.threads.value();
-            BboxHelper.Loader<?> loader =
-                    ctx.bbox.getLoader(args.bb.value(), console::startProgress, tc);
+            int ztc = ctx.args.zipThreads.value();
+            BboxHelper.Loader<?> loader = ctx.bbox.getLoader(args.bb.value(),
+                    console::startProgress, tc, ztc, args.cache.value(), args.cacheKey.value());
 
             BallotBox bb = load(args, vp, eid, loader);
 
@@ -362,6 +367,8 @@ public class CheckAndSquashTool implements Tool.Runner<CheckAndSquashTool.CheckA
         Arg<Path> distMapping = Arg.aPath(Msg.arg_districts_mapping, true, false).setOptional();
         Arg<Instant> elStart = Arg.anInstant(Msg.arg_election_start);
         Arg<String> foreignEHAK = Arg.aString(Msg.arg_voterforeignehak).setOptional();
+        Arg<Path> cache = Arg.aPath(Msg.arg_ballot_cache).setOptional();
+        Arg<Path> cacheKey = Arg.aPath(Msg.arg_ballot_cache_key, true, false).setOptional();
         Arg<Path> encKey = Arg.aPath(Msg.arg_enckey, true, false);
         Arg<Path> out = Arg.aPath(Msg.arg_out, false, null);
 
@@ -377,6 +384,8 @@ public class CheckAndSquashTool implements Tool.Runner<CheckAndSquashTool.CheckA
             args.add(distMapping);
             args.add(elStart);
             args.add(foreignEHAK);
+            args.add(cache);
+            args.add(cacheKey);
             args.add(encKey);
             args.add(out);
         }
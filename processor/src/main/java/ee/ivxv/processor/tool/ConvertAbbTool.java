@@ -0,0 +1,88 @@
+package ee.ivxv.processor.tool;
+
+import ee.ivxv.common.cli.Arg;
+import ee.ivxv.common.cli.Args;
+import ee.ivxv.common.cli.Tool;
+import ee.ivxv.common.util.BallotBoxBinary;
+import ee.ivxv.common.util.I18nConsole;
+import ee.ivxv.common.util.ToolHelper;
+import ee.ivxv.processor.Msg;
+import ee.ivxv.processor.ProcessorContext;
+import ee.ivxv.processor.tool.ConvertAbbTool.ConvertAbbArgs;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+/**
+ * Tool for converting the anonymous ballot box between the JSON and the binary format. The format
+ * of the input is detected from the content of the file and the output is written in the other
+ * format, e.g. to hand a binary ballot box over to the mixer, which only reads JSON.
+ */
+public class ConvertAbbTool implements Tool.Runner<ConvertAbbArgs> {
+
+    private static final String JSON_EXT = ".json";
+    private static final String BINARY_EXT = ".abb";
+
+    private final I18nConsole console;
+    private final ToolHelper tool;
+    private final boolean compactJson;
+
+    public ConvertAbbTool(ProcessorContext ctx) {
+        console = new I18nConsole(ctx.i.console, ctx.i.i18n);
+        compactJson = ctx.args.compactJson.value();
+        tool = new ToolHelper(console, ctx.container, ctx.bbox, compactJson);
+    }
+
+    @Override
+    public boolean run(ConvertAbbArgs args) throws Exception {
+        Path in = args.bb.value();
+        tool.checkBbChecksum(in, args.bbChecksum.value());
+
+        boolean binary = BallotBoxBinary.isBinary(in);
+        Path out = args.out.value().resolve(outputName(in, binary ? JSON_EXT : BINARY_EXT));
+
+        console.println();
+        console.println(Msg.m_abb_converting, in, out);
+        // The checksum is computed while writing, the file is not read again
+        MessageDigest digest = tool.createChecksumDigest();
+        if (binary) {
+            BallotBoxBinary.binaryToJson(in, out, compactJson, digest);
+        } else {
+            BallotBoxBinary.jsonToBinary(in, out, digest);
+        }
+        console.println(Msg.m_abb_converted);
+
+        console.println(Msg.m_output_file, out);
+        console.println(Msg.m_output_file, tool.writeChecksumFile(out, digest));
+
+        return true;
+    }
+
+    /**
+     * @return Returns the file name of the input with the known extension replaced by {@code ext}.
+     */
+    static String outputName(Path in, String ext) {
+        String name = in.getFileName().toString();
+        for (String known : new String[] {JSON_EXT, BINARY_EXT}) {
+            if (name.endsWith(known)) {
+                return name.substring(0, name.length() - known.length()) + ext;
+            }
+        }
+        return name + ext;
+    }
+
+    public static class ConvertAbbArgs extends Args {
+
+        Arg<Path> bb = Arg.aPath(Msg.arg_ballotbox, true, false);
+        Arg<Path> bbChecksum = Arg.aPath(Msg.arg_ballotbox_checksum, true, false);
+
+        Arg<Path> out = Arg.aPath(Msg.arg_out, false, null);
+
+        public ConvertAbbArgs() {
+            args.add(bb);
+            args.add(bbChecksum);
+            args.add(out);
+        }
+
+    }
+
+}
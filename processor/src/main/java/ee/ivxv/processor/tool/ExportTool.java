@@ -48,8 +48,9 @@ public class ExportTool implements Tool.Runner<ExportArgs> {
             tool.checkBbChecksum(args.bb.value(), args.bbChecksum.value());
 
             int tc = ctx.args.threads.value();
-            BboxHelper.Loader<?> loader =
-                    ctx.bbox.getLoader(args.bb.value(), console::startProgress, tc);
+            int ztc = ctx.args.zipThreads.value();
+            BboxHelper.Loader<?> loader = ctx.bbox.getLoader(args.bb.value(),
+                    console::startProgress, tc, ztc, null, null);
 
             export(args.bb.value(), args.voter.value(), loader, args.out.value().resolve(OUT_EXP));
         } catch (InvalidBboxException e) {
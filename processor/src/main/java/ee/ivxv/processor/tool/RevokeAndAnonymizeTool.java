@@ -24,6 +24,7 @@ import java.util.stream.Collectors;
 public class RevokeAndAnonymizeTool implements Tool.Runner<RevokeAndAnonymizeTool.RevokeAndAnonymizeArgs> {
 
     private static final String OUT_BB_TMPL = "bb-4.json";
+    private static final String OUT_BB_BINARY_TMPL = "bb-4.abb";
     private static final String OUT_RR_TMPL = "revocation-report.csv";
     private static final String OUT_IVLJSON_TMPL = "ivoterlist.json";
     private static final Map<String, Object> EMPTY = new HashMap<>();
@@ -38,7 +39,8 @@ public class RevokeAndAnonymizeTool implements Tool.Runner<RevokeAndAnonymizeToo
         this.ctx = ctx;
         console = new I18nConsole(ctx.i.console, ctx.i.i18n);
         reporter = new ReportHelper(ctx, console);
-        tool = new ToolHelper(console, ctx.container, ctx.bbox);
+        tool = new ToolHelper(console, ctx.container, ctx.bbox,
+                ctx.args.compactJson.value());
     }
 
     @Override
@@ -55,7 +57,8 @@ public class RevokeAndAnonymizeTool implements Tool.Runner<RevokeAndAnonymizeToo
         Path OUT_IVLJSON = Util.prefixedPath(bb.getElection(), OUT_IVLJSON_TMPL);
         Path OUT_RR = Util.prefixedPath(bb.getElection(), OUT_RR_TMPL);
         Path OUT_RR_ANONYMOUS = Util.prefixedPath(bb.getElection(), OUT_RR_TMPL + ".anonymous");
-        Path OUT_BB = Util.prefixedPath(bb.getElection(), OUT_BB_TMPL);
+        Path OUT_BB = Util.prefixedPath(bb.getElection(),
+                ctx.args.binaryAbb.value() ? OUT_BB_BINARY_TMPL : OUT_BB_TMPL);
 
         reporter.writeIVoterList(out.resolve(OUT_IVLJSON), null, bb, dl);
         reporter.writeRevocationReport(out.resolve(OUT_RR), bb.getElection(), loader.revRecords,
@@ -68,7 +71,11 @@ public class RevokeAndAnonymizeTool implements Tool.Runner<RevokeAndAnonymizeToo
 
         AnonymousBallotBox abb = anonymize(bb);
 
-        tool.writeJsonBb(abb, out.resolve(OUT_BB));
+        if (ctx.args.binaryAbb.value()) {
+            tool.writeBinaryAbb(abb, out.resolve(OUT_BB));
+        } else {
+            tool.writeJsonBb(abb, out.resolve(OUT_BB));
+        }
 
         return true;
     }
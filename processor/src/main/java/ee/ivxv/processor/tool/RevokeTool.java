@@ -45,7 +45,8 @@ public class RevokeTool implements Tool.Runner<RevokeArgs> {
         this.ctx = ctx;
         console = new I18nConsole(ctx.i.console, ctx.i.i18n);
         reporter = new ReportHelper(ctx, console);
-        tool = new ToolHelper(console, ctx.container, ctx.bbox);
+        tool = new ToolHelper(console, ctx.container, ctx.bbox,
+                ctx.args.compactJson.value());
     }
 
     @Override
@@ -43,7 +43,8 @@ public class SquashTool implements Tool.Runner<SquashArgs> {
         this.ctx = ctx;
         console = new I18nConsole(ctx.i.console, ctx.i.i18n);
         reporter = new ReportHelper(ctx, console);
-        tool = new ToolHelper(console, ctx.container, ctx.bbox);
+        tool = new ToolHelper(console, ctx.container, ctx.bbox,
+                ctx.args.compactJson.value());
     }
 
     @Override
@@ -16,8 +16,8 @@ import ee.ivxv.common.service.bbox.BboxHelper;
 import ee.ivxv.common.service.bbox.BboxHelper.VoterProvider;
 import ee.ivxv.common.service.bbox.InvalidBboxException;
 import ee.ivxv.common.service.i18n.MessageException;
+import ee.ivxv.common.util.BallotBoxJson;
 import ee.ivxv.common.util.I18nConsole;
-import ee.ivxv.common.util.Json;
 import ee.ivxv.common.util.ToolHelper;
 import ee.ivxv.common.util.Util;
 import ee.ivxv.processor.Msg;
@@ -98,7 +98,7 @@ public class StatsTool implements Tool.Runner<StatsArgs> {
     private BallotBox readJsonBallotBox(Path path) throws Exception {
         console.println();
         console.println(M.m_bb_loading, path);
-        BallotBox bb = Json.read(path, BallotBox.class);
+        BallotBox bb = BallotBoxJson.readBallotBox(path);
         console.println(M.m_bb_loaded);
         console.println(M.m_bb_total_ballots, bb.getNumberOfBallots());
         return bb;
@@ -177,7 +177,9 @@ public class StatsTool implements Tool.Runner<StatsArgs> {
     private BboxHelper.IntegrityChecked<?> checkBallotBox(Path path) {
         try {
             int tc = ctx.args.threads.value();
-            BboxHelper.Loader<?> loader = ctx.bbox.getLoader(path, console::startProgress, tc);
+            int ztc = ctx.args.zipThreads.value();
+            BboxHelper.Loader<?> loader =
+                    ctx.bbox.getLoader(path, console::startProgress, tc, ztc, null, null);
 
             console.println();
             console.println(M.m_bb_loading, path);